@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.nio.MappedByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Allocating a location for a small tuple in each kind of storage: the
+ * Java heap, the C heap (with a cleaner), a Scope, and a mapped buffer
+ * (wrapping only; the buffer is mapped once).  Scores are allocations per
+ * second; run with the gc profiler to see the Java heap allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.nio=ALL-UNNAMED")
+@State(Scope.Thread)
+public class AllocationBench {
+
+    public static class Pair {
+        final long a;
+        final double b;
+        Pair(long a, double b) { this.a = a; this.b = b; }
+        public long a() { return a; }
+        public double b() { return b; }
+        public static Pair valueOf(long a, double b) {
+            return new Pair(a, b);
+        }
+    }
+
+    Layout<Pair> pair;
+    org.openjdk.sumatra.data.prototype.Scope scope;
+    MappedByteBuffer mbb;
+    int inScope;
+
+    @Setup
+    public void setup() {
+        LayoutFactory lf = new LayoutFactory();
+        pair = lf.tuple(Pair.class, "a", "b");
+        mbb = BenchStorage.map(pair.byteOrBitSize());
+        scope = org.openjdk.sumatra.data.prototype.Scope.open();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        scope.reset();
+        inScope = 0;
+    }
+
+    @Benchmark
+    public Location<Pair> heap() {
+        return pair.allocateWithinArray();
+    }
+
+    @Benchmark
+    public Location<Pair> nativeHeap() {
+        return pair.allocate();
+    }
+
+    @Benchmark
+    public Location<Pair> scoped() {
+        // Keep the scope from growing without bound within an iteration.
+        if (++inScope == 4096) {
+            scope.reset();
+            inScope = 0;
+        }
+        return scope.allocate(pair);
+    }
+
+    @Benchmark
+    public Location<Pair> mapped() {
+        return pair.allocateWithinMappedByteBuffer(mbb);
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Element get and put for arrays of each full-width primitive type,
+ * through the primitive array views and, for int and double, through the
+ * boxing ArrayLocation val and put.  Scores are elements per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.nio=ALL-UNNAMED")
+@State(Scope.Thread)
+public class AtomBench {
+
+    final static int N = 1024;
+
+    @Param({ "heap", "native", "mapped", "buffer" })
+    public String storage;
+
+    ArrayLocation<Integer> ints;
+    IntArrayLocation i;
+    LongArrayLocation j;
+    ShortArrayLocation s;
+    ByteArrayLocation b;
+    BooleanArrayLocation z;
+    FloatArrayLocation f;
+    ArrayLocation<Double> doubles;
+    DoubleArrayLocation d;
+
+    @Setup
+    public void setup() {
+        LayoutFactory lf = new LayoutFactory();
+        ints = BenchStorage.array(lf.array(Integer.class, N), storage);
+        i = IntArrayLocation.of(ints);
+        j = LongArrayLocation.of(BenchStorage.array(lf.array(Long.class, N), storage));
+        s = ShortArrayLocation.of(BenchStorage.array(lf.array(Short.class, N), storage));
+        b = ByteArrayLocation.of(BenchStorage.array(lf.array(Byte.class, N), storage));
+        z = BooleanArrayLocation.of(BenchStorage.array(lf.array(Boolean.class, N), storage));
+        f = FloatArrayLocation.of(BenchStorage.array(lf.array(Float.class, N), storage));
+        doubles = BenchStorage.array(lf.array(Double.class, N), storage);
+        d = DoubleArrayLocation.of(doubles);
+        for (int k = 0; k < N; k++) {
+            i.putInt(k, k);
+            j.putLong(k, k);
+            s.putShort(k, (short) k);
+            b.putByte(k, (byte) k);
+            z.putBoolean(k, (k & 1) == 0);
+            f.putFloat(k, k);
+            d.putDouble(k, k);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int getInt() {
+        int sum = 0;
+        for (int k = 0; k < N; k++)
+            sum += i.getInt(k);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void putInt() {
+        for (int k = 0; k < N; k++)
+            i.putInt(k, k);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public long getLong() {
+        long sum = 0;
+        for (int k = 0; k < N; k++)
+            sum += j.getLong(k);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void putLong() {
+        for (int k = 0; k < N; k++)
+            j.putLong(k, k);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int getShort() {
+        int sum = 0;
+        for (int k = 0; k < N; k++)
+            sum += s.getShort(k);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void putShort() {
+        for (int k = 0; k < N; k++)
+            s.putShort(k, (short) k);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int getByte() {
+        int sum = 0;
+        for (int k = 0; k < N; k++)
+            sum += b.getByte(k);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void putByte() {
+        for (int k = 0; k < N; k++)
+            b.putByte(k, (byte) k);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int getBoolean() {
+        int sum = 0;
+        for (int k = 0; k < N; k++)
+            if (z.getBoolean(k))
+                sum++;
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void putBoolean() {
+        for (int k = 0; k < N; k++)
+            z.putBoolean(k, (k & 1) == 0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public float getFloat() {
+        float sum = 0;
+        for (int k = 0; k < N; k++)
+            sum += f.getFloat(k);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void putFloat() {
+        for (int k = 0; k < N; k++)
+            f.putFloat(k, k);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public double getDouble() {
+        double sum = 0;
+        for (int k = 0; k < N; k++)
+            sum += d.getDouble(k);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void putDouble() {
+        for (int k = 0; k < N; k++)
+            d.putDouble(k, k);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int getIntBoxed() {
+        int sum = 0;
+        for (int k = 0; k < N; k++)
+            sum += ints.val(k);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void putIntBoxed() {
+        for (int k = 0; k < N; k++)
+            ints.put(k, k);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public double getDoubleBoxed() {
+        double sum = 0;
+        for (int k = 0; k < N; k++)
+            sum += doubles.val(k);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void putDoubleBoxed() {
+        for (int k = 0; k < N; k++)
+            doubles.put(k, (double) k);
+    }
+}
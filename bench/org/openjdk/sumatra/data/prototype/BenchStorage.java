@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Storage for the benchmarks, chosen by name: "heap" (an array of long),
+ * "native" (the C heap), "mapped" (a temporary file mapped into memory) or
+ * "buffer" (a direct byte buffer, accessed through the buffer rather than
+ * Unsafe).
+ * The benchmarks live in the prototype package so that they can reach
+ * both bitfield byte orders and build array locations on mapped memory.
+ */
+final class BenchStorage {
+
+    private BenchStorage() {
+    }
+
+    // Mapped buffers are unmapped when collected; keep them for the fork.
+    private final static ArrayList<MappedByteBuffer> mapped =
+            new ArrayList<MappedByteBuffer>();
+
+    static <T> ArrayLocation<T> array(ArrayLayout<T> l, String storage) {
+        if ("heap".equals(storage))
+            return l.allocateWithinArray();
+        if ("native".equals(storage))
+            return l.allocate();
+        if ("mapped".equals(storage))
+            return new ArrayLocation<T>(null, l, mappedAddress(l.byteOrBitSize()));
+        if ("buffer".equals(storage))
+            return l.allocateWithinByteBuffer(buffer(l.byteOrBitSize()));
+        throw new Error("Unknown storage " + storage);
+    }
+
+    static <T> Location<T> location(Layout<T> l, String storage) {
+        if ("heap".equals(storage))
+            return l.allocateWithinArray();
+        if ("native".equals(storage))
+            return l.allocate();
+        if ("mapped".equals(storage))
+            return l.allocateWithinMappedByteBuffer(map(l.byteOrBitSize()));
+        if ("buffer".equals(storage))
+            return l.allocateWithinByteBuffer(buffer(l.byteOrBitSize()));
+        throw new Error("Unknown storage " + storage);
+    }
+
+    static MappedByteBuffer map(long size) {
+        try {
+            File f = File.createTempFile("sumatra-bench", ".map");
+            f.deleteOnExit();
+            try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                MappedByteBuffer mbb = raf.getChannel().map(
+                        FileChannel.MapMode.READ_WRITE, 0, Math.max(size, 1));
+                synchronized (mapped) {
+                    mapped.add(mbb);
+                }
+                return mbb;
+            }
+        } catch (IOException e) {
+            throw new Error("Could not map a temporary file", e);
+        }
+    }
+
+    private static ByteBuffer buffer(long size) {
+        return ByteBuffer.allocateDirect((int) Math.max(size, 1));
+    }
+
+    private static long mappedAddress(long size) {
+        MappedByteBuffer mbb = map(size);
+        return (Long) PrivateUtil.getField(java.nio.Buffer.class, mbb, "address");
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Arrays of signed int bitfields, little- and big-endian, of power-of-two
+ * and odd widths: single element get and put, and bulk copies to and from
+ * a Java int[].  Scores are elements per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.nio=ALL-UNNAMED")
+@State(Scope.Thread)
+public class BitArrayBench {
+
+    final static int N = 4096;
+
+    @Param({ "1", "2", "4", "8", "16", "3", "5", "7", "13", "31" })
+    public int width;
+
+    @Param({ "LE", "BE" })
+    public String order;
+
+    @Param({ "heap", "native", "buffer" })
+    public String storage;
+
+    IntArrayLocation a;
+    int[] values = new int[N];
+
+    @Setup
+    public void setup() {
+        LayoutFactory lf = new LayoutFactory();
+        I i = (I) lf.layoutFor(Integer.class);
+        AtomBitLayout<Integer> bits = "LE".equals(order) ?
+                i.bitsWideLE(-width) : i.bitsWideBE(-width);
+        a = IntArrayLocation.of(BenchStorage.array(lf.array(bits, N), storage));
+        int lim = width == 1 ? 1 : 1 << (width - 1);
+        for (int k = 0; k < N; k++)
+            values[k] = k % lim - (width == 1 ? 1 : lim / 2);
+        a.copyFrom(values, 0, 0, N);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int get() {
+        int sum = 0;
+        for (int k = 0; k < N; k++)
+            sum += a.getInt(k);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void put() {
+        for (int k = 0; k < N; k++)
+            a.putInt(k, values[k]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int[] copyTo() {
+        a.copyTo(values, 0, 0, N);
+        return values;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void copyFrom() {
+        a.copyFrom(values, 0, 0, N);
+    }
+}
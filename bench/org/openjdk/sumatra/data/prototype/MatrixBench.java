@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matrices of doubles: a sweep of boxed element reads, initialization
+ * with and without boxing, sequential and parallel, and multiply.
+ * Scores are whole-matrix operations per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.nio=ALL-UNNAMED")
+@State(Scope.Thread)
+public class MatrixBench {
+
+    @Param({ "64", "256" })
+    public int n;
+
+    @Param({ "heap", "native" })
+    public String storage;
+
+    Matrix<Double> a;
+    Matrix<Double> b;
+    Matrix<Double> c;
+
+    final static Matrix.DoubleInitializer INIT = new Matrix.DoubleInitializer() {
+        public double val(long row, long column) {
+            return row - column;
+        }
+    };
+
+    final static Matrix.Initializer<Double> BOXED_INIT = new Matrix.Initializer<Double>() {
+        public Double val(long row, long column) {
+            return (double) (row - column);
+        }
+    };
+
+    @Setup
+    public void setup() {
+        LayoutFactory lf = new LayoutFactory();
+        MatrixFactory mf = new MatrixFactory(lf);
+        Layout<Double> d = lf.layoutFor(Double.class);
+        if ("heap".equals(storage)) {
+            a = mf.matrixInHeap(d, n, n);
+            b = mf.matrixInHeap(d, n, n);
+            c = mf.matrixInHeap(d, n, n);
+        } else {
+            a = mf.matrix(d, n, n);
+            b = mf.matrix(d, n, n);
+            c = mf.matrix(d, n, n);
+        }
+        a.initDouble(INIT);
+        b.initDouble(INIT);
+    }
+
+    @Benchmark
+    public double valSweep() {
+        double sum = 0;
+        for (long i = 0; i < n; i++)
+            for (long j = 0; j < n; j++)
+                sum += a.val(i, j);
+        return sum;
+    }
+
+    @Benchmark
+    public void init() {
+        c.init(BOXED_INIT);
+    }
+
+    @Benchmark
+    public void initDouble() {
+        c.initDouble(INIT);
+    }
+
+    @Benchmark
+    public void parallelInitDouble() {
+        c.parallelInitDouble(INIT);
+    }
+
+    @Benchmark
+    public void multiply() {
+        Matrix.multiply(a, b, c);
+    }
+
+    @Benchmark
+    public void multiplyTransposed() {
+        Matrix.multiply(a, b.transpose(), c);
+    }
+}
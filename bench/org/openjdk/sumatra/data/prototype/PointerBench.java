@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Storing and loading pointers through a PointerDomain: opaque handles,
+ * and translated pointers to objects already stored in the same native
+ * array.  Pointers in heap memory are not supported yet, so storage is
+ * always native.  Scores are tuples (two pointers each) per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.nio=ALL-UNNAMED")
+@State(Scope.Thread)
+public class PointerBench {
+
+    public static class Node {
+        final Node next;
+        final Node other;
+        Node(Node next, Node other) { this.next = next; this.other = other; }
+        public Node next() { return next; }
+        public Node other() { return other; }
+        public static Node valueOf(Node next, Node other) {
+            return new Node(next, other);
+        }
+    }
+
+    final static int N = 1024;
+
+    @Param({ "opaque", "translated" })
+    public String kind;
+
+    ArrayLocation<Node> a;
+    Node[] values = new Node[N];
+
+    @Setup
+    public void setup() {
+        LayoutFactory lf = new LayoutFactory();
+        String p = "opaque".equals(kind) ? "@" : "*";
+        Layout<Node> l = lf.tuple(Node.class, "next" + p, "other" + p);
+        // Targets in the first half, the nodes pointing at them in the
+        // second; translated pointers only resolve within one root.
+        a = BenchStorage.array(lf.array(l, 2 * N), "native");
+        Node[] targets = new Node[N];
+        for (int k = 0; k < N; k++)
+            targets[k] = new Node(null, null);
+        for (int k = 0; k < N; k++)
+            values[k] = new Node(targets[(k + 1) % N], targets[(k * 7) % N]);
+        for (int k = 0; k < N; k++)
+            a.put(k, targets[k]);
+        for (int k = 0; k < N; k++)
+            a.put(N + k, values[k]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void put() {
+        for (int k = 0; k < N; k++)
+            a.put(N + k, values[k]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int val() {
+        int n = 0;
+        for (int k = 0; k < N; k++)
+            if (a.val(N + k).next != null)
+                n++;
+        return n;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Marshalling Java objects into an array of tuples (put) and back out
+ * again (val), against reading single fields through element locations
+ * and through a cursor, and migrating the array to a newer version of the
+ * tuple through a TupleTranscoder against re-marshalling it.  Scores are
+ * tuples per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.nio=ALL-UNNAMED")
+@State(Scope.Thread)
+public class TupleBench {
+
+    public static class Particle {
+        final double x, y, z;
+        final int id;
+        final int flags;
+        Particle(double x, double y, double z, int id, int flags) {
+            this.x = x; this.y = y; this.z = z; this.id = id; this.flags = flags;
+        }
+        public double x() { return x; }
+        public double y() { return y; }
+        public double z() { return z; }
+        public int id() { return id; }
+        public int flags() { return flags; }
+        public static Particle valueOf(double x, double y, double z, int id, int flags) {
+            return new Particle(x, y, z, id, flags);
+        }
+    }
+
+    // Particle with a wider id and flags, and a new field.
+    public static class Particle2 {
+        final double x, y, z;
+        final long id;
+        final int flags;
+        final short kind;
+        Particle2(double x, double y, double z, long id, int flags, short kind) {
+            this.x = x; this.y = y; this.z = z; this.id = id; this.flags = flags;
+            this.kind = kind;
+        }
+        public double x() { return x; }
+        public double y() { return y; }
+        public double z() { return z; }
+        public long id() { return id; }
+        public int flags() { return flags; }
+        public short kind() { return kind; }
+        public static Particle2 valueOf(double x, double y, double z, long id,
+                                        int flags, short kind) {
+            return new Particle2(x, y, z, id, flags, kind);
+        }
+    }
+
+    final static int N = 256;
+
+    @Param({ "heap", "native", "mapped", "buffer" })
+    public String storage;
+
+    ArrayLocation<Particle> a;
+    Particle[] values = new Particle[N];
+    ArrayLocation<Particle2> b;
+    TupleTranscoder<Particle, Particle2> transcoder;
+
+    @Setup
+    public void setup() {
+        LayoutFactory lf = new LayoutFactory();
+        Layout<Particle> p = lf.tuple(Particle.class, "x", "y", "z", "id", "flags:5");
+        a = BenchStorage.array(lf.array(p, N), storage);
+        for (int k = 0; k < N; k++) {
+            values[k] = new Particle(k, k + 0.5, -k, k, k & 31);
+            a.put(k, values[k]);
+        }
+        Layout<Particle2> p2 = lf.tuple(Particle2.class, "x", "y", "z", "id",
+                                        "flags:7", "kind");
+        b = BenchStorage.array(lf.array(p2, N), storage);
+        transcoder = TupleTranscoder.of((TupleLayout<Particle>) p,
+                                        (TupleLayout<Particle2>) p2);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void marshal() {
+        for (int k = 0; k < N; k++)
+            a.put(k, values[k]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int unmarshal() {
+        int sum = 0;
+        for (int k = 0; k < N; k++)
+            sum += a.val(k).id;
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int fieldByLocation() {
+        int sum = 0;
+        for (int k = 0; k < N; k++)
+            sum += a.loc(k).<Integer>loc(3).val();
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int fieldByCursor() {
+        Cursor<Particle> c = a.cursor();
+        int id = c.fieldIndex("id");
+        int sum = 0;
+        while (c.next())
+            sum += c.getInt(id);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void transcode() {
+        transcoder.transcode(a, b);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void remarshal() {
+        for (int k = 0; k < N; k++) {
+            Particle p = a.val(k);
+            b.put(k, Particle2.valueOf(p.x, p.y, p.z, p.id, p.flags, (short) 0));
+        }
+    }
+}
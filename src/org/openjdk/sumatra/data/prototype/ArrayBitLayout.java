@@ -28,7 +28,6 @@ package org.openjdk.sumatra.data.prototype;
 public final class ArrayBitLayout<T> extends ArrayLayout<T> {
 
     protected final AtomBitLayout<T> element;
-    protected final boolean eltSizeIsPowerOfTwo;
 
     // BUG! The bitwise array layout decisions are scattered between this class
     // and the bitwise element layout classes!!!
@@ -40,9 +39,6 @@ public final class ArrayBitLayout<T> extends ArrayLayout<T> {
                 element,
                 count);
         this.element = element;
-        long eltSize = element.byteOrBitSize();
-        this.eltSizeIsPowerOfTwo = eltSize == 1 || eltSize == 2 ||
-                eltSize == 4 || eltSize == 8 || eltSize == 16 || eltSize == 32;
     }
 
     @Override
@@ -51,6 +47,37 @@ public final class ArrayBitLayout<T> extends ArrayLayout<T> {
     }
 
 
+    private void check(long i) {
+        if (i < 0 || i >= count) {
+            throw new ArrayIndexOutOfBoundsException(String.valueOf(i));
+        }
+    }
+
+    /**
+     * Returns the address of the container holding the first bit of
+     * element i of an array at addr.
+     */
+    final long containerAddress(long addr, long i) {
+        long raw = addr + ((i * element.byteOrBitSize()) >>> Layout.LOG_BITS_PER_BYTE);
+        int container_bytes =
+                element.containerBitSizeAndAlignment() >>> Layout.LOG_BITS_PER_BYTE;
+        return raw & ~(long) (container_bytes - 1);
+    }
+
+    /**
+     * Returns the bit offset of element i of an array at addr within the
+     * container at containerAddress(addr, i).
+     */
+    final int containerBitOffset(long addr, long i) {
+        long bits = i * element.byteOrBitSize();
+        long raw = addr + (bits >>> Layout.LOG_BITS_PER_BYTE);
+        int container_bytes =
+                element.containerBitSizeAndAlignment() >>> Layout.LOG_BITS_PER_BYTE;
+        int raw_excess = (int) raw & (container_bytes - 1);
+        return (raw_excess << Layout.LOG_BITS_PER_BYTE) +
+               (int) (bits & (Layout.BITS_PER_BYTE - 1));
+    }
+
     @Override
     <U> Location<U>  loc(Location<T[]> addr, long i) {
 
@@ -58,42 +85,22 @@ public final class ArrayBitLayout<T> extends ArrayLayout<T> {
         // Okay, what to do here?  It can really only be a location of T.
         // This borks Java type rules, but not memory safety.
 
-        if (i < 0 || i >= length()) {
-            throw new ArrayIndexOutOfBoundsException(String.valueOf(i));
-        }
+        check(i);
 
-        if (eltSizeIsPowerOfTwo) {
-            long raw = addr.addr();
-            long bits = i * element.byteOrBitSize();
-            int container = element.containerBitSizeAndAlignment();
-            // put all byte offset into "bits"
-            raw = raw + (bits >>> Layout.LOG_BITS_PER_BYTE);
-            bits = bits & (Layout.BITS_PER_BYTE-1);
-            // normalize to a container boundary
-            int raw_excess = (int) (raw & ((container - 1) >>>
-                                           Layout.LOG_BITS_PER_BYTE));
-            raw = raw - raw_excess;
-            bits = bits + (raw_excess << Layout.LOG_BITS_PER_BYTE);
-
-            return (Location<U>) new Location<T>(addr,
-                    element.atFixedOffset((int) bits),
-                    raw);
-        } else {
-            Layout<T> thunked = new Layout.ThunkedForBitArrayIndexing<T>(
-                    addr, this, i);
-            return  (Location<U>) new Location<T>(null, thunked, 0);
-        }
+        // Elements of any width are pinned at their offset in the
+        // container; those that straddle two containers get a layout that
+        // spans them.  These layouts are cached by the element layout.
+        long raw = addr.addr();
+        return (Location<U>) new Location<T>(addr,
+                element.pinnedAt(containerBitOffset(raw, i)),
+                containerAddress(raw, i));
     }
 
     @Override
     void put(Object base, long l, T[] v) {
         int x = v.length;
-        long s = element.byteOrBitSize();
         if (x > length()) x = (int) length();
-        for (int i = 0; i < x; i++) {
-            element.put(base, l, v[i]);  // Bit-packed, arena can be null.
-            l += s;
-        }
+        element.putArray(base, l, v, x); // Bit-packed, arena can be null.
     }
 
     @Override
@@ -101,7 +108,7 @@ public final class ArrayBitLayout<T> extends ArrayLayout<T> {
         if (count > Integer.MAX_VALUE)
             throw new Error("Cannot convert flattened data to array; too many elements");
         int icount = (int) count;
-        T[] o = (T[]) (java.lang.reflect.Array.newInstance(element.cls(), icount));
+        T[] o = (T[]) (java.lang.reflect.Array.newInstance(cls().getComponentType(), icount));
         element.fillArray(null, base, l, o); // Bit-packed, arena can be null.
         return o;
     }
@@ -109,12 +116,14 @@ public final class ArrayBitLayout<T> extends ArrayLayout<T> {
     // NOT PUBLIC, but visible to ArrayLocation
     @Override
     T val(Location<T[]> loc, long l) {
-       return element.val(loc.base(), loc.addr(), l * element.byteOrBitSize());
-   }
+        check(l);
+        return element.val(loc.base(), loc.addr(), l * element.byteOrBitSize());
+    }
 
    // NOT PUBLIC, but visible to ArrayLocation
     @Override
     void put(Location<T[]> loc, long l, T v) {
+        check(l);
         element.put(loc.base(), loc.addr(), l * element.byteOrBitSize(), v);
     }
 
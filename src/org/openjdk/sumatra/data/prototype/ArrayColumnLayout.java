@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.lang.invoke.MethodHandle;
+
+/**
+ * A fixed-size array of tuples stored as a structure of arrays: each field
+ * of the tuple has its own contiguous column, one after another, and
+ * bitfield columns are packed as bitfield arrays.  Elements are still read
+ * and written as whole tuples, but a scan over a single field can use that
+ * field's column (see ArrayLocation.column) and touch only its bytes.
+ *
+ * An element has no single address, so translated pointers cannot refer to
+ * tuples stored in a column array.
+ */
+public final class ArrayColumnLayout<T> extends ArrayLayout<T> {
+
+    private final TupleLayout<T> tuple;
+    private final ArrayLayout[] columns;
+    private final long[] columnOffsets;
+    // Per field, the bitfield layout if its column is packed, else null.
+    private final AtomBitLayout[] bits;
+
+    // Null if method handles could not be built; then use reflection.
+    private final MethodHandle factory;
+    private final MethodHandle[] getters;
+
+    private final static Object[] NO_ARGS = new Object[0];
+
+    // Package protection, NOT protected-visibility; columns[i] is an array
+    // of count elements of field i's layout, from LayoutFactory.array.
+    ArrayColumnLayout(TupleLayout<T> tuple, long count, ArrayLayout[] columns) {
+        super(sizeOf(columns, null), alignOf(columns), tuple, count);
+        this.tuple = tuple;
+        this.columns = columns;
+        this.columnOffsets = new long[columns.length];
+        sizeOf(columns, columnOffsets);
+        this.bits = new AtomBitLayout[columns.length];
+        MethodHandle f = TupleAccessors.spreadFactory(tuple.factory());
+        MethodHandle[] g = new MethodHandle[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            Layout e = columns[i].elementLayout();
+            if (e instanceof AtomBitLayout)
+                bits[i] = (AtomBitLayout) e;
+            g[i] = TupleAccessors.objectGetter(tuple.getter(i));
+            if (g[i] == null)
+                f = null;
+        }
+        this.factory = f;
+        this.getters = f == null ? null : g;
+    }
+
+    // Columns are laid out in field order, each aligned for its elements.
+    private static long sizeOf(ArrayLayout[] columns, long[] offsets) {
+        long size = 0;
+        for (int i = 0; i < columns.length; i++) {
+            size = roundUp(size, Math.max(1, columns[i].byteAlign()));
+            if (offsets != null)
+                offsets[i] = size;
+            size += columns[i].byteOrBitSize();
+        }
+        return roundUp(size, alignOf(columns));
+    }
+
+    private static int alignOf(ArrayLayout[] columns) {
+        int align = 1;
+        for (ArrayLayout c : columns)
+            align = Math.max(align, c.byteAlign());
+        return align;
+    }
+
+    @Override
+    public Layout<T> elementLayout() {
+        return tuple;
+    }
+
+    /**
+     * Returns the number of columns, one per tuple field.
+     * @return the number of columns
+     */
+    public int columnCount() {
+        return columns.length;
+    }
+
+    /**
+     * Returns the array layout of column i.
+     * @param i
+     * @return the column layout
+     */
+    public ArrayLayout<?> columnLayout(int i) {
+        return columns[i];
+    }
+
+    // NOT PUBLIC, but visible to LayoutFile
+    long columnOffset(int i) {
+        return columnOffsets[i];
+    }
+
+    // NOT PUBLIC, but visible to ArrayLocation
+    <U> ArrayLocation<U> column(Location<T[]> loc, int i) {
+        if (i < 0 || i >= columns.length)
+            throw new ArrayIndexOutOfBoundsException(i);
+        return new ArrayLocation<U>(loc, (ArrayLayout<U>) columns[i],
+                                    loc.addr() + columnOffsets[i]);
+    }
+
+    private void check(long i) {
+        if (i < 0 || i >= count) {
+            throw new ArrayIndexOutOfBoundsException(String.valueOf(i));
+        }
+    }
+
+    @Override
+    <U> Location<U> loc(Location<T[]> addr, long i) {
+        check(i);
+        // Elements are scattered across the columns, so go through the array.
+        Layout<T> thunked = new Layout.ThunkedForBitArrayIndexing<T>(addr, this, i);
+        return (Location<U>) new Location<T>(null, thunked, 0);
+    }
+
+    private T valAt(Location arena, Object base, long l, long i) {
+        int n = columns.length;
+        Object[] components = new Object[n];
+        for (int j = 0; j < n; j++) {
+            long c = l + columnOffsets[j];
+            AtomBitLayout b = bits[j];
+            if (b != null) {
+                components[j] = b.val(base, c, i * b.byteOrBitSize());
+            } else {
+                Layout e = columns[j].elementLayout();
+                components[j] = e.val(arena, base, c + i * e.byteOrBitSize());
+            }
+        }
+        try {
+            if (factory != null)
+                return (T) factory.invokeExact(components);
+            return (T) tuple.factory().invoke(null, components);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            e.printStackTrace();
+            throw new Error("Call to valueOf failed.");
+        }
+    }
+
+    private void putAt(Location arena, Object base, long l, long i, T v) {
+        if (tuple.getPointerReferent() != null)
+            throw new Error("Translated pointers cannot refer to tuples in a column array");
+        int n = columns.length;
+        for (int j = 0; j < n; j++) {
+            Object x;
+            try {
+                if (getters != null)
+                    x = getters[j].invokeExact((Object) v);
+                else
+                    x = tuple.getter(j).invoke(v, NO_ARGS);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                e.printStackTrace();
+                throw new Error("Call to getter failed.");
+            }
+            long c = l + columnOffsets[j];
+            AtomBitLayout b = bits[j];
+            if (b != null) {
+                b.put(base, c, i * b.byteOrBitSize(), x);
+            } else {
+                Layout e = columns[j].elementLayout();
+                e.put(arena, base, c + i * e.byteOrBitSize(), x);
+            }
+        }
+    }
+
+    // NOT PUBLIC, but visible to ArrayLocation
+    @Override
+    T val(Location<T[]> loc, long i) {
+        check(i);
+        return valAt(loc.rootLocation(), loc.base(), loc.addr(), i);
+    }
+
+    // NOT PUBLIC, but visible to ArrayLocation
+    @Override
+    void put(Location<T[]> loc, long i, T v) {
+        check(i);
+        putAt(loc.rootLocation(), loc.base(), loc.addr(), i, v);
+    }
+
+    @Override
+    T[] val(Location arena, Object base, long l) {
+        if (count > Integer.MAX_VALUE)
+            throw new Error("Cannot convert flattened data to array; too many elements");
+        int icount = (int) count;
+        T[] o = (T[]) (java.lang.reflect.Array.newInstance(tuple.cls(), icount));
+        for (int i = 0; i < icount; i++)
+            o[i] = valAt(arena, base, l, i);
+        return o;
+    }
+
+    @Override
+    void put(Location arena, Object base, long l, T[] v) {
+        int x = v.length;
+        if (x > count) x = (int) count;
+        for (int i = 0; i < x; i++)
+            putAt(arena, base, l, i, v[i]);
+    }
+
+    @Override
+    public String toString() {
+        String s = super.toString();
+        s += "{";
+        for (int i = 0; i < columns.length; i++) {
+            s += columns[i].toString();
+            s += "@B" + columnOffsets[i];
+            if (i+1 < columns.length) {
+                s += "; ";
+            }
+        }
+        s += "}";
+        return s;
+    }
+}
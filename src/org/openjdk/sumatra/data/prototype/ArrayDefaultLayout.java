@@ -62,7 +62,7 @@ public final class ArrayDefaultLayout<T> extends ArrayLayout<T> {
         if (count > Integer.MAX_VALUE)
             throw new Error("Cannot convert flattened data to array; too many elements");
         int icount = (int) count;
-        T[] o = (T[]) (java.lang.reflect.Array.newInstance(element.cls(), icount));
+        T[] o = (T[]) (java.lang.reflect.Array.newInstance(cls().getComponentType(), icount));
         element.fillArray(arena, base, l, o);
         return o;
     }
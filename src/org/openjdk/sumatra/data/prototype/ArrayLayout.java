@@ -25,6 +25,8 @@
 
 package org.openjdk.sumatra.data.prototype;
 
+import java.lang.invoke.MethodType;
+
 import sun.misc.Unsafe;
 
 abstract public class ArrayLayout<T> extends CompoundLayout<T[]> {
@@ -59,9 +61,10 @@ abstract public class ArrayLayout<T> extends CompoundLayout<T[]> {
 
     @Override
     public ArrayLocation<T> allocate() {
-        @SuppressWarnings("restriction")
-        long a = AtomLayout.u.allocateMemory(byteOrBitSize());
-        return new ArrayLocation<T>(null, this,  a);
+        long size = byteOrBitSize();
+        long a = NativeMemory.allocate(size);
+        return NativeMemory.freeWhenUnreachable(
+                new ArrayLocation<T>(null, this,  a), a, size);
     }
 
     @Override
@@ -73,7 +76,22 @@ abstract public class ArrayLayout<T> extends CompoundLayout<T[]> {
         return new ArrayLocation<T>(bytes, this, data_offset);
     }
 
+    @Override
+    public ArrayLocation<T> allocateWithinByteBuffer(java.nio.ByteBuffer bb) {
+        checkByteBuffer(bb);
+        return new ArrayLocation<T>(bb, this, 0);
+    }
+
+    @Override
+    public ArrayLocation<T> allocateWithinMappedFile(MappedFile mf) {
+        checkMappedFile(mf);
+        return new ArrayLocation<T>(mf, this, 0);
+    }
+
     static <U> Class<U[]> arrayClassFor(Class<U> c) {
+        // Elements are boxed, even those of tuple fields of primitive type.
+        if (c.isPrimitive())
+            c = (Class<U>) MethodType.methodType(c).wrap().returnType();
         String array_class_name = "[L" + c.getName()+ ";";
         try {
             return (Class<U[]>) (Class.forName(array_class_name));
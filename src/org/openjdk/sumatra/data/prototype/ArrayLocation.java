@@ -25,6 +25,14 @@
 
 package org.openjdk.sumatra.data.prototype;
 
+import java.lang.ref.Reference;
+import java.util.Spliterator;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 public final class ArrayLocation<T> extends Location<T[]> {
 
     ArrayLocation(Location base, ArrayLayout<T> layout, long addr) {
@@ -39,12 +47,15 @@ public final class ArrayLocation<T> extends Location<T[]> {
         // Need to refactor this to get rid of the cast
         ArrayLayout<T> al = (ArrayLayout<T>) layout();
         al.put(this, i, val);
+        Reference.reachabilityFence(this);
     }
 
     public T val (long i) {
         // Need to refactor this to get rid of the cast
         ArrayLayout<T> al = (ArrayLayout<T>) layout();
-        return al.val(this, i);
+        T v = al.val(this, i);
+        Reference.reachabilityFence(this);
+        return v;
     }
 
     public Layout<T> elementLayout() {
@@ -52,6 +63,162 @@ public final class ArrayLocation<T> extends Location<T[]> {
     }
 
 
+    /**
+     * Returns the column of field i of a column array of tuples (see
+     * LayoutFactory.columnArray), as an array location sharing this one's
+     * storage.  Column i has the layout of the tuple's field i, so the
+     * primitive array views can be used on it.
+     *
+     * @param i the field index
+     * @return the column
+     */
+    public <U> ArrayLocation<U> column(int i) {
+        Layout<T[]> l = layout();
+        if (!(l instanceof ArrayColumnLayout))
+            throw new Error("Not a column array: " + l);
+        return ((ArrayColumnLayout<T>) l).column(this, i);
+    }
+
+    /**
+     * Returns the column of the field read by the getter named name; see
+     * column(int).
+     *
+     * @param name the getter name
+     * @return the column
+     */
+    public <U> ArrayLocation<U> column(String name) {
+        Layout<T> e = elementLayout();
+        int i = e instanceof TupleLayout ? ((TupleLayout<T>) e).fieldIndex(name) : -1;
+        if (i < 0)
+            throw new Error("No field " + name + " in " + e);
+        return column(i);
+    }
+
+    /*
+     * Bulk copies to and from Java primitive arrays.  These require that
+     * the element layout match the primitive type; see IntArrayLocation and
+     * its siblings for the details.
+     */
+
+    public void copyFrom(int[] src, int src_off, long dst_idx, int len) {
+        IntArrayLocation.of((ArrayLocation<Integer>) this)
+            .copyFrom(src, src_off, dst_idx, len);
+    }
+
+    public void copyTo(int[] dst, int dst_off, long src_idx, int len) {
+        IntArrayLocation.of((ArrayLocation<Integer>) this)
+            .copyTo(dst, dst_off, src_idx, len);
+    }
+
+    public void copyFrom(long[] src, int src_off, long dst_idx, int len) {
+        LongArrayLocation.of((ArrayLocation<Long>) this)
+            .copyFrom(src, src_off, dst_idx, len);
+    }
+
+    public void copyTo(long[] dst, int dst_off, long src_idx, int len) {
+        LongArrayLocation.of((ArrayLocation<Long>) this)
+            .copyTo(dst, dst_off, src_idx, len);
+    }
+
+    public void copyFrom(short[] src, int src_off, long dst_idx, int len) {
+        ShortArrayLocation.of((ArrayLocation<Short>) this)
+            .copyFrom(src, src_off, dst_idx, len);
+    }
+
+    public void copyTo(short[] dst, int dst_off, long src_idx, int len) {
+        ShortArrayLocation.of((ArrayLocation<Short>) this)
+            .copyTo(dst, dst_off, src_idx, len);
+    }
+
+    public void copyFrom(byte[] src, int src_off, long dst_idx, int len) {
+        ByteArrayLocation.of((ArrayLocation<Byte>) this)
+            .copyFrom(src, src_off, dst_idx, len);
+    }
+
+    public void copyTo(byte[] dst, int dst_off, long src_idx, int len) {
+        ByteArrayLocation.of((ArrayLocation<Byte>) this)
+            .copyTo(dst, dst_off, src_idx, len);
+    }
+
+    public void copyFrom(boolean[] src, int src_off, long dst_idx, int len) {
+        BooleanArrayLocation.of((ArrayLocation<Boolean>) this)
+            .copyFrom(src, src_off, dst_idx, len);
+    }
+
+    public void copyTo(boolean[] dst, int dst_off, long src_idx, int len) {
+        BooleanArrayLocation.of((ArrayLocation<Boolean>) this)
+            .copyTo(dst, dst_off, src_idx, len);
+    }
+
+    public void copyFrom(float[] src, int src_off, long dst_idx, int len) {
+        FloatArrayLocation.of((ArrayLocation<Float>) this)
+            .copyFrom(src, src_off, dst_idx, len);
+    }
+
+    public void copyTo(float[] dst, int dst_off, long src_idx, int len) {
+        FloatArrayLocation.of((ArrayLocation<Float>) this)
+            .copyTo(dst, dst_off, src_idx, len);
+    }
+
+    public void copyFrom(double[] src, int src_off, long dst_idx, int len) {
+        DoubleArrayLocation.of((ArrayLocation<Double>) this)
+            .copyFrom(src, src_off, dst_idx, len);
+    }
+
+    public void copyTo(double[] dst, int dst_off, long src_idx, int len) {
+        DoubleArrayLocation.of((ArrayLocation<Double>) this)
+            .copyTo(dst, dst_off, src_idx, len);
+    }
+
+    /**
+     * Returns a cursor over this array of tuples; see Cursor.
+     * @return a cursor positioned before the first element
+     */
+    public Cursor<T> cursor() {
+        return Cursor.of(this);
+    }
+
+    /*
+     * Streams over the elements, which split by index range and so work
+     * for arrays of any length; call parallel() on them to process ranges
+     * of the array in parallel.  The primitive streams require an atom
+     * element layout (full-width or bitfield); short and byte elements are
+     * widened to int, float elements to double.  See ArraySpliterators.
+     */
+
+    private long length() {
+        return ((ArrayLayout<T>) layout()).length();
+    }
+
+    public Spliterator<T> spliterator() {
+        return new ArraySpliterators.Elements<T>(this, 0, Math.max(length(), 1),
+                                              0, 1, 0, length());
+    }
+
+    public Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    public IntStream intStream() {
+        return StreamSupport.intStream(
+            new ArraySpliterators.IntElements(this, ArraySpliterators.intSource(this),
+                                        0, Math.max(length(), 1), 0, 1,
+                                        0, length()), false);
+    }
+
+    public LongStream longStream() {
+        return StreamSupport.longStream(
+            new ArraySpliterators.LongElements(LongArrayLocation.of((ArrayLocation<Long>) this),
+                                         0, Math.max(length(), 1), 0, 1,
+                                         0, length()), false);
+    }
+
+    public DoubleStream doubleStream() {
+        return StreamSupport.doubleStream(
+            ArraySpliterators.DoubleElements.of(this, 0, Math.max(length(), 1), 0, 1,
+                                          length()), false);
+    }
+
     // Would be nice to figure out a lambda/methodhandle-taking setter/mutator.
 
     // Arrays also allow addressing of subarrays.
@@ -0,0 +1,430 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Spliterators over the elements of array locations and matrices, which
+ * split by index range and so never materialize a Java array of the
+ * elements.  Elements are visited in row-major order of a strided view of
+ * an array location: element k of the walk is at index
+ * base + (k / cols) * r_stride + (k % cols) * c_stride, and a plain array
+ * is a single row.
+ *
+ * The primitive spliterators read elements through the primitive array
+ * views; where a row is contiguous they copy it out a chunk at a time, so
+ * that bitfield elements are unpacked a word at a time (see BitArrays).
+ * Short and byte elements are widened to int, and float elements to
+ * double, as for the streams of java.util.Arrays.
+ */
+final class ArraySpliterators {
+
+    private ArraySpliterators() {
+    }
+
+    /**
+     * The remaining part [lo, hi) of a row-major walk.
+     */
+    abstract static class Range {
+        final long base;
+        final long cols;
+        final long rStride;
+        final long cStride;
+        long lo;
+        final long hi;
+
+        Range(long base, long cols, long r_stride, long c_stride,
+              long lo, long hi) {
+            this.base = base;
+            this.cols = cols;
+            this.rStride = r_stride;
+            this.cStride = c_stride;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        final long indexOf(long k) {
+            return base + (k / cols) * rStride + (k % cols) * cStride;
+        }
+
+        /**
+         * Returns how many elements from k on can be visited together: the
+         * rest of k's row, up to hi and at most BitArrays.CHUNK.
+         */
+        final int runFrom(long k) {
+            return (int) Math.min(Math.min(cols - k % cols, hi - k), BitArrays.CHUNK);
+        }
+
+        /**
+         * Returns the start of the lower half of this range and gives it
+         * up, or -1 if it is too small to split.
+         */
+        final long splitLow() {
+            long mid = (lo + hi) >>> 1;
+            if (mid <= lo)
+                return -1;
+            long low = lo;
+            lo = mid;
+            return low;
+        }
+
+        public final long estimateSize() {
+            return hi - lo;
+        }
+    }
+
+    static final class Elements<T> extends Range implements Spliterator<T> {
+        private final ArrayLocation<T> a;
+
+        Elements(ArrayLocation<T> a, long base, long cols, long r_stride,
+              long c_stride, long lo, long hi) {
+            super(base, cols, r_stride, c_stride, lo, hi);
+            this.a = a;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (lo >= hi)
+                return false;
+            action.accept(a.val(indexOf(lo++)));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            long k = lo;
+            lo = hi;
+            for (; k < hi; k++)
+                action.accept(a.val(indexOf(k)));
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            long low = splitLow();
+            return low < 0 ? null :
+                new Elements<T>(a, base, cols, rStride, cStride, low, lo);
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED;
+        }
+    }
+
+    /**
+     * Reads elements of an array location as ints.
+     */
+    abstract static class IntSource {
+        abstract int get(long i);
+        // Copies n elements starting at index i into dst.
+        abstract void copy(long i, int[] dst, int n);
+    }
+
+    static IntSource intSource(ArrayLocation<?> a) {
+        Layout<?> e = a.elementLayout();
+        if (e instanceof I || e instanceof I.Bit) {
+            final IntArrayLocation x = IntArrayLocation.of((ArrayLocation<Integer>) a);
+            return new IntSource() {
+                int get(long i) {
+                    return x.getInt(i);
+                }
+                void copy(long i, int[] dst, int n) {
+                    x.copyTo(dst, 0, i, n);
+                }
+            };
+        }
+        if (e instanceof S || e instanceof S.Bit) {
+            final ShortArrayLocation x = ShortArrayLocation.of((ArrayLocation<Short>) a);
+            return new IntSource() {
+                private final short[] buf = new short[BitArrays.CHUNK];
+                int get(long i) {
+                    return x.getShort(i);
+                }
+                void copy(long i, int[] dst, int n) {
+                    x.copyTo(buf, 0, i, n);
+                    for (int t = 0; t < n; t++)
+                        dst[t] = buf[t];
+                }
+            };
+        }
+        if (e instanceof B || e instanceof B.Bit) {
+            final ByteArrayLocation x = ByteArrayLocation.of((ArrayLocation<Byte>) a);
+            return new IntSource() {
+                private final byte[] buf = new byte[BitArrays.CHUNK];
+                int get(long i) {
+                    return x.getByte(i);
+                }
+                void copy(long i, int[] dst, int n) {
+                    x.copyTo(buf, 0, i, n);
+                    for (int t = 0; t < n; t++)
+                        dst[t] = buf[t];
+                }
+            };
+        }
+        throw new Error("Element layout is not an int, short or byte layout: " + e);
+    }
+
+    static final class IntElements extends Range implements Spliterator.OfInt {
+        private final ArrayLocation<?> a;
+        private IntSource src; // Per spliterator, since it may buffer.
+
+        IntElements(ArrayLocation<?> a, IntSource src, long base, long cols,
+              long r_stride, long c_stride, long lo, long hi) {
+            super(base, cols, r_stride, c_stride, lo, hi);
+            this.a = a;
+            this.src = src;
+        }
+
+        private IntSource src() {
+            IntSource s = src;
+            if (s == null) {
+                s = intSource(a);
+                src = s;
+            }
+            return s;
+        }
+
+        @Override
+        public boolean tryAdvance(IntConsumer action) {
+            if (lo >= hi)
+                return false;
+            action.accept(src().get(indexOf(lo++)));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(IntConsumer action) {
+            IntSource s = src();
+            int[] buf = cStride == 1 ? new int[BitArrays.CHUNK] : null;
+            long k = lo;
+            lo = hi;
+            while (k < hi) {
+                int n = runFrom(k);
+                long i = indexOf(k);
+                if (buf != null) {
+                    s.copy(i, buf, n);
+                    for (int t = 0; t < n; t++)
+                        action.accept(buf[t]);
+                } else {
+                    for (int t = 0; t < n; t++)
+                        action.accept(s.get(i + t * cStride));
+                }
+                k += n;
+            }
+        }
+
+        @Override
+        public Spliterator.OfInt trySplit() {
+            long low = splitLow();
+            return low < 0 ? null :
+                new IntElements(a, null, base, cols, rStride, cStride, low, lo);
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL;
+        }
+    }
+
+    static final class LongElements extends Range implements Spliterator.OfLong {
+        private final LongArrayLocation a;
+
+        LongElements(LongArrayLocation a, long base, long cols, long r_stride,
+               long c_stride, long lo, long hi) {
+            super(base, cols, r_stride, c_stride, lo, hi);
+            this.a = a;
+        }
+
+        @Override
+        public boolean tryAdvance(LongConsumer action) {
+            if (lo >= hi)
+                return false;
+            action.accept(a.getLong(indexOf(lo++)));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(LongConsumer action) {
+            long[] buf = cStride == 1 ? new long[BitArrays.CHUNK] : null;
+            long k = lo;
+            lo = hi;
+            while (k < hi) {
+                int n = runFrom(k);
+                long i = indexOf(k);
+                if (buf != null) {
+                    a.copyTo(buf, 0, i, n);
+                    for (int t = 0; t < n; t++)
+                        action.accept(buf[t]);
+                } else {
+                    for (int t = 0; t < n; t++)
+                        action.accept(a.getLong(i + t * cStride));
+                }
+                k += n;
+            }
+        }
+
+        @Override
+        public Spliterator.OfLong trySplit() {
+            long low = splitLow();
+            return low < 0 ? null :
+                new LongElements(a, base, cols, rStride, cStride, low, lo);
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL;
+        }
+    }
+
+    static final class DoubleElements extends Range implements Spliterator.OfDouble {
+        // Exactly one of these is non-null.
+        private final DoubleArrayLocation doubles;
+        private final FloatArrayLocation floats;
+
+        DoubleElements(DoubleArrayLocation doubles, FloatArrayLocation floats,
+                 long base, long cols, long r_stride, long c_stride,
+                 long lo, long hi) {
+            super(base, cols, r_stride, c_stride, lo, hi);
+            this.doubles = doubles;
+            this.floats = floats;
+        }
+
+        static DoubleElements of(ArrayLocation<?> a, long base, long cols,
+                           long r_stride, long c_stride, long hi) {
+            Layout<?> e = a.elementLayout();
+            if (e instanceof D)
+                return new DoubleElements(DoubleArrayLocation.of((ArrayLocation<Double>) a),
+                                    null, base, cols, r_stride, c_stride, 0, hi);
+            if (e instanceof F)
+                return new DoubleElements(null, FloatArrayLocation.of((ArrayLocation<Float>) a),
+                                    base, cols, r_stride, c_stride, 0, hi);
+            throw new Error("Element layout is not a double or float layout: " + e);
+        }
+
+        private double get(long i) {
+            return doubles != null ? doubles.getDouble(i) : floats.getFloat(i);
+        }
+
+        @Override
+        public boolean tryAdvance(DoubleConsumer action) {
+            if (lo >= hi)
+                return false;
+            action.accept(get(indexOf(lo++)));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(DoubleConsumer action) {
+            double[] buf = null;
+            float[] fbuf = null;
+            if (cStride == 1) {
+                if (doubles != null)
+                    buf = new double[BitArrays.CHUNK];
+                else
+                    fbuf = new float[BitArrays.CHUNK];
+            }
+            long k = lo;
+            lo = hi;
+            while (k < hi) {
+                int n = runFrom(k);
+                long i = indexOf(k);
+                if (buf != null) {
+                    doubles.copyTo(buf, 0, i, n);
+                    for (int t = 0; t < n; t++)
+                        action.accept(buf[t]);
+                } else if (fbuf != null) {
+                    floats.copyTo(fbuf, 0, i, n);
+                    for (int t = 0; t < n; t++)
+                        action.accept(fbuf[t]);
+                } else {
+                    for (int t = 0; t < n; t++)
+                        action.accept(get(i + t * cStride));
+                }
+                k += n;
+            }
+        }
+
+        @Override
+        public Spliterator.OfDouble trySplit() {
+            long low = splitLow();
+            return low < 0 ? null :
+                new DoubleElements(doubles, floats, base, cols, rStride, cStride, low, lo);
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL;
+        }
+    }
+
+    /**
+     * The rows [lo, hi) of a matrix, as row views.
+     */
+    static final class Rows<T> implements Spliterator<Matrix<T>> {
+        private final Matrix<T> m;
+        private long lo;
+        private final long hi;
+
+        Rows(Matrix<T> m, long lo, long hi) {
+            this.m = m;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Matrix<T>> action) {
+            if (lo >= hi)
+                return false;
+            action.accept(m.row(lo++));
+            return true;
+        }
+
+        @Override
+        public Spliterator<Matrix<T>> trySplit() {
+            long mid = (lo + hi) >>> 1;
+            if (mid <= lo)
+                return null;
+            Rows<T> low = new Rows<T>(m, lo, mid);
+            lo = mid;
+            return low;
+        }
+
+        @Override
+        public long estimateSize() {
+            return hi - lo;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL;
+        }
+    }
+}
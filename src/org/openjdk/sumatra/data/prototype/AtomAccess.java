@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+/**
+ * Typed loads and stores through atom layouts that are only known as
+ * Layouts, for accessors that locate a field once and then read it many
+ * times (Cursor, FieldHandle).  Each takes the layout of the field, which
+ * must be the full-width atom of that type or, where there is one, a
+ * fixed-offset bitfield of it; the bit-indexed forms take a bitfield
+ * layout and the bit offset of the field from address a.  Callers that
+ * hold the layout in a final field let the JIT fold the type tests.
+ */
+final class AtomAccess {
+
+    private AtomAccess() {
+    }
+
+    private static Error notA(String type, Layout e) {
+        return new Error("Layout is not " + type + " layout: " + e);
+    }
+
+    static int getInt(Layout e, Object base, long a) {
+        if (e instanceof I)
+            return ((I) e).prim(base, a);
+        if (e instanceof I.BitAt)
+            return ((I.BitAt) e).prim(base, a);
+        throw notA("an int", e);
+    }
+
+    static void putInt(Layout e, Object base, long a, int v) {
+        if (e instanceof I)
+            ((I) e).putPrim(base, a, v);
+        else if (e instanceof I.BitAt)
+            ((I.BitAt) e).putPrim(base, a, v);
+        else
+            throw notA("an int", e);
+    }
+
+    static int getInt(Layout e, Object base, long a, long b) {
+        if (e instanceof I.Bit)
+            return ((I.Bit) e).prim(base, a, b);
+        throw notA("an int", e);
+    }
+
+    static void putInt(Layout e, Object base, long a, long b, int v) {
+        if (e instanceof I.Bit)
+            ((I.Bit) e).putPrim(base, a, b, v);
+        else
+            throw notA("an int", e);
+    }
+
+    static long getLong(Layout e, Object base, long a) {
+        if (e instanceof J)
+            return ((J) e).prim(base, a);
+        if (e instanceof J.BitAt)
+            return ((J.BitAt) e).prim(base, a);
+        throw notA("a long", e);
+    }
+
+    static void putLong(Layout e, Object base, long a, long v) {
+        if (e instanceof J)
+            ((J) e).putPrim(base, a, v);
+        else if (e instanceof J.BitAt)
+            ((J.BitAt) e).putPrim(base, a, v);
+        else
+            throw notA("a long", e);
+    }
+
+    static long getLong(Layout e, Object base, long a, long b) {
+        if (e instanceof J.Bit)
+            return ((J.Bit) e).prim(base, a, b);
+        throw notA("a long", e);
+    }
+
+    static void putLong(Layout e, Object base, long a, long b, long v) {
+        if (e instanceof J.Bit)
+            ((J.Bit) e).putPrim(base, a, b, v);
+        else
+            throw notA("a long", e);
+    }
+
+    static short getShort(Layout e, Object base, long a) {
+        if (e instanceof S)
+            return ((S) e).prim(base, a);
+        if (e instanceof S.BitAt)
+            return ((S.BitAt) e).prim(base, a);
+        throw notA("a short", e);
+    }
+
+    static void putShort(Layout e, Object base, long a, short v) {
+        if (e instanceof S)
+            ((S) e).putPrim(base, a, v);
+        else if (e instanceof S.BitAt)
+            ((S.BitAt) e).putPrim(base, a, v);
+        else
+            throw notA("a short", e);
+    }
+
+    static short getShort(Layout e, Object base, long a, long b) {
+        if (e instanceof S.Bit)
+            return ((S.Bit) e).prim(base, a, b);
+        throw notA("a short", e);
+    }
+
+    static void putShort(Layout e, Object base, long a, long b, short v) {
+        if (e instanceof S.Bit)
+            ((S.Bit) e).putPrim(base, a, b, v);
+        else
+            throw notA("a short", e);
+    }
+
+    static byte getByte(Layout e, Object base, long a) {
+        if (e instanceof B)
+            return ((B) e).prim(base, a);
+        if (e instanceof B.BitAt)
+            return ((B.BitAt) e).prim(base, a);
+        throw notA("a byte", e);
+    }
+
+    static void putByte(Layout e, Object base, long a, byte v) {
+        if (e instanceof B)
+            ((B) e).putPrim(base, a, v);
+        else if (e instanceof B.BitAt)
+            ((B.BitAt) e).putPrim(base, a, v);
+        else
+            throw notA("a byte", e);
+    }
+
+    static byte getByte(Layout e, Object base, long a, long b) {
+        if (e instanceof B.Bit)
+            return ((B.Bit) e).prim(base, a, b);
+        throw notA("a byte", e);
+    }
+
+    static void putByte(Layout e, Object base, long a, long b, byte v) {
+        if (e instanceof B.Bit)
+            ((B.Bit) e).putPrim(base, a, b, v);
+        else
+            throw notA("a byte", e);
+    }
+
+    static boolean getBoolean(Layout e, Object base, long a) {
+        if (e instanceof Z)
+            return ((Z) e).prim(base, a);
+        if (e instanceof Z.BitAt)
+            return ((Z.BitAt) e).prim(base, a);
+        throw notA("a boolean", e);
+    }
+
+    static void putBoolean(Layout e, Object base, long a, boolean v) {
+        if (e instanceof Z)
+            ((Z) e).putPrim(base, a, v);
+        else if (e instanceof Z.BitAt)
+            ((Z.BitAt) e).putPrim(base, a, v);
+        else
+            throw notA("a boolean", e);
+    }
+
+    static boolean getBoolean(Layout e, Object base, long a, long b) {
+        if (e instanceof Z.Bit)
+            return ((Z.Bit) e).prim(base, a, b);
+        throw notA("a boolean", e);
+    }
+
+    static void putBoolean(Layout e, Object base, long a, long b, boolean v) {
+        if (e instanceof Z.Bit)
+            ((Z.Bit) e).putPrim(base, a, b, v);
+        else
+            throw notA("a boolean", e);
+    }
+
+    static float getFloat(Layout e, Object base, long a) {
+        if (e instanceof F)
+            return ((F) e).prim(base, a);
+        throw notA("a float", e);
+    }
+
+    static void putFloat(Layout e, Object base, long a, float v) {
+        if (e instanceof F)
+            ((F) e).putPrim(base, a, v);
+        else
+            throw notA("a float", e);
+    }
+
+    static double getDouble(Layout e, Object base, long a) {
+        if (e instanceof D)
+            return ((D) e).prim(base, a);
+        throw notA("a double", e);
+    }
+
+    static void putDouble(Layout e, Object base, long a, double v) {
+        if (e instanceof D)
+            ((D) e).putPrim(base, a, v);
+        else
+            throw notA("a double", e);
+    }
+}
@@ -27,8 +27,16 @@ package org.openjdk.sumatra.data.prototype;
 
 public abstract class AtomBitLayout<T> extends Layout<T> {
 
-    AtomBitLayout(int size, int align, Class<T> cl) {
+    /**
+     * True if stores into fields of this layout are made with
+     * compare-and-swap, so that threads may concurrently update different
+     * fields that share a container (see ConcurrentBits).
+     */
+    final boolean concurrent;
+
+    AtomBitLayout(int size, int align, Class<T> cl, boolean concurrent) {
         super(size, align, cl);
+        this.concurrent = concurrent;
     }
 
     abstract Layout<T> atFixedOffset(int bits);
@@ -39,6 +47,20 @@ public abstract class AtomBitLayout<T> extends Layout<T> {
      */
     abstract int containerBitSizeAndAlignment();
 
+    /**
+     * Returns true if bit zero of a container is its high-order bit,
+     * false if it is the bit with value 1.
+     * @return
+     */
+    abstract boolean bigEndianBits();
+
+    /**
+     * Returns true if values are sign-extended from their high-order bit
+     * when loaded.
+     * @return
+     */
+    abstract boolean signedBits();
+
     // This has a layout policy embedded in it!
     public final long actualBytesRequiredFor(long count) {
         int container = containerBitSizeAndAlignment();
@@ -53,5 +75,96 @@ public abstract class AtomBitLayout<T> extends Layout<T> {
     // NOT PUBLIC, but visible to Location
     abstract void put(Object base, long l, long b, T v);
 
+    /**
+     * Stores the first count elements of a into a bit-packed array of this
+     * layout at (base, addr), a word at a time where possible (see
+     * BitArrays).
+     */
+    // NOT PUBLIC, but visible to ArrayBitLayout
+    abstract void putArray(Object base, long addr, T[] a, int count);
+
+    // Lazily allocated, indexed by bit offset; see pinnedAt.
+    private Layout[] spanningAccessors;
+
+    /**
+     * Returns a layout for a field of this layout at bit offset b of the
+     * container at the field's address, where 0 <= b < container size.
+     * Unlike atFixedOffset, the field may run on into the next container.
+     * Layouts are cached, so this does not allocate once warmed up.
+     */
+    final Layout<T> pinnedAt(int b) {
+        int container = containerBitSizeAndAlignment();
+        if (b + byteOrBitSize() <= container)
+            return atFixedOffset(b);
+        if (b < 0 || b >= container)
+            throw new Error("Improper bit offset " + b);
+        Layout[] sa = spanningAccessors;
+        if (sa == null) {
+            sa = new Layout[container];
+            spanningAccessors = sa;
+        }
+        Layout<T> rv = sa[b];
+        if (rv == null) {
+            rv = new SpanningAt<T>(this, b);
+            sa[b] = rv;
+        }
+        return rv;
+    }
+
+    /**
+     * Returns the bit offset within its container of a bitfield pinned to
+     * an offset (see TupleLayout.placedLayout).
+     */
+    // NOT PUBLIC, but visible to LayoutFile
+    static int bitOffsetOf(Layout<?> placed) {
+        if (placed instanceof B.BitAt)
+            return ((B.BitAt) placed).bitOffset();
+        if (placed instanceof S.BitAt)
+            return ((S.BitAt) placed).bitOffset();
+        if (placed instanceof I.BitAt)
+            return ((I.BitAt) placed).bitOffset();
+        if (placed instanceof J.BitAt)
+            return ((J.BitAt) placed).bitOffset();
+        if (placed instanceof Z.BitAt)
+            return ((Z.BitAt) placed).bitOffset();
+        if (placed instanceof SpanningAt)
+            return ((SpanningAt<?>) placed).bitOffset();
+        throw new Error("Layout is not a placed bitfield: " + placed);
+    }
+
+    /**
+     * A field at a fixed bit offset that straddles two containers.
+     */
+    static final class SpanningAt<T> extends Layout<T> {
+        private final AtomBitLayout<T> field;
+        private final int bitOffset;
+
+        SpanningAt(AtomBitLayout<T> field, int bit_offset) {
+            super(field.byteOrBitSize(), 0, field.cls());
+            this.field = field;
+            this.bitOffset = bit_offset;
+        }
+
+        @Override
+        public String toString() {
+            return super.toString() + ",@b" + bitOffset;
+        }
+
+        // NOT PUBLIC, but visible to AtomBitLayout
+        int bitOffset() {
+            return bitOffset;
+        }
+
+        @Override
+        T val(Object base, long l) {
+            return field.val(base, l, bitOffset);
+        }
+
+        @Override
+        void put(Object base, long l, T v) {
+            field.put(base, l, bitOffset, v);
+        }
+    }
+
 
 }
@@ -27,6 +27,8 @@ package org.openjdk.sumatra.data.prototype;
 
 import org.openjdk.sumatra.data.prototype.AtomBitLayout;
 
+import sun.misc.Unsafe;
+
 /**
  * A layout for an 8-bit integer, in an 8-bit container.
  */
@@ -62,16 +64,20 @@ public final class B extends AtomLayout<Byte> {
     }
     @SuppressWarnings("restriction")
     private static byte getBox(Object base, long offset) {
-        return u.getByte(base, offset);
+        return Memory.getByte(base, offset);
     }
 
     @SuppressWarnings("restriction")
     private static void putBox(Object base, long offset, byte val) {
-        u.putByte(base, offset, val);
+        Memory.putByte(base, offset, val);
     }
 
-    B(Class cl, int s, int a) {
+    // Whether bitfield layouts derived from this one update concurrently.
+    private final boolean concurrentBits;
+
+    B(Class cl, int s, int a, boolean concurrent_bits) {
         super(s, a, cl);
+        concurrentBits = concurrent_bits;
     }
 
     // NOT PUBLIC, but visible to Location
@@ -87,7 +93,7 @@ public final class B extends AtomLayout<Byte> {
     // NOT PUBLIC, but visible to Location
     @Override
     Byte val(Object base, long l) {
-        return new Byte(prim(base, l));
+        return Byte.valueOf(prim(base, l));
     }
 
     // NOT PUBLIC, but visible to Location
@@ -97,13 +103,11 @@ public final class B extends AtomLayout<Byte> {
     }
 
     // NOT PUBLIC, but visible to Location
+    @SuppressWarnings("restriction")
     Object makeArray(Object base, long addr, int count) {
         byte[] a = new byte[count];
-        long inc = byteOrBitSize();
-        for (int i = 0; i < count; i++) {
-            a[i] = prim(base, addr);
-            addr += inc;
-        }
+        Memory.copyMemory(base, addr, a, Unsafe.ARRAY_BYTE_BASE_OFFSET,
+                     count * byteOrBitSize());
         return a;
     }
 
@@ -134,7 +138,7 @@ public final class B extends AtomLayout<Byte> {
                 throw new Error("Bit offset too large: (negative of) " + -b);
             BitLE rv = leSAccessors[b];
             if (rv == null) {
-                rv = new BitLESigned(b);
+                rv = new BitLESigned(b, concurrentBits);
                 leSAccessors[b] = rv;
             }
             return rv;
@@ -143,7 +147,7 @@ public final class B extends AtomLayout<Byte> {
                 throw new Error("Bit offset too large: " + b);
             BitLE rv = leUAccessors[b];
             if (rv == null) {
-                rv = new BitLEUnsigned(b);
+                rv = new BitLEUnsigned(b, concurrentBits);
                 leUAccessors[b] = rv;
             }
             return rv;
@@ -158,7 +162,7 @@ public final class B extends AtomLayout<Byte> {
                 throw new Error("Bit offset too large: (negative of) " + -b);
             BitBE rv = beSAccessors[b];
             if (rv == null) {
-                rv = new BitBESigned(b);
+                rv = new BitBESigned(b, concurrentBits);
                 beSAccessors[b] = rv;
             }
             return rv;
@@ -167,7 +171,7 @@ public final class B extends AtomLayout<Byte> {
                 throw new Error("Bit offset too large: " + b);
             BitBE rv = beUAccessors[b];
             if (rv == null) {
-                rv = new BitBEUnsigned(b);
+                rv = new BitBEUnsigned(b, concurrentBits);
                 beUAccessors[b] = rv;
             }
             return rv;
@@ -192,8 +196,8 @@ public final class B extends AtomLayout<Byte> {
 
         protected final int storeMask;
 
-        Bit(int s, int mask) {
-            super(s, 0, Byte.class);
+        Bit(int s, int mask, boolean concurrent) {
+            super(s, 0, Byte.class, concurrent);
             storeMask = mask;
         }
 
@@ -215,7 +219,7 @@ public final class B extends AtomLayout<Byte> {
         // NOT PUBLIC, but visible to Location
         @Override
         Byte val(Object base, long l) {
-            return new Byte(prim(base, l));
+            return Byte.valueOf(prim(base, l));
         }
 
         // NOT PUBLIC, but visible to Location
@@ -227,7 +231,7 @@ public final class B extends AtomLayout<Byte> {
         // NOT PUBLIC, but visible to Location
         @Override
         Byte val(Object base, long l, long b) {
-            return new Byte(prim(base, l, b));
+            return Byte.valueOf(prim(base, l, b));
         }
 
         // NOT PUBLIC, but visible to Location
@@ -239,23 +243,34 @@ public final class B extends AtomLayout<Byte> {
         // NOT PUBLIC, but visible to Location
         Object makeArray(Object base, long addr, int count) {
             byte[] a = new byte[count];
-            long offset = 0;
-            long bump = byteOrBitSize();
-            for (int i = 0; i < count; i++) {
-                a[i] = prim(base, addr, offset);
-                offset += bump;
-            }
+            BitArrays.unpack(this, base, addr, 0, a, Unsafe.ARRAY_BYTE_BASE_OFFSET,
+                             Unsafe.ARRAY_BYTE_INDEX_SCALE, count);
             return a;
         }
 
         @Override
         void fillArray(Location arena, Object base, long addr, Byte[] a) {
             int count = a.length;
-            long offset = 0;
-            long bump = byteOrBitSize();
-            for (int i = 0; i < count; i++) {
-                a[i] = Byte.valueOf(prim(base, addr, offset));
-                offset += bump;
+            byte[] buf = new byte[Math.min(count, BitArrays.CHUNK)];
+            for (int i = 0; i < count; i += buf.length) {
+                int n = Math.min(buf.length, count - i);
+                BitArrays.unpack(this, base, addr, i, buf, Unsafe.ARRAY_BYTE_BASE_OFFSET,
+                                 Unsafe.ARRAY_BYTE_INDEX_SCALE, n);
+                for (int j = 0; j < n; j++)
+                    a[i + j] = Byte.valueOf(buf[j]);
+            }
+        }
+
+        // NOT PUBLIC, but visible to ArrayBitLayout
+        @Override
+        void putArray(Object base, long addr, Byte[] a, int count) {
+            byte[] buf = new byte[Math.min(count, BitArrays.CHUNK)];
+            for (int i = 0; i < count; i += buf.length) {
+                int n = Math.min(buf.length, count - i);
+                for (int j = 0; j < n; j++)
+                    buf[j] = a[i + j].byteValue();
+                BitArrays.pack(this, buf, Unsafe.ARRAY_BYTE_BASE_OFFSET,
+                               Unsafe.ARRAY_BYTE_INDEX_SCALE, base, addr, i, n);
             }
         }
 
@@ -278,8 +293,13 @@ public final class B extends AtomLayout<Byte> {
 
     /** Little-endian bitfields, either signed or unsigned */
     abstract static class BitLE extends  Bit {
-        BitLE(int s) {
-            super(s, (1 << s) - 1);
+        BitLE(int s, boolean concurrent) {
+            super(s, (1 << s) - 1, concurrent);
+        }
+
+        @Override
+        final boolean bigEndianBits() {
+            return false;
         }
 
         // NOT PUBLIC, but visible to Location
@@ -289,6 +309,11 @@ public final class B extends AtomLayout<Byte> {
         // NOT PUBLIC, but visible to Location
         @Override
         final void putPrim(Object base, long l, long b, byte v) {
+            if (concurrent) {
+                ConcurrentBits.update(this, base, l, b, ConcurrentBits.SET,
+                                      v, 0);
+                return;
+            }
             l += bitOffsetToByteAddressOfBoxBoundary(b);
             int ib = (int) b & (BITS_PER_BOX-1);
             int container = getBox(base, l) & ~(storeMask << ib);
@@ -311,8 +336,13 @@ public final class B extends AtomLayout<Byte> {
     /** Little-endian unsigned bitfields. */
     public final static class BitLEUnsigned extends BitLE {
         // Cannot be protected or public.
-        BitLEUnsigned(int s) {
-            super(s);
+        BitLEUnsigned(int s, boolean concurrent) {
+            super(s, concurrent);
+        }
+
+        @Override
+        final boolean signedBits() {
+            return false;
         }
 
         @Override
@@ -363,8 +393,13 @@ public final class B extends AtomLayout<Byte> {
     /** Little-endian signed bitfields. */
     public final static class BitLESigned extends BitLE {
         // Cannot be protected or public.
-        BitLESigned(int s) {
-            super(s);
+        BitLESigned(int s, boolean concurrent) {
+            super(s, concurrent);
+        }
+
+        @Override
+        final boolean signedBits() {
+            return true;
         }
 
         @Override
@@ -416,14 +451,24 @@ public final class B extends AtomLayout<Byte> {
     static abstract class BitBE extends Bit {
 
         // Cannot be protected or public.
-        BitBE(int s) {
-            super(s, (1 << s) - 1);
+        BitBE(int s, boolean concurrent) {
+            super(s, (1 << s) - 1, concurrent);
+        }
+
+        @Override
+        final boolean bigEndianBits() {
+            return true;
         }
 
 
         // NOT PUBLIC, but visible to Location
         @Override
         final void putPrim(Object base, long l, long b, byte v) {
+            if (concurrent) {
+                ConcurrentBits.update(this, base, l, b, ConcurrentBits.SET,
+                                      v, 0);
+                return;
+            }
             l += (b >>> LOG_BITS_PER_BOX) << (LOG_BITS_PER_BOX - LOG_BITS_PER_BYTE);
             int ib0 = (int) b & (BITS_PER_BOX-1);
             int ib = BITS_PER_BOX - ib0 - (int) byteOrBitSize();
@@ -451,8 +496,13 @@ public final class B extends AtomLayout<Byte> {
 
     public final static class BitBEUnsigned extends BitBE {
         // Cannot be protected or public.
-        BitBEUnsigned(int s) {
-            super(s);
+        BitBEUnsigned(int s, boolean concurrent) {
+            super(s, concurrent);
+        }
+
+        @Override
+        final boolean signedBits() {
+            return false;
         }
 
         // NOT PUBLIC, but visible to Location
@@ -495,8 +545,13 @@ public final class B extends AtomLayout<Byte> {
 
     public final static class BitBESigned extends BitBE {
         // Cannot be protected or public.
-        BitBESigned(int s) {
-            super(s);
+        BitBESigned(int s, boolean concurrent) {
+            super(s, concurrent);
+        }
+
+        @Override
+        final boolean signedBits() {
+            return true;
         }
 
         // NOT PUBLIC, but visible to Location
@@ -548,9 +603,11 @@ public final class B extends AtomLayout<Byte> {
     abstract public static class BitAt extends Layout<Byte> {
         protected final int bitOffset;
         protected final int bitsAbove;
+        private final boolean concurrent;
         protected final int storeMask;
         BitAt(Bit layout, int bit_offset) {
             super((int) layout.byteOrBitSize(), 0, layout.cls());
+            concurrent = layout.concurrent;
             storeMask =  ((1 << layout.byteOrBitSize()) - 1) << bit_offset;
             bitOffset = bit_offset;
             // Bits per int, not Bits per box, because of int container.
@@ -562,11 +619,21 @@ public final class B extends AtomLayout<Byte> {
             return super.toString() + ",@b" + bitOffset;
         }
 
+        // NOT PUBLIC, but visible to AtomBitLayout
+        int bitOffset() {
+            return bitOffset;
+        }
+
         // NOT PUBLIC, but visible to Location
         abstract byte prim(Object base, long l);
 
         // NOT PUBLIC, but visible to Location
         final void putPrim(Object base, long l, byte v) {
+            if (concurrent) {
+                ConcurrentBits.updateAt(base, l, BYTES_PER_BOX, bitOffset,
+                        (int) byteOrBitSize(), ConcurrentBits.SET, v, 0);
+                return;
+            }
             // System.out.println("Layout " + this + ", storing " + hex(v) + " at byte " + hex(l));
             v = (byte) (storeMask & (v << bitOffset));
             int container = getBox(base, l) & ~storeMask;
@@ -580,7 +647,7 @@ public final class B extends AtomLayout<Byte> {
         // NOT PUBLIC, but visible to Location
         @Override
         final Byte val(Object base, long l) {
-            return new Byte(prim(base, l));
+            return Byte.valueOf(prim(base, l));
         }
 
         // NOT PUBLIC, but visible to Location
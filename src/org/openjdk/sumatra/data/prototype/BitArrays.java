@@ -0,0 +1,426 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+/**
+ * Bulk conversion between bit-packed arrays and Java primitive arrays.
+ *
+ * Where the packed array is 8-byte aligned, it is read and written a 64-bit
+ * word at a time: each word is loaded (or stored) once and every field
+ * within it is extracted (or inserted), and fields that straddle two words
+ * are assembled from both.  Containers smaller than a word are treated as
+ * lanes of it; when the bit order of the layout is not the platform's byte
+ * order, the lanes are swapped so that fields still run contiguously
+ * through the word.  The few fields at the end of the array that lie in no
+ * whole word, and arrays that are not so aligned, are handled the same way a
+ * container at a time.  Java array elements are read and written through
+ * Unsafe at a given scale (1, 2, 4 or 8 bytes) so that one kernel serves
+ * every primitive type.
+ */
+final class BitArrays {
+
+    /**
+     * Number of elements converted at a time by the boxed array helpers of
+     * the bitfield layouts, which go through a primitive buffer.
+     */
+    static final int CHUNK = 256;
+
+    private BitArrays() {
+    }
+
+    @SuppressWarnings("restriction")
+    static long container(Object base, long addr, int c, long k) {
+        long a = addr + k * (c >>> Layout.LOG_BITS_PER_BYTE);
+        switch (c) {
+        case Layout.BITS_PER_BYTE:
+            return Memory.getByte(base, a) & 0xFFL;
+        case Layout.BITS_PER_SHORT:
+            return Memory.getShort(base, a) & 0xFFFFL;
+        case Layout.BITS_PER_INT:
+            return Memory.getInt(base, a) & 0xFFFFFFFFL;
+        default:
+            return Memory.getLong(base, a);
+        }
+    }
+
+    @SuppressWarnings("restriction")
+    static void putContainer(Object base, long addr, int c, long k, long v) {
+        long a = addr + k * (c >>> Layout.LOG_BITS_PER_BYTE);
+        switch (c) {
+        case Layout.BITS_PER_BYTE:
+            Memory.putByte(base, a, (byte) v);
+            break;
+        case Layout.BITS_PER_SHORT:
+            Memory.putShort(base, a, (short) v);
+            break;
+        case Layout.BITS_PER_INT:
+            Memory.putInt(base, a, (int) v);
+            break;
+        default:
+            Memory.putLong(base, a, v);
+        }
+    }
+
+    @SuppressWarnings("restriction")
+    private static long load(Object a, long offset, int scale) {
+        switch (scale) {
+        case Layout.BYTES_PER_BYTE:
+            return Memory.getByte(a, offset);
+        case Layout.BYTES_PER_SHORT:
+            return Memory.getShort(a, offset);
+        case Layout.BYTES_PER_INT:
+            return Memory.getInt(a, offset);
+        default:
+            return Memory.getLong(a, offset);
+        }
+    }
+
+    @SuppressWarnings("restriction")
+    private static void store(Object a, long offset, int scale, long v) {
+        switch (scale) {
+        case Layout.BYTES_PER_BYTE:
+            Memory.putByte(a, offset, (byte) v);
+            break;
+        case Layout.BYTES_PER_SHORT:
+            Memory.putShort(a, offset, (short) v);
+            break;
+        case Layout.BYTES_PER_INT:
+            Memory.putInt(a, offset, (int) v);
+            break;
+        default:
+            Memory.putLong(a, offset, v);
+        }
+    }
+
+    static long maskFor(int w) {
+        return w == Layout.BITS_PER_LONG ? -1L : (1L << w) - 1;
+    }
+
+    /**
+     * Reverses the order of the c-bit lanes of x, converting between a
+     * word loaded in platform byte order and one whose containers run in
+     * the order of the bits of the other endianness.
+     */
+    static long laneReverse(long x, int c) {
+        switch (c) {
+        case Layout.BITS_PER_BYTE:
+            return Long.reverseBytes(x);
+        case Layout.BITS_PER_SHORT:
+            x = (x << 32) | (x >>> 32);
+            return ((x & 0x0000FFFF0000FFFFL) << 16) |
+                   ((x >>> 16) & 0x0000FFFF0000FFFFL);
+        case Layout.BITS_PER_INT:
+            return (x << 32) | (x >>> 32);
+        default:
+            return x;
+        }
+    }
+
+    /**
+     * Returns how many of count fields, starting at bit p of the array at
+     * addr, lie entirely within 8-byte words of the containers they touch;
+     * those can be handled a word at a time.
+     */
+    private static int wordFields(long addr, int c, int w, long p, int count) {
+        if ((addr & (Layout.BYTES_PER_LONG - 1)) != 0)
+            return 0;
+        long end = p + (long) count * w;
+        long touched_bits = (end + c - 1) & ~(long) (c - 1);
+        long word_bits = touched_bits & ~(long) (Layout.BITS_PER_LONG - 1);
+        if (word_bits <= p)
+            return 0;
+        return (int) Math.min(count, (word_bits - p) / w);
+    }
+
+    @SuppressWarnings("restriction")
+    private static long word(Object base, long addr, long j, boolean swap, int c) {
+        long x = Memory.getLong(base, addr + (j << 3));
+        return swap ? laneReverse(x, c) : x;
+    }
+
+    @SuppressWarnings("restriction")
+    private static void putWord(Object base, long addr, long j, boolean swap,
+                                int c, long x) {
+        Memory.putLong(base, addr + (j << 3), swap ? laneReverse(x, c) : x);
+    }
+
+    /**
+     * Reads count fields, starting with field number first, from the
+     * bit-packed array at (base, addr) and stores them into the Java array
+     * dst at dst_offset, dst_scale bytes apart.  Boolean fields are stored
+     * as 0 or 1.
+     */
+    static void unpack(AtomBitLayout<?> layout, Object base, long addr,
+                       long first, Object dst, long dst_offset,
+                       int dst_scale, int count) {
+        int c = layout.containerBitSizeAndAlignment();
+        int w = (int) layout.byteOrBitSize();
+        int n = wordFields(addr, c, w, first * w, count);
+        if (n > 0)
+            unpackWords(layout, base, addr, first, dst, dst_offset, dst_scale, n);
+        if (n < count)
+            unpackContainers(layout, base, addr, first + n, dst,
+                             dst_offset + (long) n * dst_scale, dst_scale,
+                             count - n);
+    }
+
+    private static void unpackWords(AtomBitLayout<?> layout, Object base,
+                                    long addr, long first, Object dst,
+                                    long dst_offset, int dst_scale, int count) {
+        int c = layout.containerBitSizeAndAlignment();
+        int w = (int) layout.byteOrBitSize();
+        boolean be = layout.bigEndianBits();
+        boolean swap = be != AtomLayout.isBigEndian;
+        boolean signed = layout.signedBits();
+        boolean bool = layout.cls() == Boolean.class;
+        long mask = maskFor(w);
+
+        long p = first * w;
+        long j = p >>> Layout.LOG_BITS_PER_LONG;
+        int o = (int) p & (Layout.BITS_PER_LONG - 1);
+        long cur = word(base, addr, j, swap, c);
+        for (int i = 0; i < count; i++) {
+            if (o == Layout.BITS_PER_LONG) {
+                cur = word(base, addr, ++j, swap, c);
+                o = 0;
+            }
+            long v;
+            if (o + w <= Layout.BITS_PER_LONG) {
+                v = be ? cur >>> (Layout.BITS_PER_LONG - o - w) : cur >>> o;
+                o += w;
+            } else {
+                long next = word(base, addr, ++j, swap, c);
+                if (be)
+                    v = (cur << (o + w - Layout.BITS_PER_LONG)) |
+                        (next >>> (2 * Layout.BITS_PER_LONG - o - w));
+                else
+                    v = (cur >>> o) | (next << (Layout.BITS_PER_LONG - o));
+                cur = next;
+                o += w - Layout.BITS_PER_LONG;
+            }
+            v &= mask;
+            if (signed)
+                v = (v << (Layout.BITS_PER_LONG - w)) >> (Layout.BITS_PER_LONG - w);
+            else if (bool)
+                v = v != 0 ? 1 : 0;
+            store(dst, dst_offset + (long) i * dst_scale, dst_scale, v);
+        }
+    }
+
+    private static void unpackContainers(AtomBitLayout<?> layout, Object base,
+                                         long addr, long first, Object dst,
+                                         long dst_offset, int dst_scale,
+                                         int count) {
+        int c = layout.containerBitSizeAndAlignment();
+        int log_c = Long.numberOfTrailingZeros(c);
+        int w = (int) layout.byteOrBitSize();
+        boolean be = layout.bigEndianBits();
+        boolean signed = layout.signedBits();
+        boolean bool = layout.cls() == Boolean.class;
+        long mask = maskFor(w);
+
+        long p = first * w;
+        long k = -1; // index of the container in lo
+        long lo = 0;
+        for (int i = 0; i < count; i++, p += w) {
+            long kk = p >>> log_c;
+            int o = (int) p & (c - 1);
+            if (kk != k) {
+                k = kk;
+                lo = container(base, addr, c, k);
+            }
+            long v;
+            if (o + w <= c) {
+                v = be ? lo >>> (c - o - w) : lo >>> o;
+            } else {
+                // Straddles; the next container is needed now and by the
+                // next field too.
+                k = kk + 1;
+                long hi = container(base, addr, c, k);
+                if (be)
+                    v = (lo << (o + w - c)) | (hi >>> (2 * c - o - w));
+                else
+                    v = (lo >>> o) | (hi << (c - o));
+                lo = hi;
+            }
+            v &= mask;
+            if (signed)
+                v = (v << (Layout.BITS_PER_LONG - w)) >> (Layout.BITS_PER_LONG - w);
+            else if (bool)
+                v = v != 0 ? 1 : 0;
+            store(dst, dst_offset + (long) i * dst_scale, dst_scale, v);
+        }
+    }
+
+    /**
+     * Reads count values from the Java array src at src_offset, src_scale
+     * bytes apart, and stores them into the bit-packed array at (base, addr)
+     * starting with field number first.  Containers that are only partly
+     * covered keep their other bits; for a concurrent layout they are
+     * updated with compare-and-swap.
+     */
+    static void pack(AtomBitLayout<?> layout, Object src, long src_offset,
+                     int src_scale, Object base, long addr, long first,
+                     int count) {
+        int c = layout.containerBitSizeAndAlignment();
+        int w = (int) layout.byteOrBitSize();
+        int n = wordFields(addr, c, w, first * w, count);
+        if (n > 0)
+            packWords(layout, src, src_offset, src_scale, base, addr, first, n);
+        if (n < count)
+            packContainers(layout, src, src_offset + (long) n * src_scale,
+                           src_scale, base, addr, first + n, count - n);
+    }
+
+    private static void packWords(AtomBitLayout<?> layout, Object src,
+                                  long src_offset, int src_scale, Object base,
+                                  long addr, long first, int count) {
+        int c = layout.containerBitSizeAndAlignment();
+        int w = (int) layout.byteOrBitSize();
+        boolean be = layout.bigEndianBits();
+        boolean swap = be != AtomLayout.isBigEndian;
+        long mask = maskFor(w);
+
+        long start = first * w;
+        long end = start + (long) count * w;
+        long j = start >>> Layout.LOG_BITS_PER_LONG;
+        int o = (int) start & (Layout.BITS_PER_LONG - 1);
+        long cur = 0;
+        for (int i = 0; i < count; i++) {
+            long v = load(src, src_offset + (long) i * src_scale, src_scale) & mask;
+            int e = o + w - Layout.BITS_PER_LONG; // bits in the next word
+            if (e < 0) {
+                cur |= be ? v << -e : v << o;
+                o += w;
+            } else {
+                cur |= be ? v >>> e : v << o;
+                flushWord(layout, base, addr, j, swap, c, cur, start, end);
+                j++;
+                if (e == 0)
+                    cur = 0;
+                else
+                    cur = be ? v << (Layout.BITS_PER_LONG - e) : v >>> (w - e);
+                o = e;
+            }
+        }
+        if (o > 0)
+            flushWord(layout, base, addr, j, swap, c, cur, start, end);
+    }
+
+    /**
+     * Stores word j, which holds the bits of fields in [start, end) (field
+     * bit positions) that it overlaps.
+     */
+    private static void flushWord(AtomBitLayout<?> layout, Object base,
+                                  long addr, long j, boolean swap, int c,
+                                  long cur, long start, long end) {
+        long w0 = j << Layout.LOG_BITS_PER_LONG;
+        int lo = (int) Math.max(start - w0, 0);
+        int hi = (int) Math.min(end - w0, Layout.BITS_PER_LONG);
+        if (lo == 0 && hi == Layout.BITS_PER_LONG) {
+            putWord(base, addr, j, swap, c, cur);
+            return;
+        }
+        long m = maskFor(hi - lo) <<
+                 (layout.bigEndianBits() ? Layout.BITS_PER_LONG - hi : lo);
+        if (layout.concurrent) {
+            ConcurrentBits.merge(base, addr + (j << 3), Layout.BYTES_PER_LONG,
+                                 swap ? laneReverse(m, c) : m,
+                                 swap ? laneReverse(cur, c) : cur);
+        } else {
+            long old = word(base, addr, j, swap, c);
+            putWord(base, addr, j, swap, c, (old & ~m) | (cur & m));
+        }
+    }
+
+    private static void packContainers(AtomBitLayout<?> layout, Object src,
+                                       long src_offset, int src_scale,
+                                       Object base, long addr, long first,
+                                       int count) {
+        if (count == 0)
+            return;
+        int c = layout.containerBitSizeAndAlignment();
+        int log_c = Long.numberOfTrailingZeros(c);
+        int w = (int) layout.byteOrBitSize();
+        boolean be = layout.bigEndianBits();
+        long mask = maskFor(w);
+
+        long p = first * w;
+        long end = p + (long) count * w;
+        long k = p >>> log_c;
+        long cur = container(base, addr, c, k);
+        for (int i = 0; i < count; i++, p += w) {
+            long v = load(src, src_offset + (long) i * src_scale, src_scale) & mask;
+            long kk = p >>> log_c;
+            int o = (int) p & (c - 1);
+            if (kk != k) {
+                flush(layout, base, addr, c, k, cur, first * w, end);
+                k = kk;
+                // No need to read a container that will be entirely replaced.
+                cur = end - p >= c ? 0 : container(base, addr, c, k);
+            }
+            if (o + w <= c) {
+                int s = be ? c - o - w : o;
+                cur = (cur & ~(mask << s)) | (v << s);
+            } else {
+                int e = o + w - c; // bits that land in the next container
+                if (be)
+                    cur = (cur & ~(mask >>> e)) | (v >>> e);
+                else
+                    cur = (cur & ~(mask << o)) | (v << o);
+                flush(layout, base, addr, c, k, cur, first * w, end);
+                k = kk + 1;
+                long next = k << log_c;
+                cur = end - next >= c ? 0 : container(base, addr, c, k);
+                if (be)
+                    cur = (cur & ~(mask << (c - e))) | (v << (c - e));
+                else
+                    cur = (cur & ~(mask >>> (w - e))) | (v >>> (w - e));
+            }
+        }
+        flush(layout, base, addr, c, k, cur, first * w, end);
+    }
+
+    /**
+     * Stores container k, which holds the bits of fields in [start, end)
+     * (field bit positions) that it overlaps.
+     */
+    private static void flush(AtomBitLayout<?> layout, Object base,
+                              long addr, int c, long k, long cur,
+                              long start, long end) {
+        long c0 = k * c;
+        int lo = (int) Math.max(start - c0, 0);
+        int hi = (int) Math.min(end - c0, c);
+        if (!layout.concurrent || lo == 0 && hi == c) {
+            putContainer(base, addr, c, k, cur);
+        } else {
+            int s = layout.bigEndianBits() ? c - hi : lo;
+            ConcurrentBits.merge(base, addr + k * (c >>> Layout.LOG_BITS_PER_BYTE),
+                                 c >>> Layout.LOG_BITS_PER_BYTE,
+                                 maskFor(hi - lo) << s, cur);
+        }
+    }
+}
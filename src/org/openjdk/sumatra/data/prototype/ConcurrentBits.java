@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+/**
+ * Lock-free updates of bitfields for layouts made by a LayoutFactory with
+ * concurrent bitfields.  A field is updated with a compare-and-swap loop on
+ * the naturally aligned 8-byte word that contains its container, so that
+ * concurrent updates of other fields sharing the container (or the word)
+ * are never lost.  Containers are at most 8 bytes and naturally aligned,
+ * so each one lies within a single word.
+ *
+ * A field that straddles two containers in the same word is still updated
+ * with a single compare-and-swap.  One whose containers lie in two words
+ * is updated with a compare-and-swap on each word, with updates of that
+ * field serialized by one of a small set of striped locks; other threads
+ * never lose bits, but a concurrent plain read may see half an update.
+ */
+final class ConcurrentBits {
+
+    private ConcurrentBits() {
+    }
+
+    final static int SET = 0;
+    final static int ADD = 1;
+    final static int CAS = 2;
+    final static int GET = 3;
+
+    private final static int LOG_LOCKS = 6;
+    private final static Object[] locks = new Object[1 << LOG_LOCKS];
+
+    static {
+        for (int i = 0; i < locks.length; i++)
+            locks[i] = new Object();
+    }
+
+    private static Object lockFor(long word) {
+        return locks[(int) ((word * 0x9E3779B97F4A7C15L) >>> (64 - LOG_LOCKS))];
+    }
+
+    /**
+     * Returns the shift, within its aligned 8-byte word, of bit cbit
+     * (counting from the value-1 bit) of the container of cbytes bytes at
+     * address a.
+     */
+    private static int wordShift(long a, int cbytes, int cbit) {
+        int off = (int) a & (Layout.BYTES_PER_LONG - 1);
+        if (AtomLayout.isBigEndian)
+            off = Layout.BYTES_PER_LONG - off - cbytes;
+        return (off << Layout.LOG_BITS_PER_BYTE) + cbit;
+    }
+
+    private static long word(long a) {
+        return a & ~(long) (Layout.BYTES_PER_LONG - 1);
+    }
+
+    /**
+     * Applies op to the field of the given layout at bit offset b from
+     * address l, as laid out by the layout's putPrim, and returns the old
+     * value of the field, zero-extended.  For CAS, x is stored only if the
+     * old value equals expected (both truncated to the field's width); GET
+     * stores nothing, but reads with volatile semantics.
+     */
+    static long update(AtomBitLayout<?> layout, Object base, long l, long b,
+                       int op, long x, long expected) {
+        int c = layout.containerBitSizeAndAlignment();
+        int cbytes = c >>> Layout.LOG_BITS_PER_BYTE;
+        int w = (int) layout.byteOrBitSize();
+        long ca = l + (b / c) * cbytes;
+        int ib = (int) (b % c);
+        int w0 = Math.min(w, c - ib); // bits in the first container
+        int w1 = w - w0;              // bits in the second, if any
+
+        if (w1 == 0) {
+            int cbit = layout.bigEndianBits() ? c - ib - w : ib;
+            return update(base, word(ca), wordShift(ca, cbytes, cbit), w,
+                          0, 0, 0, op, x, expected);
+        }
+        long ca1 = ca + cbytes;
+        if (layout.bigEndianBits()) {
+            // High-order bits in the first container, low in the second.
+            return update(base, word(ca1), wordShift(ca1, cbytes, c - w1), w1,
+                          word(ca), wordShift(ca, cbytes, 0), w0,
+                          op, x, expected);
+        } else {
+            return update(base, word(ca), wordShift(ca, cbytes, ib), w0,
+                          word(ca1), wordShift(ca1, cbytes, 0), w1,
+                          op, x, expected);
+        }
+    }
+
+    /**
+     * Applies op to the w-bit field at shift cbit within the container of
+     * cbytes bytes at address ca; for offset-pinned (BitAt) layouts.
+     */
+    static long updateAt(Object base, long ca, int cbytes, int cbit, int w,
+                         int op, long x, long expected) {
+        return update(base, word(ca), wordShift(ca, cbytes, cbit), w,
+                      0, 0, 0, op, x, expected);
+    }
+
+    /**
+     * Replaces the bits selected by mask in the container of cbytes bytes
+     * at address ca with the corresponding bits of v.
+     */
+    static void merge(Object base, long ca, int cbytes, long mask, long v) {
+        int s = wordShift(ca, cbytes, 0);
+        casBits(base, word(ca), mask << s, v << s);
+    }
+
+    /**
+     * The field is lo_w bits at lo_s in word lo, followed (in significance)
+     * by hi_w bits at hi_s in word hi.
+     */
+    @SuppressWarnings("restriction")
+    private static long update(Object base, long lo, int lo_s, int lo_w,
+                               long hi, int hi_s, int hi_w,
+                               int op, long x, long expected) {
+        long fmask = BitArrays.maskFor(lo_w + hi_w);
+        long lo_mask = BitArrays.maskFor(lo_w) << lo_s;
+        long hi_mask = BitArrays.maskFor(hi_w) << hi_s;
+        expected &= fmask;
+        if (hi_w == 0 || hi == lo) {
+            while (true) {
+                long word = Memory.getLongVolatile(base, lo);
+                long old = (word & lo_mask) >>> lo_s |
+                           ((word & hi_mask) >>> hi_s) << lo_w;
+                if (op == GET || op == CAS && old != expected)
+                    return old;
+                long v = (op == ADD ? old + x : x) & fmask;
+                long next = word & ~(lo_mask | hi_mask) |
+                            (v << lo_s) & lo_mask |
+                            ((v >>> lo_w) << hi_s) & hi_mask;
+                if (Memory.compareAndSwapLong(base, lo, word, next))
+                    return old;
+            }
+        }
+        synchronized (lockFor(lo)) {
+            long old = (Memory.getLongVolatile(base, lo) & lo_mask) >>> lo_s |
+                       ((Memory.getLongVolatile(base, hi) & hi_mask) >>> hi_s) << lo_w;
+            if (op == GET || op == CAS && old != expected)
+                return old;
+            long v = (op == ADD ? old + x : x) & fmask;
+            casBits(base, lo, lo_mask, v << lo_s);
+            casBits(base, hi, hi_mask, (v >>> lo_w) << hi_s);
+            return old;
+        }
+    }
+
+    @SuppressWarnings("restriction")
+    private static void casBits(Object base, long word, long mask, long bits) {
+        bits &= mask;
+        while (true) {
+            long w = Memory.getLongVolatile(base, word);
+            if (Memory.compareAndSwapLong(base, word, w, w & ~mask | bits))
+                return;
+        }
+    }
+
+    /**
+     * Sign-extends the w-bit value v if signed is true.
+     */
+    static long extend(long v, int w, boolean signed) {
+        if (!signed)
+            return v;
+        return (v << (Layout.BITS_PER_LONG - w)) >> (Layout.BITS_PER_LONG - w);
+    }
+}
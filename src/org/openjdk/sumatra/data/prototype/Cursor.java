@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.lang.ref.Reference;
+
+/**
+ * A mutable position within an array of tuples, for walking the array
+ * without allocating a Location per element.  The cursor is moved with set
+ * or next, and fields of the current element are read and written through
+ * typed accessors at offsets computed when the tuple layout was built.
+ * Fields are named by index; see fieldIndex.
+ *
+ * A cursor is not thread-safe, but it is cheap; threads walking the same
+ * array should each use their own.
+ *
+ * <pre>
+ *     Cursor&lt;Point&gt; c = points.cursor();
+ *     int x = c.fieldIndex("getX");
+ *     while (c.next())
+ *         c.putInt(x, c.getInt(x) + 1);
+ * </pre>
+ */
+public final class Cursor<T> {
+
+    private final ArrayLocation<T> array;
+    private final TupleLayout<T> tuple;
+    private final Object base;
+    private final long start;
+    private final long stride;
+    private final long length;
+    // Copied from the tuple layout, so that accessors do not chase it.
+    private final Layout[] layouts;
+    private final long[] offsets;
+
+    private long index;
+    private long addr;
+
+    // NOT public; see of.
+    Cursor(ArrayLocation<T> a, TupleLayout<T> tuple) {
+        this.array = a;
+        this.tuple = tuple;
+        this.base = a.base();
+        this.start = a.addr();
+        this.stride = tuple.byteOrBitSize();
+        this.length = ((ArrayLayout<T>) a.layout()).length();
+        int n = tuple.fieldCount();
+        layouts = new Layout[n];
+        offsets = new long[n];
+        for (int i = 0; i < n; i++) {
+            layouts[i] = tuple.placedLayout(i);
+            offsets[i] = tuple.offset(i);
+        }
+        index = -1;
+        addr = start - stride;
+    }
+
+    /**
+     * Returns a cursor over an array of tuples, positioned before its first
+     * element.  The array must be laid out element by element; a column
+     * array has no tuples to point at.
+     *
+     * @param a an array location whose elements are tuples
+     * @return the cursor
+     */
+    public static <T> Cursor<T> of(ArrayLocation<T> a) {
+        Layout<T[]> l = a.layout();
+        Layout<T> e = a.elementLayout();
+        if (!(l instanceof ArrayDefaultLayout) || !(e instanceof TupleLayout))
+            throw new Error("Not an array of tuples: " + l);
+        return new Cursor<T>(a, (TupleLayout<T>) e);
+    }
+
+    /**
+     * Returns the index of the field read by the getter named name.
+     * @param name the getter name
+     * @return the field index
+     */
+    public int fieldIndex(String name) {
+        int i = tuple.fieldIndex(name);
+        if (i < 0)
+            throw new Error("No field " + name + " in " + tuple);
+        return i;
+    }
+
+    /**
+     * The number of elements in the array.
+     * @return the number of elements
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * The index of the current element; -1 before the first call to next,
+     * and length() after the last.
+     * @return the index
+     */
+    public long index() {
+        return index;
+    }
+
+    /**
+     * Moves to element i.
+     * @param i the element index
+     * @return this cursor
+     */
+    public Cursor<T> set(long i) {
+        if (i < 0 || i >= length)
+            throw new ArrayIndexOutOfBoundsException(String.valueOf(i));
+        index = i;
+        addr = start + i * stride;
+        return this;
+    }
+
+    /**
+     * Moves to the next element.
+     * @return false if there was no next element
+     */
+    public boolean next() {
+        if (index >= length - 1) {
+            index = length;
+            return false;
+        }
+        index++;
+        addr += stride;
+        return true;
+    }
+
+    private long fieldAddr(int f) {
+        if (index < 0 || index >= length)
+            throw new ArrayIndexOutOfBoundsException(
+                    "Cursor not at an element: " + index);
+        return addr + offsets[f];
+    }
+
+    /**
+     * Returns the current element.
+     * @return a copy of the element
+     */
+    public T val() {
+        if (index < 0 || index >= length)
+            throw new ArrayIndexOutOfBoundsException(
+                    "Cursor not at an element: " + index);
+        T v = tuple.val(array.rootLocation(), base, addr);
+        // Storage may be freed once this is unreachable.
+        Reference.reachabilityFence(this);
+        return v;
+    }
+
+    /**
+     * Stores v into the current element.
+     * @param v the value to store
+     */
+    public void put(T v) {
+        if (index < 0 || index >= length)
+            throw new ArrayIndexOutOfBoundsException(
+                    "Cursor not at an element: " + index);
+        tuple.put(array.rootLocation(), base, addr, v);
+        Reference.reachabilityFence(this);
+    }
+
+    /**
+     * Returns field f of the current element, boxed; this works for fields
+     * of any layout, including nested tuples and pointers.
+     * @param f the field index
+     * @return a copy of the field
+     */
+    public Object get(int f) {
+        long a = fieldAddr(f);
+        Object v = layouts[f].val(array.rootLocation(), base, a);
+        Reference.reachabilityFence(this);
+        return v;
+    }
+
+    /**
+     * Stores v into field f of the current element.
+     * @param f the field index
+     * @param v the value to store
+     */
+    public void put(int f, Object v) {
+        long a = fieldAddr(f);
+        layouts[f].put(array.rootLocation(), base, a, v);
+        Reference.reachabilityFence(this);
+    }
+
+    /*
+     * Typed accessors for fields of the current element.  The field must
+     * have an atom layout of the accessor's type, full-width or bitfield;
+     * others throw an Error.  Nothing is boxed or allocated.
+     */
+
+    public int getInt(int f) {
+        int v = AtomAccess.getInt(layouts[f], base, fieldAddr(f));
+        Reference.reachabilityFence(this);
+        return v;
+    }
+
+    public void putInt(int f, int v) {
+        AtomAccess.putInt(layouts[f], base, fieldAddr(f), v);
+        Reference.reachabilityFence(this);
+    }
+
+    public long getLong(int f) {
+        long v = AtomAccess.getLong(layouts[f], base, fieldAddr(f));
+        Reference.reachabilityFence(this);
+        return v;
+    }
+
+    public void putLong(int f, long v) {
+        AtomAccess.putLong(layouts[f], base, fieldAddr(f), v);
+        Reference.reachabilityFence(this);
+    }
+
+    public short getShort(int f) {
+        short v = AtomAccess.getShort(layouts[f], base, fieldAddr(f));
+        Reference.reachabilityFence(this);
+        return v;
+    }
+
+    public void putShort(int f, short v) {
+        AtomAccess.putShort(layouts[f], base, fieldAddr(f), v);
+        Reference.reachabilityFence(this);
+    }
+
+    public byte getByte(int f) {
+        byte v = AtomAccess.getByte(layouts[f], base, fieldAddr(f));
+        Reference.reachabilityFence(this);
+        return v;
+    }
+
+    public void putByte(int f, byte v) {
+        AtomAccess.putByte(layouts[f], base, fieldAddr(f), v);
+        Reference.reachabilityFence(this);
+    }
+
+    public boolean getBoolean(int f) {
+        boolean v = AtomAccess.getBoolean(layouts[f], base, fieldAddr(f));
+        Reference.reachabilityFence(this);
+        return v;
+    }
+
+    public void putBoolean(int f, boolean v) {
+        AtomAccess.putBoolean(layouts[f], base, fieldAddr(f), v);
+        Reference.reachabilityFence(this);
+    }
+
+    public float getFloat(int f) {
+        float v = AtomAccess.getFloat(layouts[f], base, fieldAddr(f));
+        Reference.reachabilityFence(this);
+        return v;
+    }
+
+    public void putFloat(int f, float v) {
+        AtomAccess.putFloat(layouts[f], base, fieldAddr(f), v);
+        Reference.reachabilityFence(this);
+    }
+
+    public double getDouble(int f) {
+        double v = AtomAccess.getDouble(layouts[f], base, fieldAddr(f));
+        Reference.reachabilityFence(this);
+        return v;
+    }
+
+    public void putDouble(int f, double v) {
+        AtomAccess.putDouble(layouts[f], base, fieldAddr(f), v);
+        Reference.reachabilityFence(this);
+    }
+}
@@ -27,6 +27,8 @@ package org.openjdk.sumatra.data.prototype;
 
 import org.openjdk.sumatra.data.prototype.AtomBitLayout;
 
+import sun.misc.Unsafe;
+
 /**
  * A layout for a 64-bit float (aka "double"), in a 64-bit container.
  * @author dr2chase
@@ -42,12 +44,12 @@ public final class D extends AtomLayout<Double> {
 
     @SuppressWarnings("restriction")
     private static double getBox(Object base, long offset) {
-        return u.getDouble(base, offset);
+        return Memory.getDouble(base, offset);
     }
 
     @SuppressWarnings("restriction")
     private static void putBox(Object base, long offset, double val) {
-        u.putDouble(base, offset, val);
+        Memory.putDouble(base, offset, val);
     }
 
     D(Class cl, int s, int a) {
@@ -67,22 +69,21 @@ public final class D extends AtomLayout<Double> {
     // NOT PUBLIC, but visible to Location
     @Override
     Double val(Object base, long l) {
-        return new Double(prim(base, l));
+        return Double.valueOf(prim(base, l));
     }
 
     // NOT PUBLIC, but visible to Location
     @Override
     void put(Object base, long l, Double v) {
-        putPrim(base, l, v.intValue());
+        putPrim(base, l, v.doubleValue());
     }
 
     // NOT PUBLIC, but visible to Location
+    @SuppressWarnings("restriction")
     Object makeArray(Object base, long addr, int count) {
         double[] a = new double[count];
-        for (int i = 0; i < count; i++) {
-            a[i] = prim(base, addr);
-            addr += byteOrBitSize();
-        }
+        Memory.copyMemory(base, addr, a, Unsafe.ARRAY_DOUBLE_BASE_OFFSET,
+                     count * byteOrBitSize());
         return a;
     }
 
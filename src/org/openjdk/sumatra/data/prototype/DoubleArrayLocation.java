@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.lang.ref.Reference;
+
+import sun.misc.Unsafe;
+
+/**
+ * An array location with double elements that can be read and written without
+ * boxing.  Elements are accessed directly through the prim and putPrim
+ * methods of the element layout.
+ */
+public final class DoubleArrayLocation extends Location<Double[]> {
+
+    private final long length;
+    private final D full;
+    private final long stride;
+
+    // NOT public, since this is a total loophole to peeking and poking.
+    DoubleArrayLocation(ArrayLocation<Double> a, D full) {
+        super(a, a.layout(), a.addr());
+        this.length = ((ArrayLayout<Double>) a.layout()).length();
+        this.full = full;
+        this.stride = full.byteOrBitSize();
+    }
+
+    /**
+     * Returns a view of an existing array location that reads and writes
+     * elements as doubles.
+     *
+     * @param a an array location whose elements are laid out as doubles
+     * @return the double view of a
+     */
+    public static DoubleArrayLocation of(ArrayLocation<Double> a) {
+        Layout<Double> e = a.elementLayout();
+        if (e instanceof D)
+            return new DoubleArrayLocation(a, (D) e);
+        throw new Error("Element layout is not a double layout: " + e);
+    }
+
+    /**
+     * The number of elements in this array.
+     * @return the number of elements
+     */
+    public long length() {
+        return length;
+    }
+
+    private void check(long i) {
+        if (i < 0 || i >= length) {
+            throw new ArrayIndexOutOfBoundsException(String.valueOf(i));
+        }
+    }
+
+    /**
+     * Returns element i.
+     * @param i the element index
+     * @return the element value
+     */
+    public double getDouble(long i) {
+        check(i);
+        double v = full.prim(base(), addr() + i * stride);
+        // Storage may be freed once this is unreachable.
+        Reference.reachabilityFence(this);
+        return v;
+    }
+
+    /**
+     * Stores v into element i.
+     * @param i the element index
+     * @param v the value to store
+     */
+    public void putDouble(long i, double v) {
+        check(i);
+        full.putPrim(base(), addr() + i * stride, v);
+        Reference.reachabilityFence(this);
+    }
+
+    private void checkRange(int array_length, int off, long idx, int len) {
+        if (off < 0 || len < 0 || off > array_length - len)
+            throw new ArrayIndexOutOfBoundsException(
+                    "Java array range " + off + "+" + len);
+        if (idx < 0 || idx > length - len)
+            throw new ArrayIndexOutOfBoundsException(
+                    "Flattened array range " + idx + "+" + len);
+    }
+
+    /**
+     * Copies len elements from src, starting at src_off, into this array
+     * starting at element dst_idx.  Full-width elements are copied as a
+     * single block of memory.
+     *
+     * @param src the Java array to copy from
+     * @param src_off the index of the first element of src to copy
+     * @param dst_idx the index in this array of the first element stored
+     * @param len the number of elements to copy
+     */
+    @SuppressWarnings("restriction")
+    public void copyFrom(double[] src, int src_off, long dst_idx, int len) {
+        checkRange(src.length, src_off, dst_idx, len);
+        long src_offset = Unsafe.ARRAY_DOUBLE_BASE_OFFSET +
+                (long) src_off * Unsafe.ARRAY_DOUBLE_INDEX_SCALE;
+        Memory.copyMemory(src, src_offset,
+                base(), addr() + dst_idx * stride, len * stride);
+        Reference.reachabilityFence(this);
+    }
+
+    /**
+     * Copies len elements of this array, starting at element src_idx, into
+     * dst starting at dst_off.
+     *
+     * @param dst the Java array to copy into
+     * @param dst_off the index of the first element of dst to store
+     * @param src_idx the index in this array of the first element copied
+     * @param len the number of elements to copy
+     */
+    @SuppressWarnings("restriction")
+    public void copyTo(double[] dst, int dst_off, long src_idx, int len) {
+        checkRange(dst.length, dst_off, src_idx, len);
+        long dst_offset = Unsafe.ARRAY_DOUBLE_BASE_OFFSET +
+                (long) dst_off * Unsafe.ARRAY_DOUBLE_INDEX_SCALE;
+        Memory.copyMemory(base(), addr() + src_idx * stride,
+                dst, dst_offset, len * stride);
+        Reference.reachabilityFence(this);
+    }
+}
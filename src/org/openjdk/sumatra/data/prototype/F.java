@@ -27,6 +27,8 @@ package org.openjdk.sumatra.data.prototype;
 
 import org.openjdk.sumatra.data.prototype.AtomBitLayout;
 
+import sun.misc.Unsafe;
+
 /**
  * A layout for a 32-bit float, in a 32-bit container.
  * @author dr2chase
@@ -44,12 +46,12 @@ public final class F extends AtomLayout<Float> {
 
     @SuppressWarnings("restriction")
     private static float getBox(Object base, long offset) {
-        return u.getFloat(base, offset);
+        return Memory.getFloat(base, offset);
     }
 
     @SuppressWarnings("restriction")
     private static void putBox(Object base, long offset, float val) {
-        u.putFloat(base, offset, val);
+        Memory.putFloat(base, offset, val);
     }
 
     F(Class cl, int s, int a) {
@@ -69,22 +71,21 @@ public final class F extends AtomLayout<Float> {
     // NOT PUBLIC, but visible to Location
     @Override
     Float val(Object base, long l) {
-        return new Float(prim(base, l));
+        return Float.valueOf(prim(base, l));
     }
 
     // NOT PUBLIC, but visible to Location
     @Override
     void put(Object base, long l, Float v) {
-        putPrim(base, l, v.intValue());
+        putPrim(base, l, v.floatValue());
     }
 
     // NOT PUBLIC, but visible to Location
+    @SuppressWarnings("restriction")
     Object makeArray(Object base, long addr, int count) {
         float[] a = new float[count];
-        for (int i = 0; i < count; i++) {
-            a[i] = prim(base, addr);
-            addr += byteOrBitSize();
-        }
+        Memory.copyMemory(base, addr, a, Unsafe.ARRAY_FLOAT_BASE_OFFSET,
+                     count * byteOrBitSize());
         return a;
     }
 
@@ -0,0 +1,485 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.lang.ref.Reference;
+
+/**
+ * An accessor for one field of a tuple layout, possibly nested within
+ * other tuples, that reads and writes the field in any location of that
+ * layout without unmarshalling the tuple.  Like a VarHandle, a handle is
+ * made once (see TupleLayout.fieldHandle) and used with the location as a
+ * coordinate; its offset and layouts are final, so a handle kept in a
+ * static final field lets the JIT fold them and the layout type tests,
+ * leaving a check of the location's layout and a load or store.
+ *
+ * Fields are named by a path of getter names separated by '.', through
+ * nested tuple fields.  A step may index an array field of tuples with a
+ * constant, as in "points[2].x".  If the path ends at an array field, the
+ * handle is indexed: its accessors take an element index as a second
+ * coordinate.
+ *
+ * The typed accessors need an atom field (or array element) of their type,
+ * full-width or bitfield; get and put box, and work for any field.  The
+ * atomic accessors need a full-width int or long.
+ */
+public final class FieldHandle<T> {
+
+    private final TupleLayout<T> tuple;
+    private final String path;
+    // Offset of the field from the start of the tuple, in bytes.
+    private final long offset;
+    // Layout of the field; for an array field, that of its elements.
+    private final Layout field;
+    // For array fields; stride is in bits if the elements are bitfields.
+    private final boolean indexed;
+    private final boolean bits;
+    private final long count;
+    private final long stride;
+
+    // NOT public; see TupleLayout.fieldHandle.
+    FieldHandle(TupleLayout<T> tuple, String path, long offset, Layout field) {
+        this.tuple = tuple;
+        this.path = path;
+        this.offset = offset;
+        if (field instanceof ArrayLayout) {
+            ArrayLayout a = (ArrayLayout) field;
+            this.field = a.elementLayout();
+            this.indexed = true;
+            this.bits = a instanceof ArrayBitLayout;
+            this.count = a.length();
+            this.stride = this.field.byteOrBitSize();
+        } else {
+            this.field = field;
+            this.indexed = false;
+            this.bits = false;
+            this.count = 0;
+            this.stride = 0;
+        }
+    }
+
+    static <T> FieldHandle<T> of(TupleLayout<T> tuple, String path) {
+        long offset = 0;
+        Layout cur = tuple;
+        for (String step : path.split("\\.", -1)) {
+            if (!(cur instanceof TupleLayout))
+                throw new Error("Not a tuple before " + step + " in " + path);
+            String name = step;
+            long k = -1;
+            int brack = step.indexOf('[');
+            if (brack != -1) {
+                if (!step.endsWith("]"))
+                    throw new Error("Index lacked closing ']', " + path);
+                name = step.substring(0, brack);
+                try {
+                    k = Long.parseLong(step.substring(brack + 1, step.length() - 1));
+                } catch (NumberFormatException ex) {
+                    throw new Error("Problems with index in " + path);
+                }
+            }
+            TupleLayout t = (TupleLayout) cur;
+            int f = t.fieldIndex(name);
+            if (f < 0)
+                throw new Error("No field " + name + " in " + t);
+            offset += t.offset(f);
+            cur = t.placedLayout(f);
+            if (brack != -1) {
+                if (!(cur instanceof ArrayDefaultLayout))
+                    throw new Error("Not an array of tuples at " + step + " in " + path);
+                ArrayDefaultLayout a = (ArrayDefaultLayout) cur;
+                if (k < 0 || k >= a.length())
+                    throw new ArrayIndexOutOfBoundsException(
+                            step + " in " + path);
+                cur = a.elementLayout();
+                offset += k * cur.byteOrBitSize();
+            }
+        }
+        return new FieldHandle<T>(tuple, path, offset, cur);
+    }
+
+    @Override
+    public String toString() {
+        return tuple.cls().getName() + "." + path + "@B" + offset;
+    }
+
+    /**
+     * Returns the layout of the field, or of its elements for an indexed
+     * handle.
+     * @return the field layout
+     */
+    public Layout<?> fieldLayout() {
+        return field;
+    }
+
+    /**
+     * Returns true if the field is an array, whose elements are accessed
+     * by index.
+     * @return whether this handle is indexed
+     */
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * Returns the number of elements of an array field.
+     * @return the element count; zero if not indexed
+     */
+    public long length() {
+        return count;
+    }
+
+    private long addr(Location<T> l) {
+        if (l.layout() != tuple)
+            throw new Error("Location does not have layout " + tuple + ": " + l.layout());
+        if (indexed)
+            throw new Error("Field " + path + " is an array; an index is needed");
+        return l.addr() + offset;
+    }
+
+    // The address of the array; of element i, unless it is a bitfield.
+    private long addr(Location<T> l, long i) {
+        if (l.layout() != tuple)
+            throw new Error("Location does not have layout " + tuple + ": " + l.layout());
+        if (!indexed)
+            throw new Error("Field " + path + " is not an array");
+        if (i < 0 || i >= count)
+            throw new ArrayIndexOutOfBoundsException(String.valueOf(i));
+        return bits ? l.addr() + offset : l.addr() + offset + i * stride;
+    }
+
+    /**
+     * Returns the field of the tuple at l, boxed.
+     * @param l a location of the tuple layout
+     * @return a copy of the field
+     */
+    public Object get(Location<T> l) {
+        Object v = field.val(l.rootLocation(), l.base(), addr(l));
+        // Storage may be freed once this is unreachable.
+        Reference.reachabilityFence(l);
+        return v;
+    }
+
+    /**
+     * Stores v into the field of the tuple at l.
+     * @param l a location of the tuple layout
+     * @param v the value to store
+     */
+    public void put(Location<T> l, Object v) {
+        field.put(l.rootLocation(), l.base(), addr(l), v);
+        Reference.reachabilityFence(l);
+    }
+
+    /**
+     * Returns element i of the array field of the tuple at l, boxed.
+     * @param l a location of the tuple layout
+     * @param i the element index
+     * @return a copy of the element
+     */
+    public Object get(Location<T> l, long i) {
+        long a = addr(l, i);
+        Object v = bits ? ((AtomBitLayout) field).val(l.base(), a, i * stride)
+                        : field.val(l.rootLocation(), l.base(), a);
+        Reference.reachabilityFence(l);
+        return v;
+    }
+
+    /**
+     * Stores v into element i of the array field of the tuple at l.
+     * @param l a location of the tuple layout
+     * @param i the element index
+     * @param v the value to store
+     */
+    public void put(Location<T> l, long i, Object v) {
+        long a = addr(l, i);
+        if (bits)
+            ((AtomBitLayout) field).put(l.base(), a, i * stride, v);
+        else
+            field.put(l.rootLocation(), l.base(), a, v);
+        Reference.reachabilityFence(l);
+    }
+
+    /*
+     * Typed accessors, plain and indexed.  Nothing is boxed or allocated.
+     */
+
+    public int getInt(Location<T> l) {
+        int v = AtomAccess.getInt(field, l.base(), addr(l));
+        Reference.reachabilityFence(l);
+        return v;
+    }
+
+    public void putInt(Location<T> l, int v) {
+        AtomAccess.putInt(field, l.base(), addr(l), v);
+        Reference.reachabilityFence(l);
+    }
+
+    public int getInt(Location<T> l, long i) {
+        long a = addr(l, i);
+        int v = bits ? AtomAccess.getInt(field, l.base(), a, i * stride)
+                     : AtomAccess.getInt(field, l.base(), a);
+        Reference.reachabilityFence(l);
+        return v;
+    }
+
+    public void putInt(Location<T> l, long i, int v) {
+        long a = addr(l, i);
+        if (bits)
+            AtomAccess.putInt(field, l.base(), a, i * stride, v);
+        else
+            AtomAccess.putInt(field, l.base(), a, v);
+        Reference.reachabilityFence(l);
+    }
+
+    public long getLong(Location<T> l) {
+        long v = AtomAccess.getLong(field, l.base(), addr(l));
+        Reference.reachabilityFence(l);
+        return v;
+    }
+
+    public void putLong(Location<T> l, long v) {
+        AtomAccess.putLong(field, l.base(), addr(l), v);
+        Reference.reachabilityFence(l);
+    }
+
+    public long getLong(Location<T> l, long i) {
+        long a = addr(l, i);
+        long v = bits ? AtomAccess.getLong(field, l.base(), a, i * stride)
+                     : AtomAccess.getLong(field, l.base(), a);
+        Reference.reachabilityFence(l);
+        return v;
+    }
+
+    public void putLong(Location<T> l, long i, long v) {
+        long a = addr(l, i);
+        if (bits)
+            AtomAccess.putLong(field, l.base(), a, i * stride, v);
+        else
+            AtomAccess.putLong(field, l.base(), a, v);
+        Reference.reachabilityFence(l);
+    }
+
+    public short getShort(Location<T> l) {
+        short v = AtomAccess.getShort(field, l.base(), addr(l));
+        Reference.reachabilityFence(l);
+        return v;
+    }
+
+    public void putShort(Location<T> l, short v) {
+        AtomAccess.putShort(field, l.base(), addr(l), v);
+        Reference.reachabilityFence(l);
+    }
+
+    public short getShort(Location<T> l, long i) {
+        long a = addr(l, i);
+        short v = bits ? AtomAccess.getShort(field, l.base(), a, i * stride)
+                     : AtomAccess.getShort(field, l.base(), a);
+        Reference.reachabilityFence(l);
+        return v;
+    }
+
+    public void putShort(Location<T> l, long i, short v) {
+        long a = addr(l, i);
+        if (bits)
+            AtomAccess.putShort(field, l.base(), a, i * stride, v);
+        else
+            AtomAccess.putShort(field, l.base(), a, v);
+        Reference.reachabilityFence(l);
+    }
+
+    public byte getByte(Location<T> l) {
+        byte v = AtomAccess.getByte(field, l.base(), addr(l));
+        Reference.reachabilityFence(l);
+        return v;
+    }
+
+    public void putByte(Location<T> l, byte v) {
+        AtomAccess.putByte(field, l.base(), addr(l), v);
+        Reference.reachabilityFence(l);
+    }
+
+    public byte getByte(Location<T> l, long i) {
+        long a = addr(l, i);
+        byte v = bits ? AtomAccess.getByte(field, l.base(), a, i * stride)
+                     : AtomAccess.getByte(field, l.base(), a);
+        Reference.reachabilityFence(l);
+        return v;
+    }
+
+    public void putByte(Location<T> l, long i, byte v) {
+        long a = addr(l, i);
+        if (bits)
+            AtomAccess.putByte(field, l.base(), a, i * stride, v);
+        else
+            AtomAccess.putByte(field, l.base(), a, v);
+        Reference.reachabilityFence(l);
+    }
+
+    public boolean getBoolean(Location<T> l) {
+        boolean v = AtomAccess.getBoolean(field, l.base(), addr(l));
+        Reference.reachabilityFence(l);
+        return v;
+    }
+
+    public void putBoolean(Location<T> l, boolean v) {
+        AtomAccess.putBoolean(field, l.base(), addr(l), v);
+        Reference.reachabilityFence(l);
+    }
+
+    public boolean getBoolean(Location<T> l, long i) {
+        long a = addr(l, i);
+        boolean v = bits ? AtomAccess.getBoolean(field, l.base(), a, i * stride)
+                     : AtomAccess.getBoolean(field, l.base(), a);
+        Reference.reachabilityFence(l);
+        return v;
+    }
+
+    public void putBoolean(Location<T> l, long i, boolean v) {
+        long a = addr(l, i);
+        if (bits)
+            AtomAccess.putBoolean(field, l.base(), a, i * stride, v);
+        else
+            AtomAccess.putBoolean(field, l.base(), a, v);
+        Reference.reachabilityFence(l);
+    }
+
+    public float getFloat(Location<T> l) {
+        float v = AtomAccess.getFloat(field, l.base(), addr(l));
+        Reference.reachabilityFence(l);
+        return v;
+    }
+
+    public void putFloat(Location<T> l, float v) {
+        AtomAccess.putFloat(field, l.base(), addr(l), v);
+        Reference.reachabilityFence(l);
+    }
+
+    public float getFloat(Location<T> l, long i) {
+        long a = addr(l, i);
+        float v = AtomAccess.getFloat(field, l.base(), a);
+        Reference.reachabilityFence(l);
+        return v;
+    }
+
+    public void putFloat(Location<T> l, long i, float v) {
+        long a = addr(l, i);
+        AtomAccess.putFloat(field, l.base(), a, v);
+        Reference.reachabilityFence(l);
+    }
+
+    public double getDouble(Location<T> l) {
+        double v = AtomAccess.getDouble(field, l.base(), addr(l));
+        Reference.reachabilityFence(l);
+        return v;
+    }
+
+    public void putDouble(Location<T> l, double v) {
+        AtomAccess.putDouble(field, l.base(), addr(l), v);
+        Reference.reachabilityFence(l);
+    }
+
+    public double getDouble(Location<T> l, long i) {
+        long a = addr(l, i);
+        double v = AtomAccess.getDouble(field, l.base(), a);
+        Reference.reachabilityFence(l);
+        return v;
+    }
+
+    public void putDouble(Location<T> l, long i, double v) {
+        long a = addr(l, i);
+        AtomAccess.putDouble(field, l.base(), a, v);
+        Reference.reachabilityFence(l);
+    }
+
+    /*
+     * Atomic updates of full-width int and long fields.
+     */
+
+    private long atomicAddr(Location<T> l, Class<?> atom) {
+        if (!atom.isInstance(field))
+            throw new Error("Field " + path + " is not a full-width " +
+                            atom.getSimpleName() + " layout: " + field);
+        return addr(l);
+    }
+
+    private long atomicAddr(Location<T> l, long i, Class<?> atom) {
+        if (!atom.isInstance(field) || bits)
+            throw new Error("Field " + path + " is not a full-width " +
+                            atom.getSimpleName() + " layout: " + field);
+        return addr(l, i);
+    }
+
+    public boolean compareAndSetInt(Location<T> l, int expected, int v) {
+        boolean ok = Memory.compareAndSwapInt(l.base(), atomicAddr(l, I.class),
+                                              expected, v);
+        Reference.reachabilityFence(l);
+        return ok;
+    }
+
+    public int getAndAddInt(Location<T> l, int delta) {
+        int v = Memory.getAndAddInt(l.base(), atomicAddr(l, I.class), delta);
+        Reference.reachabilityFence(l);
+        return v;
+    }
+
+    public boolean compareAndSetInt(Location<T> l, long i, int expected, int v) {
+        boolean ok = Memory.compareAndSwapInt(l.base(), atomicAddr(l, i, I.class),
+                                              expected, v);
+        Reference.reachabilityFence(l);
+        return ok;
+    }
+
+    public int getAndAddInt(Location<T> l, long i, int delta) {
+        int v = Memory.getAndAddInt(l.base(), atomicAddr(l, i, I.class), delta);
+        Reference.reachabilityFence(l);
+        return v;
+    }
+
+    public boolean compareAndSetLong(Location<T> l, long expected, long v) {
+        boolean ok = Memory.compareAndSwapLong(l.base(), atomicAddr(l, J.class),
+                                               expected, v);
+        Reference.reachabilityFence(l);
+        return ok;
+    }
+
+    public long getAndAddLong(Location<T> l, long delta) {
+        long v = Memory.getAndAddLong(l.base(), atomicAddr(l, J.class), delta);
+        Reference.reachabilityFence(l);
+        return v;
+    }
+
+    public boolean compareAndSetLong(Location<T> l, long i, long expected, long v) {
+        boolean ok = Memory.compareAndSwapLong(l.base(), atomicAddr(l, i, J.class),
+                                               expected, v);
+        Reference.reachabilityFence(l);
+        return ok;
+    }
+
+    public long getAndAddLong(Location<T> l, long i, long delta) {
+        long v = Memory.getAndAddLong(l.base(), atomicAddr(l, i, J.class), delta);
+        Reference.reachabilityFence(l);
+        return v;
+    }
+}
@@ -27,6 +27,8 @@ package org.openjdk.sumatra.data.prototype;
 
 import org.openjdk.sumatra.data.prototype.AtomBitLayout;
 
+import sun.misc.Unsafe;
+
 /**
  * A layout for a 32-bit integer, in a 32-bit container.
  * @author dr2chase
@@ -44,16 +46,20 @@ public final class I extends AtomLayout<Integer> {
 
     @SuppressWarnings("restriction")
     private static int getBox(Object base, long offset) {
-        return u.getInt(base, offset);
+        return Memory.getInt(base, offset);
     }
 
     @SuppressWarnings("restriction")
     private static void putBox(Object base, long offset, int val) {
-        u.putInt(base, offset, val);
+        Memory.putInt(base, offset, val);
     }
 
-    I(Class cl, int s, int a) {
+    // Whether bitfield layouts derived from this one update concurrently.
+    private final boolean concurrentBits;
+
+    I(Class cl, int s, int a, boolean concurrent_bits) {
         super(s, a, cl);
+        concurrentBits = concurrent_bits;
     }
 
     // NOT PUBLIC, but visible to Location
@@ -69,7 +75,7 @@ public final class I extends AtomLayout<Integer> {
     // NOT PUBLIC, but visible to Location
     @Override
     Integer val(Object base, long l) {
-        return new Integer(prim(base, l));
+        return Integer.valueOf(prim(base, l));
     }
 
     // NOT PUBLIC, but visible to Location
@@ -79,12 +85,11 @@ public final class I extends AtomLayout<Integer> {
     }
 
     // NOT PUBLIC, but visible to Location
+    @SuppressWarnings("restriction")
     Object makeArray(Object base, long addr, int count) {
         int[] a = new int[count];
-        for (int i = 0; i < count; i++) {
-            a[i] = prim(base, addr);
-            addr += byteOrBitSize();
-        }
+        Memory.copyMemory(base, addr, a, Unsafe.ARRAY_INT_BASE_OFFSET,
+                     count * byteOrBitSize());
         return a;
     }
 
@@ -110,7 +115,7 @@ public final class I extends AtomLayout<Integer> {
                 throw new Error("Improper bit offset (negative of) " + -b);
             BitLE rv = leSAccessors[b];
             if (rv == null) {
-                rv = new BitLESigned(b);
+                rv = new BitLESigned(b, concurrentBits);
                 leSAccessors[b] = rv;
             }
             return rv;
@@ -119,7 +124,7 @@ public final class I extends AtomLayout<Integer> {
                 throw new Error("Improper bit offset " + b);
             BitLE rv = leUAccessors[b];
             if (rv == null) {
-                rv = new BitLEUnsigned(b);
+                rv = new BitLEUnsigned(b, concurrentBits);
                 leUAccessors[b] = rv;
             }
             return rv;
@@ -134,7 +139,7 @@ public final class I extends AtomLayout<Integer> {
                 throw new Error("Improper bit offset (negative of) " + -b);
             BitBE rv = beSAccessors[b];
             if (rv == null) {
-                rv = new BitBESigned(b);
+                rv = new BitBESigned(b, concurrentBits);
                 beSAccessors[b] = rv;
             }
             return rv;
@@ -143,7 +148,7 @@ public final class I extends AtomLayout<Integer> {
                 throw new Error("Improper bit offset " + b);
             BitBE rv = beUAccessors[b];
             if (rv == null) {
-                rv = new BitBEUnsigned(b);
+                rv = new BitBEUnsigned(b, concurrentBits);
                 beUAccessors[b] = rv;
             }
             return rv;
@@ -160,8 +165,8 @@ public final class I extends AtomLayout<Integer> {
         protected final int storeMask;
 
         // Cannot be protected or public.
-        Bit(int s, int mask) {
-            super(s, 0, Integer.class);
+        Bit(int s, int mask, boolean concurrent) {
+            super(s, 0, Integer.class, concurrent);
             storeMask = mask;
         }
 
@@ -183,7 +188,7 @@ public final class I extends AtomLayout<Integer> {
         // NOT PUBLIC, but visible to Location
         @Override
         Integer val(Object base, long l) {
-            return new Integer(prim(base, l));
+            return Integer.valueOf(prim(base, l));
         }
 
         // NOT PUBLIC, but visible to Location
@@ -195,7 +200,7 @@ public final class I extends AtomLayout<Integer> {
         // NOT PUBLIC, but visible to Location
         @Override
         Integer val(Object base, long l, long b) {
-            return new Integer(prim(base, l, b));
+            return Integer.valueOf(prim(base, l, b));
         }
 
         // NOT PUBLIC, but visible to Location
@@ -207,23 +212,34 @@ public final class I extends AtomLayout<Integer> {
         // NOT PUBLIC, but visible to Location
         Object makeArray(Object base, long addr, int count) {
             int[] a = new int[count];
-            long offset = 0;
-            long bump = byteOrBitSize();
-            for (int i = 0; i < count; i++) {
-                a[i] = prim(base, addr, offset);
-                offset += bump;
-            }
+            BitArrays.unpack(this, base, addr, 0, a, Unsafe.ARRAY_INT_BASE_OFFSET,
+                             Unsafe.ARRAY_INT_INDEX_SCALE, count);
             return a;
         }
 
         @Override
         void fillArray(Location arena, Object base, long addr, Integer[] a) {
             int count = a.length;
-            long offset = 0;
-            long bump = byteOrBitSize();
-            for (int i = 0; i < count; i++) {
-                a[i] = Integer.valueOf(prim(base, addr, offset));
-                offset += bump;
+            int[] buf = new int[Math.min(count, BitArrays.CHUNK)];
+            for (int i = 0; i < count; i += buf.length) {
+                int n = Math.min(buf.length, count - i);
+                BitArrays.unpack(this, base, addr, i, buf, Unsafe.ARRAY_INT_BASE_OFFSET,
+                                 Unsafe.ARRAY_INT_INDEX_SCALE, n);
+                for (int j = 0; j < n; j++)
+                    a[i + j] = Integer.valueOf(buf[j]);
+            }
+        }
+
+        // NOT PUBLIC, but visible to ArrayBitLayout
+        @Override
+        void putArray(Object base, long addr, Integer[] a, int count) {
+            int[] buf = new int[Math.min(count, BitArrays.CHUNK)];
+            for (int i = 0; i < count; i += buf.length) {
+                int n = Math.min(buf.length, count - i);
+                for (int j = 0; j < n; j++)
+                    buf[j] = a[i + j].intValue();
+                BitArrays.pack(this, buf, Unsafe.ARRAY_INT_BASE_OFFSET,
+                               Unsafe.ARRAY_INT_INDEX_SCALE, base, addr, i, n);
             }
         }
 
@@ -252,8 +268,13 @@ public final class I extends AtomLayout<Integer> {
      */
     abstract static class BitLE extends  Bit {
         // Cannot be protected or public.
-        BitLE(int s) {
-            super(s, (1 << s) - 1);
+        BitLE(int s, boolean concurrent) {
+            super(s, (1 << s) - 1, concurrent);
+        }
+
+        @Override
+        final boolean bigEndianBits() {
+            return false;
         }
 
         // NOT PUBLIC, but visible to Location
@@ -263,6 +284,11 @@ public final class I extends AtomLayout<Integer> {
         // NOT PUBLIC, but visible to Location
         @Override
         final void putPrim(Object base, long l, long b, int v) {
+            if (concurrent) {
+                ConcurrentBits.update(this, base, l, b, ConcurrentBits.SET,
+                                      v, 0);
+                return;
+            }
             l += (b >>> LOG_BITS_PER_BOX) << (LOG_BITS_PER_BOX - LOG_BITS_PER_BYTE);
             int ib = (int) b & (BITS_PER_BOX-1);
             int container = getBox(base, l) & ~(storeMask << ib);
@@ -282,8 +308,13 @@ public final class I extends AtomLayout<Integer> {
 
     public final static class BitLEUnsigned extends BitLE {
         // Cannot be protected or public.
-        BitLEUnsigned(int s) {
-            super(s);
+        BitLEUnsigned(int s, boolean concurrent) {
+            super(s, concurrent);
+        }
+
+        @Override
+        final boolean signedBits() {
+            return false;
         }
 
         @Override
@@ -332,8 +363,13 @@ public final class I extends AtomLayout<Integer> {
 
     public final static class BitLESigned extends BitLE {
         // Cannot be protected or public.
-        BitLESigned(int s) {
-            super(s);
+        BitLESigned(int s, boolean concurrent) {
+            super(s, concurrent);
+        }
+
+        @Override
+        final boolean signedBits() {
+            return true;
         }
 
         @Override
@@ -388,14 +424,24 @@ public final class I extends AtomLayout<Integer> {
     static abstract class BitBE extends Bit {
 
         // Cannot be protected or public.
-        BitBE(int s) {
-            super(s, (1 << s) - 1);
+        BitBE(int s, boolean concurrent) {
+            super(s, (1 << s) - 1, concurrent);
+        }
+
+        @Override
+        final boolean bigEndianBits() {
+            return true;
         }
 
 
         // NOT PUBLIC, but visible to Location
         @Override
         void putPrim(Object base, long l, long b, int v) {
+            if (concurrent) {
+                ConcurrentBits.update(this, base, l, b, ConcurrentBits.SET,
+                                      v, 0);
+                return;
+            }
             l += (b >>> LOG_BITS_PER_BOX) << (LOG_BITS_PER_BOX - LOG_BITS_PER_BYTE);
             int ib0 = (int) b & (BITS_PER_BOX-1);
             int ib = BITS_PER_BOX - ib0 - (int) byteOrBitSize();
@@ -423,8 +469,13 @@ public final class I extends AtomLayout<Integer> {
 
     public final static class BitBEUnsigned extends BitBE {
         // Cannot be protected or public.
-        BitBEUnsigned(int s) {
-            super(s);
+        BitBEUnsigned(int s, boolean concurrent) {
+            super(s, concurrent);
+        }
+
+        @Override
+        final boolean signedBits() {
+            return false;
         }
 
         // NOT PUBLIC, but visible to Location
@@ -467,8 +518,13 @@ public final class I extends AtomLayout<Integer> {
 
     public final static class BitBESigned extends BitBE {
         // Cannot be protected or public.
-        BitBESigned(int s) {
-            super(s);
+        BitBESigned(int s, boolean concurrent) {
+            super(s, concurrent);
+        }
+
+        @Override
+        final boolean signedBits() {
+            return true;
         }
 
         // NOT PUBLIC, but visible to Location
@@ -541,9 +597,11 @@ public final class I extends AtomLayout<Integer> {
     abstract public static class BitAt extends Layout<Integer> {
         protected final int bitOffset;
         protected final int bitsAbove;
+        private final boolean concurrent;
         protected final int storeMask;
         BitAt(Bit layout, int bit_offset) {
             super((int) layout.byteOrBitSize(), 0, layout.cls());
+            concurrent = layout.concurrent;
             storeMask =  ((1 << layout.byteOrBitSize()) - 1) << bit_offset;
             bitOffset = bit_offset;
             bitsAbove = BITS_PER_BOX - bit_offset - (int) layout.byteOrBitSize();
@@ -554,11 +612,21 @@ public final class I extends AtomLayout<Integer> {
             return super.toString() + ",@b" + bitOffset;
         }
 
+        // NOT PUBLIC, but visible to AtomBitLayout
+        int bitOffset() {
+            return bitOffset;
+        }
+
         // NOT PUBLIC, but visible to Location
         abstract int prim(Object base, long l);
 
         // NOT PUBLIC, but visible to Location
         final void putPrim(Object base, long l, int v) {
+            if (concurrent) {
+                ConcurrentBits.updateAt(base, l, BYTES_PER_BOX, bitOffset,
+                        (int) byteOrBitSize(), ConcurrentBits.SET, v, 0);
+                return;
+            }
             v = (storeMask & (v << bitOffset));
             int container = getBox(base, l) & ~storeMask;
             // Assume bitfields are unsigned unless they are full width.
@@ -569,7 +637,7 @@ public final class I extends AtomLayout<Integer> {
         // NOT PUBLIC, but visible to Location
         @Override
         final Integer val(Object base, long l) {
-            return new Integer(prim(base, l));
+            return Integer.valueOf(prim(base, l));
         }
 
         // NOT PUBLIC, but visible to Location
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+/**
+ * An open-addressing hash table from Objects, compared by identity, to
+ * long values, for PointerDomain.  Keys and values are kept in parallel
+ * arrays and probed linearly, so lookups and stores allocate nothing.
+ * Zero is reserved to mean "no value" and cannot be stored; handles and
+ * native addresses are never zero.
+ *
+ * This is NOT thread-safe; PointerDomain guards each table with a lock.
+ */
+final class IdentityToLongMap {
+
+    private final static int INITIAL_CAPACITY = 16;
+
+    private Object[] keys;
+    private long[] values;
+    private int size;
+
+    IdentityToLongMap() {
+        keys = new Object[INITIAL_CAPACITY];
+        values = new long[INITIAL_CAPACITY];
+    }
+
+    int size() {
+        return size;
+    }
+
+    private static int slot(Object key, int mask) {
+        int h = System.identityHashCode(key);
+        // Identity hashes may be poorly distributed in their low bits.
+        h *= 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Returns the value for key, or zero if there is none.
+     */
+    long get(Object key) {
+        Object[] ks = keys;
+        int mask = ks.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            Object k = ks[i];
+            if (k == key)
+                return values[i];
+            if (k == null)
+                return 0;
+        }
+    }
+
+    /**
+     * Maps key to value, replacing any previous value.
+     */
+    void put(Object key, long value) {
+        if (key == null)
+            throw new Error("Null is not a valid key");
+        if (value == 0)
+            throw new Error("Zero is not a valid value");
+        Object[] ks = keys;
+        int mask = ks.length - 1;
+        int i = slot(key, mask);
+        for (; ; i = (i + 1) & mask) {
+            Object k = ks[i];
+            if (k == key) {
+                values[i] = value;
+                return;
+            }
+            if (k == null)
+                break;
+        }
+        ks[i] = key;
+        values[i] = value;
+        if (2 * ++size > ks.length)
+            grow();
+    }
+
+    /**
+     * Removes the mapping for key, returning its value, or zero if there
+     * was none.
+     */
+    long remove(Object key) {
+        Object[] ks = keys;
+        int mask = ks.length - 1;
+        int i = slot(key, mask);
+        for (; ; i = (i + 1) & mask) {
+            Object k = ks[i];
+            if (k == key)
+                break;
+            if (k == null)
+                return 0;
+        }
+        long v = values[i];
+        // Shift later members of the probe run back over the hole, so that
+        // no lookup stops short at it.
+        for (int j = i; ; ) {
+            j = (j + 1) & mask;
+            Object k = ks[j];
+            if (k == null)
+                break;
+            int home = slot(k, mask);
+            if (i <= j ? i < home && home <= j : i < home || home <= j)
+                continue; // k's run does not pass through the hole
+            ks[i] = k;
+            values[i] = values[j];
+            i = j;
+        }
+        ks[i] = null;
+        values[i] = 0;
+        size--;
+        return v;
+    }
+
+    private void grow() {
+        Object[] old_keys = keys;
+        long[] old_values = values;
+        int n = old_keys.length * 2;
+        if (n <= 0)
+            throw new Error("Pointer table too large");
+        Object[] ks = new Object[n];
+        long[] vs = new long[n];
+        int mask = n - 1;
+        for (int j = 0; j < old_keys.length; j++) {
+            Object k = old_keys[j];
+            if (k == null)
+                continue;
+            int i = slot(k, mask);
+            while (ks[i] != null)
+                i = (i + 1) & mask;
+            ks[i] = k;
+            vs[i] = old_values[j];
+        }
+        keys = ks;
+        values = vs;
+    }
+}
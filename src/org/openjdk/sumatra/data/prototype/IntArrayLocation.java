@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.lang.ref.Reference;
+
+import sun.misc.Unsafe;
+
+/**
+ * An array location with int elements that can be read and written without
+ * boxing.  Elements are accessed directly through the prim and putPrim
+ * methods of the element layout, either full-width or bitfield.
+ *
+ * Elements can also be updated atomically, and read and written with
+ * volatile or acquire/release ordering.  Bitfield elements get these
+ * through compare-and-swap on their containers (see ConcurrentBits); they
+ * are only safe against plain stores into neighboring elements if the
+ * layout factory was created with concurrent bitfields.
+ */
+public final class IntArrayLocation extends Location<Integer[]> {
+
+    private final long length;
+    // Exactly one of these is non-null.
+    private final I full;
+    private final I.Bit bits;
+    // Element size, in bytes for full-width elements, else in bits.
+    private final long stride;
+
+    // NOT public, since this is a total loophole to peeking and poking.
+    IntArrayLocation(ArrayLocation<Integer> a, I full, I.Bit bits) {
+        super(a, a.layout(), a.addr());
+        this.length = ((ArrayLayout<Integer>) a.layout()).length();
+        this.full = full;
+        this.bits = bits;
+        this.stride = full != null ? full.byteOrBitSize() : bits.byteOrBitSize();
+    }
+
+    /**
+     * Returns a view of an existing array location that reads and writes
+     * elements as ints.
+     *
+     * @param a an array location whose elements are laid out as ints
+     * @return the int view of a
+     */
+    public static IntArrayLocation of(ArrayLocation<Integer> a) {
+        Layout<Integer> e = a.elementLayout();
+        if (e instanceof I)
+            return new IntArrayLocation(a, (I) e, null);
+        if (e instanceof I.Bit)
+            return new IntArrayLocation(a, null, (I.Bit) e);
+        throw new Error("Element layout is not an int layout: " + e);
+    }
+
+    /**
+     * The number of elements in this array.
+     * @return the number of elements
+     */
+    public long length() {
+        return length;
+    }
+
+    private void check(long i) {
+        if (i < 0 || i >= length) {
+            throw new ArrayIndexOutOfBoundsException(String.valueOf(i));
+        }
+    }
+
+    /**
+     * Returns element i.
+     * @param i the element index
+     * @return the element value
+     */
+    public int getInt(long i) {
+        check(i);
+        int v;
+        if (full != null)
+            v = full.prim(base(), addr() + i * stride);
+        else
+            v = bits.prim(base(), addr(), i * stride);
+        // Storage may be freed once this is unreachable.
+        Reference.reachabilityFence(this);
+        return v;
+    }
+
+    /**
+     * Stores v into element i.
+     * @param i the element index
+     * @param v the value to store
+     */
+    public void putInt(long i, int v) {
+        check(i);
+        if (full != null)
+            full.putPrim(base(), addr() + i * stride, v);
+        else
+            bits.putPrim(base(), addr(), i * stride, v);
+        Reference.reachabilityFence(this);
+    }
+
+    /**
+     * Atomically adds delta to element i, returning its previous value.
+     * Bitfield elements wrap within their width.  This is atomic with
+     * respect to other atomic updates and, for a layout factory with
+     * concurrent bitfields, to stores into neighboring elements.
+     *
+     * @param i the element index
+     * @param delta the amount to add
+     * @return the previous value of the element
+     */
+    @SuppressWarnings("restriction")
+    public int getAndAddInt(long i, int delta) {
+        check(i);
+        int v;
+        if (full != null)
+            v = Memory.getAndAddInt(base(), addr() + i * stride, delta);
+        else
+            v = (int) ConcurrentBits.extend(
+                    ConcurrentBits.update(bits, base(), addr(), i * stride,
+                                          ConcurrentBits.ADD, delta, 0),
+                    (int) stride, bits.signedBits());
+        Reference.reachabilityFence(this);
+        return v;
+    }
+
+    /**
+     * Atomically stores v into element i if it currently holds expected.
+     * For bitfield elements, only the low bits of expected and v that fit
+     * in the field are compared and stored.
+     *
+     * @param i the element index
+     * @param expected the value the element must hold
+     * @param v the value to store
+     * @return true if v was stored
+     */
+    @SuppressWarnings("restriction")
+    public boolean compareAndSetInt(long i, int expected, int v) {
+        check(i);
+        boolean ok;
+        if (full != null)
+            ok = Memory.compareAndSwapInt(base(), addr() + i * stride,
+                                               expected, v);
+        else
+            ok = ConcurrentBits.update(bits, base(), addr(), i * stride,
+                                       ConcurrentBits.CAS, v, expected) ==
+                 (expected & BitArrays.maskFor((int) stride));
+        Reference.reachabilityFence(this);
+        return ok;
+    }
+
+    /**
+     * Atomically stores v into element i, returning its previous value.
+     *
+     * @param i the element index
+     * @param v the value to store
+     * @return the previous value of the element
+     */
+    @SuppressWarnings("restriction")
+    public int getAndSetInt(long i, int v) {
+        check(i);
+        int old;
+        if (full != null)
+            old = Memory.getAndSetInt(base(), addr() + i * stride, v);
+        else
+            old = (int) ConcurrentBits.extend(
+                    ConcurrentBits.update(bits, base(), addr(), i * stride,
+                                          ConcurrentBits.SET, v, 0),
+                    (int) stride, bits.signedBits());
+        Reference.reachabilityFence(this);
+        return old;
+    }
+
+    /**
+     * Returns element i, read with volatile semantics.
+     * @param i the element index
+     * @return the element value
+     */
+    @SuppressWarnings("restriction")
+    public int getIntVolatile(long i) {
+        check(i);
+        int v;
+        if (full != null)
+            v = Memory.getIntVolatile(base(), addr() + i * stride);
+        else
+            v = (int) ConcurrentBits.extend(
+                    ConcurrentBits.update(bits, base(), addr(), i * stride,
+                                          ConcurrentBits.GET, 0, 0),
+                    (int) stride, bits.signedBits());
+        Reference.reachabilityFence(this);
+        return v;
+    }
+
+    /**
+     * Stores v into element i with volatile semantics.
+     * @param i the element index
+     * @param v the value to store
+     */
+    @SuppressWarnings("restriction")
+    public void putIntVolatile(long i, int v) {
+        check(i);
+        if (full != null)
+            Memory.putIntVolatile(base(), addr() + i * stride, v);
+        else
+            ConcurrentBits.update(bits, base(), addr(), i * stride,
+                                  ConcurrentBits.SET, v, 0);
+        Reference.reachabilityFence(this);
+    }
+
+    /**
+     * Returns element i; no later load or store is reordered before this
+     * read.
+     * @param i the element index
+     * @return the element value
+     */
+    @SuppressWarnings("restriction")
+    public int getIntAcquire(long i) {
+        if (full == null)
+            return getIntVolatile(i);
+        check(i);
+        int v = Memory.getInt(base(), addr() + i * stride);
+        AtomLayout.u.loadFence();
+        Reference.reachabilityFence(this);
+        return v;
+    }
+
+    /**
+     * Stores v into element i; no earlier load or store is reordered after
+     * this store.
+     * @param i the element index
+     * @param v the value to store
+     */
+    @SuppressWarnings("restriction")
+    public void putIntRelease(long i, int v) {
+        if (full == null) {
+            putIntVolatile(i, v);
+            return;
+        }
+        check(i);
+        Memory.putOrderedInt(base(), addr() + i * stride, v);
+        Reference.reachabilityFence(this);
+    }
+
+    private void checkRange(int array_length, int off, long idx, int len) {
+        if (off < 0 || len < 0 || off > array_length - len)
+            throw new ArrayIndexOutOfBoundsException(
+                    "Java array range " + off + "+" + len);
+        if (idx < 0 || idx > length - len)
+            throw new ArrayIndexOutOfBoundsException(
+                    "Flattened array range " + idx + "+" + len);
+    }
+
+    /**
+     * Copies len elements from src, starting at src_off, into this array
+     * starting at element dst_idx.  Full-width elements are copied as a
+     * single block of memory, bitfield elements are packed a word
+     * at a time (see BitArrays).
+     *
+     * @param src the Java array to copy from
+     * @param src_off the index of the first element of src to copy
+     * @param dst_idx the index in this array of the first element stored
+     * @param len the number of elements to copy
+     */
+    @SuppressWarnings("restriction")
+    public void copyFrom(int[] src, int src_off, long dst_idx, int len) {
+        checkRange(src.length, src_off, dst_idx, len);
+        long src_offset = Unsafe.ARRAY_INT_BASE_OFFSET +
+                (long) src_off * Unsafe.ARRAY_INT_INDEX_SCALE;
+        if (full != null)
+            Memory.copyMemory(src, src_offset,
+                    base(), addr() + dst_idx * stride, len * stride);
+        else
+            BitArrays.pack(bits, src, src_offset, Unsafe.ARRAY_INT_INDEX_SCALE,
+                    base(), addr(), dst_idx, len);
+        Reference.reachabilityFence(this);
+    }
+
+    /**
+     * Copies len elements of this array, starting at element src_idx, into
+     * dst starting at dst_off.
+     *
+     * @param dst the Java array to copy into
+     * @param dst_off the index of the first element of dst to store
+     * @param src_idx the index in this array of the first element copied
+     * @param len the number of elements to copy
+     */
+    @SuppressWarnings("restriction")
+    public void copyTo(int[] dst, int dst_off, long src_idx, int len) {
+        checkRange(dst.length, dst_off, src_idx, len);
+        long dst_offset = Unsafe.ARRAY_INT_BASE_OFFSET +
+                (long) dst_off * Unsafe.ARRAY_INT_INDEX_SCALE;
+        if (full != null)
+            Memory.copyMemory(base(), addr() + src_idx * stride,
+                    dst, dst_offset, len * stride);
+        else
+            BitArrays.unpack(bits, base(), addr(), src_idx,
+                    dst, dst_offset, Unsafe.ARRAY_INT_INDEX_SCALE, len);
+        Reference.reachabilityFence(this);
+    }
+}
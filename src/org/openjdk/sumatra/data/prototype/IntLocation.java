@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.lang.ref.Reference;
+
+/**
+ * A location holding a single int, either full-width or a bitfield member of
+ * a tuple, that can be read and written without boxing and updated
+ * atomically: compare-and-set, get-and-add and get-and-set, plus volatile
+ * and acquire/release reads and writes.  These are enough to build
+ * lock-free counters and queues directly on existing layouts.
+ *
+ * Bitfield members are updated with compare-and-swap on their containers
+ * (see ConcurrentBits); they are only safe against plain stores into other
+ * members sharing the container if the layout factory was created with
+ * concurrent bitfields.
+ */
+public final class IntLocation extends Location<Integer> {
+
+    // Exactly one of these is non-null.
+    private final I full;
+    private final I.BitAt bits;
+
+    // NOT public, since this is a total loophole to peeking and poking.
+    IntLocation(Location<Integer> l, I full, I.BitAt bits) {
+        super(l, l.layout(), l.addr());
+        this.full = full;
+        this.bits = bits;
+    }
+
+    /**
+     * Returns a view of an existing location that reads and writes its
+     * value as an int.
+     *
+     * @param l a location laid out as an int
+     * @return the int view of l
+     */
+    public static IntLocation of(Location<Integer> l) {
+        Layout<Integer> e = l.layout();
+        if (e instanceof I)
+            return new IntLocation(l, (I) e, null);
+        if (e instanceof I.BitAt)
+            return new IntLocation(l, null, (I.BitAt) e);
+        throw new Error("Layout is not an int layout: " + e);
+    }
+
+    private long update(int op, long x, long expected) {
+        long v = ConcurrentBits.updateAt(base(), addr(), I.BYTES_PER_BOX,
+                bits.bitOffset, (int) bits.byteOrBitSize(), op, x, expected);
+        return ConcurrentBits.extend(v, (int) bits.byteOrBitSize(),
+                                     bits instanceof I.BitAtSigned);
+    }
+
+    /**
+     * Returns the value.
+     * @return the value
+     */
+    public int getInt() {
+        int v = full != null ? full.prim(base(), addr()) : bits.prim(base(), addr());
+        // Storage may be freed once this is unreachable.
+        Reference.reachabilityFence(this);
+        return v;
+    }
+
+    /**
+     * Stores v.
+     * @param v the value to store
+     */
+    public void putInt(int v) {
+        if (full != null)
+            full.putPrim(base(), addr(), v);
+        else
+            bits.putPrim(base(), addr(), v);
+        Reference.reachabilityFence(this);
+    }
+
+    /**
+     * Returns the value, read with volatile semantics.
+     * @return the value
+     */
+    @SuppressWarnings("restriction")
+    public int getIntVolatile() {
+        int v;
+        if (full != null)
+            v = Memory.getIntVolatile(base(), addr());
+        else
+            v = (int) update(ConcurrentBits.GET, 0, 0);
+        Reference.reachabilityFence(this);
+        return v;
+    }
+
+    /**
+     * Stores v with volatile semantics.
+     * @param v the value to store
+     */
+    @SuppressWarnings("restriction")
+    public void putIntVolatile(int v) {
+        if (full != null)
+            Memory.putIntVolatile(base(), addr(), v);
+        else
+            update(ConcurrentBits.SET, v, 0);
+        Reference.reachabilityFence(this);
+    }
+
+    /**
+     * Returns the value; no later load or store is reordered before this
+     * read.
+     * @return the value
+     */
+    @SuppressWarnings("restriction")
+    public int getIntAcquire() {
+        if (full == null)
+            return getIntVolatile();
+        int v = Memory.getInt(base(), addr());
+        AtomLayout.u.loadFence();
+        Reference.reachabilityFence(this);
+        return v;
+    }
+
+    /**
+     * Stores v; no earlier load or store is reordered after this store.
+     * @param v the value to store
+     */
+    @SuppressWarnings("restriction")
+    public void putIntRelease(int v) {
+        if (full == null) {
+            putIntVolatile(v);
+            return;
+        }
+        Memory.putOrderedInt(base(), addr(), v);
+        Reference.reachabilityFence(this);
+    }
+
+    /**
+     * Atomically stores v if the current value is expected.  For bitfield
+     * members, only the low bits of expected and v that fit in the field are
+     * compared and stored.
+     *
+     * @param expected the value that must be held
+     * @param v the value to store
+     * @return true if v was stored
+     */
+    @SuppressWarnings("restriction")
+    public boolean compareAndSetInt(int expected, int v) {
+        boolean ok;
+        if (full != null) {
+            ok = Memory.compareAndSwapInt(base(), addr(), expected, v);
+        } else {
+            long mask = BitArrays.maskFor((int) bits.byteOrBitSize());
+            ok = (update(ConcurrentBits.CAS, v, expected) & mask) ==
+                 (expected & mask);
+        }
+        Reference.reachabilityFence(this);
+        return ok;
+    }
+
+    /**
+     * Atomically adds delta, returning the previous value.  Bitfield members
+     * wrap within their width.
+     *
+     * @param delta the amount to add
+     * @return the previous value
+     */
+    @SuppressWarnings("restriction")
+    public int getAndAddInt(int delta) {
+        int v;
+        if (full != null)
+            v = Memory.getAndAddInt(base(), addr(), delta);
+        else
+            v = (int) update(ConcurrentBits.ADD, delta, 0);
+        Reference.reachabilityFence(this);
+        return v;
+    }
+
+    /**
+     * Atomically stores v, returning the previous value.
+     *
+     * @param v the value to store
+     * @return the previous value
+     */
+    @SuppressWarnings("restriction")
+    public int getAndSetInt(int v) {
+        int old;
+        if (full != null)
+            old = Memory.getAndSetInt(base(), addr(), v);
+        else
+            old = (int) update(ConcurrentBits.SET, v, 0);
+        Reference.reachabilityFence(this);
+        return old;
+    }
+}
@@ -27,6 +27,8 @@ package org.openjdk.sumatra.data.prototype;
 
 import org.openjdk.sumatra.data.prototype.AtomBitLayout;
 
+import sun.misc.Unsafe;
+
 /**
  * A layout for a 64-bit integer, in a full-sized container.
  * @author dr2chase
@@ -44,16 +46,20 @@ public final class J extends AtomLayout<Long> {
 
     @SuppressWarnings("restriction")
     private static long getBox(Object base, long offset) {
-        return u.getLong(base, offset);
+        return Memory.getLong(base, offset);
     }
 
     @SuppressWarnings("restriction")
     private static void putBox(Object base, long offset, long val) {
-        u.putLong(base, offset, val);
+        Memory.putLong(base, offset, val);
     }
 
-    J(Class cl, int s, int a) {
+    // Whether bitfield layouts derived from this one update concurrently.
+    private final boolean concurrentBits;
+
+    J(Class cl, int s, int a, boolean concurrent_bits) {
         super(s, a, cl);
+        concurrentBits = concurrent_bits;
     }
 
     // NOT PUBLIC, but visible to Location
@@ -69,7 +75,7 @@ public final class J extends AtomLayout<Long> {
     // NOT PUBLIC, but visible to Location
     @Override
     Long val(Object base, long l) {
-        return new Long(prim(base, l));
+        return Long.valueOf(prim(base, l));
     }
 
     // NOT PUBLIC, but visible to Location
@@ -79,12 +85,11 @@ public final class J extends AtomLayout<Long> {
     }
 
     // NOT PUBLIC, but visible to Location
+    @SuppressWarnings("restriction")
     Object makeArray(Object base, long addr, int count) {
         long[] a = new long[count];
-        for (int i = 0; i < count; i++) {
-            a[i] = prim(base, addr);
-            addr += byteOrBitSize();
-        }
+        Memory.copyMemory(base, addr, a, Unsafe.ARRAY_LONG_BASE_OFFSET,
+                     count * byteOrBitSize());
         return a;
     }
 
@@ -110,7 +115,7 @@ public final class J extends AtomLayout<Long> {
                 throw new Error("Improper bit offset (negative of) " + -b);
             BitLE rv = leSAccessors[b];
             if (rv == null) {
-                rv = new BitLESigned(b);
+                rv = new BitLESigned(b, concurrentBits);
                 leSAccessors[b] = rv;
             }
             return rv;
@@ -119,7 +124,7 @@ public final class J extends AtomLayout<Long> {
                 throw new Error("Improper bit offset " + b);
             BitLE rv = leUAccessors[b];
             if (rv == null) {
-                rv = new BitLEUnsigned(b);
+                rv = new BitLEUnsigned(b, concurrentBits);
                 leUAccessors[b] = rv;
             }
             return rv;
@@ -134,7 +139,7 @@ public final class J extends AtomLayout<Long> {
                 throw new Error("Improper bit offset (negative of) " + -b);
             BitBE rv = beSAccessors[b];
             if (rv == null) {
-                rv = new BitBESigned(b);
+                rv = new BitBESigned(b, concurrentBits);
                 beSAccessors[b] = rv;
             }
             return rv;
@@ -143,7 +148,7 @@ public final class J extends AtomLayout<Long> {
                 throw new Error("Improper bit offset " + b);
             BitBE rv = beUAccessors[b];
             if (rv == null) {
-                rv = new BitBEUnsigned(b);
+                rv = new BitBEUnsigned(b, concurrentBits);
                 beUAccessors[b] = rv;
             }
             return rv;
@@ -160,8 +165,8 @@ public final class J extends AtomLayout<Long> {
         protected final long storeMask;
 
         // Cannot be protected or public.
-        Bit(int s, long mask) {
-            super(s, 0, Long.class);
+        Bit(int s, long mask, boolean concurrent) {
+            super(s, 0, Long.class, concurrent);
             storeMask = mask;
         }
 
@@ -183,7 +188,7 @@ public final class J extends AtomLayout<Long> {
         // NOT PUBLIC, but visible to Location
         @Override
         Long val(Object base, long l) {
-            return new Long(prim(base, l));
+            return Long.valueOf(prim(base, l));
         }
 
         // NOT PUBLIC, but visible to Location
@@ -195,7 +200,7 @@ public final class J extends AtomLayout<Long> {
         // NOT PUBLIC, but visible to Location
         @Override
         Long val(Object base, long l, long b) {
-            return new Long(prim(base, l, b));
+            return Long.valueOf(prim(base, l, b));
         }
 
         // NOT PUBLIC, but visible to Location
@@ -207,23 +212,34 @@ public final class J extends AtomLayout<Long> {
         // NOT PUBLIC, but visible to Location
         Object makeArray(Object base, long addr, int count) {
             long[] a = new long[count];
-            long offset = 0;
-            long bump = byteOrBitSize();
-            for (int i = 0; i < count; i++) {
-                a[i] = prim(base, addr, offset);
-                offset += bump;
-            }
+            BitArrays.unpack(this, base, addr, 0, a, Unsafe.ARRAY_LONG_BASE_OFFSET,
+                             Unsafe.ARRAY_LONG_INDEX_SCALE, count);
             return a;
         }
 
         @Override
         void fillArray(Location arena, Object base, long addr, Long[] a) {
             int count = a.length;
-            long offset = 0;
-            long bump = byteOrBitSize();
-            for (int i = 0; i < count; i++) {
-                a[i] = Long.valueOf(prim(base, addr, offset));
-                offset += bump;
+            long[] buf = new long[Math.min(count, BitArrays.CHUNK)];
+            for (int i = 0; i < count; i += buf.length) {
+                int n = Math.min(buf.length, count - i);
+                BitArrays.unpack(this, base, addr, i, buf, Unsafe.ARRAY_LONG_BASE_OFFSET,
+                                 Unsafe.ARRAY_LONG_INDEX_SCALE, n);
+                for (int j = 0; j < n; j++)
+                    a[i + j] = Long.valueOf(buf[j]);
+            }
+        }
+
+        // NOT PUBLIC, but visible to ArrayBitLayout
+        @Override
+        void putArray(Object base, long addr, Long[] a, int count) {
+            long[] buf = new long[Math.min(count, BitArrays.CHUNK)];
+            for (int i = 0; i < count; i += buf.length) {
+                int n = Math.min(buf.length, count - i);
+                for (int j = 0; j < n; j++)
+                    buf[j] = a[i + j].longValue();
+                BitArrays.pack(this, buf, Unsafe.ARRAY_LONG_BASE_OFFSET,
+                               Unsafe.ARRAY_LONG_INDEX_SCALE, base, addr, i, n);
             }
         }
 
@@ -251,8 +267,13 @@ public final class J extends AtomLayout<Long> {
      * @author dr2chase
      */
     abstract static class BitLE extends  Bit {
-        BitLE(int s) {
-            super(s, (1L << s) - 1);
+        BitLE(int s, boolean concurrent) {
+            super(s, (1L << s) - 1, concurrent);
+        }
+
+        @Override
+        final boolean bigEndianBits() {
+            return false;
         }
 
         // NOT PUBLIC, but visible to Location
@@ -262,6 +283,11 @@ public final class J extends AtomLayout<Long> {
         // NOT PUBLIC, but visible to Location
         @Override
         final void putPrim(Object base, long l, long b, long v) {
+            if (concurrent) {
+                ConcurrentBits.update(this, base, l, b, ConcurrentBits.SET,
+                                      v, 0);
+                return;
+            }
             l += (b >>> LOG_BITS_PER_BOX) << (LOG_BITS_PER_BOX - LOG_BITS_PER_BYTE);
             int ib = (int) b & (BITS_PER_BOX-1);
             long container = getBox(base, l) & ~(storeMask << ib);
@@ -281,8 +307,13 @@ public final class J extends AtomLayout<Long> {
 
     public final static class BitLEUnsigned extends BitLE {
         // Cannot be protected or public.
-        BitLEUnsigned(int s) {
-            super(s);
+        BitLEUnsigned(int s, boolean concurrent) {
+            super(s, concurrent);
+        }
+
+        @Override
+        final boolean signedBits() {
+            return false;
         }
 
         @Override
@@ -331,8 +362,13 @@ public final class J extends AtomLayout<Long> {
 
     public final static class BitLESigned extends BitLE {
         // Cannot be protected or public.
-        BitLESigned(int s) {
-            super(s);
+        BitLESigned(int s, boolean concurrent) {
+            super(s, concurrent);
+        }
+
+        @Override
+        final boolean signedBits() {
+            return true;
         }
 
         @Override
@@ -387,14 +423,24 @@ public final class J extends AtomLayout<Long> {
     static abstract class BitBE extends Bit {
 
         // Cannot be protected or public.
-        BitBE(int s) {
-            super(s, (1L << s) - 1);
+        BitBE(int s, boolean concurrent) {
+            super(s, (1L << s) - 1, concurrent);
+        }
+
+        @Override
+        final boolean bigEndianBits() {
+            return true;
         }
 
 
         // NOT PUBLIC, but visible to Location
         @Override
         void putPrim(Object base, long l, long b, long v) {
+            if (concurrent) {
+                ConcurrentBits.update(this, base, l, b, ConcurrentBits.SET,
+                                      v, 0);
+                return;
+            }
             l += (b >>> LOG_BITS_PER_BOX) << (LOG_BITS_PER_BOX - LOG_BITS_PER_BYTE);
             int ib0 = (int) b & (BITS_PER_BOX-1);
             int ib = BITS_PER_BOX - ib0 - (int) byteOrBitSize();
@@ -422,8 +468,13 @@ public final class J extends AtomLayout<Long> {
 
     public final static class BitBEUnsigned extends BitBE {
         // Cannot be protected or public.
-        BitBEUnsigned(int s) {
-            super(s);
+        BitBEUnsigned(int s, boolean concurrent) {
+            super(s, concurrent);
+        }
+
+        @Override
+        final boolean signedBits() {
+            return false;
         }
 
         // NOT PUBLIC, but visible to Location
@@ -466,8 +517,13 @@ public final class J extends AtomLayout<Long> {
 
     public final static class BitBESigned extends BitBE {
         // Cannot be protected or public.
-        BitBESigned(int s) {
-            super(s);
+        BitBESigned(int s, boolean concurrent) {
+            super(s, concurrent);
+        }
+
+        @Override
+        final boolean signedBits() {
+            return true;
         }
 
         // NOT PUBLIC, but visible to Location
@@ -540,9 +596,11 @@ public final class J extends AtomLayout<Long> {
     abstract public static class BitAt extends Layout<Long> {
         protected final int bitOffset;
         protected final int bitsAbove;
+        private final boolean concurrent;
         protected final long storeMask;
         BitAt(Bit layout, int bit_offset) {
             super((int) layout.byteOrBitSize(), 0, layout.cls());
+            concurrent = layout.concurrent;
             storeMask =  ((1L << layout.byteOrBitSize()) - 1) << bit_offset;
             bitOffset = bit_offset;
             bitsAbove = BITS_PER_BOX - bit_offset - (int) layout.byteOrBitSize();
@@ -553,11 +611,21 @@ public final class J extends AtomLayout<Long> {
             return super.toString() + ",@b" + bitOffset;
         }
 
+        // NOT PUBLIC, but visible to AtomBitLayout
+        int bitOffset() {
+            return bitOffset;
+        }
+
         // NOT PUBLIC, but visible to Location
         abstract long prim(Object base, long l);
 
         // NOT PUBLIC, but visible to Location
         final void putPrim(Object base, long l, long v) {
+            if (concurrent) {
+                ConcurrentBits.updateAt(base, l, BYTES_PER_BOX, bitOffset,
+                        (int) byteOrBitSize(), ConcurrentBits.SET, v, 0);
+                return;
+            }
             v = (storeMask & (v << bitOffset));
             long container = getBox(base, l) & ~storeMask;
             // Assume bitfields are unsigned unless they are full width.
@@ -568,7 +636,7 @@ public final class J extends AtomLayout<Long> {
         // NOT PUBLIC, but visible to Location
         @Override
         final Long val(Object base, long l) {
-            return new Long(prim(base, l));
+            return Long.valueOf(prim(base, l));
         }
 
         // NOT PUBLIC, but visible to Location
@@ -121,13 +121,16 @@ public abstract class Layout<T> {
 
     /**
      * Allocates a new location in the native (C) heap for this layout.
+     * The memory is freed once the location and all locations derived from
+     * it are unreachable.
      *
      * @return a newly allocate location.
      */
     public Location<T> allocate() {
-        @SuppressWarnings("restriction")
-        long a = AtomLayout.u.allocateMemory(byteOrBitSize());
-        return new Location<T>(null, this,  a);
+        long size = byteOrBitSize();
+        long a = NativeMemory.allocate(size);
+        return NativeMemory.freeWhenUnreachable(
+                new Location<T>(null, this,  a), a, size);
     }
 
     /**
@@ -153,7 +156,8 @@ public abstract class Layout<T> {
     }
 
     /**
-     * Allocates a location within a mapped byte buffer.
+     * Allocates a location within a mapped byte buffer, of at most 2GB (see
+     * allocateWithinMappedFile for larger mappings).
      * If the buffer is too small or is not adequately aligned for this layout,
      * and exception will be thrown.
      *
@@ -173,6 +177,61 @@ public abstract class Layout<T> {
         return new Location<T>(null, this,  a);
     }
 
+    /**
+     * Allocates a location at index zero of a byte buffer.  The location's
+     * loads and stores go through the buffer, bounds-checked, instead of
+     * through Unsafe (see Memory); this works for heap, direct and mapped
+     * buffers alike and needs no reflective access to JDK internals.
+     * As within arrays of long, pointers are not supported yet.
+     * The buffer must hold this layout's size rounded up to whole longs.
+     * If the buffer is too small or is not adequately aligned for this layout,
+     * an exception will be thrown.
+     *
+     * @return the location.
+     */
+    public Location<T> allocateWithinByteBuffer(java.nio.ByteBuffer bb) {
+        checkByteBuffer(bb);
+        return new Location<T>(bb, this, 0);
+    }
+
+    /**
+     * Allocates a location at the start of a mapped file, which may be
+     * larger than 2GB.  Loads and stores go straight to the mapped file
+     * (see MappedFile); call its force method to make changes durable.
+     * As within arrays of long, pointers are not supported yet.
+     * The mapping must hold this layout's size rounded up to whole longs.
+     * If the mapping is too small or is not adequately aligned for this
+     * layout, an exception will be thrown.
+     *
+     * @return the location.
+     */
+    public Location<T> allocateWithinMappedFile(MappedFile mf) {
+        checkMappedFile(mf);
+        return new Location<T>(mf, this, 0);
+    }
+
+    final void checkMappedFile(MappedFile mf) {
+        // As for byte buffers, the mapping must hold whole longs.
+        int a = Math.max(align, LayoutFactory.JS);
+        if (mf.size() < roundUp(size, LayoutFactory.JS))
+            throw new Error("Mapped file not large enough for layout");
+        if (mf.position() % a != 0)
+            throw new Error("Mapped file not sufficiently aligned for layout, needed " +
+                             a);
+    }
+
+    final void checkByteBuffer(java.nio.ByteBuffer bb) {
+        // Bitfields are updated a word at a time, so like the other kinds
+        // of storage the buffer must be aligned to a long and hold whole
+        // longs (see allocateWithinArray).
+        int a = Math.max(align, LayoutFactory.JS);
+        if (bb.limit() < roundUp(size, LayoutFactory.JS))
+            throw new Error("Buffer not large enough for layout");
+        if (bb.alignmentOffset(0, a) != 0)
+            throw new Error("Buffer not sufficiently aligned for layout, needed " +
+                             a);
+    }
+
     /**
      * Allocates a location in a newly allocated array of long for this layout.
      *
@@ -196,8 +255,9 @@ public abstract class Layout<T> {
     }
 
     /**
-     * This class allows an expedient implementation of corner cases for
-     * container-spanning bitfield accesses.
+     * This class allows an expedient implementation of locations for array
+     * elements that have no single address, such as the elements of column
+     * arrays; every access goes through the array.
      *
      * @author dr2chase
      */
@@ -29,7 +29,9 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  *
@@ -58,7 +60,9 @@ public class LayoutFactory  {
      * By default bitfields are unsigned.  A signed bitfield is specified
      * by using the negative of its intended width as the bit_width parameter.
      *
-     * Bitfields in general are not (yet) multithread-friendly.
+     * Bitfields are not multithread-friendly unless this factory was
+     * created with concurrent bitfields; otherwise storing into one field
+     * may undo a concurrent store into another field sharing its container.
      *
      * @param rt
      * @param bit_width
@@ -103,16 +107,28 @@ public class LayoutFactory  {
      * This interface is provided to allow creation of arrays of bitfields
      * and arrays of pointers.
      *
+     * Array layouts are cached, so asking twice for the same element layout
+     * and count usually returns the same array layout; the cache holds at
+     * most MAX_CACHED_ARRAY_LAYOUTS entries, dropping the least recently
+     * used.  This is thread-safe.
+     *
      * @param l
      * @param count
      * @return
      */
     public <T> ArrayLayout<T> array(Layout<T> l, long count) {
-        if (l instanceof AtomBitLayout) {
-            return new ArrayBitLayout<T>((AtomBitLayout<T>)l, count);
-        } else
-            // could these be cached?
-            return new ArrayDefaultLayout<T>(l, count);
+        ArrayKey key = new ArrayKey(l, count, false);
+        synchronized (arrayLayouts) {
+            ArrayLayout<T> al = arrayLayouts.get(key);
+            if (al == null) {
+                if (l instanceof AtomBitLayout)
+                    al = new ArrayBitLayout<T>((AtomBitLayout<T>)l, count);
+                else
+                    al = new ArrayDefaultLayout<T>(l, count);
+                arrayLayouts.put(key, al);
+            }
+            return al;
+        }
     }
 
     /**
@@ -129,11 +145,55 @@ public class LayoutFactory  {
         Layout<T> layout = layouts.get(cls);
         if (layout == null)
             throw new Error("No layout created for type " + cls);
-        // could these be cached?
-        // return new ArrayDefaultLayout<T>((Layout<T>)layout, count);
         return array(layout, count);
     }
 
+    /**
+     * Returns a layout for a fixed-size array of tuples, stored as one
+     * column per tuple field instead of one tuple after another.  Elements
+     * are read and written as whole tuples just as for array, but each
+     * field can also be reached as an array of its own through
+     * ArrayLocation.column, so that scans over a few fields touch only
+     * those fields' memory.
+     *
+     * @param l a tuple layout
+     * @param count
+     * @return
+     */
+    public <T> ArrayColumnLayout<T> columnArray(Layout<T> l, long count) {
+        if (!(l instanceof TupleLayout))
+            throw new Error("Column arrays require a tuple layout, not " + l);
+        ArrayKey key = new ArrayKey(l, count, true);
+        synchronized (arrayLayouts) {
+            ArrayColumnLayout<T> al = (ArrayColumnLayout<T>) arrayLayouts.get(key);
+            if (al == null) {
+                TupleLayout<T> tuple = (TupleLayout<T>) l;
+                // Columns are ordinary arrays of the fields, so share them.
+                ArrayLayout[] columns = new ArrayLayout[tuple.fieldCount()];
+                for (int i = 0; i < columns.length; i++)
+                    columns[i] = array(tuple.fieldLayout(i), count);
+                al = new ArrayColumnLayout<T>(tuple, count, columns);
+                arrayLayouts.put(key, al);
+            }
+            return al;
+        }
+    }
+
+    /**
+     * Returns a column array layout (see columnArray) for the existing tuple
+     * layout of the class cls.
+     *
+     * @param cls
+     * @param count
+     * @return
+     */
+    public <T> ArrayColumnLayout<T> columnArray(Class<T> cls, long count) {
+        Layout<T> layout = layouts.get(cls);
+        if (layout == null)
+            throw new Error("No layout created for type " + cls);
+        return columnArray(layout, count);
+    }
+
     /**
      * Returns a layout for a translated pointer; that is, a reference in the
      * flattened data structure to the flattened representation of an object of
@@ -353,6 +413,49 @@ public class LayoutFactory  {
     private final HashMap<Class, TranslatedPointerLayout> pointerLayouts;
     private final HashMap<Class, OpaquePointerLayout> opaqueLayouts;
 
+    public final static int MAX_CACHED_ARRAY_LAYOUTS = 1024;
+
+    /**
+     * Key for the array layout cache; element layouts are compared by
+     * identity.
+     */
+    private final static class ArrayKey {
+        final Layout element;
+        final long count;
+        final boolean columns;
+
+        ArrayKey(Layout element, long count, boolean columns) {
+            this.element = element;
+            this.count = count;
+            this.columns = columns;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ArrayKey))
+                return false;
+            ArrayKey k = (ArrayKey) o;
+            return element == k.element && count == k.count && columns == k.columns;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(element) * 31 +
+                   Long.hashCode(count) + (columns ? 1 : 0);
+        }
+    }
+
+    // Least recently used first; guarded by itself.
+    private final LinkedHashMap<ArrayKey, ArrayLayout> arrayLayouts =
+            new LinkedHashMap<ArrayKey, ArrayLayout>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<ArrayKey, ArrayLayout> eldest) {
+                    return size() > MAX_CACHED_ARRAY_LAYOUTS;
+                }
+            };
+
     public final static int BS = 1;
     public final static int BA = 1;
     public final static int ZS = 1;
@@ -374,28 +477,42 @@ public class LayoutFactory  {
     public final static int DA = 8;
 
     public LayoutFactory() {
+        this(false);
+    }
+
+    /**
+     * Creates a layout factory whose bitfield layouts, in tuples and in
+     * arrays, are updated with compare-and-swap if concurrent_bitfields is
+     * true.  Threads may then store into different fields sharing a
+     * container, or update small counters with the atomic methods of the
+     * primitive array views, without external locking.  Stores are somewhat
+     * slower than with ordinary bitfields.
+     *
+     * @param concurrent_bitfields
+     */
+    public LayoutFactory(boolean concurrent_bitfields) {
         layouts =
                 new HashMap<Class, Layout>();
         pointerLayouts =
                 new HashMap<Class, TranslatedPointerLayout>();
         opaqueLayouts =
                 new HashMap<Class, OpaquePointerLayout>();
-        layouts.put(Integer.class, new I(Integer.class, IS, IA));
-        layouts.put(Integer.TYPE, new I(Integer.TYPE, IS, IA));
+        layouts.put(Integer.class, new I(Integer.class, IS, IA, concurrent_bitfields));
+        layouts.put(Integer.TYPE, new I(Integer.TYPE, IS, IA, concurrent_bitfields));
         layouts.put(Float.class, new F(Float.class, FS, FA));
         layouts.put(Float.TYPE, new F(Float.TYPE, FS, FA));
 
-        layouts.put(Short.class, new S(Short.class, SS, SA));
-        layouts.put(Short.TYPE, new S(Short.TYPE, SS, SA));
+        layouts.put(Short.class, new S(Short.class, SS, SA, concurrent_bitfields));
+        layouts.put(Short.TYPE, new S(Short.TYPE, SS, SA, concurrent_bitfields));
 
-        layouts.put(Byte.class, new B(Byte.class, BS, BA));
-        layouts.put(Byte.TYPE, new B(Byte.TYPE, BS, BA));
-        layouts.put(Boolean.class, new Z(Boolean.class, BS, BA));
-        layouts.put(Boolean.TYPE, new Z(Boolean.TYPE, BS, BA));
+        layouts.put(Byte.class, new B(Byte.class, BS, BA, concurrent_bitfields));
+        layouts.put(Byte.TYPE, new B(Byte.TYPE, BS, BA, concurrent_bitfields));
+        layouts.put(Boolean.class, new Z(Boolean.class, BS, BA, concurrent_bitfields));
+        layouts.put(Boolean.TYPE, new Z(Boolean.TYPE, BS, BA, concurrent_bitfields));
 
         layouts.put(Double.class, new D(Double.class, DS, DA));
         layouts.put(Double.TYPE, new D(Double.TYPE, DS, DA));
-        layouts.put(Long.class, new J(Long.class, JS, JA));
-        layouts.put(Long.TYPE, new J(Long.TYPE, JS, JA));
+        layouts.put(Long.class, new J(Long.class, JS, JA, concurrent_bitfields));
+        layouts.put(Long.TYPE, new J(Long.TYPE, JS, JA, concurrent_bitfields));
     }
 }
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves flattened data to a file together with a description of its
+ * layout, and opens such files again as locations mapped straight from the
+ * file (see MappedFile), so nothing is unmarshalled or copied on startup.
+ *
+ * A file is a header followed by the raw bytes of the location, starting
+ * at a page boundary and padded to whole longs.  The header holds a magic
+ * number and version, the byte order of the payload, its offset and size,
+ * and a description of the layout tree (see describe): tuple fields by
+ * getter name and type, byte and bit offsets, bitfield widths,
+ * signedness, containers and bit order, array lengths, and sizes and
+ * alignments.
+ * Opening a file checks all of this against the layout it is to be used
+ * as, so data written by an incompatible layout is refused rather than
+ * misread.  The payload is written before the header, so an interrupted
+ * write leaves a file that does not open.
+ *
+ * Layouts containing pointers cannot be saved, since pointers are not
+ * meaningful outside the process that stored them.
+ */
+public final class LayoutFile {
+
+    private final static int MAGIC = 0x53554d41; // "SUMA"
+    private final static int VERSION = 1;
+    // Payloads start on a page, so mapping them needs no adjustment.
+    private final static int PAYLOAD_ALIGN = 4096;
+
+    private LayoutFile() {
+    }
+
+    /**
+     * Writes the data at l and a description of its layout to a new file
+     * at path, replacing any existing file.
+     *
+     * @param path the file to write
+     * @param l the location to save
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path path, Location<?> l) throws IOException {
+        Layout<?> layout = l.layout();
+        if (layout.byteAlign() == 0)
+            throw new Error("Cannot save a bitfield on its own: " + layout);
+        String description = describe(layout);
+        long size = layout.byteOrBitSize();
+        byte[] header = header(description, size);
+        long payload = Layout.roundUp(header.length, PAYLOAD_ALIGN);
+
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            if (size > 0) {
+                // The payload is padded to whole longs; see Layout.checkMappedFile.
+                MappedFile mf = MappedFile.map(ch, FileChannel.MapMode.READ_WRITE,
+                        payload, Layout.roundUp(size, LayoutFactory.JS));
+                Memory.copyMemory(l.base(), l.addr(), mf, 0, size);
+                Reference.reachabilityFence(l);
+                mf.force();
+            }
+            ch.write(ByteBuffer.wrap(header), 0);
+            ch.force(true);
+        }
+    }
+
+    /**
+     * Opens a file written by write as a location of the given layout.
+     * The payload is mapped, not read, so pages are loaded as they are
+     * first touched (or all at once, by MappedFile.load on the location's
+     * base).  With a read-write mode, stores go to the file, and
+     * MappedFile.force makes them durable.
+     *
+     * @param path the file to open
+     * @param layout the layout the data must have been written with
+     * @param mode how to map the payload
+     * @return a location of the layout, mapped from the file
+     * @throws IOException if the file cannot be read or mapped
+     */
+    public static <T> Location<T> open(Path path, Layout<T> layout,
+                                       FileChannel.MapMode mode) throws IOException {
+        return layout.allocateWithinMappedFile(mapPayload(path, layout, mode));
+    }
+
+    /**
+     * Opens a file written by write as an array location of the given
+     * layout; see open.
+     *
+     * @param path the file to open
+     * @param layout the array layout the data must have been written with
+     * @param mode how to map the payload
+     * @return an array location of the layout, mapped from the file
+     * @throws IOException if the file cannot be read or mapped
+     */
+    public static <T> ArrayLocation<T> openArray(Path path, ArrayLayout<T> layout,
+                                                 FileChannel.MapMode mode) throws IOException {
+        return layout.allocateWithinMappedFile(mapPayload(path, layout, mode));
+    }
+
+    private static byte[] header(String description, long size) throws IOException {
+        byte[] d = description.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeBoolean(ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN);
+        long fixed = 4 + 4 + 1 + 8 + 8 + 4;
+        out.writeLong(Layout.roundUp(fixed + d.length, PAYLOAD_ALIGN));
+        out.writeLong(size);
+        out.writeInt(d.length);
+        out.write(d);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static MappedFile mapPayload(Path path, Layout<?> layout,
+                                         FileChannel.MapMode mode) throws IOException {
+        String expected = describe(layout);
+        // Private (copy-on-write) mappings also need a writable channel.
+        StandardOpenOption[] options = mode != FileChannel.MapMode.READ_ONLY
+                ? new StandardOpenOption[] { StandardOpenOption.READ, StandardOpenOption.WRITE }
+                : new StandardOpenOption[] { StandardOpenOption.READ };
+        try (FileChannel ch = FileChannel.open(path, options)) {
+            // Not closed on its own, since that would close the channel.
+            DataInputStream in = new DataInputStream(Channels.newInputStream(ch));
+            if (ch.size() < 4 || in.readInt() != MAGIC)
+                throw new Error("Not a layout file: " + path);
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new Error("Unsupported layout file version " + version + ": " + path);
+            boolean big_endian = in.readBoolean();
+            if (big_endian != (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN))
+                throw new Error("Layout file has the wrong byte order: " + path);
+            long payload = in.readLong();
+            long size = in.readLong();
+            int n = in.readInt();
+            if (n < 0 || n > payload)
+                throw new Error("Corrupt layout file header: " + path);
+            byte[] d = new byte[n];
+            in.readFully(d);
+            String description = new String(d, StandardCharsets.UTF_8);
+            if (!description.equals(expected))
+                throw new Error("Layout file " + path + " was written with layout\n  " +
+                                description + "\nnot\n  " + expected);
+            long mapped = Layout.roundUp(size, LayoutFactory.JS);
+            if (size != layout.byteOrBitSize() || ch.size() < payload + mapped)
+                throw new Error("Layout file is truncated: " + path);
+            return MappedFile.map(ch, mode, payload, mapped);
+        }
+    }
+
+    /**
+     * Returns a description of a layout tree, as recorded in layout files.
+     * Layouts with equal descriptions lay out data identically.  Tuples are
+     * described by their fields, not their classes, so a file can be
+     * opened with a layout of any class of the same shape; for instance a
+     * copy of the old version of a class that has since evolved, whose
+     * data can then be migrated with a TupleTranscoder.
+     *
+     * @param layout the layout to describe
+     * @return the description
+     */
+    public static String describe(Layout<?> layout) {
+        StringBuilder sb = new StringBuilder();
+        describe(layout, sb);
+        return sb.toString();
+    }
+
+    private static void describe(Layout<?> l, StringBuilder sb) {
+        if (l instanceof PointerLayout)
+            throw new Error("Cannot save pointers: " + l);
+        if (l instanceof TupleLayout) {
+            TupleLayout<?> t = (TupleLayout<?>) l;
+            // Not the class, which may since have changed; see describe.
+            sb.append("tuple,s=").append(l.byteOrBitSize())
+              .append(",a=").append(l.byteAlign()).append('(');
+            for (int i = 0; i < t.fieldCount(); i++) {
+                if (i > 0)
+                    sb.append("; ");
+                sb.append(t.getter(i).getName()).append("@B").append(t.offset(i)).append(' ');
+                Layout<?> f = t.fieldLayout(i);
+                describe(f, sb);
+                if (f instanceof AtomBitLayout)
+                    sb.append("@b").append(AtomBitLayout.bitOffsetOf(t.placedLayout(i)));
+            }
+            sb.append(')');
+        } else if (l instanceof ArrayColumnLayout) {
+            ArrayColumnLayout<?> c = (ArrayColumnLayout<?>) l;
+            sb.append("columns[").append(c.length()).append("],s=")
+              .append(l.byteOrBitSize()).append(",a=").append(l.byteAlign()).append(" of ");
+            describe(c.elementLayout(), sb);
+            sb.append('(');
+            for (int i = 0; i < c.columnCount(); i++) {
+                if (i > 0)
+                    sb.append("; ");
+                describe(c.columnLayout(i), sb);
+                sb.append("@B").append(c.columnOffset(i));
+            }
+            sb.append(')');
+        } else if (l instanceof ArrayLayout) {
+            ArrayLayout<?> a = (ArrayLayout<?>) l;
+            sb.append(l instanceof ArrayBitLayout ? "bits[" : "array[")
+              .append(a.length()).append("],s=").append(l.byteOrBitSize())
+              .append(",a=").append(l.byteAlign()).append(" of ");
+            describe(a.elementLayout(), sb);
+        } else if (l instanceof AtomBitLayout) {
+            AtomBitLayout<?> b = (AtomBitLayout<?>) l;
+            sb.append(l.cls().getName()).append(':')
+              .append(b.signedBits() ? "-" : "").append(l.byteOrBitSize())
+              .append(",c=").append(b.containerBitSizeAndAlignment())
+              .append(b.bigEndianBits() ? ",be" : ",le");
+        } else {
+            sb.append(l);
+        }
+    }
+}
@@ -25,6 +25,9 @@
 
 package org.openjdk.sumatra.data.prototype;
 
+import java.lang.ref.Reference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 /**
  * A type (structure) tagged address.
  * Locations can get and put values, and can generate the Locations of their
@@ -34,16 +37,22 @@ package org.openjdk.sumatra.data.prototype;
 public class Location<T> {
     private final Layout<T> layout;
     private final long addr;
-    // For GC purposes; root locations can have deallocating finalizers.
-    // This keeps the root alive.
+    // For GC purposes; root locations can have deallocating cleaners
+    // (see NativeMemory).  This keeps the root alive.
     private final Location rootLocation;
     private final Object baseObject;
-    private PointerDomain pointerDomain; // Lazily allocated
+    private volatile PointerDomain pointerDomain; // Lazily allocated
+
+    @SuppressWarnings("rawtypes")
+    private final static AtomicReferenceFieldUpdater<Location, PointerDomain>
+        POINTER_DOMAIN = AtomicReferenceFieldUpdater.newUpdater(
+            Location.class, PointerDomain.class, "pointerDomain");
 
     /**
      * Returns value of address; useful for testing.
-     * This is an offset with an object if base() is non-null,
-     * otherwise it is an actual memory address.
+     * This is an offset with an object (an index, for a ByteBuffer or a
+     * MappedFile) if base() is non-null, otherwise it is an actual memory
+     * address.
      *
      * @return the address.
      */
@@ -68,9 +77,9 @@ public class Location<T> {
     }
 
     /**
-     * Returns the base object for this location's storage (an array of long),
-     * if any.  May be null, which means that the memory is allocated from the
-     * native heap (e.g., the C malloc/free heap) instead.
+     * Returns the base object for this location's storage (an array of long,
+     * a ByteBuffer, or a MappedFile), if any.  May be null, which means that the memory is
+     * allocated from the native heap (e.g., the C malloc/free heap) instead.
      *
      * @return the base object
      */
@@ -80,8 +89,8 @@ public class Location<T> {
 
     /**
      * Returns the root location for a given location.
-     * The root location may have associated finalizers for "manual" storage
-     * management, and it may have information about translated pointers stored
+     * The root location may have an associated cleaner that frees its
+     * native storage once it is unreachable, and it may have information about translated pointers stored
      * within it.
      *
      * @return the root location.
@@ -94,18 +103,61 @@ public class Location<T> {
      * Returns the pointer domain for this location.
      * All locations with the same root share the same pointer domain.
      * Pointer domains deal with translation and encoding of pointers
-     * stored in locations; are lazily allocated; are currently NOT thread-safe.
+     * stored in locations; are lazily allocated; and are thread-safe.
+     * Racing callers on the same root all see the same domain.
      *
      * @return the pointer domain
      */
     public final PointerDomain pointerDomain() {
-        if (pointerDomain == null) {
-            if (rootLocation() != this)
-                pointerDomain = rootLocation().pointerDomain();
-            else
-                pointerDomain = new PointerDomain();
+        PointerDomain pd = pointerDomain;
+        if (pd == null) {
+            if (rootLocation() != this) {
+                // Benign race; every thread caches the root's domain.
+                pd = rootLocation().pointerDomain();
+                pointerDomain = pd;
+            } else {
+                POINTER_DOMAIN.compareAndSet(this, null, new PointerDomain());
+                pd = pointerDomain;
+            }
         }
-        return pointerDomain;
+        return pd;
+    }
+
+    /**
+     * Releases the opaque pointer handle for o in this location's pointer
+     * domain, so that its table slot can be reused and o is no longer
+     * retained by the domain.  Opaque pointers to o that are still stored
+     * become stale, and reading one throws an Error (with high probability;
+     * detection relies on a small generation counter per handle).
+     *
+     * @param o
+     * @return true if o had a handle
+     */
+    public final boolean releaseOpaque(Object o) {
+        return pointerDomain().releaseOpaque(o);
+    }
+
+    /**
+     * Returns the number of opaque pointer handles currently live in this
+     * location's pointer domain; useful for testing.
+     *
+     * @return the number of live handles
+     */
+    public final int liveOpaqueHandles() {
+        return pointerDomain().liveOpaqueHandles();
+    }
+
+    /**
+     * Chooses whether objects stored through opaque pointers from now on
+     * are held weakly by this location's pointer domain.  A weakly held
+     * object that has been collected reads back as null, and its handle is
+     * reclaimed without an explicit release.  Weakly held objects get a new
+     * handle each time they are stored.
+     *
+     * @param weak
+     */
+    public final void setWeakOpaqueReferents(boolean weak) {
+        pointerDomain().setWeakOpaques(weak);
     }
 
     /**
@@ -130,7 +182,10 @@ public class Location<T> {
      * @return the stored value copy
      */
     public final T val() {
-        return layout.val(rootLocation, baseObject, addr);
+        T v = layout.val(rootLocation, baseObject, addr);
+        // Storage may be freed once this is unreachable.
+        Reference.reachabilityFence(this);
+        return v;
     }
 
     /**
@@ -139,6 +194,7 @@ public class Location<T> {
      */
     public final void put(T val) {
         layout.put(rootLocation, baseObject, addr, val);
+        Reference.reachabilityFence(this);
     }
 
     // NOT public, since this is a total loophole to peeking and poking.
@@ -156,6 +212,4 @@ public class Location<T> {
         this.layout = layout;
         this.baseObject = base_object;
     }
-
-    // TODO need to sort out finalizers so that non-GC heap will be freed.
 }
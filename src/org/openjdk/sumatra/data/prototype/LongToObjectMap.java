@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+/**
+ * An open-addressing hash table from long keys to Objects, for
+ * PointerDomain.  Keys and values are kept in parallel arrays and probed
+ * linearly, so lookups and stores allocate nothing.  Zero is reserved to
+ * mark empty slots and is never a valid key; handles and native addresses
+ * are never zero.
+ *
+ * This is NOT thread-safe; PointerDomain guards each table with a lock.
+ */
+final class LongToObjectMap {
+
+    private final static int INITIAL_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int shift; // 64 - log2(capacity)
+
+    LongToObjectMap() {
+        keys = new long[INITIAL_CAPACITY];
+        values = new Object[INITIAL_CAPACITY];
+        shift = 64 - Integer.numberOfTrailingZeros(INITIAL_CAPACITY);
+    }
+
+    int size() {
+        return size;
+    }
+
+    private static int slot(long key, int shift) {
+        // Fibonacci hashing; takes the well-mixed high bits.
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    /**
+     * Returns the value for key, or null if there is none.
+     */
+    Object get(long key) {
+        long[] ks = keys;
+        int mask = ks.length - 1;
+        for (int i = slot(key, shift); ; i = (i + 1) & mask) {
+            long k = ks[i];
+            if (k == key)
+                return values[i];
+            if (k == 0)
+                return null;
+        }
+    }
+
+    /**
+     * Maps key to value, replacing any previous value.
+     */
+    void put(long key, Object value) {
+        if (key == 0)
+            throw new Error("Zero is not a valid key");
+        long[] ks = keys;
+        int mask = ks.length - 1;
+        int i = slot(key, shift);
+        for (; ; i = (i + 1) & mask) {
+            long k = ks[i];
+            if (k == key) {
+                values[i] = value;
+                return;
+            }
+            if (k == 0)
+                break;
+        }
+        ks[i] = key;
+        values[i] = value;
+        if (2 * ++size > ks.length)
+            grow();
+    }
+
+    /**
+     * Removes key, returning its value, or null if there was none.
+     */
+    Object remove(long key) {
+        long[] ks = keys;
+        int mask = ks.length - 1;
+        int i = slot(key, shift);
+        for (; ; i = (i + 1) & mask) {
+            long k = ks[i];
+            if (k == key)
+                break;
+            if (k == 0)
+                return null;
+        }
+        Object v = values[i];
+        // Shift later members of the probe run back over the hole, so that
+        // no lookup stops short at it.
+        for (int j = i; ; ) {
+            j = (j + 1) & mask;
+            long k = ks[j];
+            if (k == 0)
+                break;
+            int home = slot(k, shift);
+            if (i <= j ? i < home && home <= j : i < home || home <= j)
+                continue; // k's run does not pass through the hole
+            ks[i] = k;
+            values[i] = values[j];
+            i = j;
+        }
+        ks[i] = 0;
+        values[i] = null;
+        size--;
+        return v;
+    }
+
+    private void grow() {
+        long[] old_keys = keys;
+        Object[] old_values = values;
+        int n = old_keys.length * 2;
+        if (n <= 0)
+            throw new Error("Pointer table too large");
+        long[] ks = new long[n];
+        Object[] vs = new Object[n];
+        int sh = shift - 1;
+        int mask = n - 1;
+        for (int j = 0; j < old_keys.length; j++) {
+            long k = old_keys[j];
+            if (k == 0)
+                continue;
+            int i = slot(k, sh);
+            while (ks[i] != 0)
+                i = (i + 1) & mask;
+            ks[i] = k;
+            vs[i] = old_values[j];
+        }
+        keys = ks;
+        values = vs;
+        shift = sh;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A region of a file mapped into memory, of any size, to hold flattened
+ * data in place (see Layout.allocateWithinMappedFile).  A single
+ * MappedByteBuffer cannot exceed 2GB, so the file is mapped as a sequence
+ * of buffers of REGION_SIZE bytes each, and offsets within the mapped
+ * file are split into a buffer and an index into it (see Memory).  Since
+ * the regions are a power of two in size and layouts align their atoms
+ * and bitfield containers naturally, no single load or store straddles
+ * two regions; bulk copies are split at region boundaries.
+ *
+ * The mapping stays valid until this object is unreachable, even after
+ * the channel it was mapped from is closed.  Loads and stores are
+ * bounds-checked by the buffers.
+ */
+public final class MappedFile {
+
+    // Regions are 1GB, leaving room for index arithmetic in an int.
+    static final int REGION_SHIFT = 30;
+    static final long REGION_SIZE = 1L << REGION_SHIFT;
+    private static final long REGION_MASK = REGION_SIZE - 1;
+
+    private final MappedByteBuffer[] regions;
+    private final long position;
+    private final long size;
+
+    private MappedFile(MappedByteBuffer[] regions, long position, long size) {
+        this.regions = regions;
+        this.position = position;
+        this.size = size;
+    }
+
+    /**
+     * Maps size bytes of the file open on ch, starting at position.  As for
+     * FileChannel.map, mapping read-write past the end of the file extends
+     * it.  Position must be a multiple of 8, so that words of the mapping
+     * are aligned for atomic and word-at-a-time access.
+     *
+     * @param ch the channel of the file to map
+     * @param mode read-only, read-write or private (copy-on-write)
+     * @param position the file position of the first mapped byte
+     * @param size the number of bytes to map
+     * @return the mapped file
+     * @throws IOException if the channel cannot map the file
+     */
+    public static MappedFile map(FileChannel ch, FileChannel.MapMode mode,
+                                 long position, long size) throws IOException {
+        if (position < 0 || size < 0)
+            throw new Error("Negative position or size");
+        if ((position & (Layout.BYTES_PER_LONG - 1)) != 0)
+            throw new Error("Mapped position not aligned to a long: " + position);
+        int n = (int) ((size + REGION_MASK) >>> REGION_SHIFT);
+        MappedByteBuffer[] regions = new MappedByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            long start = (long) i << REGION_SHIFT;
+            long bytes = Math.min(REGION_SIZE, size - start);
+            regions[i] = ch.map(mode, position + start, bytes);
+            regions[i].order(ByteOrder.nativeOrder());
+        }
+        return new MappedFile(regions, position, size);
+    }
+
+    /**
+     * Returns the number of bytes mapped.
+     * @return the size
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the file position of the first mapped byte.
+     * @return the position
+     */
+    public long position() {
+        return position;
+    }
+
+    /**
+     * Loads the whole mapping into physical memory, as far as the operating
+     * system allows, so that a later pass over it does not wait on page
+     * faults.
+     */
+    public void load() {
+        for (MappedByteBuffer r : regions)
+            r.load();
+    }
+
+    /**
+     * Returns true if all of the mapping is probably resident in physical
+     * memory; see MappedByteBuffer.isLoaded.
+     * @return whether the mapping is loaded
+     */
+    public boolean isLoaded() {
+        for (MappedByteBuffer r : regions)
+            if (!r.isLoaded())
+                return false;
+        return true;
+    }
+
+    /**
+     * Writes any changes made to a read-write mapping back to the file.
+     */
+    public void force() {
+        for (MappedByteBuffer r : regions)
+            r.force();
+    }
+
+    /**
+     * Writes any changes to bytes [from, from + bytes) of the mapping back
+     * to the file, for instance those of one Location within it.
+     *
+     * @param from the offset of the first byte, as in Location.addr
+     * @param bytes the number of bytes
+     */
+    public void force(long from, long bytes) {
+        if (from < 0 || bytes < 0 || from > size - bytes)
+            throw new IndexOutOfBoundsException(from + "+" + bytes);
+        while (bytes > 0) {
+            int n = (int) Math.min(bytes, REGION_SIZE - offset(from));
+            regions[(int) (from >> REGION_SHIFT)].force(offset(from), n);
+            from += n;
+            bytes -= n;
+        }
+    }
+
+    // NOT PUBLIC, but visible to Memory and Layout.
+    ByteBuffer region(long l) {
+        return regions[(int) (l >> REGION_SHIFT)];
+    }
+
+    // NOT PUBLIC, but visible to Memory.
+    static int offset(long l) {
+        return (int) (l & REGION_MASK);
+    }
+}
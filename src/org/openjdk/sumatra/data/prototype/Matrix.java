@@ -25,12 +25,44 @@
 
 package org.openjdk.sumatra.data.prototype;
 
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 public class Matrix<T> {
 
     public static interface Initializer<U> {
         public U val(long row, long column);
     }
 
+    public static interface DoubleInitializer {
+        public double val(long row, long column);
+    }
+
+    public static interface FloatInitializer {
+        public float val(long row, long column);
+    }
+
+    public static interface IntInitializer {
+        public int val(long row, long column);
+    }
+
+    public static interface LongInitializer {
+        public long val(long row, long column);
+    }
+
+    /**
+     * Matrices with fewer elements than this are initialized on the calling
+     * thread even when a parallel init is requested, and row blocks are not
+     * split below this many elements.
+     */
+    public final static long PARALLEL_GRAIN = 1 << 14;
+
     final ArrayLocation<T> arrayLoc;
     final long base;
     final long r_count;
@@ -56,6 +88,64 @@ public class Matrix<T> {
             throw new Error("Row and column specifications are out-of-bounds");
     }
 
+    // Not public; a view of part of another matrix, already checked.
+    private Matrix (ArrayLocation<T>a_loc, long base, long rows, long columns,
+                    long r_stride, long c_stride) {
+        this.arrayLoc = a_loc;
+        this.base = base;
+        this.r_count = rows;
+        this.c_count = columns;
+        this.r_stride = r_stride;
+        this.c_stride = c_stride;
+    }
+
+    /**
+     * Returns the transpose of this matrix, sharing its storage.
+     * @return the transposed view
+     */
+    public final Matrix<T> transpose() {
+        return new Matrix<T>(arrayLoc, base, c_count, r_count, c_stride, r_stride);
+    }
+
+    /**
+     * Returns the block of rows by columns elements starting at (row, column)
+     * of this matrix, sharing its storage.
+     * @param row the first row of the block
+     * @param column the first column of the block
+     * @param rows the number of rows in the block
+     * @param columns the number of columns in the block
+     * @return the block view
+     */
+    public final Matrix<T> subMatrix(long row, long column, long rows, long columns) {
+        if (row < 0 || rows < 0 || rows > r_count - row)
+            throw new ArrayIndexOutOfBoundsException(
+                    "Rows " + row + "+" + rows + " not within " + r_count);
+        if (column < 0 || columns < 0 || columns > c_count - column)
+            throw new ArrayIndexOutOfBoundsException(
+                    "Columns " + column + "+" + columns + " not within " + c_count);
+        return new Matrix<T>(arrayLoc, base + row * r_stride + column * c_stride,
+                             rows, columns, r_stride, c_stride);
+    }
+
+    /**
+     * Returns row i of this matrix as a 1-row matrix sharing its storage.
+     * @param i the row
+     * @return the row view
+     */
+    public final Matrix<T> row(long i) {
+        return subMatrix(i, 0, 1, c_count);
+    }
+
+    /**
+     * Returns column j of this matrix as a 1-column matrix sharing its
+     * storage.
+     * @param j the column
+     * @return the column view
+     */
+    public final Matrix<T> column(long j) {
+        return subMatrix(0, j, r_count, 1);
+    }
+
     /**
      * Multiplication without overflow. Necessary to ensure secure of unsafe
      * peeks and pokes.  Overflows throw exceptions.
@@ -125,11 +215,280 @@ public class Matrix<T> {
         return arrayLoc.val(base + i * r_stride + j * c_stride);
     }
 
-    public final void init(Initializer<T> body) {
-        for (long i = 0; i < r_count; i++)
-            for (long j = 0; j < c_count; j++)
-                arrayLoc.put(base + i * r_stride + j * c_stride, body.val(i,j));
+    /**
+     * Stores body.val(i,j) into every element (i,j), one row at a time, on
+     * the calling thread.
+     * @param body
+     */
+    public final void init(final Initializer<T> body) {
+        fill(new Rows() {
+            void fill(long i) {
+                for (long j = 0; j < c_count; j++)
+                    arrayLoc.put(base + i * r_stride + j * c_stride, body.val(i,j));
+            }
+        }, false);
+    }
+
+    /**
+     * Like init, but blocks of rows are initialized in parallel in the
+     * common ForkJoinPool.  body.val is called exactly once for each element,
+     * from some thread and in no particular order, so it must be safe to call
+     * concurrently; if it is a pure function of (row, column) the result is
+     * the same as for init.  Small matrices, and arrays of bitfields that are
+     * not concurrent (which would share containers across rows), are
+     * initialized sequentially.
+     * @param body
+     */
+    public final void parallelInit(final Initializer<T> body) {
+        fill(new Rows() {
+            void fill(long i) {
+                for (long j = 0; j < c_count; j++)
+                    arrayLoc.put(base + i * r_stride + j * c_stride, body.val(i,j));
+            }
+        }, true);
     }
+
+    /**
+     * Stores body.val(i,j) into every element (i,j) of a matrix of doubles,
+     * without boxing.
+     * @param body
+     */
+    public final void initDouble(DoubleInitializer body) {
+        fill(doubleRows(body), false);
+    }
+
+    /**
+     * Parallel version of initDouble; see parallelInit.
+     * @param body
+     */
+    public final void parallelInitDouble(DoubleInitializer body) {
+        fill(doubleRows(body), true);
+    }
+
+    /**
+     * Stores body.val(i,j) into every element (i,j) of a matrix of floats,
+     * without boxing.
+     * @param body
+     */
+    public final void initFloat(FloatInitializer body) {
+        fill(floatRows(body), false);
+    }
+
+    /**
+     * Parallel version of initFloat; see parallelInit.
+     * @param body
+     */
+    public final void parallelInitFloat(FloatInitializer body) {
+        fill(floatRows(body), true);
+    }
+
+    /**
+     * Stores body.val(i,j) into every element (i,j) of a matrix of ints,
+     * without boxing.
+     * @param body
+     */
+    public final void initInt(IntInitializer body) {
+        fill(intRows(body), false);
+    }
+
+    /**
+     * Parallel version of initInt; see parallelInit.
+     * @param body
+     */
+    public final void parallelInitInt(IntInitializer body) {
+        fill(intRows(body), true);
+    }
+
+    /**
+     * Stores body.val(i,j) into every element (i,j) of a matrix of longs,
+     * without boxing.
+     * @param body
+     */
+    public final void initLong(LongInitializer body) {
+        fill(longRows(body), false);
+    }
+
+    /**
+     * Parallel version of initLong; see parallelInit.
+     * @param body
+     */
+    public final void parallelInitLong(LongInitializer body) {
+        fill(longRows(body), true);
+    }
+
+    private Rows doubleRows(final DoubleInitializer body) {
+        final DoubleArrayLocation a =
+                DoubleArrayLocation.of((ArrayLocation<Double>) arrayLoc);
+        return new Rows() {
+            void fill(long i) {
+                for (long j = 0; j < c_count; j++)
+                    a.putDouble(base + i * r_stride + j * c_stride, body.val(i,j));
+            }
+        };
+    }
+
+    private Rows floatRows(final FloatInitializer body) {
+        final FloatArrayLocation a =
+                FloatArrayLocation.of((ArrayLocation<Float>) arrayLoc);
+        return new Rows() {
+            void fill(long i) {
+                for (long j = 0; j < c_count; j++)
+                    a.putFloat(base + i * r_stride + j * c_stride, body.val(i,j));
+            }
+        };
+    }
+
+    private Rows intRows(final IntInitializer body) {
+        final IntArrayLocation a =
+                IntArrayLocation.of((ArrayLocation<Integer>) arrayLoc);
+        return new Rows() {
+            void fill(long i) {
+                for (long j = 0; j < c_count; j++)
+                    a.putInt(base + i * r_stride + j * c_stride, body.val(i,j));
+            }
+        };
+    }
+
+    private Rows longRows(final LongInitializer body) {
+        final LongArrayLocation a =
+                LongArrayLocation.of((ArrayLocation<Long>) arrayLoc);
+        return new Rows() {
+            void fill(long i) {
+                for (long j = 0; j < c_count; j++)
+                    a.putLong(base + i * r_stride + j * c_stride, body.val(i,j));
+            }
+        };
+    }
+
+    /**
+     * Fills in one row.
+     */
+    private abstract class Rows {
+        abstract void fill(long i);
+    }
+
+    /**
+     * Fills in rows [lo, hi), splitting in half while both halves would
+     * still be at least PARALLEL_GRAIN elements.
+     */
+    private final class RowBlock extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Rows rows;
+        private final long lo;
+        private final long hi;
+
+        RowBlock(Rows rows, long lo, long hi) {
+            this.rows = rows;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1 && (hi - lo) * c_count >= 2 * PARALLEL_GRAIN) {
+                long mid = (lo + hi) >>> 1;
+                invokeAll(new RowBlock(rows, lo, mid), new RowBlock(rows, mid, hi));
+            } else {
+                for (long i = lo; i < hi; i++)
+                    rows.fill(i);
+            }
+        }
+    }
+
+    private void fill(Rows rows, boolean parallel) {
+        Layout<T> e = elementLayout();
+        // Neighboring rows may share the containers of plain bitfields.
+        boolean rows_independent =
+                !(e instanceof AtomBitLayout) || ((AtomBitLayout<T>) e).concurrent;
+        if (parallel && rows_independent && r_count > 1 &&
+            r_count * c_count >= PARALLEL_GRAIN) {
+            ForkJoinPool.commonPool().invoke(new RowBlock(rows, 0, r_count));
+        } else {
+            for (long i = 0; i < r_count; i++)
+                rows.fill(i);
+        }
+    }
+
+    /**
+     * Stores the matrix product a b into c, which must not share storage
+     * with a or b.  All three must have the same double or float element
+     * layout; any of them may be a view.  Large products are computed in
+     * parallel in the common ForkJoinPool.
+     * @param a an m by k matrix
+     * @param b a k by n matrix
+     * @param c an m by n matrix
+     */
+    public static <U> void multiply(Matrix<U> a, Matrix<U> b, Matrix<U> c) {
+        MatrixMultiply.multiply(a, b, c);
+    }
+
+    /**
+     * Returns a stream of the rows of this matrix, as row views (see row);
+     * in parallel, it splits by ranges of rows.
+     * @return the stream of rows
+     */
+    public final Stream<Matrix<T>> rows() {
+        return StreamSupport.stream(
+            new ArraySpliterators.Rows<T>(this, 0, r_count), false);
+    }
+
+    private long elementCount() {
+        return r_count * c_count; // Bounded by the array length.
+    }
+
+    /**
+     * Returns a spliterator over the elements of this matrix in row-major
+     * order, which splits by ranges of that order.
+     * @return the spliterator
+     */
+    public final Spliterator<T> spliterator() {
+        return new ArraySpliterators.Elements<T>(arrayLoc, base, Math.max(c_count, 1),
+                                              r_stride, c_stride, 0, elementCount());
+    }
+
+    /**
+     * Returns a stream of the elements of this matrix in row-major order.
+     * @return the stream
+     */
+    public final Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns the elements of a matrix of ints, shorts or bytes in
+     * row-major order, without boxing.
+     * @return the stream
+     */
+    public final IntStream intStream() {
+        return StreamSupport.intStream(
+            new ArraySpliterators.IntElements(arrayLoc, ArraySpliterators.intSource(arrayLoc),
+                                        base, Math.max(c_count, 1), r_stride, c_stride,
+                                        0, elementCount()), false);
+    }
+
+    /**
+     * Returns the elements of a matrix of longs in row-major order, without
+     * boxing.
+     * @return the stream
+     */
+    public final LongStream longStream() {
+        return StreamSupport.longStream(
+            new ArraySpliterators.LongElements(LongArrayLocation.of((ArrayLocation<Long>) arrayLoc),
+                                         base, Math.max(c_count, 1), r_stride, c_stride,
+                                         0, elementCount()), false);
+    }
+
+    /**
+     * Returns the elements of a matrix of doubles or floats in row-major
+     * order, without boxing.
+     * @return the stream
+     */
+    public final DoubleStream doubleStream() {
+        return StreamSupport.doubleStream(
+            ArraySpliterators.DoubleElements.of(arrayLoc, base, Math.max(c_count, 1),
+                                          r_stride, c_stride, elementCount()), false);
+    }
+
     public final long nRows() {
         return r_count;
     }
@@ -137,6 +496,30 @@ public class Matrix<T> {
         return c_count;
     }
 
+    /**
+     * Returns the distance, in array elements, between consecutive rows.
+     * @return the row stride
+     */
+    public final long rowStride() {
+        return r_stride;
+    }
+
+    /**
+     * Returns the distance, in array elements, between consecutive columns.
+     * @return the column stride
+     */
+    public final long columnStride() {
+        return c_stride;
+    }
+
+    /**
+     * Returns the index in array() of element (0,0).
+     * @return the base index
+     */
+    public final long baseIndex() {
+        return base;
+    }
+
     public final ArrayLocation<T> array() {
         return arrayLoc;
     }
@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.lang.ref.Reference;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Dense matrix multiply, C = A B, for matrices of doubles or floats,
+ * working directly on the flattened storage.
+ *
+ * B is taken a KC by NC block at a time, and each block is copied once
+ * into a small Java array.  For each block, the panels of MC rows of C are
+ * then updated in parallel in the common ForkJoinPool: the panel's MC by
+ * KC block of A is copied too, so that the inner loop runs with unit
+ * stride over cache-resident data whatever the strides of the operands,
+ * and the product is accumulated in a third array before it is added
+ * into C.  The copies of A and C are per-thread scratch, so a multiply
+ * allocates only the copy of B.
+ */
+final class MatrixMultiply {
+
+    private MatrixMultiply() {
+    }
+
+    // Block sizes, in elements.  A packed block of B holds 256KB of doubles.
+    private final static int MC = 64;
+    private final static int KC = 128;
+    private final static int NC = 256;
+
+    /**
+     * Products with fewer multiply-adds than this run on the calling thread.
+     */
+    private final static long PARALLEL_WORK = 1 << 20;
+
+    /**
+     * Where the elements of one operand are: element (i,j) is at
+     * (baseObject, addr + i * rs + j * cs), with strides in bytes.
+     */
+    private final static class Operand {
+        final Object baseObject;
+        final long addr;
+        final long rs;
+        final long cs;
+        final long rows;
+        final long cols;
+
+        Operand(Matrix<?> m, long bytes) {
+            ArrayLocation<?> a = m.array();
+            baseObject = a.base();
+            addr = a.addr() + m.baseIndex() * bytes;
+            rs = m.rowStride() * bytes;
+            cs = m.columnStride() * bytes;
+            rows = m.nRows();
+            cols = m.nCols();
+        }
+
+        // One past the last byte of the last element.
+        long end(long bytes) {
+            if (rows == 0 || cols == 0)
+                return addr;
+            return addr + (rows - 1) * rs + (cols - 1) * cs + bytes;
+        }
+
+        boolean overlaps(Operand o, long bytes) {
+            return baseObject == o.baseObject &&
+                   addr < o.end(bytes) && o.addr < end(bytes);
+        }
+    }
+
+    static <T> void multiply(Matrix<T> a, Matrix<T> b, Matrix<T> c) {
+        if (a.nCols() != b.nRows() || a.nRows() != c.nRows() ||
+            b.nCols() != c.nCols())
+            throw new Error("Matrix dimensions do not agree, " +
+                    a.nRows() + "x" + a.nCols() + " times " +
+                    b.nRows() + "x" + b.nCols() + " into " +
+                    c.nRows() + "x" + c.nCols());
+        Layout<T> e = a.elementLayout();
+        if (!(e instanceof D) && !(e instanceof F))
+            throw new Error("Matrix multiply needs double or float elements, not " + e);
+        if (e.getClass() != b.elementLayout().getClass() ||
+            e.getClass() != c.elementLayout().getClass())
+            throw new Error("Matrix element layouts do not agree");
+
+        long bytes = e.byteOrBitSize();
+        Operand oa = new Operand(a, bytes);
+        Operand ob = new Operand(b, bytes);
+        Operand oc = new Operand(c, bytes);
+        if (oc.overlaps(oa, bytes) || oc.overlaps(ob, bytes))
+            throw new Error("Product matrix overlaps one of its factors");
+
+        boolean doubles = e instanceof D;
+        long k = oa.cols;
+        long n = oc.cols;
+        boolean parallel = oc.rows > MC && oc.rows * n * k >= PARALLEL_WORK;
+        if (k == 0)
+            zero(oc, doubles);
+        double[] dbp = doubles ? new double[KC * NC] : null;
+        float[] fbp = doubles ? null : new float[KC * NC];
+        for (long j0 = 0; j0 < n; j0 += NC) {
+            int nc = (int) Math.min(NC, n - j0);
+            for (long p0 = 0; p0 < k; p0 += KC) {
+                int kc = (int) Math.min(KC, k - p0);
+                Block blk = new Block(oa, ob, oc, j0, nc, p0, kc);
+                if (doubles)
+                    packDoubles(blk, dbp);
+                else
+                    packFloats(blk, fbp);
+                Panels p = new Panels(blk, dbp, fbp, 0, oc.rows);
+                if (parallel)
+                    ForkJoinPool.commonPool().invoke(p);
+                else
+                    p.panel(0, oc.rows);
+            }
+        }
+        // Storage may be freed once the matrices are unreachable.
+        Reference.reachabilityFence(a);
+        Reference.reachabilityFence(b);
+        Reference.reachabilityFence(c);
+    }
+
+    /**
+     * The KC by NC block of B at (p0, j0), and the operands it is used
+     * with: it contributes to columns [j0, j0+nc) of every row of C.
+     */
+    private final static class Block {
+        final Operand a;
+        final Operand b;
+        final Operand c;
+        final long j0;
+        final int nc;
+        final long p0;
+        final int kc;
+
+        Block(Operand a, Operand b, Operand c, long j0, int nc, long p0, int kc) {
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.j0 = j0;
+            this.nc = nc;
+            this.p0 = p0;
+            this.kc = kc;
+        }
+    }
+
+    /**
+     * Per-thread copies of a block of A and of the product, allocated on
+     * first use and kept for the thread's lifetime (at most 192KB).
+     */
+    private final static class Scratch {
+        double[] dap;
+        double[] dcp;
+        float[] fap;
+        float[] fcp;
+    }
+
+    private final static ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    /**
+     * Updates rows [lo, hi) of C with one block of B, splitting at
+     * multiples of MC rows.
+     */
+    private final static class Panels extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Block blk;
+        private final double[] dbp; // the packed block, if doubles
+        private final float[] fbp;  // the packed block, if floats
+        private final long lo;
+        private final long hi;
+
+        Panels(Block blk, double[] dbp, float[] fbp, long lo, long hi) {
+            this.blk = blk;
+            this.dbp = dbp;
+            this.fbp = fbp;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            long panels = (hi - lo + MC - 1) / MC;
+            if (panels > 1) {
+                long mid = lo + panels / 2 * MC;
+                invokeAll(new Panels(blk, dbp, fbp, lo, mid),
+                          new Panels(blk, dbp, fbp, mid, hi));
+            } else {
+                panel(lo, hi);
+            }
+        }
+
+        void panel(long lo, long hi) {
+            Scratch s = SCRATCH.get();
+            for (long i = lo; i < hi; i += MC) {
+                int m = (int) Math.min(MC, hi - i);
+                if (dbp != null)
+                    doublePanel(blk, dbp, s, i, m);
+                else
+                    floatPanel(blk, fbp, s, i, m);
+            }
+        }
+    }
+
+    @SuppressWarnings("restriction")
+    private static void zero(Operand c, boolean doubles) {
+        for (long i = 0; i < c.rows; i++) {
+            long at = c.addr + i * c.rs;
+            for (long j = 0; j < c.cols; j++, at += c.cs) {
+                if (doubles)
+                    Memory.putDouble(c.baseObject, at, 0.0);
+                else
+                    Memory.putFloat(c.baseObject, at, 0.0f);
+            }
+        }
+    }
+
+    @SuppressWarnings("restriction")
+    private static void packDoubles(Block blk, double[] bp) {
+        Operand b = blk.b;
+        for (int p = 0; p < blk.kc; p++) {
+            long at = b.addr + (blk.p0 + p) * b.rs + blk.j0 * b.cs;
+            for (int j = 0; j < blk.nc; j++, at += b.cs)
+                bp[p * NC + j] = Memory.getDouble(b.baseObject, at);
+        }
+    }
+
+    @SuppressWarnings("restriction")
+    private static void packFloats(Block blk, float[] bp) {
+        Operand b = blk.b;
+        for (int p = 0; p < blk.kc; p++) {
+            long at = b.addr + (blk.p0 + p) * b.rs + blk.j0 * b.cs;
+            for (int j = 0; j < blk.nc; j++, at += b.cs)
+                bp[p * NC + j] = Memory.getFloat(b.baseObject, at);
+        }
+    }
+
+    /**
+     * Adds the product of rows [i0, i0+m) of the block's columns of A and
+     * the packed block bp into C, for m at most MC.  The first block of a
+     * column range stores instead, so C need not be cleared first.
+     */
+    @SuppressWarnings("restriction")
+    private static void doublePanel(Block blk, double[] bp, Scratch s, long i0, int m) {
+        Operand a = blk.a;
+        Operand c = blk.c;
+        int kc = blk.kc;
+        int nc = blk.nc;
+        if (s.dap == null) {
+            s.dap = new double[MC * KC];
+            s.dcp = new double[MC * NC];
+        }
+        double[] ap = s.dap;
+        double[] cp = s.dcp;
+        for (int i = 0; i < m; i++) {
+            long at = a.addr + (i0 + i) * a.rs + blk.p0 * a.cs;
+            for (int p = 0; p < kc; p++, at += a.cs)
+                ap[i * KC + p] = Memory.getDouble(a.baseObject, at);
+        }
+        java.util.Arrays.fill(cp, 0, m * NC, 0.0);
+        for (int i = 0; i < m; i++) {
+            int ci = i * NC;
+            for (int p = 0; p < kc; p++) {
+                double x = ap[i * KC + p];
+                int bi = p * NC;
+                for (int j = 0; j < nc; j++)
+                    cp[ci + j] += x * bp[bi + j];
+            }
+        }
+        boolean first = blk.p0 == 0;
+        for (int i = 0; i < m; i++) {
+            long at = c.addr + (i0 + i) * c.rs + blk.j0 * c.cs;
+            for (int j = 0; j < nc; j++, at += c.cs) {
+                double v = cp[i * NC + j];
+                if (!first)
+                    v += Memory.getDouble(c.baseObject, at);
+                Memory.putDouble(c.baseObject, at, v);
+            }
+        }
+    }
+
+    /**
+     * Float version of doublePanel.
+     */
+    @SuppressWarnings("restriction")
+    private static void floatPanel(Block blk, float[] bp, Scratch s, long i0, int m) {
+        Operand a = blk.a;
+        Operand c = blk.c;
+        int kc = blk.kc;
+        int nc = blk.nc;
+        if (s.fap == null) {
+            s.fap = new float[MC * KC];
+            s.fcp = new float[MC * NC];
+        }
+        float[] ap = s.fap;
+        float[] cp = s.fcp;
+        for (int i = 0; i < m; i++) {
+            long at = a.addr + (i0 + i) * a.rs + blk.p0 * a.cs;
+            for (int p = 0; p < kc; p++, at += a.cs)
+                ap[i * KC + p] = Memory.getFloat(a.baseObject, at);
+        }
+        java.util.Arrays.fill(cp, 0, m * NC, 0.0f);
+        for (int i = 0; i < m; i++) {
+            int ci = i * NC;
+            for (int p = 0; p < kc; p++) {
+                float x = ap[i * KC + p];
+                int bi = p * NC;
+                for (int j = 0; j < nc; j++)
+                    cp[ci + j] += x * bp[bi + j];
+            }
+        }
+        boolean first = blk.p0 == 0;
+        for (int i = 0; i < m; i++) {
+            long at = c.addr + (i0 + i) * c.rs + blk.j0 * c.cs;
+            for (int j = 0; j < nc; j++, at += c.cs) {
+                float v = cp[i * NC + j];
+                if (!first)
+                    v += Memory.getFloat(c.baseObject, at);
+                Memory.putFloat(c.baseObject, at, v);
+            }
+        }
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import sun.misc.Unsafe;
+
+/**
+ * Every load and store of flattened data goes through here, so that the
+ * storage behind a location can be chosen per location.  The base object
+ * of a location (see Location.base) picks the backend:
+ *
+ * <ul>
+ * <li>null: native memory, and offsets are addresses (Unsafe);
+ * <li>an array of long: the Java heap, and offsets are Unsafe array
+ * offsets;
+ * <li>a ByteBuffer: the buffer's storage, and offsets are indices into
+ * it.  Access goes through byte buffer view VarHandles in native byte
+ * order, so it is bounds-checked by the buffer (and the JIT can hoist
+ * those checks out of loops), needs no Unsafe or reflective access to
+ * JDK internals, and works on heap, direct and mapped buffers, including
+ * the buffer views of foreign memory segments.
+ * <li>a MappedFile: a file mapped as a sequence of byte buffers, and
+ * offsets are split into a buffer and an index into it.  This is how
+ * mappings over 2GB are reached.
+ * </ul>
+ *
+ * Data is laid out identically in all of these.  The atomic accesses need
+ * aligned data.
+ */
+final class Memory {
+
+    private Memory() {
+    }
+
+    private final static VarHandle SHORT =
+        MethodHandles.byteBufferViewVarHandle(short[].class, ByteOrder.nativeOrder());
+    private final static VarHandle INT =
+        MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private final static VarHandle LONG =
+        MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private final static VarHandle FLOAT =
+        MethodHandles.byteBufferViewVarHandle(float[].class, ByteOrder.nativeOrder());
+    private final static VarHandle DOUBLE =
+        MethodHandles.byteBufferViewVarHandle(double[].class, ByteOrder.nativeOrder());
+
+    // Bulk copies between a buffer and other storage go through a
+    // temporary array of at most this many bytes.
+    private final static int COPY_CHUNK = 4096;
+
+    private static int index(long l) {
+        // An offset past the end of a buffer must not wrap into it.
+        return Math.toIntExact(l);
+    }
+
+    @SuppressWarnings("restriction")
+    static byte getByte(Object base, long l) {
+        if (base instanceof ByteBuffer)
+            return ((ByteBuffer) base).get(index(l));
+        if (base instanceof MappedFile)
+            return ((MappedFile) base).region(l).get(MappedFile.offset(l));
+        return AtomLayout.u.getByte(base, l);
+    }
+
+    @SuppressWarnings("restriction")
+    static void putByte(Object base, long l, byte v) {
+        if (base instanceof ByteBuffer)
+            ((ByteBuffer) base).put(index(l), v);
+        else if (base instanceof MappedFile)
+            ((MappedFile) base).region(l).put(MappedFile.offset(l), v);
+        else
+            AtomLayout.u.putByte(base, l, v);
+    }
+
+    @SuppressWarnings("restriction")
+    static short getShort(Object base, long l) {
+        if (base instanceof ByteBuffer)
+            return (short) SHORT.get((ByteBuffer) base, index(l));
+        if (base instanceof MappedFile)
+            return (short) SHORT.get(((MappedFile) base).region(l), MappedFile.offset(l));
+        return AtomLayout.u.getShort(base, l);
+    }
+
+    @SuppressWarnings("restriction")
+    static void putShort(Object base, long l, short v) {
+        if (base instanceof ByteBuffer)
+            SHORT.set((ByteBuffer) base, index(l), v);
+        else if (base instanceof MappedFile)
+            SHORT.set(((MappedFile) base).region(l), MappedFile.offset(l), v);
+        else
+            AtomLayout.u.putShort(base, l, v);
+    }
+
+    @SuppressWarnings("restriction")
+    static int getInt(Object base, long l) {
+        if (base instanceof ByteBuffer)
+            return (int) INT.get((ByteBuffer) base, index(l));
+        if (base instanceof MappedFile)
+            return (int) INT.get(((MappedFile) base).region(l), MappedFile.offset(l));
+        return AtomLayout.u.getInt(base, l);
+    }
+
+    @SuppressWarnings("restriction")
+    static void putInt(Object base, long l, int v) {
+        if (base instanceof ByteBuffer)
+            INT.set((ByteBuffer) base, index(l), v);
+        else if (base instanceof MappedFile)
+            INT.set(((MappedFile) base).region(l), MappedFile.offset(l), v);
+        else
+            AtomLayout.u.putInt(base, l, v);
+    }
+
+    @SuppressWarnings("restriction")
+    static long getLong(Object base, long l) {
+        if (base instanceof ByteBuffer)
+            return (long) LONG.get((ByteBuffer) base, index(l));
+        if (base instanceof MappedFile)
+            return (long) LONG.get(((MappedFile) base).region(l), MappedFile.offset(l));
+        return AtomLayout.u.getLong(base, l);
+    }
+
+    @SuppressWarnings("restriction")
+    static void putLong(Object base, long l, long v) {
+        if (base instanceof ByteBuffer)
+            LONG.set((ByteBuffer) base, index(l), v);
+        else if (base instanceof MappedFile)
+            LONG.set(((MappedFile) base).region(l), MappedFile.offset(l), v);
+        else
+            AtomLayout.u.putLong(base, l, v);
+    }
+
+    @SuppressWarnings("restriction")
+    static float getFloat(Object base, long l) {
+        if (base instanceof ByteBuffer)
+            return (float) FLOAT.get((ByteBuffer) base, index(l));
+        if (base instanceof MappedFile)
+            return (float) FLOAT.get(((MappedFile) base).region(l), MappedFile.offset(l));
+        return AtomLayout.u.getFloat(base, l);
+    }
+
+    @SuppressWarnings("restriction")
+    static void putFloat(Object base, long l, float v) {
+        if (base instanceof ByteBuffer)
+            FLOAT.set((ByteBuffer) base, index(l), v);
+        else if (base instanceof MappedFile)
+            FLOAT.set(((MappedFile) base).region(l), MappedFile.offset(l), v);
+        else
+            AtomLayout.u.putFloat(base, l, v);
+    }
+
+    @SuppressWarnings("restriction")
+    static double getDouble(Object base, long l) {
+        if (base instanceof ByteBuffer)
+            return (double) DOUBLE.get((ByteBuffer) base, index(l));
+        if (base instanceof MappedFile)
+            return (double) DOUBLE.get(((MappedFile) base).region(l), MappedFile.offset(l));
+        return AtomLayout.u.getDouble(base, l);
+    }
+
+    @SuppressWarnings("restriction")
+    static void putDouble(Object base, long l, double v) {
+        if (base instanceof ByteBuffer)
+            DOUBLE.set((ByteBuffer) base, index(l), v);
+        else if (base instanceof MappedFile)
+            DOUBLE.set(((MappedFile) base).region(l), MappedFile.offset(l), v);
+        else
+            AtomLayout.u.putDouble(base, l, v);
+    }
+
+    @SuppressWarnings("restriction")
+    static int getIntVolatile(Object base, long l) {
+        if (base instanceof ByteBuffer)
+            return (int) INT.getVolatile((ByteBuffer) base, index(l));
+        if (base instanceof MappedFile)
+            return (int) INT.getVolatile(((MappedFile) base).region(l), MappedFile.offset(l));
+        return AtomLayout.u.getIntVolatile(base, l);
+    }
+
+    @SuppressWarnings("restriction")
+    static void putIntVolatile(Object base, long l, int v) {
+        if (base instanceof ByteBuffer)
+            INT.setVolatile((ByteBuffer) base, index(l), v);
+        else if (base instanceof MappedFile)
+            INT.setVolatile(((MappedFile) base).region(l), MappedFile.offset(l), v);
+        else
+            AtomLayout.u.putIntVolatile(base, l, v);
+    }
+
+    @SuppressWarnings("restriction")
+    static void putOrderedInt(Object base, long l, int v) {
+        if (base instanceof ByteBuffer)
+            INT.setRelease((ByteBuffer) base, index(l), v);
+        else if (base instanceof MappedFile)
+            INT.setRelease(((MappedFile) base).region(l), MappedFile.offset(l), v);
+        else
+            AtomLayout.u.putOrderedInt(base, l, v);
+    }
+
+    @SuppressWarnings("restriction")
+    static long getLongVolatile(Object base, long l) {
+        if (base instanceof ByteBuffer)
+            return (long) LONG.getVolatile((ByteBuffer) base, index(l));
+        if (base instanceof MappedFile)
+            return (long) LONG.getVolatile(((MappedFile) base).region(l), MappedFile.offset(l));
+        return AtomLayout.u.getLongVolatile(base, l);
+    }
+
+    @SuppressWarnings("restriction")
+    static void putLongVolatile(Object base, long l, long v) {
+        if (base instanceof ByteBuffer)
+            LONG.setVolatile((ByteBuffer) base, index(l), v);
+        else if (base instanceof MappedFile)
+            LONG.setVolatile(((MappedFile) base).region(l), MappedFile.offset(l), v);
+        else
+            AtomLayout.u.putLongVolatile(base, l, v);
+    }
+
+    @SuppressWarnings("restriction")
+    static void putOrderedLong(Object base, long l, long v) {
+        if (base instanceof ByteBuffer)
+            LONG.setRelease((ByteBuffer) base, index(l), v);
+        else if (base instanceof MappedFile)
+            LONG.setRelease(((MappedFile) base).region(l), MappedFile.offset(l), v);
+        else
+            AtomLayout.u.putOrderedLong(base, l, v);
+    }
+
+    @SuppressWarnings("restriction")
+    static boolean compareAndSwapInt(Object base, long l, int expected, int v) {
+        if (base instanceof ByteBuffer)
+            return INT.compareAndSet((ByteBuffer) base, index(l), expected, v);
+        if (base instanceof MappedFile)
+            return INT.compareAndSet(((MappedFile) base).region(l), MappedFile.offset(l), expected, v);
+        return AtomLayout.u.compareAndSwapInt(base, l, expected, v);
+    }
+
+    @SuppressWarnings("restriction")
+    static boolean compareAndSwapLong(Object base, long l, long expected, long v) {
+        if (base instanceof ByteBuffer)
+            return LONG.compareAndSet((ByteBuffer) base, index(l), expected, v);
+        if (base instanceof MappedFile)
+            return LONG.compareAndSet(((MappedFile) base).region(l), MappedFile.offset(l), expected, v);
+        return AtomLayout.u.compareAndSwapLong(base, l, expected, v);
+    }
+
+    @SuppressWarnings("restriction")
+    static int getAndAddInt(Object base, long l, int delta) {
+        if (base instanceof ByteBuffer)
+            return (int) INT.getAndAdd((ByteBuffer) base, index(l), delta);
+        if (base instanceof MappedFile)
+            return (int) INT.getAndAdd(((MappedFile) base).region(l), MappedFile.offset(l), delta);
+        return AtomLayout.u.getAndAddInt(base, l, delta);
+    }
+
+    @SuppressWarnings("restriction")
+    static long getAndAddLong(Object base, long l, long delta) {
+        if (base instanceof ByteBuffer)
+            return (long) LONG.getAndAdd((ByteBuffer) base, index(l), delta);
+        if (base instanceof MappedFile)
+            return (long) LONG.getAndAdd(((MappedFile) base).region(l), MappedFile.offset(l), delta);
+        return AtomLayout.u.getAndAddLong(base, l, delta);
+    }
+
+    @SuppressWarnings("restriction")
+    static int getAndSetInt(Object base, long l, int v) {
+        if (base instanceof ByteBuffer)
+            return (int) INT.getAndSet((ByteBuffer) base, index(l), v);
+        if (base instanceof MappedFile)
+            return (int) INT.getAndSet(((MappedFile) base).region(l), MappedFile.offset(l), v);
+        return AtomLayout.u.getAndSetInt(base, l, v);
+    }
+
+    @SuppressWarnings("restriction")
+    static long getAndSetLong(Object base, long l, long v) {
+        if (base instanceof ByteBuffer)
+            return (long) LONG.getAndSet((ByteBuffer) base, index(l), v);
+        if (base instanceof MappedFile)
+            return (long) LONG.getAndSet(((MappedFile) base).region(l), MappedFile.offset(l), v);
+        return AtomLayout.u.getAndSetLong(base, l, v);
+    }
+
+    /**
+     * Copies bytes bytes from (src_base, src_offset) to (dst_base,
+     * dst_offset); either side may be any kind of storage, or a Java
+     * primitive array at an Unsafe array offset.
+     */
+    @SuppressWarnings("restriction")
+    static void copyMemory(Object src_base, long src_offset,
+                           Object dst_base, long dst_offset, long bytes) {
+        if (src_base instanceof MappedFile || dst_base instanceof MappedFile) {
+            // Copy region by region; each piece is then a buffer copy.
+            while (bytes > 0) {
+                long n = bytes;
+                Object src = src_base;
+                long src_at = src_offset;
+                if (src_base instanceof MappedFile) {
+                    src = ((MappedFile) src_base).region(src_offset);
+                    src_at = MappedFile.offset(src_offset);
+                    n = Math.min(n, MappedFile.REGION_SIZE - src_at);
+                }
+                Object dst = dst_base;
+                long dst_at = dst_offset;
+                if (dst_base instanceof MappedFile) {
+                    dst = ((MappedFile) dst_base).region(dst_offset);
+                    dst_at = MappedFile.offset(dst_offset);
+                    n = Math.min(n, MappedFile.REGION_SIZE - dst_at);
+                }
+                copyMemory(src, src_at, dst, dst_at, n);
+                src_offset += n;
+                dst_offset += n;
+                bytes -= n;
+            }
+        } else if (src_base instanceof ByteBuffer && dst_base instanceof ByteBuffer) {
+            ((ByteBuffer) dst_base).put(index(dst_offset), (ByteBuffer) src_base,
+                                        index(src_offset), index(bytes));
+        } else if (src_base instanceof ByteBuffer) {
+            ByteBuffer src = (ByteBuffer) src_base;
+            byte[] tmp = new byte[(int) Math.min(bytes, COPY_CHUNK)];
+            for (long done = 0; done < bytes; done += tmp.length) {
+                int n = (int) Math.min(tmp.length, bytes - done);
+                src.get(index(src_offset + done), tmp, 0, n);
+                AtomLayout.u.copyMemory(tmp, Unsafe.ARRAY_BYTE_BASE_OFFSET,
+                                        dst_base, dst_offset + done, n);
+            }
+        } else if (dst_base instanceof ByteBuffer) {
+            ByteBuffer dst = (ByteBuffer) dst_base;
+            byte[] tmp = new byte[(int) Math.min(bytes, COPY_CHUNK)];
+            for (long done = 0; done < bytes; done += tmp.length) {
+                int n = (int) Math.min(tmp.length, bytes - done);
+                AtomLayout.u.copyMemory(src_base, src_offset + done,
+                                        tmp, Unsafe.ARRAY_BYTE_BASE_OFFSET, n);
+                dst.put(index(dst_offset + done), tmp, 0, n);
+            }
+        } else {
+            AtomLayout.u.copyMemory(src_base, src_offset, dst_base, dst_offset, bytes);
+        }
+    }
+}
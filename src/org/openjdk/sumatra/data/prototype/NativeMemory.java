@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.lang.ref.Cleaner;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Native (C heap) memory used by Locations, and its automatic reclamation.
+ *
+ * Root Locations allocated from the native heap (by Layout.allocate and
+ * ArrayLayout.allocate) are registered with a Cleaner, and their memory is
+ * freed by the Cleaner's own thread once the root, and therefore every
+ * Location derived from it, is unreachable.  Nothing is freed on the
+ * allocating thread and no finalizers are involved.
+ *
+ * The counters report all native memory obtained through this class,
+ * including chunks held by Scopes.
+ */
+public final class NativeMemory {
+
+    private static final Cleaner cleaner = Cleaner.create();
+
+    private static final AtomicLong outstandingBytes = new AtomicLong();
+    private static final AtomicLong outstandingBlocks = new AtomicLong();
+    private static final AtomicLong reclaimedBytes = new AtomicLong();
+
+    private NativeMemory() {
+    }
+
+    /**
+     * Returns the number of bytes currently allocated from the native heap.
+     * @return the number of bytes
+     */
+    public static long outstandingBytes() {
+        return outstandingBytes.get();
+    }
+
+    /**
+     * Returns the number of blocks currently allocated from the native heap.
+     * @return the number of blocks
+     */
+    public static long outstandingBlocks() {
+        return outstandingBlocks.get();
+    }
+
+    /**
+     * Returns the total number of bytes freed because their root Locations
+     * became unreachable.
+     * @return the number of bytes
+     */
+    public static long reclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    @SuppressWarnings("restriction")
+    static long allocate(long bytes) {
+        long a = AtomLayout.u.allocateMemory(bytes);
+        outstandingBytes.addAndGet(bytes);
+        outstandingBlocks.incrementAndGet();
+        return a;
+    }
+
+    @SuppressWarnings("restriction")
+    static void free(long a, long bytes) {
+        AtomLayout.u.freeMemory(a);
+        outstandingBytes.addAndGet(-bytes);
+        outstandingBlocks.decrementAndGet();
+    }
+
+    /**
+     * Arranges for the block at a to be freed when root becomes unreachable.
+     * @return root
+     */
+    static <L extends Location<?>> L freeWhenUnreachable(L root, long a,
+                                                         long bytes) {
+        cleaner.register(root, new Deallocator(a, bytes));
+        return root;
+    }
+
+    /**
+     * Must not refer to the Location it cleans up after.
+     */
+    private static final class Deallocator implements Runnable {
+        private final long address;
+        private final long bytes;
+
+        Deallocator(long address, long bytes) {
+            this.address = address;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void run() {
+            free(address, bytes);
+            reclaimedBytes.addAndGet(bytes);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The table behind the opaque pointers of a PointerDomain.  A handle is
+ * the index of its table slot, with the slot's generation in the high bits;
+ * released slots are kept on a free list and reused, and each reuse bumps
+ * the generation, so the table stays as dense as the set of live handles
+ * and a handle used after release is (almost always) detected rather than
+ * silently translated to some other object.  Generations wrap after
+ * 2^GENERATION_BITS reuses of a slot, so detection is best-effort.
+ *
+ * Referents are held strongly, or weakly if requested; slots whose weak
+ * referents have been collected are reclaimed on the next add, and their
+ * entries are kept until takeCleared so that the owner can drop them from
+ * its own maps.  Weak handles are tagged with WEAK_BIT, and a weak handle
+ * that no longer resolves reads as null instead of being reported as
+ * stale.
+ *
+ * Slot zero is never used, so no handle is zero (null).
+ *
+ * Handles are resolved (get) without locking, so that threads reading
+ * opaque pointers do not contend; adding and releasing handles, and the
+ * free list, are guarded by the table's lock.
+ */
+final class OpaqueHandleTable {
+
+    final static int INDEX_BITS = 24;
+    final static int WEAK_BIT = 1 << INDEX_BITS;
+    final static int GENERATION_BITS = 32 - INDEX_BITS - 1;
+    private final static int GENERATION_SHIFT = INDEX_BITS + 1;
+    private final static int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    private final static int GENERATION_MASK = (1 << GENERATION_BITS) - 1;
+
+    private final static int INITIAL_CAPACITY = 16;
+
+    /**
+     * A weakly held referent and its handle.  The owner of the table may
+     * chain entries by identity hash through next (see PointerDomain).
+     */
+    final static class WeakEntry extends WeakReference<Object> {
+        final int handle;
+        final int hash;
+        WeakEntry next;        // guarded by the owner
+        WeakEntry nextCleared; // guarded by the table until taken
+        WeakEntry(Object o, int handle, int hash, ReferenceQueue<Object> q) {
+            super(o, q);
+            this.handle = handle;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * The slots, replaced as a whole when the table grows.  A slot's
+     * generation changes only while it is free, so a reader that sees the
+     * same generation before and after reading the referent has read the
+     * referent of that generation.
+     */
+    private final static class Slots {
+        final AtomicReferenceArray<Object> referents;
+        final AtomicIntegerArray generations;
+        Slots(int n) {
+            referents = new AtomicReferenceArray<Object>(n);
+            generations = new AtomicIntegerArray(n);
+        }
+    }
+
+    // Read without locking by get; replaced only while holding the lock.
+    private volatile Slots slots = new Slots(INITIAL_CAPACITY);
+
+    // Guarded by this.
+    private int[] nextFree = new int[INITIAL_CAPACITY];
+    private int freeHead; // zero if the free list is empty
+    private int top = 1;  // lowest never-used index
+    private int live;
+
+    private final ReferenceQueue<Object> cleared = new ReferenceQueue<Object>();
+    private WeakEntry takenCleared; // reclaimed, not yet taken; guarded by this
+
+    /**
+     * Returns a new handle for o, which must not be null, held strongly.
+     */
+    synchronized int add(Object o) {
+        int i = allocate();
+        Slots s = slots;
+        s.referents.set(i, o);
+        return s.generations.get(i) << GENERATION_SHIFT | i;
+    }
+
+    /**
+     * Returns a new weakly held entry for o, which must not be null and
+     * has identity hash code hash.
+     */
+    synchronized WeakEntry addWeak(Object o, int hash) {
+        int i = allocate();
+        Slots s = slots;
+        int h = s.generations.get(i) << GENERATION_SHIFT | WEAK_BIT | i;
+        WeakEntry e = new WeakEntry(o, h, hash, cleared);
+        s.referents.set(i, e);
+        return e;
+    }
+
+    /**
+     * Returns, chained through WeakEntry.nextCleared, the weak entries
+     * reclaimed since the last call, for the owner to forget.
+     */
+    synchronized WeakEntry takeCleared() {
+        expungeCleared();
+        WeakEntry e = takenCleared;
+        takenCleared = null;
+        return e;
+    }
+
+    private int allocate() {
+        expungeCleared();
+        int i;
+        if (freeHead != 0) {
+            i = freeHead;
+            freeHead = nextFree[i];
+        } else {
+            if (top > INDEX_MASK)
+                throw new Error("Too many live opaque handles");
+            if (top == nextFree.length)
+                grow();
+            i = top++;
+        }
+        live++;
+        return i;
+    }
+
+    /**
+     * Returns the referent of handle h, or null if it was weakly held and
+     * has been collected.  Throws an Error if h was released.  This takes
+     * no lock unless h does not resolve, so readers never contend.
+     */
+    Object get(int h) {
+        Object r = referent(slots, h);
+        if (r == null) {
+            // Perhaps added through slots this thread has not seen yet.
+            synchronized (this) {
+                r = referent(slots, h);
+            }
+            if (r == null) {
+                if ((h & WEAK_BIT) != 0)
+                    return null;
+                throw new Error("Stale or invalid opaque pointer " + h);
+            }
+        }
+        if (r instanceof WeakEntry)
+            return ((WeakEntry) r).get();
+        return r;
+    }
+
+    /**
+     * Returns what slot h holds, if h is its current handle, else null.
+     */
+    private static Object referent(Slots s, int h) {
+        int i = h & INDEX_MASK;
+        if (i == 0 || i >= s.generations.length())
+            return null;
+        int g = h >>> GENERATION_SHIFT;
+        if (s.generations.get(i) != g)
+            return null;
+        Object r = s.referents.get(i);
+        if (r == null || s.generations.get(i) != g ||
+                ((h & WEAK_BIT) != 0) != (r instanceof WeakEntry))
+            return null;
+        return r;
+    }
+
+    /**
+     * Releases handle h, which must not be used again.
+     */
+    synchronized void release(int h) {
+        free(check(h));
+    }
+
+    /**
+     * Returns the number of handles that have not been released or had
+     * their weak referents collected.
+     */
+    synchronized int live() {
+        expungeCleared();
+        return live;
+    }
+
+    private int check(int h) {
+        if (referent(slots, h) == null)
+            throw new Error("Stale or invalid opaque pointer " + h);
+        return h & INDEX_MASK;
+    }
+
+    private void free(int i) {
+        Slots s = slots;
+        // Cleared before the generation moves on; see Slots.
+        s.referents.set(i, null);
+        s.generations.set(i, (s.generations.get(i) + 1) & GENERATION_MASK);
+        nextFree[i] = freeHead;
+        freeHead = i;
+        live--;
+    }
+
+    private void expungeCleared() {
+        Reference<?> r;
+        while ((r = cleared.poll()) != null) {
+            WeakEntry e = (WeakEntry) r;
+            int i = e.handle & INDEX_MASK;
+            // It may already have been released explicitly.
+            if (slots.referents.get(i) == e)
+                free(i);
+            e.nextCleared = takenCleared;
+            takenCleared = e;
+        }
+    }
+
+    private void grow() {
+        Slots old = slots;
+        int n = Math.min(2 * nextFree.length, INDEX_MASK + 1);
+        Slots s = new Slots(n);
+        for (int i = 0; i < top; i++) {
+            s.referents.set(i, old.referents.get(i));
+            s.generations.set(i, old.generations.get(i));
+        }
+        nextFree = java.util.Arrays.copyOf(nextFree, n);
+        slots = s;
+    }
+}
@@ -25,9 +25,6 @@
 
 package org.openjdk.sumatra.data.prototype;
 
-import java.util.HashMap;
-import java.util.IdentityHashMap;
-
 final class PointerDomain {
     /**
      * A PointerDomain maps back and forth between Java Objects
@@ -35,60 +32,132 @@ final class PointerDomain {
      * has not yet been stored, locations that refer to it are
      * recorded instead, so that they may be updated when it is stored.
      *
-     * This is NOT thread-safe.
+     * This is thread-safe, so that several threads may flatten object
+     * graphs into the same root at once.  The maps are split into stripes,
+     * by identity hash for maps keyed by object and by key for maps keyed
+     * by handle or address, and each stripe is guarded by its own lock.
+     * A key stripe's lock is never held while taking another lock.
+     * Updates to the chain of dangling references to an object are made
+     * while holding that object's stripe lock.
+     *
+     * The maps are primitive open-addressing tables, so translating a
+     * pointer allocates nothing once the tables have grown to size.
+     *
+     * Opaque handles index an OpaqueHandleTable, which reuses the handles
+     * of released objects and resolves handles without locking.  Weakly
+     * held opaque referents are not entered in objectToOpaque, since that
+     * would keep them alive; instead weakToOpaque chains their table
+     * entries by identity hash, so that storing the same object again
+     * reuses its handle.  Entries the table has reclaimed are unlinked
+     * before each weak store.
      */
 
-    private final IdentityHashMap<Object, Integer> objectToOpaque =
-            new IdentityHashMap<Object, Integer>();
-    private final HashMap<Integer, Object> opaqueToObject =
-            new HashMap<Integer, Object>();
+    private final static int LOG_STRIPES = 4;
+    private final static int STRIPES = 1 << LOG_STRIPES;
+
+    private final static class ObjectStripe {
+        final IdentityToLongMap objectToOpaque = new IdentityToLongMap();
+        final IdentityToLongMap objectToNative = new IdentityToLongMap();
+        // Identity hash (see weakKey) to a chain of OpaqueHandleTable.WeakEntry.
+        final LongToObjectMap weakToOpaque = new LongToObjectMap();
+    }
+
+    private final static class KeyStripe {
+        final LongToObjectMap nativeToObject = new LongToObjectMap();
+    }
+
+    private final ObjectStripe[] objectStripes = new ObjectStripe[STRIPES];
+    private final KeyStripe[] keyStripes = new KeyStripe[STRIPES];
+
+    // Handles are only meaningful within their domain.
+    private final OpaqueHandleTable handles = new OpaqueHandleTable();
+    private volatile boolean weakOpaques;
+
+    PointerDomain() {
+        for (int i = 0; i < STRIPES; i++) {
+            objectStripes[i] = new ObjectStripe();
+            keyStripes[i] = new KeyStripe();
+        }
+    }
+
+    private ObjectStripe stripeFor(Object o) {
+        return stripeFor(System.identityHashCode(o));
+    }
 
-    private final IdentityHashMap<Object, Long> objectToNative =
-            new IdentityHashMap<Object, Long>();
-    private final HashMap<Long, Object> nativeToObject =
-            new HashMap<Long, Object>();
+    private ObjectStripe stripeFor(int identity_hash) {
+        int h = identity_hash;
+        h ^= h >>> 16;
+        return objectStripes[(h ^ (h >>> LOG_STRIPES)) & (STRIPES - 1)];
+    }
 
-    private static int lastHandle;
+    // Zero is not a valid LongToObjectMap key, but may be an identity hash.
+    private static long weakKey(int identity_hash) {
+        return (identity_hash & 0xFFFFFFFFL) | 1L << 32;
+    }
+
+    private KeyStripe stripeFor(long key) {
+        // Addresses are aligned, so their low bits say little.
+        return keyStripes[(int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - LOG_STRIPES))];
+    }
 
     @SuppressWarnings("restriction")
     static void _put(Object base, long l, long v) {
         if (Layout.pointerSizeAndAlign == Layout.BYTES_PER_INT)
-            AtomLayout.u.putInt(base, l, (int) v);
+            Memory.putInt(base, l, (int) v);
         else
-            AtomLayout.u.putLong(base, l, v);
+            Memory.putLong(base, l, v);
     }
 
     @SuppressWarnings("restriction")
     static long _val(Object base, long l) {
         if (Layout.pointerSizeAndAlign == Layout.BYTES_PER_INT)
-            return AtomLayout.u.getInt(base, l);
+            return Memory.getInt(base, l);
         else
-            return AtomLayout.u.getLong(base, l);
+            return Memory.getLong(base, l);
     }
 
     Object fromNative(Object base, long asNative) {
         if (base != null)
             throw new UnsupportedOperationException(
                     "Don't handle pointers in heap-allocated memory yet");
-        return asNative == 0 ? null : nativeToObject.get(asNative);
+        if (asNative == 0)
+            return null;
+        KeyStripe k = stripeFor(asNative);
+        synchronized (k) {
+            return k.nativeToObject.get(asNative);
+        }
     }
 
-    long toNative(Object base, long forLocation, Object o) {
+    /**
+     * Stores at forLocation a native pointer to o.  If o has not been
+     * stored yet, forLocation is linked into the chain of dangling
+     * references to o instead, to be fixed up by storeNative.
+     * The pointer is written under o's stripe lock so that a concurrent
+     * storeNative never walks a half-linked chain.
+     */
+    void putNative(Object base, long forLocation, Object o) {
         if (base != null)
             throw new UnsupportedOperationException(
                     "Don't handle pointers in heap-allocated memory yet");
-        if (o == null)
-            return 0;
+        if (o == null) {
+            _put(base, forLocation, 0);
+            return;
+        }
 
-        Long thing = objectToNative.get(o);
-        if (thing == null) {
-            objectToNative.put(o, new Long(forLocation | 1));
-            return forLocation | 1;
-        } else if ((thing & 1) == 1) {
-            objectToNative.put(o, new Long(forLocation | 1));
-            return thing;
-        } else {
-            return thing;
+        ObjectStripe s = stripeFor(o);
+        synchronized (s) {
+            long thing = s.objectToNative.get(o);
+            long v;
+            if (thing == 0) {
+                v = forLocation | 1;
+                s.objectToNative.put(o, v);
+            } else if ((thing & 1) == 1) {
+                v = thing;
+                s.objectToNative.put(o, forLocation | 1);
+            } else {
+                v = thing;
+            }
+            _put(base, forLocation, v);
         }
     }
 
@@ -97,20 +166,98 @@ final class PointerDomain {
         if (base != null)
             throw new UnsupportedOperationException(
                     "Don't handle pointers in heap-allocated memory yet");
-        Object r =  asNative == 0 ? null : opaqueToObject.get((int)asNative);
-        return r;
+        return asNative == 0 ? null : handles.get((int) asNative);
     }
 
     int toOpaque(Object o) {
         if (o == null)
             return 0;
-        Integer thing = objectToOpaque.get(o);
-        if (thing == null) {
-            thing = ++lastHandle;
-            objectToOpaque.put(o, thing);
-            opaqueToObject.put(thing, o);
+        if (weakOpaques)
+            return toWeakOpaque(o);
+        ObjectStripe s = stripeFor(o);
+        synchronized (s) {
+            int thing = (int) s.objectToOpaque.get(o);
+            if (thing == 0) {
+                thing = handles.add(o);
+                s.objectToOpaque.put(o, thing);
+            }
+            return thing;
+        }
+    }
+
+    private int toWeakOpaque(Object o) {
+        forgetCleared();
+        int hash = System.identityHashCode(o);
+        long key = weakKey(hash);
+        ObjectStripe s = stripeFor(hash);
+        synchronized (s) {
+            OpaqueHandleTable.WeakEntry first =
+                    (OpaqueHandleTable.WeakEntry) s.weakToOpaque.get(key);
+            for (OpaqueHandleTable.WeakEntry e = first; e != null; e = e.next) {
+                if (e.get() == o)
+                    return e.handle;
+            }
+            OpaqueHandleTable.WeakEntry e = handles.addWeak(o, hash);
+            e.next = first;
+            s.weakToOpaque.put(key, e);
+            return e.handle;
+        }
+    }
+
+    /**
+     * Unlinks from weakToOpaque the entries whose referents the table has
+     * reclaimed.  The table's lock is not held while taking stripe locks.
+     */
+    private void forgetCleared() {
+        OpaqueHandleTable.WeakEntry c = handles.takeCleared();
+        for (; c != null; c = c.nextCleared) {
+            long key = weakKey(c.hash);
+            ObjectStripe s = stripeFor(c.hash);
+            synchronized (s) {
+                OpaqueHandleTable.WeakEntry first =
+                        (OpaqueHandleTable.WeakEntry) s.weakToOpaque.get(key);
+                if (first == c) {
+                    if (c.next == null)
+                        s.weakToOpaque.remove(key);
+                    else
+                        s.weakToOpaque.put(key, c.next);
+                } else {
+                    for (OpaqueHandleTable.WeakEntry e = first; e != null; e = e.next) {
+                        if (e.next == c) {
+                            e.next = c.next;
+                            break;
+                        }
+                    }
+                }
+            }
         }
-        return thing;
+    }
+
+    /**
+     * Releases the (strongly held) opaque handle for o, if any.
+     * Locations still holding that handle become stale.
+     * @param o
+     * @return true if o had a handle
+     */
+    boolean releaseOpaque(Object o) {
+        if (o == null)
+            return false;
+        ObjectStripe s = stripeFor(o);
+        synchronized (s) {
+            int thing = (int) s.objectToOpaque.remove(o);
+            if (thing == 0)
+                return false;
+            handles.release(thing);
+            return true;
+        }
+    }
+
+    int liveOpaqueHandles() {
+        return handles.live();
+    }
+
+    void setWeakOpaques(boolean weak) {
+        weakOpaques = weak;
     }
 
     /**
@@ -123,29 +270,34 @@ final class PointerDomain {
         if (base != null)
             throw new UnsupportedOperationException(
                     "Don't handle pointers in heap-allocated memory yet");
-        Long thing = objectToNative.get(o);
-        Long l_Long = new Long(l);
-        objectToNative.put(o, l_Long);
-        nativeToObject.put(l_Long, o);
-
-        if (thing == null) {
-            // all done.
-        } else if ((thing & 1) == 1) {
-            while (true) {
-                long reference = thing & ~1;
-                long next_thing = PointerDomain._val(null, reference);
-                PointerDomain._put(null, reference, l);
-                if (thing == next_thing)
-                    break;
-                thing = next_thing;
+        ObjectStripe s = stripeFor(o);
+        synchronized (s) {
+            long thing = s.objectToNative.get(o);
+            s.objectToNative.put(o, l);
+            KeyStripe k = stripeFor(l);
+            synchronized (k) {
+                k.nativeToObject.put(l, o);
+            }
+
+            if (thing == 0) {
+                // all done.
+            } else if ((thing & 1) == 1) {
+                while (true) {
+                    long reference = thing & ~1;
+                    long next_thing = PointerDomain._val(null, reference);
+                    PointerDomain._put(null, reference, l);
+                    if (thing == next_thing)
+                        break;
+                    thing = next_thing;
+                }
+            } else {
+                // Need to think about what this means.
+                // Two choices -- complain, or do nothing.
+                // Doing nothing ought to increase the sharing/locality
+                // of the flattened data, though the second value copy
+                // will still exist.
+                // For now, do nothing.
             }
-        } else {
-            // Need to think about what this means.
-            // Two choices -- complain, or do nothing.
-            // Doing nothing ought to increase the sharing/locality
-            // of the flattened data, though the second value copy
-            // will still exist.
-            // For now, do nothing.
         }
     }
 }
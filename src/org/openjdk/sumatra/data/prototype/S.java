@@ -27,6 +27,8 @@ package org.openjdk.sumatra.data.prototype;
 
 import org.openjdk.sumatra.data.prototype.AtomBitLayout;
 
+import sun.misc.Unsafe;
+
 /**
  * A layout for a 16-bit integer, in a 16-bit-sized container.
  */
@@ -62,16 +64,20 @@ public final class S extends AtomLayout<Short> {
     }
     @SuppressWarnings("restriction")
     private static short getBox(Object base, long offset) {
-        return u.getShort(base, offset);
+        return Memory.getShort(base, offset);
     }
 
     @SuppressWarnings("restriction")
     private static void putBox(Object base, long offset, short val) {
-        u.putShort(base, offset, val);
+        Memory.putShort(base, offset, val);
     }
 
-    S(Class cl, int s, int a) {
+    // Whether bitfield layouts derived from this one update concurrently.
+    private final boolean concurrentBits;
+
+    S(Class cl, int s, int a, boolean concurrent_bits) {
         super(s, a, cl);
+        concurrentBits = concurrent_bits;
     }
 
     // NOT PUBLIC, but visible to Location
@@ -87,7 +93,7 @@ public final class S extends AtomLayout<Short> {
     // NOT PUBLIC, but visible to Location
     @Override
     Short val(Object base, long l) {
-        return new Short(prim(base, l));
+        return Short.valueOf(prim(base, l));
     }
 
     // NOT PUBLIC, but visible to Location
@@ -97,13 +103,11 @@ public final class S extends AtomLayout<Short> {
     }
 
     // NOT PUBLIC, but visible to Location
+    @SuppressWarnings("restriction")
     Object makeArray(Object base, long addr, int count) {
         short[] a = new short[count];
-        long inc = byteOrBitSize();
-        for (int i = 0; i < count; i++) {
-            a[i] = prim(base, addr);
-            addr += inc;
-        }
+        Memory.copyMemory(base, addr, a, Unsafe.ARRAY_SHORT_BASE_OFFSET,
+                     count * byteOrBitSize());
         return a;
     }
 
@@ -134,7 +138,7 @@ public final class S extends AtomLayout<Short> {
                 throw new Error("Bit offset too large: (negative of) " + -b);
             BitLE rv = leSAccessors[b];
             if (rv == null) {
-                rv = new BitLESigned(b);
+                rv = new BitLESigned(b, concurrentBits);
                 leSAccessors[b] = rv;
             }
             return rv;
@@ -143,7 +147,7 @@ public final class S extends AtomLayout<Short> {
                 throw new Error("Bit offset too large: " + b);
             BitLE rv = leUAccessors[b];
             if (rv == null) {
-                rv = new BitLEUnsigned(b);
+                rv = new BitLEUnsigned(b, concurrentBits);
                 leUAccessors[b] = rv;
             }
             return rv;
@@ -158,7 +162,7 @@ public final class S extends AtomLayout<Short> {
                 throw new Error("Bit offset too large: (negative of) " + -b);
             BitBE rv = beSAccessors[b];
             if (rv == null) {
-                rv = new BitBESigned(b);
+                rv = new BitBESigned(b, concurrentBits);
                 beSAccessors[b] = rv;
             }
             return rv;
@@ -167,7 +171,7 @@ public final class S extends AtomLayout<Short> {
                 throw new Error("Bit offset too large: " + b);
             BitBE rv = beUAccessors[b];
             if (rv == null) {
-                rv = new BitBEUnsigned(b);
+                rv = new BitBEUnsigned(b, concurrentBits);
                 beUAccessors[b] = rv;
             }
             return rv;
@@ -193,8 +197,8 @@ public final class S extends AtomLayout<Short> {
         protected final int storeMask;
 
         // Cannot be protected or public.
-        Bit(int s, int mask) {
-            super(s, 0, Short.class);
+        Bit(int s, int mask, boolean concurrent) {
+            super(s, 0, Short.class, concurrent);
             storeMask = mask;
         }
 
@@ -216,7 +220,7 @@ public final class S extends AtomLayout<Short> {
         // NOT PUBLIC, but visible to Location
         @Override
         Short val(Object base, long l) {
-            return new Short(prim(base, l));
+            return Short.valueOf(prim(base, l));
         }
 
         // NOT PUBLIC, but visible to Location
@@ -228,7 +232,7 @@ public final class S extends AtomLayout<Short> {
         // NOT PUBLIC, but visible to Location
         @Override
         Short val(Object base, long l, long b) {
-            return new Short(prim(base, l, b));
+            return Short.valueOf(prim(base, l, b));
         }
 
         // NOT PUBLIC, but visible to Location
@@ -240,23 +244,34 @@ public final class S extends AtomLayout<Short> {
         // NOT PUBLIC, but visible to Location
         Object makeArray(Object base, long addr, int count) {
             short[] a = new short[count];
-            long offset = 0;
-            long bump = byteOrBitSize();
-            for (int i = 0; i < count; i++) {
-                a[i] = prim(base, addr, offset);
-                offset += bump;
-            }
+            BitArrays.unpack(this, base, addr, 0, a, Unsafe.ARRAY_SHORT_BASE_OFFSET,
+                             Unsafe.ARRAY_SHORT_INDEX_SCALE, count);
             return a;
         }
 
         @Override
         void fillArray(Location arena, Object base, long addr, Short[] a) {
             int count = a.length;
-            long offset = 0;
-            long bump = byteOrBitSize();
-            for (int i = 0; i < count; i++) {
-                a[i] = Short.valueOf(prim(base, addr, offset));
-                offset += bump;
+            short[] buf = new short[Math.min(count, BitArrays.CHUNK)];
+            for (int i = 0; i < count; i += buf.length) {
+                int n = Math.min(buf.length, count - i);
+                BitArrays.unpack(this, base, addr, i, buf, Unsafe.ARRAY_SHORT_BASE_OFFSET,
+                                 Unsafe.ARRAY_SHORT_INDEX_SCALE, n);
+                for (int j = 0; j < n; j++)
+                    a[i + j] = Short.valueOf(buf[j]);
+            }
+        }
+
+        // NOT PUBLIC, but visible to ArrayBitLayout
+        @Override
+        void putArray(Object base, long addr, Short[] a, int count) {
+            short[] buf = new short[Math.min(count, BitArrays.CHUNK)];
+            for (int i = 0; i < count; i += buf.length) {
+                int n = Math.min(buf.length, count - i);
+                for (int j = 0; j < n; j++)
+                    buf[j] = a[i + j].shortValue();
+                BitArrays.pack(this, buf, Unsafe.ARRAY_SHORT_BASE_OFFSET,
+                               Unsafe.ARRAY_SHORT_INDEX_SCALE, base, addr, i, n);
             }
         }
 
@@ -279,8 +294,13 @@ public final class S extends AtomLayout<Short> {
 
     /** Little-endian bitfields, either signed or unsigned */
     abstract static class BitLE extends  Bit {
-        BitLE(int s) {
-            super(s, (1 << s) - 1);
+        BitLE(int s, boolean concurrent) {
+            super(s, (1 << s) - 1, concurrent);
+        }
+
+        @Override
+        final boolean bigEndianBits() {
+            return false;
         }
 
         // NOT PUBLIC, but visible to Location
@@ -290,6 +310,11 @@ public final class S extends AtomLayout<Short> {
         // NOT PUBLIC, but visible to Location
         @Override
         final void putPrim(Object base, long l, long b, short v) {
+            if (concurrent) {
+                ConcurrentBits.update(this, base, l, b, ConcurrentBits.SET,
+                                      v, 0);
+                return;
+            }
             l += bitOffsetToByteAddressOfBoxBoundary(b);
             int ib = (int) b & (BITS_PER_BOX-1);
             int container = getBox(base, l) & ~(storeMask << ib);
@@ -312,8 +337,13 @@ public final class S extends AtomLayout<Short> {
     /** Little-endian unsigned bitfields. */
     public final static class BitLEUnsigned extends BitLE {
         // Cannot be protected or public.
-        BitLEUnsigned(int s) {
-            super(s);
+        BitLEUnsigned(int s, boolean concurrent) {
+            super(s, concurrent);
+        }
+
+        @Override
+        final boolean signedBits() {
+            return false;
         }
 
         @Override
@@ -364,8 +394,13 @@ public final class S extends AtomLayout<Short> {
     /** Little-endian signed bitfields. */
     public final static class BitLESigned extends BitLE {
         // Cannot be protected or public.
-        BitLESigned(int s) {
-            super(s);
+        BitLESigned(int s, boolean concurrent) {
+            super(s, concurrent);
+        }
+
+        @Override
+        final boolean signedBits() {
+            return true;
         }
 
         @Override
@@ -417,13 +452,23 @@ public final class S extends AtomLayout<Short> {
     static abstract class BitBE extends Bit {
 
         // Cannot be protected or public.
-        BitBE(int s) {
-            super(s, (1 << s) - 1);
+        BitBE(int s, boolean concurrent) {
+            super(s, (1 << s) - 1, concurrent);
+        }
+
+        @Override
+        final boolean bigEndianBits() {
+            return true;
         }
 
 
         // NOT PUBLIC, but visible to Location
         final void putPrim(Object base, long l, long b, short v) {
+            if (concurrent) {
+                ConcurrentBits.update(this, base, l, b, ConcurrentBits.SET,
+                                      v, 0);
+                return;
+            }
             l += (b >>> LOG_BITS_PER_BOX) << (LOG_BITS_PER_BOX - LOG_BITS_PER_BYTE);
             int ib0 = (int) b & (BITS_PER_BOX-1);
             int ib = BITS_PER_BOX - (int) ib0 - (int) byteOrBitSize();
@@ -451,8 +496,13 @@ public final class S extends AtomLayout<Short> {
 
     public final static class BitBEUnsigned extends BitBE {
         // Cannot be protected or public.
-        BitBEUnsigned(int s) {
-            super(s);
+        BitBEUnsigned(int s, boolean concurrent) {
+            super(s, concurrent);
+        }
+
+        @Override
+        final boolean signedBits() {
+            return false;
         }
 
         // NOT PUBLIC, but visible to Location
@@ -494,8 +544,13 @@ public final class S extends AtomLayout<Short> {
 
     public final static class BitBESigned extends BitBE {
         // Cannot be protected or public.
-        BitBESigned(int s) {
-            super(s);
+        BitBESigned(int s, boolean concurrent) {
+            super(s, concurrent);
+        }
+
+        @Override
+        final boolean signedBits() {
+            return true;
         }
 
         // NOT PUBLIC, but visible to Location
@@ -547,9 +602,11 @@ public final class S extends AtomLayout<Short> {
     abstract public static class BitAt extends Layout<Short> {
         protected final int bitOffset;
         protected final int bitsAbove;
+        private final boolean concurrent;
         protected final int storeMask;
         BitAt(Bit layout, int bit_offset) {
             super((int) layout.byteOrBitSize(), 0, layout.cls());
+            concurrent = layout.concurrent;
             storeMask =  ((1 << layout.byteOrBitSize()) - 1) << bit_offset;
             bitOffset = bit_offset;
             // Bits per int, not Bits per box, because of int container.
@@ -561,11 +618,21 @@ public final class S extends AtomLayout<Short> {
             return super.toString() + ",@b" + bitOffset;
         }
 
+        // NOT PUBLIC, but visible to AtomBitLayout
+        int bitOffset() {
+            return bitOffset;
+        }
+
         // NOT PUBLIC, but visible to Location
         abstract short prim(Object base, long l);
 
         // NOT PUBLIC, but visible to Location
         final void putPrim(Object base, long l, short v) {
+            if (concurrent) {
+                ConcurrentBits.updateAt(base, l, BYTES_PER_BOX, bitOffset,
+                        (int) byteOrBitSize(), ConcurrentBits.SET, v, 0);
+                return;
+            }
             //System.out.println("Layout " + this + ", storing " + hex(v) + " at byte " + hex(l));
             v = (short) (storeMask & (v << bitOffset));
             int container = getBox(base, l) & ~storeMask;
@@ -579,7 +646,7 @@ public final class S extends AtomLayout<Short> {
         // NOT PUBLIC, but visible to Location
         @Override
         final Short val(Object base, long l) {
-            return new Short(prim(base, l));
+            return Short.valueOf(prim(base, l));
         }
 
         // NOT PUBLIC, but visible to Location
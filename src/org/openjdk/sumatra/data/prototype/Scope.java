@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+/**
+ * A region of native memory from which Locations for any Layout can be
+ * allocated by bumping a pointer, and which is freed all at once when it is
+ * closed.  Memory is obtained from the native heap in chunks; requests too
+ * large for a chunk get a chunk of their own.
+ *
+ * Locations allocated from a scope must not be used after it is reset or
+ * closed; as with memory mapped from a MappedByteBuffer, this is NOT checked.
+ * A scope is NOT thread-safe.
+ *
+ * Typical use is per-request scratch storage:
+ * <pre>
+ *   try (Scope s = Scope.open()) {
+ *       ArrayLocation&lt;Double&gt; a = s.allocate(layout);
+ *       ...
+ *   }
+ * </pre>
+ */
+public final class Scope implements AutoCloseable {
+
+    public final static long DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Chunks are at least this well aligned; larger alignments are not
+     * supported.
+     */
+    private final static int MAX_ALIGN = 2 * Layout.BYTES_PER_LONG;
+
+    private final long chunkSize;
+
+    // Addresses of all chunks obtained from the native heap; the first
+    // one, if any, is kept across reset.
+    private long[] chunks = new long[4];
+    private long[] chunkSizes = new long[4];
+    private int chunkCount;
+
+    private long next;  // bump pointer within the current chunk
+    private long limit; // end of the current chunk
+    private long allocated; // bytes handed out since open or reset
+    private boolean closed;
+
+    private Scope(long chunk_size) {
+        chunkSize = chunk_size;
+    }
+
+    /**
+     * Returns a new, empty scope with the default chunk size.
+     * @return the scope
+     */
+    public static Scope open() {
+        return new Scope(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Returns a new, empty scope that obtains native memory chunk_size bytes
+     * at a time.
+     * @param chunk_size the size of each chunk
+     * @return the scope
+     */
+    public static Scope open(long chunk_size) {
+        if (chunk_size <= 0)
+            throw new Error("Chunk size must be larger than zero");
+        return new Scope(chunk_size);
+    }
+
+    /**
+     * Allocates a new location for layout within this scope.
+     * @param layout
+     * @return the location
+     */
+    public <T> Location<T> allocate(Layout<T> layout) {
+        return new Location<T>(null, layout, bump(layout));
+    }
+
+    /**
+     * Allocates a new array location for layout within this scope.
+     * @param layout
+     * @return the location
+     */
+    public <T> ArrayLocation<T> allocate(ArrayLayout<T> layout) {
+        return new ArrayLocation<T>(null, layout, bump(layout));
+    }
+
+    /**
+     * Returns the number of bytes handed out since this scope was opened or
+     * last reset, including padding for alignment.
+     * @return the number of bytes
+     */
+    public long bytesAllocated() {
+        return allocated;
+    }
+
+    /**
+     * Forgets every location allocated so far, so that the memory can be
+     * reused.  All chunks except the first are returned to the native heap.
+     */
+    public void reset() {
+        checkOpen();
+        for (int i = 1; i < chunkCount; i++)
+            NativeMemory.free(chunks[i], chunkSizes[i]);
+        if (chunkCount > 0) {
+            chunkCount = 1;
+            next = chunks[0];
+            limit = next + chunkSize;
+        }
+        allocated = 0;
+    }
+
+    /**
+     * Returns all memory held by this scope to the native heap.
+     * Closing a closed scope has no effect.
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        for (int i = 0; i < chunkCount; i++)
+            NativeMemory.free(chunks[i], chunkSizes[i]);
+        chunkCount = 0;
+        next = limit = 0;
+    }
+
+    private void checkOpen() {
+        if (closed)
+            throw new Error("Scope is closed");
+    }
+
+    private long bump(Layout<?> layout) {
+        checkOpen();
+        long size = layout.byteOrBitSize();
+        int align = layout.byteAlign();
+        if (align > MAX_ALIGN)
+            throw new Error("Layout alignment too large for scope, " + align);
+        if (align == 0)
+            align = 1;
+        if (chunkCount == 0) {
+            // The first chunk is always a regular one; reset keeps it.
+            next = newChunk(chunkSize);
+            limit = next + chunkSize;
+        }
+        long a = Layout.roundUp(next, align);
+        if (a + size > limit) {
+            if (size > chunkSize / 2) {
+                // Give it a chunk of its own, keep using the current one.
+                a = newChunk(size);
+                allocated += size;
+                return a;
+            }
+            next = newChunk(chunkSize);
+            limit = next + chunkSize;
+            a = next;
+        }
+        allocated += a + size - next;
+        next = a + size;
+        return a;
+    }
+
+    private long newChunk(long size) {
+        long a = NativeMemory.allocate(size);
+        if (a % MAX_ALIGN != 0) {
+            NativeMemory.free(a, size);
+            throw new Error("Native heap returned insufficiently aligned memory");
+        }
+        if (chunkCount == chunks.length) {
+            chunks = java.util.Arrays.copyOf(chunks, 2 * chunkCount);
+            chunkSizes = java.util.Arrays.copyOf(chunkSizes, 2 * chunkCount);
+        }
+        chunks[chunkCount] = a;
+        chunkSizes[chunkCount] = size;
+        chunkCount++;
+        return a;
+    }
+}
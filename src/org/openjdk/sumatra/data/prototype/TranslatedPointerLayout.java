@@ -43,8 +43,7 @@ public final class TranslatedPointerLayout<T> extends PointerLayout<T> {
     @Override
     void put(Location arena, Object base, long l, T v) {
         PointerDomain pd = arena.pointerDomain();
-        long asNative = pd.toNative(base, l, v);
-        PointerDomain._put(base, l, asNative);
+        pd.putNative(base, l, v);
     }
 
 }
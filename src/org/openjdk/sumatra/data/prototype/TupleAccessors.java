@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * Method handle trees that marshal and unmarshal a whole tuple without
+ * going through Method.invoke.  Element offsets are bound in as constants,
+ * getters and the valueOf factory are called directly, and full-width or
+ * offset-pinned primitive elements are read and written through their
+ * layouts' prim and putPrim methods, so no boxing occurs unless the tuple
+ * class's own getters or factory require it.
+ * <p>
+ * The JIT only inlines through a method handle it can see is constant, and
+ * a handle in an instance field is not, even a final one.  So each tuple
+ * layout gets its own hidden copy of {@link Constant}, whose static final
+ * fields hold that layout's trees.
+ */
+abstract class TupleAccessors {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /*
+     * Each element costs three arguments (Location, Object, long = 4 slots)
+     * in the intermediate handle built for val, and the JVM limits a method
+     * handle to 255 argument slots.  Wider tuples use reflection instead.
+     */
+    private static final int MAX_ELEMENTS = 63;
+
+    private static final MethodType VAL_TYPE = MethodType.methodType(
+            Object.class, Location.class, Object.class, long.class);
+    private static final MethodType PUT_TYPE = MethodType.methodType(
+            void.class, Location.class, Object.class, long.class, Object.class);
+
+    private static final MethodHandle ADD;
+    private static final MethodHandle LAYOUT_VAL;
+    private static final MethodHandle LAYOUT_PUT;
+
+    static {
+        try {
+            ADD = LOOKUP.findStatic(TupleAccessors.class, "add",
+                    MethodType.methodType(long.class, long.class, long.class));
+            LAYOUT_VAL = LOOKUP.findVirtual(Layout.class, "val", VAL_TYPE);
+            LAYOUT_PUT = LOOKUP.findVirtual(Layout.class, "put", PUT_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            e.printStackTrace();
+            throw new Error("Failed to find method handles for tuple accessors");
+        }
+    }
+
+    private static long add(long a, long b) {
+        return a + b;
+    }
+
+    /**
+     * The bytes of Constant, copied into a hidden class per tuple layout;
+     * null if they cannot be found.
+     */
+    private static final byte[] CONSTANT_BYTES = constantBytes();
+
+    private static byte[] constantBytes() {
+        try (InputStream in = TupleAccessors.class.getResourceAsStream(
+                "TupleAccessors$Constant.class")) {
+            return in == null ? null : in.readAllBytes();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // NOT PUBLIC, but visible to the hidden copies of Constant.
+    TupleAccessors() {
+    }
+
+    /**
+     * Reads the tuple at l.
+     */
+    abstract Object val(Location arena, Object base, long l) throws Throwable;
+
+    /**
+     * Writes v as the tuple at l.
+     */
+    abstract void put(Location arena, Object base, long l, Object v) throws Throwable;
+
+    /**
+     * Template for the per-layout hidden classes; its class data is the
+     * list (val, put) of the layout's trees.  Never loaded as itself.
+     */
+    static final class Constant extends TupleAccessors {
+        private static final MethodHandle VAL;
+        private static final MethodHandle PUT;
+
+        static {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                VAL = MethodHandles.classDataAt(lookup,
+                        ConstantDescs.DEFAULT_NAME, MethodHandle.class, 0);
+                PUT = MethodHandles.classDataAt(lookup,
+                        ConstantDescs.DEFAULT_NAME, MethodHandle.class, 1);
+            } catch (IllegalAccessException e) {
+                throw new Error("Failed to find tuple accessor class data");
+            }
+        }
+
+        @Override
+        Object val(Location arena, Object base, long l) throws Throwable {
+            return VAL.invokeExact(arena, base, l);
+        }
+
+        @Override
+        void put(Location arena, Object base, long l, Object v) throws Throwable {
+            PUT.invokeExact(arena, base, l, v);
+        }
+    }
+
+    /**
+     * Holds the trees in instance fields, where the JIT cannot inline
+     * them; used only if Constant cannot be copied.
+     */
+    private static final class Bound extends TupleAccessors {
+        private final MethodHandle val;
+        private final MethodHandle put;
+
+        Bound(MethodHandle val, MethodHandle put) {
+            this.val = val;
+            this.put = put;
+        }
+
+        @Override
+        Object val(Location arena, Object base, long l) throws Throwable {
+            return val.invokeExact(arena, base, l);
+        }
+
+        @Override
+        void put(Location arena, Object base, long l, Object v) throws Throwable {
+            put.invokeExact(arena, base, l, v);
+        }
+    }
+
+    /**
+     * Returns accessors for a tuple with the given (normalized) element
+     * layouts and offsets, or null if they cannot be built, in which case the
+     * caller should fall back to reflection.
+     */
+    static TupleAccessors of(Layout[] elements, long[] offsets,
+                             Method valueOf, Method[] getters) {
+        int n = elements.length;
+        if (n > MAX_ELEMENTS)
+            return null;
+        try {
+            MethodHandle factory = LOOKUP.unreflect(valueOf);
+            Class<?>[] params = valueOf.getParameterTypes();
+
+            // Replace each factory parameter with a loader taking
+            // (arena, base, l), then merge all the copies of those three.
+            MethodHandle v = factory;
+            for (int i = n - 1; i >= 0; i--) {
+                v = MethodHandles.collectArguments(v, i,
+                        loader(elements[i], offsets[i], params[i]));
+            }
+            int[] reorder = new int[3 * n];
+            for (int i = 0; i < reorder.length; i++)
+                reorder[i] = i % 3;
+            v = v.asType(v.type().changeReturnType(Object.class));
+            v = MethodHandles.permuteArguments(v, VAL_TYPE, reorder);
+
+            // Chain the element stores; the last one folded runs first.
+            MethodHandle p = MethodHandles.empty(PUT_TYPE);
+            for (int i = n - 1; i >= 0; i--) {
+                p = MethodHandles.foldArguments(p,
+                        storer(elements[i], offsets[i],
+                               LOOKUP.unreflect(getters[i])));
+            }
+            return constant(v, p);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns accessors calling val and put, from a new hidden copy of
+     * Constant if possible.
+     */
+    private static TupleAccessors constant(MethodHandle val, MethodHandle put) {
+        if (CONSTANT_BYTES != null) {
+            try {
+                MethodHandles.Lookup hidden = LOOKUP.defineHiddenClassWithClassData(
+                        CONSTANT_BYTES, List.of(val, put), true);
+                return (TupleAccessors) hidden.findConstructor(
+                        hidden.lookupClass(), MethodType.methodType(void.class))
+                        .invoke();
+            } catch (Throwable e) {
+                // fall through
+            }
+        }
+        return new Bound(val, put);
+    }
+
+    /**
+     * Returns (Location, Object, long) -> param_type, reading the element at
+     * offset off from l.
+     */
+    private static MethodHandle loader(Layout element, long off,
+                                       Class<?> param_type) {
+        MethodHandle h = primAccessor(element, "prim", false);
+        if (h != null)
+            h = MethodHandles.dropArguments(h, 0, Location.class);
+        else
+            h = LAYOUT_VAL.bindTo(element);
+        h = withOffset(h, off);
+        return h.asType(h.type().changeReturnType(param_type));
+    }
+
+    /**
+     * Returns (Location, Object, long, Object) -> void, storing the result
+     * of getter applied to the tuple at offset off from l.
+     */
+    private static MethodHandle storer(Layout element, long off,
+                                       MethodHandle getter) {
+        MethodHandle h = primAccessor(element, "putPrim", true);
+        if (h != null)
+            h = MethodHandles.dropArguments(h, 0, Location.class);
+        else
+            h = LAYOUT_PUT.bindTo(element);
+        Class<?> stored = h.type().parameterType(3);
+        h = MethodHandles.filterArguments(h, 3,
+                getter.asType(MethodType.methodType(stored, Object.class)));
+        return withOffset(h, off);
+    }
+
+    private static MethodHandle withOffset(MethodHandle h, long off) {
+        if (off == 0)
+            return h;
+        return MethodHandles.filterArguments(h, 2,
+                MethodHandles.insertArguments(ADD, 1, off));
+    }
+
+    /**
+     * Finds the primitive prim(Object, long) or putPrim(Object, long, p)
+     * method of an atom (or offset-pinned bitfield) layout, bound to that
+     * layout.  Returns null for layouts that do not have one.
+     */
+    static MethodHandle primAccessor(Layout element, String name,
+                                     boolean is_put) {
+        if (element instanceof AtomBitLayout)
+            return null; // these need a bit offset, too.
+        Class<?> p = MethodType.methodType(element.cls()).unwrap().returnType();
+        if (!p.isPrimitive())
+            return null;
+        MethodType mt = is_put ?
+                MethodType.methodType(void.class, Object.class, long.class, p) :
+                MethodType.methodType(p, Object.class, long.class);
+        try {
+            return LOOKUP.findVirtual(element.getClass(), name, mt)
+                    .bindTo(element);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns (Object[]) -> Object, calling valueOf with the elements of
+     * the array as its arguments, or null if valueOf cannot be unreflected.
+     */
+    static MethodHandle spreadFactory(Method valueOf) {
+        try {
+            MethodHandle h = LOOKUP.unreflect(valueOf);
+            h = h.asType(h.type().generic());
+            return h.asSpreader(Object[].class, h.type().parameterCount());
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns (Object) -> Object, calling getter and boxing its result,
+     * or null if getter cannot be unreflected.
+     */
+    static MethodHandle objectGetter(Method getter) {
+        try {
+            return LOOKUP.unreflect(getter).asType(
+                    MethodType.methodType(Object.class, Object.class));
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+}
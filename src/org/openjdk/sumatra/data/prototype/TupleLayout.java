@@ -37,9 +37,12 @@ import java.util.List;
 public class TupleLayout<T> extends CompoundLayout<T> {
 
     private final Layout[] elements; // wish this were truly readonly.
+    private final Layout[] fields; // as declared, bitfields not yet placed.
     private final long[] offsets; // wish this were truly readonly.
     private final Method[] getters;
     private final Method valueOf;
+    // Null if method handles could not be built; then use reflection.
+    private final TupleAccessors accessors;
 
     private final static Object[] NO_ARGS = new Object[0];
 
@@ -157,6 +160,7 @@ public class TupleLayout<T> extends CompoundLayout<T> {
                         Method valueOf, List<Method> getters) {
         super(foo.size, foo.align, cls);
         elements = foo.elements; // need to normalize the layouts.
+        fields = rest;
         offsets = foo.offsets;
         // bitOffsets = foo.bitOffsets;
         this.valueOf = valueOf;
@@ -205,9 +209,62 @@ public class TupleLayout<T> extends CompoundLayout<T> {
             }
             i++;
         }
+        accessors = TupleAccessors.of(elements, offsets, valueOf, this.getters);
     }
 
 
+    // NOT PUBLIC, but visible to ArrayColumnLayout and LayoutFile
+    int fieldCount() {
+        return fields.length;
+    }
+
+    // NOT PUBLIC, but visible to ArrayColumnLayout and LayoutFile
+    Layout fieldLayout(int i) {
+        return fields[i];
+    }
+
+    // NOT PUBLIC, but visible to Cursor, FieldHandle and LayoutFile
+    Layout placedLayout(int i) {
+        return elements[i];
+    }
+
+    // NOT PUBLIC, but visible to Cursor and FieldHandle
+    long offset(int i) {
+        return offsets[i];
+    }
+
+    // NOT PUBLIC, but visible to ArrayColumnLayout and LayoutFile
+    Method getter(int i) {
+        return getters[i];
+    }
+
+    // NOT PUBLIC, but visible to ArrayColumnLayout
+    Method factory() {
+        return valueOf;
+    }
+
+    /**
+     * Returns the index of the field read by the getter named name, or -1.
+     * @param name
+     * @return the field index
+     */
+    public int fieldIndex(String name) {
+        for (int i = 0; i < getters.length; i++)
+            if (getters[i].getName().equals(name))
+                return i;
+        return -1;
+    }
+
+    /**
+     * Returns a handle for reading and writing one field of tuples of this
+     * layout in place; see FieldHandle for the path syntax.
+     * @param path getter names, separated by '.' through nested tuples
+     * @return the field handle
+     */
+    public FieldHandle<T> fieldHandle(String path) {
+        return FieldHandle.of(this, path);
+    }
+
     private boolean isAllowedTypePun(Class cls, Class vo_p) {
         return
                 cls.equals(Integer.class) && vo_p.equals(Integer.TYPE) ||
@@ -221,6 +278,18 @@ public class TupleLayout<T> extends CompoundLayout<T> {
 
     @Override
     T val(Location arena, Object base, long l) {
+        if (accessors != null) {
+            Object o;
+            try {
+                o = accessors.val(arena, base, l);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                e.printStackTrace();
+                throw new Error("Call to valueOf failed.");
+            }
+            return (T) o;
+        }
         //  Obtain component values
         int ll = elements.length;
         Object[] components = new Object[ll];
@@ -242,14 +311,24 @@ public class TupleLayout<T> extends CompoundLayout<T> {
         //  Extract components from v
         //  Recursively store in parts.
 
-        int ll = elements.length;
-        for (int i = 0; i < ll; i++) {
+        if (accessors != null) {
             try {
-                elements[i].put(arena, base, l + offsets[i], getters[i].invoke(v, NO_ARGS));
-            } catch (IllegalAccessException | IllegalArgumentException
-                    | InvocationTargetException e) {
+                accessors.put(arena, base, l, v);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
                 e.printStackTrace();
             }
+        } else {
+            int ll = elements.length;
+            for (int i = 0; i < ll; i++) {
+                try {
+                    elements[i].put(arena, base, l + offsets[i], getters[i].invoke(v, NO_ARGS));
+                } catch (IllegalAccessException | IllegalArgumentException
+                        | InvocationTargetException e) {
+                    e.printStackTrace();
+                }
+            }
         }
 
         if (getPointerReferent() != null) {
@@ -0,0 +1,428 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype;
+
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import sun.misc.Unsafe;
+
+/**
+ * Copies tuples from one tuple layout into another whose fields are
+ * matched by getter name, without unmarshalling them; for instance to
+ * migrate data saved with an old version of a class (see LayoutFile) to
+ * the layout of a new version that adds, drops or reorders fields.
+ *
+ * The two layouts are compiled once into a plan.  Fields laid out
+ * identically in both (byte-aligned atoms, and arrays with the same
+ * description) become block copies, merged where they are adjacent in
+ * both tuples; identical layouts copy whole arrays in one block.  Other
+ * atoms, including all bitfields, are converted: a field may widen, to a
+ * wider bitfield or to any type that Java assigns without a cast (int to
+ * long or double, float to double, ...).  Conversions that could lose
+ * integral values are refused: to a narrower bitfield, or from a signed
+ * field to an unsigned bitfield.  Nested
+ * tuples are matched field by field, in place.  Destination fields with
+ * no source field are zeroed.
+ * Pointer fields cannot be transcoded.
+ */
+public final class TupleTranscoder<T, U> {
+
+    // Kinds of atom, in order of widening; booleans only go to booleans.
+    private final static int ZERO = 0;
+    private final static int BYTE = 1;
+    private final static int SHORT = 2;
+    private final static int INT = 3;
+    private final static int LONG = 4;
+    private final static int FLOAT = 5;
+    private final static int DOUBLE = 6;
+    private final static int BOOLEAN = 7;
+
+    private final TupleLayout<T> from;
+    private final TupleLayout<U> to;
+
+    // Block copies, in order of source offset.
+    private final long[] blockFrom;
+    private final long[] blockTo;
+    private final long[] blockLength;
+
+    // Array fields with no source, zeroed by copying from zeroBytes.
+    private final long[] zeroTo;
+    private final long[] zeroLength;
+    private final byte[] zeroBytes;
+
+    // Conversions; the source layout is null for a zeroed field.
+    private final Layout[] convFromLayout;
+    private final Layout[] convToLayout;
+    private final int[] convFromKind;
+    private final int[] convToKind;
+    private final long[] convFrom;
+    private final long[] convTo;
+
+    // True if the layouts are identical; then arrays are copied whole.
+    private final boolean whole;
+
+    /**
+     * One step of the plan while it is compiled.
+     */
+    private static final class Step {
+        final Layout fromLayout;
+        final Layout toLayout;
+        final long fromOffset;
+        final long toOffset;
+        final long length;
+
+        Step(Layout from_layout, Layout to_layout, long from_offset,
+             long to_offset, long length) {
+            fromLayout = from_layout;
+            toLayout = to_layout;
+            fromOffset = from_offset;
+            toOffset = to_offset;
+            this.length = length;
+        }
+    }
+
+    private TupleTranscoder(TupleLayout<T> from, TupleLayout<U> to) {
+        this.from = from;
+        this.to = to;
+        List<Step> blocks = new ArrayList<Step>();
+        List<Step> zeroes = new ArrayList<Step>();
+        List<Step> conversions = new ArrayList<Step>();
+        plan(from, to, 0, 0, blocks, zeroes, conversions);
+
+        blocks.sort(new Comparator<Step>() {
+            @Override
+            public int compare(Step a, Step b) {
+                return Long.compare(a.fromOffset, b.fromOffset);
+            }
+        });
+        List<Step> merged = new ArrayList<Step>();
+        for (Step b : blocks) {
+            Step last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null &&
+                    last.fromOffset + last.length == b.fromOffset &&
+                    last.toOffset + last.length == b.toOffset)
+                merged.set(merged.size() - 1, new Step(null, null,
+                        last.fromOffset, last.toOffset, last.length + b.length));
+            else
+                merged.add(b);
+        }
+
+        int n = merged.size();
+        blockFrom = new long[n];
+        blockTo = new long[n];
+        blockLength = new long[n];
+        for (int i = 0; i < n; i++) {
+            Step b = merged.get(i);
+            blockFrom[i] = b.fromOffset;
+            blockTo[i] = b.toOffset;
+            blockLength[i] = b.length;
+        }
+
+        n = zeroes.size();
+        zeroTo = new long[n];
+        zeroLength = new long[n];
+        long longest = 0;
+        for (int i = 0; i < n; i++) {
+            zeroTo[i] = zeroes.get(i).toOffset;
+            zeroLength[i] = zeroes.get(i).length;
+            longest = Math.max(longest, zeroLength[i]);
+        }
+        zeroBytes = new byte[(int) longest];
+
+        n = conversions.size();
+        convFromLayout = new Layout[n];
+        convToLayout = new Layout[n];
+        convFromKind = new int[n];
+        convToKind = new int[n];
+        convFrom = new long[n];
+        convTo = new long[n];
+        for (int i = 0; i < n; i++) {
+            Step c = conversions.get(i);
+            convFromLayout[i] = c.fromLayout;
+            convToLayout[i] = c.toLayout;
+            convFromKind[i] = c.fromLayout == null ? ZERO : kind(c.fromLayout);
+            convToKind[i] = kind(c.toLayout);
+            convFrom[i] = c.fromOffset;
+            convTo[i] = c.toOffset;
+        }
+
+        // Padding included, since the strides are the same.
+        whole = LayoutFile.describe(from).equals(LayoutFile.describe(to));
+    }
+
+    /**
+     * Returns a transcoder from tuples of layout from to tuples of layout to.
+     *
+     * @param from the layout of the source tuples
+     * @param to the layout of the destination tuples
+     * @return the transcoder
+     */
+    public static <T, U> TupleTranscoder<T, U> of(TupleLayout<T> from,
+                                                  TupleLayout<U> to) {
+        return new TupleTranscoder<T, U>(from, to);
+    }
+
+    private static void plan(TupleLayout<?> from, TupleLayout<?> to,
+                             long from_base, long to_base,
+                             List<Step> blocks, List<Step> zeroes,
+                             List<Step> conversions) {
+        for (int i = 0; i < to.fieldCount(); i++) {
+            String name = to.getter(i).getName();
+            Layout t = to.placedLayout(i);
+            long t_off = to_base + to.offset(i);
+            if (t instanceof PointerLayout)
+                throw new Error("Cannot transcode pointer field " + name);
+            int j = from.fieldIndex(name);
+            if (j < 0) {
+                zero(t, t_off, zeroes, conversions);
+                continue;
+            }
+            Layout f = from.placedLayout(j);
+            long f_off = from_base + from.offset(j);
+            if (f instanceof PointerLayout)
+                throw new Error("Cannot transcode pointer field " + name);
+            if (f instanceof TupleLayout && t instanceof TupleLayout) {
+                plan((TupleLayout<?>) f, (TupleLayout<?>) t, f_off, t_off,
+                     blocks, zeroes, conversions);
+            } else if (t.byteAlign() != 0 && f.byteAlign() != 0 &&
+                    LayoutFile.describe(f).equals(LayoutFile.describe(t))) {
+                blocks.add(new Step(f, t, f_off, t_off, t.byteOrBitSize()));
+            } else {
+                int fk = kind(f);
+                int tk = kind(t);
+                if (fk < 0 || tk < 0 || !(fk == tk ||
+                        fk != BOOLEAN && tk != BOOLEAN && fk < tk) ||
+                        tk <= LONG && !holds(to.fieldLayout(i), tk,
+                                             from.fieldLayout(j), fk))
+                    throw new Error("Cannot convert field " + name + " from " +
+                                    f + " to " + t);
+                conversions.add(new Step(f, t, f_off, t_off, 0));
+            }
+        }
+    }
+
+    private static void zero(Layout t, long t_off, List<Step> zeroes,
+                             List<Step> conversions) {
+        if (kind(t) >= 0) {
+            conversions.add(new Step(null, t, 0, t_off, 0));
+        } else if (t instanceof TupleLayout) {
+            TupleLayout<?> tt = (TupleLayout<?>) t;
+            for (int i = 0; i < tt.fieldCount(); i++)
+                zero(tt.placedLayout(i), t_off + tt.offset(i), zeroes, conversions);
+        } else {
+            // An array field.
+            zeroes.add(new Step(null, t, 0, t_off, t.byteOrBitSize()));
+        }
+    }
+
+    /**
+     * Returns true if every value of integral field f (as declared, before
+     * placement) fits in integral field t, so that no bitfield narrows.
+     */
+    private static boolean holds(Layout t, int tk, Layout f, int fk) {
+        int t_bits = valueBits(t, tk);
+        int f_bits = valueBits(f, fk);
+        boolean t_signed = !(t instanceof AtomBitLayout) ||
+                           ((AtomBitLayout) t).signedBits();
+        boolean f_signed = !(f instanceof AtomBitLayout) ||
+                           ((AtomBitLayout) f).signedBits();
+        if (f_signed)
+            return t_signed && t_bits >= f_bits;
+        return t_signed ? t_bits > f_bits : t_bits >= f_bits;
+    }
+
+    private static int valueBits(Layout l, int k) {
+        if (l instanceof AtomBitLayout)
+            return (int) l.byteOrBitSize();
+        return Layout.BITS_PER_BYTE << (k - BYTE);
+    }
+
+    private static int kind(Layout l) {
+        if (l instanceof B || l instanceof B.BitAt)
+            return BYTE;
+        if (l instanceof S || l instanceof S.BitAt)
+            return SHORT;
+        if (l instanceof I || l instanceof I.BitAt)
+            return INT;
+        if (l instanceof J || l instanceof J.BitAt)
+            return LONG;
+        if (l instanceof F)
+            return FLOAT;
+        if (l instanceof D)
+            return DOUBLE;
+        if (l instanceof Z || l instanceof Z.BitAt)
+            return BOOLEAN;
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(from.cls().getName()).append(" -> ").append(to.cls().getName());
+        for (int i = 0; i < blockFrom.length; i++)
+            sb.append("; copy @B").append(blockFrom[i]).append(" to @B")
+              .append(blockTo[i]).append(", ").append(blockLength[i]);
+        for (int i = 0; i < zeroTo.length; i++)
+            sb.append("; zero @B").append(zeroTo[i]).append(", ")
+              .append(zeroLength[i]);
+        for (int i = 0; i < convTo.length; i++) {
+            if (convFromLayout[i] == null)
+                sb.append("; zero ").append(convToLayout[i]);
+            else
+                sb.append("; convert ").append(convFromLayout[i]).append("@B")
+                  .append(convFrom[i]).append(" to ").append(convToLayout[i]);
+            sb.append("@B").append(convTo[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Copies the tuple at src into the tuple at dst.
+     *
+     * @param src a location of the source layout
+     * @param dst a location of the destination layout
+     */
+    public void transcode(Location<T> src, Location<U> dst) {
+        if (src.layout() != from)
+            throw new Error("Location does not have layout " + from + ": " + src.layout());
+        if (dst.layout() != to)
+            throw new Error("Location does not have layout " + to + ": " + dst.layout());
+        one(src.base(), src.addr(), dst.base(), dst.addr());
+        Reference.reachabilityFence(src);
+        Reference.reachabilityFence(dst);
+    }
+
+    /**
+     * Copies every tuple of src into dst, which must have the same length.
+     *
+     * @param src an array of tuples of the source layout
+     * @param dst an array of tuples of the destination layout
+     */
+    public void transcode(ArrayLocation<T> src, ArrayLocation<U> dst) {
+        long n = ((ArrayLayout<T>) src.layout()).length();
+        if (((ArrayLayout<U>) dst.layout()).length() != n)
+            throw new Error("Array lengths differ");
+        transcode(src, 0, dst, 0, n);
+    }
+
+    /**
+     * Copies count tuples of src, starting at src_idx, into dst starting at
+     * dst_idx, in one pass in increasing address order.  Both arrays must
+     * lay their tuples out one after another (see LayoutFactory.array),
+     * not as columns.
+     *
+     * @param src an array of tuples of the source layout
+     * @param src_idx the index of the first tuple copied
+     * @param dst an array of tuples of the destination layout
+     * @param dst_idx the index of the first tuple stored
+     * @param count the number of tuples
+     */
+    public void transcode(ArrayLocation<T> src, long src_idx,
+                          ArrayLocation<U> dst, long dst_idx, long count) {
+        checkArray(src, from, src_idx, count);
+        checkArray(dst, to, dst_idx, count);
+        long src_stride = from.byteOrBitSize();
+        long dst_stride = to.byteOrBitSize();
+        Object sb = src.base();
+        Object db = dst.base();
+        long sa = src.addr() + src_idx * src_stride;
+        long da = dst.addr() + dst_idx * dst_stride;
+        if (whole) {
+            Memory.copyMemory(sb, sa, db, da, count * src_stride);
+        } else {
+            for (long i = 0; i < count; i++) {
+                one(sb, sa, db, da);
+                sa += src_stride;
+                da += dst_stride;
+            }
+        }
+        Reference.reachabilityFence(src);
+        Reference.reachabilityFence(dst);
+    }
+
+    private static void checkArray(ArrayLocation<?> a, TupleLayout<?> t,
+                                   long idx, long count) {
+        if (!(a.layout() instanceof ArrayDefaultLayout) || a.elementLayout() != t)
+            throw new Error("Not an array of tuples of layout " + t + ": " + a.layout());
+        long n = ((ArrayLayout<?>) a.layout()).length();
+        if (idx < 0 || count < 0 || idx > n - count)
+            throw new ArrayIndexOutOfBoundsException("Flattened array range " +
+                                                     idx + "+" + count);
+    }
+
+    @SuppressWarnings("restriction")
+    private void one(Object sb, long sa, Object db, long da) {
+        for (int k = 0; k < blockFrom.length; k++)
+            copy(sb, sa + blockFrom[k], db, da + blockTo[k], blockLength[k]);
+        for (int k = 0; k < zeroTo.length; k++)
+            Memory.copyMemory(zeroBytes, Unsafe.ARRAY_BYTE_BASE_OFFSET,
+                              db, da + zeroTo[k], zeroLength[k]);
+        for (int k = 0; k < convTo.length; k++) {
+            Layout f = convFromLayout[k];
+            long fa = sa + convFrom[k];
+            long iv = 0;
+            double dv = 0;
+            boolean floating = false;
+            switch (convFromKind[k]) {
+            case BYTE: iv = AtomAccess.getByte(f, sb, fa); break;
+            case SHORT: iv = AtomAccess.getShort(f, sb, fa); break;
+            case INT: iv = AtomAccess.getInt(f, sb, fa); break;
+            case LONG: iv = AtomAccess.getLong(f, sb, fa); break;
+            case BOOLEAN: iv = AtomAccess.getBoolean(f, sb, fa) ? 1 : 0; break;
+            case FLOAT: dv = AtomAccess.getFloat(f, sb, fa); floating = true; break;
+            case DOUBLE: dv = AtomAccess.getDouble(f, sb, fa); floating = true; break;
+            default: break;
+            }
+            Layout t = convToLayout[k];
+            long ta = da + convTo[k];
+            switch (convToKind[k]) {
+            case BYTE: AtomAccess.putByte(t, db, ta, (byte) iv); break;
+            case SHORT: AtomAccess.putShort(t, db, ta, (short) iv); break;
+            case INT: AtomAccess.putInt(t, db, ta, (int) iv); break;
+            case LONG: AtomAccess.putLong(t, db, ta, iv); break;
+            case BOOLEAN: AtomAccess.putBoolean(t, db, ta, iv != 0); break;
+            case FLOAT: AtomAccess.putFloat(t, db, ta, floating ? (float) dv : (float) iv); break;
+            case DOUBLE: AtomAccess.putDouble(t, db, ta, floating ? dv : (double) iv); break;
+            default: break;
+            }
+        }
+    }
+
+    // Small blocks, the common case, are copied a word at a time.
+    @SuppressWarnings("restriction")
+    private static void copy(Object sb, long sa, Object db, long da, long n) {
+        if (n <= 4 * Layout.BYTES_PER_LONG &&
+                ((sa | da | n) & (Layout.BYTES_PER_LONG - 1)) == 0) {
+            for (long i = 0; i < n; i += Layout.BYTES_PER_LONG)
+                Memory.putLong(db, da + i, Memory.getLong(sb, sa + i));
+        } else {
+            Memory.copyMemory(sb, sa, db, da, n);
+        }
+    }
+}
@@ -27,6 +27,8 @@ package org.openjdk.sumatra.data.prototype;
 
 import org.openjdk.sumatra.data.prototype.AtomBitLayout;
 
+import sun.misc.Unsafe;
+
 /**
  * A layout for a 1-bit boolean, in an 8-bit container.
  */
@@ -62,12 +64,12 @@ public final class Z extends AtomLayout<Boolean> {
     }
     @SuppressWarnings("restriction")
     private static byte getBox(Object base, long offset) {
-        return u.getByte(base, offset);
+        return Memory.getByte(base, offset);
     }
 
     @SuppressWarnings("restriction")
     private static void putBox(Object base, long offset, byte val) {
-        u.putByte(base, offset, val);
+        Memory.putByte(base, offset, val);
     }
 
     static byte bool(boolean bv) {
@@ -82,8 +84,12 @@ public final class Z extends AtomLayout<Boolean> {
         return (0xFF & v) != 0;
     }
 
-    Z(Class cl, int s, int a) {
+    // Whether bitfield layouts derived from this one update concurrently.
+    private final boolean concurrentBits;
+
+    Z(Class cl, int s, int a, boolean concurrent_bits) {
         super(s, a, cl);
+        concurrentBits = concurrent_bits;
     }
 
     // NOT PUBLIC, but visible to Location
@@ -99,7 +105,7 @@ public final class Z extends AtomLayout<Boolean> {
     // NOT PUBLIC, but visible to Location
     @Override
     Boolean val(Object base, long l) {
-        return new Boolean(prim(base, l));
+        return Boolean.valueOf(prim(base, l));
     }
 
     // NOT PUBLIC, but visible to Location
@@ -145,7 +151,7 @@ public final class Z extends AtomLayout<Boolean> {
                 throw new Error("Bit offset too large: " + b);
             BitLE rv = leUAccessors[b];
             if (rv == null) {
-                rv = new BitLEUnsigned(b);
+                rv = new BitLEUnsigned(b, concurrentBits);
                 leUAccessors[b] = rv;
             }
             return rv;
@@ -161,7 +167,7 @@ public final class Z extends AtomLayout<Boolean> {
                 throw new Error("Bit offset too large: " + b);
             BitBE rv = beUAccessors[b];
             if (rv == null) {
-                rv = new BitBEUnsigned(b);
+                rv = new BitBEUnsigned(b, concurrentBits);
                 beUAccessors[b] = rv;
             }
             return rv;
@@ -187,8 +193,8 @@ public final class Z extends AtomLayout<Boolean> {
         protected final int storeMask;
 
         // Cannot be protected or public.
-        Bit(int s, int mask) {
-            super(s, 0, Boolean.class);
+        Bit(int s, int mask, boolean concurrent) {
+            super(s, 0, Boolean.class, concurrent);
             storeMask = mask;
         }
 
@@ -210,7 +216,7 @@ public final class Z extends AtomLayout<Boolean> {
         // NOT PUBLIC, but visible to Location
         @Override
         Boolean val(Object base, long l) {
-            return new Boolean(prim(base, l));
+            return Boolean.valueOf(prim(base, l));
         }
 
         // NOT PUBLIC, but visible to Location
@@ -222,7 +228,7 @@ public final class Z extends AtomLayout<Boolean> {
         // NOT PUBLIC, but visible to Location
         @Override
         Boolean val(Object base, long l, long b) {
-            return new Boolean(prim(base, l, b));
+            return Boolean.valueOf(prim(base, l, b));
         }
 
         // NOT PUBLIC, but visible to Location
@@ -234,23 +240,34 @@ public final class Z extends AtomLayout<Boolean> {
         // NOT PUBLIC, but visible to Location
         Object makeArray(Object base, long addr, int count) {
             boolean[] a = new boolean[count];
-            long offset = 0;
-            long bump = byteOrBitSize();
-            for (int i = 0; i < count; i++) {
-                a[i] = prim(base, addr, offset);
-                offset += bump;
-            }
+            BitArrays.unpack(this, base, addr, 0, a, Unsafe.ARRAY_BOOLEAN_BASE_OFFSET,
+                             Unsafe.ARRAY_BOOLEAN_INDEX_SCALE, count);
             return a;
         }
 
         @Override
         void fillArray(Location arena, Object base, long addr, Boolean[] a) {
             int count = a.length;
-            long offset = 0;
-            long bump = byteOrBitSize();
-            for (int i = 0; i < count; i++) {
-                a[i] = Boolean.valueOf(prim(base, addr, offset));
-                offset += bump;
+            boolean[] buf = new boolean[Math.min(count, BitArrays.CHUNK)];
+            for (int i = 0; i < count; i += buf.length) {
+                int n = Math.min(buf.length, count - i);
+                BitArrays.unpack(this, base, addr, i, buf, Unsafe.ARRAY_BOOLEAN_BASE_OFFSET,
+                                 Unsafe.ARRAY_BOOLEAN_INDEX_SCALE, n);
+                for (int j = 0; j < n; j++)
+                    a[i + j] = Boolean.valueOf(buf[j]);
+            }
+        }
+
+        // NOT PUBLIC, but visible to ArrayBitLayout
+        @Override
+        void putArray(Object base, long addr, Boolean[] a, int count) {
+            boolean[] buf = new boolean[Math.min(count, BitArrays.CHUNK)];
+            for (int i = 0; i < count; i += buf.length) {
+                int n = Math.min(buf.length, count - i);
+                for (int j = 0; j < n; j++)
+                    buf[j] = a[i + j].booleanValue();
+                BitArrays.pack(this, buf, Unsafe.ARRAY_BOOLEAN_BASE_OFFSET,
+                               Unsafe.ARRAY_BOOLEAN_INDEX_SCALE, base, addr, i, n);
             }
         }
 
@@ -274,8 +291,13 @@ public final class Z extends AtomLayout<Boolean> {
     /** Little-endian bitfields, either signed or unsigned */
     abstract static class BitLE extends  Bit {
         // Cannot be protected or public.
-        BitLE(int s) {
-            super(s, (1 << s) - 1);
+        BitLE(int s, boolean concurrent) {
+            super(s, (1 << s) - 1, concurrent);
+        }
+
+        @Override
+        final boolean bigEndianBits() {
+            return false;
         }
 
         // NOT PUBLIC, but visible to Location
@@ -285,6 +307,11 @@ public final class Z extends AtomLayout<Boolean> {
         // NOT PUBLIC, but visible to Location
         @Override
         final void putPrim(Object base, long l, long b, boolean bv) {
+            if (concurrent) {
+                ConcurrentBits.update(this, base, l, b, ConcurrentBits.SET,
+                                      bv ? 1 : 0, 0);
+                return;
+            }
             byte v = bool(bv);
             l += bitOffsetToByteAddressOfBoxBoundary(b);
             int ib = (int) b & (BITS_PER_BOX-1);
@@ -308,8 +335,13 @@ public final class Z extends AtomLayout<Boolean> {
     /** Little-endian unsigned bitfields. */
     public final static class BitLEUnsigned extends BitLE {
         // Cannot be protected or public.
-        BitLEUnsigned(int s) {
-            super(s);
+        BitLEUnsigned(int s, boolean concurrent) {
+            super(s, concurrent);
+        }
+
+        @Override
+        final boolean signedBits() {
+            return false;
         }
 
         @Override
@@ -363,14 +395,24 @@ public final class Z extends AtomLayout<Boolean> {
     static abstract class BitBE extends Bit {
 
         // Cannot be protected or public.
-        BitBE(int s) {
-            super(s, (1 << s) - 1);
+        BitBE(int s, boolean concurrent) {
+            super(s, (1 << s) - 1, concurrent);
+        }
+
+        @Override
+        final boolean bigEndianBits() {
+            return true;
         }
 
 
         // NOT PUBLIC, but visible to Location
         @Override
         final void putPrim(Object base, long l, long b, boolean bv) {
+            if (concurrent) {
+                ConcurrentBits.update(this, base, l, b, ConcurrentBits.SET,
+                                      bv ? 1 : 0, 0);
+                return;
+            }
             byte v = bool(bv);
             l += (b >>> LOG_BITS_PER_BOX) << (LOG_BITS_PER_BOX - LOG_BITS_PER_BYTE);
             int ib0 = (int) b & (BITS_PER_BOX-1);
@@ -399,8 +441,13 @@ public final class Z extends AtomLayout<Boolean> {
 
     public final static class BitBEUnsigned extends BitBE {
         // Cannot be protected or public.
-        BitBEUnsigned(int s) {
-            super(s);
+        BitBEUnsigned(int s, boolean concurrent) {
+            super(s, concurrent);
+        }
+
+        @Override
+        final boolean signedBits() {
+            return false;
         }
 
         // NOT PUBLIC, but visible to Location
@@ -452,9 +499,11 @@ public final class Z extends AtomLayout<Boolean> {
     abstract public static class BitAt extends Layout<Boolean> {
         protected final int bitOffset;
         protected final int bitsAbove;
+        private final boolean concurrent;
         protected final int storeMask;
         BitAt(Bit layout, int bit_offset) {
             super((int) layout.byteOrBitSize(), 0, layout.cls());
+            concurrent = layout.concurrent;
             storeMask =  ((1 << layout.byteOrBitSize()) - 1) << bit_offset;
             bitOffset = bit_offset;
             // Bits per int, not Bits per box, because of int container.
@@ -466,11 +515,21 @@ public final class Z extends AtomLayout<Boolean> {
             return super.toString() + ",@b" + bitOffset;
         }
 
+        // NOT PUBLIC, but visible to AtomBitLayout
+        int bitOffset() {
+            return bitOffset;
+        }
+
         // NOT PUBLIC, but visible to Location
         abstract boolean prim(Object base, long l);
 
         // NOT PUBLIC, but visible to Location
         final void putPrim(Object base, long l, boolean bv) {
+            if (concurrent) {
+                ConcurrentBits.updateAt(base, l, BYTES_PER_BOX, bitOffset,
+                        (int) byteOrBitSize(), ConcurrentBits.SET, bv ? 1 : 0, 0);
+                return;
+            }
             byte v = bool(bv);
             //System.out.println("Layout " + this + ", storing " + hex(v) + " at byte " + hex(l));
             v = (byte) (storeMask & (v << bitOffset));
@@ -485,7 +544,7 @@ public final class Z extends AtomLayout<Boolean> {
         // NOT PUBLIC, but visible to Location
         @Override
         final Boolean val(Object base, long l) {
-            return new Boolean(prim(base, l));
+            return Boolean.valueOf(prim(base, l));
         }
 
         // NOT PUBLIC, but visible to Location
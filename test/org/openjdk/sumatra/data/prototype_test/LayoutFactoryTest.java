@@ -255,6 +255,46 @@ public class LayoutFactoryTest extends TestCommon {
         }
     }
 
+    @Test
+    public void testBitArrayLoc() {
+        LayoutFactory lf = new LayoutFactory();
+        for (int w : new int[] { 3, -5, 7, -12, 16 }) {
+            ArrayLayout<Integer> al =
+                    lf.array(lf.bitfieldLayoutFor(Integer.class, w), 100);
+            testBitArrayLoc_common(al.allocate(), w);
+            testBitArrayLoc_common(al.allocateWithinArray(), w);
+        }
+    }
+
+    private void testBitArrayLoc_common(ArrayLocation<Integer> a, int w) {
+        int width = Math.abs(w);
+        int lim = 1 << (width - 1);
+        for (int i = 0; i < 100; i++) {
+            Location<Integer> l = a.loc(i);
+            l.put((i * 7) % lim);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals("width " + w + " element " + i,
+                         (i * 7) % lim, a.val(i).intValue());
+            assertEquals((i * 7) % lim, a.<Integer>loc(i).val().intValue());
+        }
+        // Elements straddling an int boundary read and write correctly.
+        a.put(10, w < 0 ? -1 : lim);
+        assertEquals(w < 0 ? -1 : lim, a.<Integer>loc(10).val().intValue());
+        assertEquals((9 * 7) % lim, a.val(9).intValue());
+        assertEquals((11 * 7) % lim, a.val(11).intValue());
+        // Element layouts are shared, not made per access.
+        assertSame(a.loc(1).layout(), a.loc(33).layout());
+
+        boolean thrown = false;
+        try {
+            a.val(100);
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            thrown = true;
+        }
+        assertTrue("Index past the end", thrown);
+    }
+
     @Test
     public void testTupleWithArray() {
         LayoutFactory lf = new LayoutFactory();
@@ -427,4 +467,22 @@ public class LayoutFactoryTest extends TestCommon {
         dumpBits(m.array(), lf, (int) m.elementLayout().byteOrBitSize());
     }
 
+    @Test
+    public void testArrayLayoutCache() {
+        LayoutFactory lf = new LayoutFactory();
+        ArrayLayout<Double> a = lf.array(Double.class, 10);
+        assertSame(a, lf.array(Double.class, 10));
+        assertSame(a, lf.array(lf.layoutFor(Double.class), 10));
+        assertNotSame(a, lf.array(Double.class, 11));
+        assertNotSame(a, new LayoutFactory().array(Double.class, 10));
+
+        Layout<Integer> bits = lf.bitfieldLayoutFor(Integer.class, 5);
+        assertSame(lf.array(bits, 7), lf.array(bits, 7));
+        assertNotSame(lf.array(bits, 7), lf.array(Integer.class, 7));
+
+        // Bounded; the least recently used layouts are dropped.
+        for (int i = 0; i < LayoutFactory.MAX_CACHED_ARRAY_LAYOUTS; i++)
+            lf.array(Long.class, 1000 + i);
+        assertNotSame(a, lf.array(Double.class, 10));
+    }
 }
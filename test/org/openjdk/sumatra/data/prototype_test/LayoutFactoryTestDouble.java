@@ -193,6 +193,20 @@ public class LayoutFactoryTestDouble extends TestCommon {
         assertEquals(ip.b, 4, 0.0);
     }
 
+    @Test
+    public void testFractionalValues() {
+        LayoutFactory lf = new LayoutFactory();
+        Layout<IP3> ip3_layout = lf.tuple(IP3.class, "a", "b");
+        Location<IP3> loc = ip3_layout.allocate();
+        loc.put(new IP3(3.25, 4));
+        assertEquals(3.25, loc.val().a, 0.0);
+
+        Location<Double[]> ar_loc = lf.array(Double.class, 2).allocate();
+        Location<Double> e_loc = ar_loc.loc(1);
+        e_loc.put(-0.5);
+        assertEquals(-0.5, e_loc.val(), 0.0);
+    }
+
     @Test
     public void testAliasTupleWithArray() {
         LayoutFactory lf = new LayoutFactory();
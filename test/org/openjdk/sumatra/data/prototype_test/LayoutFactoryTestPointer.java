@@ -128,4 +128,167 @@ public class LayoutFactoryTestPointer extends TestCommon {
         assertEquals(v1, ip2);
     }
 
+    @Test
+    public void testConcurrentPut() throws InterruptedException {
+        LayoutFactory lf = new LayoutFactory();
+        Layout<IP1> ip1_layout = lf.tuple(IP1.class, "a*", "b@");
+        final int n = 4000;
+        final int threads = 4;
+        final ArrayLocation<IP1> loc = lf.array(ip1_layout, n).allocate();
+        final IP1[] objs = new IP1[n];
+        for (int i = 0; i < n; i++)
+            objs[i] = new IP1(null, null);
+        for (int i = 0; i < n; i++) {
+            // Point forwards and backwards, so that threads race to store
+            // referents and to link dangling references to them.
+            objs[i].setA(objs[(i * 7 + 1) % n]);
+            objs[i].setB(objs[(i * 13 + 5) % n]);
+        }
+        Thread[] ts = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int first = t;
+            ts[t] = new Thread() {
+                public void run() {
+                    for (int i = first; i < n; i += threads)
+                        loc.put(i, objs[i]);
+                }
+            };
+        }
+        for (Thread t : ts)
+            t.start();
+        for (Thread t : ts)
+            t.join();
+        for (int i = 0; i < n; i++) {
+            IP1 ip = loc.val(i);
+            assertSame(objs[(i * 7 + 1) % n], ip.a());
+            assertSame(objs[(i * 13 + 5) % n], ip.b());
+        }
+    }
+
+    @Test
+    public void testConcurrentOpaqueReads() throws InterruptedException {
+        LayoutFactory lf = new LayoutFactory();
+        Layout<IP1> ip1_layout = lf.tuple(IP1.class, "a@", "b@");
+        final int n = 4000;
+        final int readers = 4;
+        final ArrayLocation<IP1> loc = lf.array(ip1_layout, n).allocate();
+        final IP1[] objs = new IP1[n];
+        for (int i = 0; i < n; i++)
+            objs[i] = new IP1(null, null);
+        for (int i = 0; i < 8; i++)
+            loc.put(i, new IP1(objs[i], objs[i]));
+        final int[] wrong = new int[readers];
+        Thread[] ts = new Thread[readers + 1];
+        // Readers resolve handles while the writer grows the table.
+        for (int t = 0; t < readers; t++) {
+            final int me = t;
+            ts[t] = new Thread() {
+                public void run() {
+                    for (int k = 0; k < 20000; k++) {
+                        int i = k & 7;
+                        try {
+                            if (loc.val(i).a() != objs[i])
+                                wrong[me]++;
+                        } catch (Error ex) {
+                            wrong[me]++;
+                        }
+                    }
+                }
+            };
+        }
+        ts[readers] = new Thread() {
+            public void run() {
+                for (int i = 8; i < n; i++)
+                    loc.put(i, new IP1(objs[i], null));
+            }
+        };
+        for (Thread t : ts)
+            t.start();
+        for (Thread t : ts)
+            t.join();
+        for (int t = 0; t < readers; t++)
+            assertEquals(0, wrong[t]);
+        for (int i = 0; i < n; i++)
+            assertSame(objs[i], loc.val(i).a());
+    }
+
+    @Test
+    public void testOpaqueRelease() {
+        LayoutFactory lf = new LayoutFactory();
+        Layout<IP1> ip1_layout = lf.tuple(IP1.class, "a@", "b@");
+        Location<IP1> loc = ip1_layout.allocate();
+        for (int i = 0; i < 1000; i++) {
+            IP1 v1 = new IP1(null, null);
+            IP1 v2 = new IP1(null, null);
+            loc.put(new IP1(v1, v2));
+            assertSame(v1, loc.val().a());
+            assertTrue(loc.releaseOpaque(v1));
+            assertTrue(loc.releaseOpaque(v2));
+            assertFalse(loc.releaseOpaque(v2));
+        }
+        assertEquals("Released handles are reused", 0, loc.liveOpaqueHandles());
+
+        ArrayLocation<IP1> a = lf.array(ip1_layout, 2).allocate();
+        IP1 v1 = new IP1(null, null);
+        a.put(0, new IP1(v1, v1));
+        assertEquals(1, a.liveOpaqueHandles());
+        a.releaseOpaque(v1);
+        // Reuses v1's slot.
+        a.put(1, new IP1(null, new IP1(null, null)));
+        assertEquals(1, a.liveOpaqueHandles());
+        boolean thrown = false;
+        try {
+            a.val(0);
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Stale opaque pointer was not detected", thrown);
+    }
+
+    @Test
+    public void testOpaqueWeak() throws InterruptedException {
+        LayoutFactory lf = new LayoutFactory();
+        Layout<IP1> ip1_layout = lf.tuple(IP1.class, "a@", "b@");
+        ArrayLocation<IP1> loc = lf.array(ip1_layout, 100).allocate();
+        loc.setWeakOpaqueReferents(true);
+        IP1 kept = new IP1(null, null);
+        for (int i = 0; i < 100; i++)
+            loc.put(i, new IP1(kept, new IP1(null, null)));
+        // kept is stored 100 times, but through one handle.
+        assertEquals(101, loc.liveOpaqueHandles());
+        // Reclamation of the unreachable referents needs a GC.
+        for (int i = 0; i < 100 && loc.liveOpaqueHandles() > 1; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertEquals(1, loc.liveOpaqueHandles());
+        assertSame(kept, loc.val(99).a());
+        assertNull(loc.val(99).b());
+    }
+
+    @Test
+    public void testOpaqueWeakOverwrite() throws InterruptedException {
+        LayoutFactory lf = new LayoutFactory();
+        Layout<IP1> ip1_layout = lf.tuple(IP1.class, "a@", "b@");
+        ArrayLocation<IP1> loc = lf.array(ip1_layout, 1).allocate();
+        loc.setWeakOpaqueReferents(true);
+        IP1 kept = new IP1(null, null);
+        for (int i = 0; i < 100000; i++)
+            loc.put(0, new IP1(kept, kept));
+        assertEquals(1, loc.liveOpaqueHandles());
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        for (int i = 0; i < 1000; i++)
+            loc.put(0, new IP1(kept, new IP1(null, null)));
+        assertSame(kept, loc.val(0).a());
+        // Only the last of the short-lived referents may still be live.
+        for (int i = 0; i < 100 && loc.liveOpaqueHandles() > 2; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertTrue(loc.liveOpaqueHandles() <= 2);
+        assertSame(kept, loc.val(0).a());
+    }
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype_test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.openjdk.sumatra.data.prototype.ArrayLayout;
+import org.openjdk.sumatra.data.prototype.IntLocation;
+import org.openjdk.sumatra.data.prototype.Layout;
+import org.openjdk.sumatra.data.prototype.LayoutFactory;
+import org.openjdk.sumatra.data.prototype.Location;
+import org.openjdk.sumatra.data.prototype.LongArrayLocation;
+import org.openjdk.sumatra.data.prototype.LongLocation;
+
+public class TestAtomicLocation extends TestCommon {
+
+    public static class Flags {
+        int a;
+        int b;
+        Flags(int a, int b) { this.a = a; this.b = b; }
+        public int a() { return a; }
+        public int b() { return b; }
+        public static Flags valueOf(int a, int b) {
+            return new Flags(a, b);
+        }
+    }
+
+    private static void runThreads(int threads, final Runnable r)
+            throws InterruptedException {
+        Thread[] ts = new Thread[threads];
+        for (int t = 0; t < threads; t++)
+            ts[t] = new Thread(r);
+        for (Thread t : ts)
+            t.start();
+        for (Thread t : ts)
+            t.join();
+    }
+
+    @Test
+    public void testIntCounter() throws InterruptedException {
+        LayoutFactory lf = new LayoutFactory();
+        Layout<Integer> il = lf.layoutFor(Integer.class);
+        final IntLocation c = IntLocation.of(il.allocate());
+        c.putIntVolatile(0);
+        runThreads(4, new Runnable() {
+            public void run() {
+                for (int i = 0; i < 10000; i++)
+                    c.getAndAddInt(1);
+            }
+        });
+        assertEquals(40000, c.getIntAcquire());
+        assertTrue(c.compareAndSetInt(40000, 7));
+        assertFalse(c.compareAndSetInt(40000, 8));
+        assertEquals(7, c.getAndSetInt(-1));
+        c.putIntRelease(3);
+        assertEquals(3, c.getInt());
+    }
+
+    @Test
+    public void testBitfieldMembers() throws InterruptedException {
+        LayoutFactory lf = new LayoutFactory(true);
+        Layout<Flags> fl = lf.tuple(Flags.class, "a:-12", "b:9");
+        Location<Flags> f = fl.allocate();
+        f.put(Flags.valueOf(0, 0));
+        final IntLocation a = IntLocation.of(f.<Integer>loc(0));
+        final IntLocation b = IntLocation.of(f.<Integer>loc(1));
+        runThreads(4, new Runnable() {
+            public void run() {
+                for (int i = 0; i < 100; i++) {
+                    a.getAndAddInt(-1);
+                    b.getAndAddInt(1);
+                }
+            }
+        });
+        assertEquals(-400, a.getIntVolatile());
+        assertEquals(400, b.getIntVolatile());
+        assertEquals(-400, f.val().a());
+        assertEquals(400, f.val().b());
+        // b is 9 bits wide.
+        assertEquals(400, b.getAndAddInt(200));
+        assertEquals(88, b.getInt());
+        assertTrue(b.compareAndSetInt(88 + 512, 1));
+        assertEquals(1, b.getAndSetInt(2));
+        assertEquals(-400, a.getInt());
+    }
+
+    @Test
+    public void testLongHistogram() throws InterruptedException {
+        LayoutFactory lf = new LayoutFactory();
+        ArrayLayout<Long> al = lf.array(Long.class, 16);
+        final LongArrayLocation h = LongArrayLocation.of(al.allocate());
+        for (int i = 0; i < 16; i++)
+            h.putLongRelease(i, 0);
+        runThreads(4, new Runnable() {
+            public void run() {
+                for (int i = 0; i < 16000; i++)
+                    h.getAndAddLong(i & 15, 1L << 33);
+            }
+        });
+        for (int i = 0; i < 16; i++)
+            assertEquals(4000L << 33, h.getLongVolatile(i));
+        assertEquals(4000L << 33, h.getAndSetLong(3, 5));
+        assertTrue(h.compareAndSetLong(3, 5, 6));
+        assertEquals(6, h.getLongAcquire(3));
+
+        LongLocation l = LongLocation.of(lf.layoutFor(Long.class).allocate());
+        l.putLong(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, l.getAndAddLong(1));
+        assertEquals(Long.MIN_VALUE, l.getLongVolatile());
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype_test;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.openjdk.sumatra.data.prototype.ArrayLayout;
+import org.openjdk.sumatra.data.prototype.ArrayLocation;
+import org.openjdk.sumatra.data.prototype.IntArrayLocation;
+import org.openjdk.sumatra.data.prototype.Layout;
+import org.openjdk.sumatra.data.prototype.LayoutFactory;
+import org.openjdk.sumatra.data.prototype.Location;
+import org.openjdk.sumatra.data.prototype.LongLocation;
+
+public class TestByteBufferLocation extends TestCommon {
+
+    public static class Pair {
+        final long key;
+        final double value;
+        Pair(long key, double value) { this.key = key; this.value = value; }
+        public long key() { return key; }
+        public double value() { return value; }
+        public static Pair valueOf(long key, double value) {
+            return new Pair(key, value);
+        }
+    }
+
+    @Test
+    public void testTuples() {
+        LayoutFactory lf = new LayoutFactory();
+        ArrayLayout<Pair> al = lf.array(lf.tuple(Pair.class, "key", "value"), 50);
+        testTuples_common(al.allocateWithinByteBuffer(ByteBuffer.allocate(800)));
+        testTuples_common(al.allocateWithinByteBuffer(ByteBuffer.allocateDirect(800)));
+    }
+
+    private void testTuples_common(ArrayLocation<Pair> a) {
+        for (int i = 0; i < 50; i++)
+            a.put(i, new Pair(i * 3L, i + 0.5));
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i * 3L, a.val(i).key());
+            assertEquals(i + 0.5, a.val(i).value(), 0.0);
+        }
+        // The buffer holds the data in native byte order.
+        ByteBuffer bb = (ByteBuffer) a.base();
+        assertEquals(7 * 3L, bb.order(java.nio.ByteOrder.nativeOrder()).getLong(7 * 16));
+    }
+
+    @Test
+    public void testBitfields() {
+        LayoutFactory lf = new LayoutFactory();
+        ArrayLayout<Integer> al =
+                lf.array(lf.bitfieldLayoutFor(Integer.class, -7), 1000);
+        ArrayLocation<Integer> a =
+                al.allocateWithinByteBuffer(ByteBuffer.allocateDirect(1024));
+        int[] src = new int[1000];
+        for (int i = 0; i < 1000; i++)
+            src[i] = i % 128 - 64;
+        a.copyFrom(src, 0, 0, 1000);
+        int[] dst = new int[1000];
+        a.copyTo(dst, 0, 0, 1000);
+        assertArrayEquals(src, dst);
+        IntArrayLocation ia = IntArrayLocation.of(a);
+        for (int i = 0; i < 1000; i++)
+            assertEquals(i % 128 - 64, ia.getInt(i));
+    }
+
+    @Test
+    public void testConcurrentBitfieldCounters() throws InterruptedException {
+        LayoutFactory lf = new LayoutFactory(true);
+        ArrayLayout<Integer> al =
+                lf.array(lf.bitfieldLayoutFor(Integer.class, 7), 100);
+        final IntArrayLocation ia = IntArrayLocation.of(
+                al.allocateWithinByteBuffer(ByteBuffer.allocate(88)));
+        Thread[] ts = new Thread[4];
+        for (int t = 0; t < ts.length; t++) {
+            ts[t] = new Thread() {
+                public void run() {
+                    for (int r = 0; r < 25; r++)
+                        for (int i = 0; i < 100; i++)
+                            ia.getAndAddInt(i, 1);
+                }
+            };
+        }
+        for (Thread t : ts)
+            t.start();
+        for (Thread t : ts)
+            t.join();
+        for (int i = 0; i < 100; i++)
+            assertEquals("element " + i, 100, ia.getInt(i));
+    }
+
+    @Test
+    public void testAtomics() {
+        LayoutFactory lf = new LayoutFactory();
+        Location<Long> l = lf.layoutFor(Long.class)
+                .allocateWithinByteBuffer(ByteBuffer.allocateDirect(8));
+        LongLocation ll = LongLocation.of(l);
+        ll.putLong(5);
+        assertEquals(5, ll.getAndAddLong(3));
+        assertTrue(ll.compareAndSetLong(8, 13));
+        assertEquals(13, ll.getLongVolatile());
+        assertEquals(13L, l.val().longValue());
+    }
+
+    public static class Small {
+        final int a;
+        final int b;
+        Small(int a, int b) { this.a = a; this.b = b; }
+        public int a() { return a; }
+        public int b() { return b; }
+        public static Small valueOf(int a, int b) {
+            return new Small(a, b);
+        }
+    }
+
+    @Test
+    public void testExactSize() {
+        // Concurrent bitfields are updated with a CAS of the whole aligned
+        // long around their container, even in a 4-byte tuple.
+        LayoutFactory lf = new LayoutFactory(true);
+        Layout<Small> t = lf.tuple(Small.class, "a:5", "b:7");
+        assertEquals(4, t.byteOrBitSize());
+        Location<Small> l = t.allocateWithinByteBuffer(ByteBuffer.allocateDirect(8));
+        l.put(Small.valueOf(17, 100));
+        assertEquals(17, l.val().a());
+        assertEquals(100, l.val().b());
+        boolean thrown = false;
+        try {
+            t.allocateWithinByteBuffer(ByteBuffer.allocateDirect(4));
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Buffer must hold whole longs", thrown);
+    }
+
+    @Test
+    public void testErrors() {
+        LayoutFactory lf = new LayoutFactory();
+        ArrayLayout<Long> al = lf.array(Long.class, 10);
+        boolean thrown = false;
+        try {
+            al.allocateWithinByteBuffer(ByteBuffer.allocate(79));
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Buffer too small", thrown);
+        thrown = false;
+        try {
+            ByteBuffer bb = ByteBuffer.allocateDirect(100);
+            al.allocateWithinByteBuffer(bb.position(4).slice());
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Buffer misaligned", thrown);
+        thrown = false;
+        try {
+            ArrayLocation<Long> p = lf.array(lf.opaque(Long.class), 2)
+                .allocateWithinByteBuffer(ByteBuffer.allocate(16));
+            p.put(0, 1L);
+            p.val(0);
+        } catch (UnsupportedOperationException ex) {
+            thrown = true;
+        }
+        assertTrue("No pointers in buffers yet", thrown);
+    }
+}
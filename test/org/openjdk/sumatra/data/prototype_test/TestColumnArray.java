@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype_test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.openjdk.sumatra.data.prototype.ArrayColumnLayout;
+import org.openjdk.sumatra.data.prototype.ArrayLocation;
+import org.openjdk.sumatra.data.prototype.DoubleArrayLocation;
+import org.openjdk.sumatra.data.prototype.IntArrayLocation;
+import org.openjdk.sumatra.data.prototype.Layout;
+import org.openjdk.sumatra.data.prototype.LayoutFactory;
+import org.openjdk.sumatra.data.prototype.Location;
+import org.openjdk.sumatra.data.prototype.ShortArrayLocation;
+
+public class TestColumnArray extends TestCommon {
+
+    public static class Sample {
+        final double x;
+        final int flags;
+        final short s;
+        final int kind;
+        Sample(double x, int flags, short s, int kind) {
+            this.x = x; this.flags = flags; this.s = s; this.kind = kind;
+        }
+        public double x() { return x; }
+        public int flags() { return flags; }
+        public short s() { return s; }
+        public int kind() { return kind; }
+        public static Sample valueOf(double x, int flags, short s, int kind) {
+            return new Sample(x, flags, s, kind);
+        }
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Sample))
+                return false;
+            Sample p = (Sample) o;
+            return x == p.x && flags == p.flags && s == p.s && kind == p.kind;
+        }
+        @Override
+        public int hashCode() {
+            return flags;
+        }
+    }
+
+    private static Sample sample(int i) {
+        return new Sample(i * 0.5, i % 32 - 16, (short) (1000 - i), i % 3);
+    }
+
+    @Test
+    public void testColumns() {
+        LayoutFactory lf = new LayoutFactory();
+        Layout<Sample> t = lf.tuple(Sample.class, "x", "flags:-5", "s", "kind:2");
+        ArrayColumnLayout<Sample> al = lf.columnArray(Sample.class, 100);
+        assertEquals(4, al.columnCount());
+        assertSame(al, lf.columnArray(t, 100));
+        // 800 bytes of doubles, 63 bytes of 5-bit flags (padded to a
+        // 4-byte container), 200 of shorts, 25 of 2-bit kinds, and padding
+        // to the alignment of the doubles.
+        assertEquals(800 + 64 + 200 + 28 + 4, al.byteOrBitSize());
+        assertTrue(al.byteOrBitSize() < lf.array(t, 100).byteOrBitSize());
+        // Full-width columns are the factory's own cached arrays.
+        assertSame(lf.array(double.class, 100), al.allocate().column("x").layout());
+        testColumns_common(al.allocate());
+        testColumns_common(al.allocateWithinArray());
+    }
+
+    private void testColumns_common(ArrayLocation<Sample> a) {
+        for (int i = 0; i < 100; i++)
+            a.put(i, sample(i));
+        for (int i = 0; i < 100; i++)
+            assertEquals(sample(i), a.val(i));
+
+        // Scans over single fields through the columns.
+        DoubleArrayLocation x = DoubleArrayLocation.of(a.<Double>column("x"));
+        IntArrayLocation flags = IntArrayLocation.of(a.<Integer>column(1));
+        ShortArrayLocation s = ShortArrayLocation.of(a.<Short>column("s"));
+        assertEquals(100, x.length());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i * 0.5, x.getDouble(i), 0.0);
+            assertEquals(i % 32 - 16, flags.getInt(i));
+            assertEquals(1000 - i, s.getShort(i));
+        }
+
+        // Stores through a column show up in the tuples.
+        x.putDouble(7, -1.0);
+        flags.putInt(8, 15);
+        Sample v = a.val(7);
+        assertEquals(-1.0, v.x(), 0.0);
+        assertEquals(15, a.val(8).flags());
+        assertEquals(sample(9), a.val(9));
+
+        // Element locations and whole-array values.
+        Location<Sample> l = a.loc(42);
+        assertEquals(sample(42), l.val());
+        l.put(sample(43));
+        assertEquals(sample(43), a.val(42));
+        Sample[] all = a.val();
+        assertEquals(100, all.length);
+        assertEquals(sample(99), all[99]);
+
+        boolean thrown = false;
+        try {
+            a.val(100);
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            thrown = true;
+        }
+        assertTrue("Index past the end", thrown);
+    }
+
+    @Test
+    public void testColumnErrors() {
+        LayoutFactory lf = new LayoutFactory();
+        lf.tuple(Sample.class, "x", "flags:-5", "s", "kind:2");
+        boolean thrown = false;
+        try {
+            lf.columnArray(Double.class, 10);
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Doubles are not tuples", thrown);
+
+        ArrayLocation<Sample> a = lf.columnArray(Sample.class, 10).allocate();
+        thrown = false;
+        try {
+            a.column("y");
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("There is no field y", thrown);
+
+        thrown = false;
+        try {
+            lf.array(Sample.class, 10).allocate().column(0);
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("A tuple array has no columns", thrown);
+    }
+}
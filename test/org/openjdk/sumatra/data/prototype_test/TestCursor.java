@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype_test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.openjdk.sumatra.data.prototype.ArrayLocation;
+import org.openjdk.sumatra.data.prototype.Cursor;
+import org.openjdk.sumatra.data.prototype.Layout;
+import org.openjdk.sumatra.data.prototype.LayoutFactory;
+
+public class TestCursor extends TestCommon {
+
+    public static class Particle {
+        final double mass;
+        final int charge;
+        final short kind;
+        final long id;
+        Particle(double mass, int charge, short kind, long id) {
+            this.mass = mass; this.charge = charge; this.kind = kind; this.id = id;
+        }
+        public double mass() { return mass; }
+        public int charge() { return charge; }
+        public short kind() { return kind; }
+        public long id() { return id; }
+        public static Particle valueOf(double mass, int charge, short kind, long id) {
+            return new Particle(mass, charge, kind, id);
+        }
+    }
+
+    @Test
+    public void testCursor() {
+        LayoutFactory lf = new LayoutFactory();
+        Layout<Particle> t = lf.tuple(Particle.class, "mass", "charge:-3", "kind", "id");
+        testCursor_common(lf.array(t, 1000).allocate());
+        testCursor_common(lf.array(t, 1000).allocateWithinArray());
+    }
+
+    private void testCursor_common(ArrayLocation<Particle> a) {
+        Cursor<Particle> c = a.cursor();
+        int mass = c.fieldIndex("mass");
+        int charge = c.fieldIndex("charge");
+        int kind = c.fieldIndex("kind");
+        int id = c.fieldIndex("id");
+        assertEquals(-1, c.index());
+        while (c.next()) {
+            long i = c.index();
+            c.putDouble(mass, i * 0.25);
+            c.putInt(charge, (int) (i % 8) - 4);
+            c.putShort(kind, (short) (i % 5));
+            c.putLong(id, i << 33);
+        }
+        assertEquals(1000, c.index());
+        for (int i = 0; i < 1000; i++) {
+            Particle p = a.val(i);
+            assertEquals(i * 0.25, p.mass(), 0.0);
+            assertEquals(i % 8 - 4, p.charge());
+            assertEquals(i % 5, p.kind());
+            assertEquals((long) i << 33, p.id());
+        }
+
+        c.set(500);
+        assertEquals(500 * 0.25, c.getDouble(mass), 0.0);
+        assertEquals(500 % 8 - 4, c.getInt(charge));
+        assertEquals(500L << 33, ((Long) c.get(id)).longValue());
+        c.put(Particle.valueOf(1.5, 3, (short) 7, 9));
+        assertEquals(3, a.val(500).charge());
+        assertEquals(7, c.getShort(kind));
+        assertEquals(9, c.val().id());
+
+        boolean thrown = false;
+        try {
+            c.getLong(mass);
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("A double field is not a long", thrown);
+        thrown = false;
+        try {
+            a.cursor().getDouble(mass);
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            thrown = true;
+        }
+        assertTrue("A new cursor is before the first element", thrown);
+        thrown = false;
+        try {
+            c.set(1000);
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            thrown = true;
+        }
+        assertTrue("Index past the end", thrown);
+    }
+
+    @Test
+    public void testCursorErrors() {
+        LayoutFactory lf = new LayoutFactory();
+        lf.tuple(Particle.class, "mass", "charge:-3", "kind", "id");
+        boolean thrown = false;
+        try {
+            lf.columnArray(Particle.class, 10).allocate().cursor();
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Column arrays have no tuples to point at", thrown);
+        thrown = false;
+        try {
+            lf.array(Double.class, 10).allocate().cursor();
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Doubles are not tuples", thrown);
+    }
+}
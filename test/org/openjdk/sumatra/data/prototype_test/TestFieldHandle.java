@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype_test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.openjdk.sumatra.data.prototype.ArrayLocation;
+import org.openjdk.sumatra.data.prototype.FieldHandle;
+import org.openjdk.sumatra.data.prototype.LayoutFactory;
+import org.openjdk.sumatra.data.prototype.Location;
+import org.openjdk.sumatra.data.prototype.TupleLayout;
+
+public class TestFieldHandle extends TestCommon {
+
+    public static class Vec {
+        final double x;
+        final double y;
+        Vec(double x, double y) {
+            this.x = x; this.y = y;
+        }
+        public double x() { return x; }
+        public double y() { return y; }
+        public static Vec valueOf(double x, double y) {
+            return new Vec(x, y);
+        }
+    }
+
+    public static class Body {
+        final Vec pos;
+        final long hits;
+        final Integer[] flags;
+        final Vec[] path;
+        Body(Vec pos, long hits, Integer[] flags, Vec[] path) {
+            this.pos = pos; this.hits = hits; this.flags = flags; this.path = path;
+        }
+        public Vec pos() { return pos; }
+        public long hits() { return hits; }
+        public Integer[] flags() { return flags; }
+        public Vec[] path() { return path; }
+        public static Body valueOf(Vec pos, long hits, Integer[] flags, Vec[] path) {
+            return new Body(pos, hits, flags, path);
+        }
+    }
+
+    private static TupleLayout<Body> bodyLayout(LayoutFactory lf) {
+        lf.tuple(Vec.class, "x", "y");
+        return (TupleLayout<Body>) lf.tuple(Body.class, "pos", "hits", "flags:-3[10]", "path[3]");
+    }
+
+    @Test
+    public void testFieldHandle() {
+        LayoutFactory lf = new LayoutFactory();
+        TupleLayout<Body> t = bodyLayout(lf);
+        testFieldHandle_common(t, lf.array(t, 20).allocate());
+        testFieldHandle_common(t, lf.array(t, 20).allocateWithinArray());
+    }
+
+    private void testFieldHandle_common(TupleLayout<Body> t, ArrayLocation<Body> a) {
+        FieldHandle<Body> pos_x = t.fieldHandle("pos.x");
+        FieldHandle<Body> hits = t.fieldHandle("hits");
+        FieldHandle<Body> flags = t.fieldHandle("flags");
+        FieldHandle<Body> path_1_y = t.fieldHandle("path[1].y");
+        FieldHandle<Body> path = t.fieldHandle("path");
+        assertFalse(pos_x.isIndexed());
+        assertTrue(flags.isIndexed());
+        assertEquals(10, flags.length());
+
+        for (int i = 0; i < 20; i++) {
+            Location<Body> l = a.loc(i);
+            pos_x.putDouble(l, i * 0.5);
+            hits.putLong(l, (long) i << 40);
+            for (int j = 0; j < 10; j++)
+                flags.putInt(l, j, (i + j) % 8 - 4);
+            path_1_y.putDouble(l, -i);
+            path.put(l, 2, Vec.valueOf(i, i + 1));
+        }
+        for (int i = 0; i < 20; i++) {
+            Body b = a.val(i);
+            assertEquals(i * 0.5, b.pos().x(), 0.0);
+            assertEquals((long) i << 40, b.hits());
+            for (int j = 0; j < 10; j++)
+                assertEquals((i + j) % 8 - 4, b.flags()[j].intValue());
+            assertEquals(-i, b.path()[1].y(), 0.0);
+            assertEquals(i + 1, b.path()[2].y(), 0.0);
+            assertEquals(i, ((Vec) path.get(a.loc(i), 2)).x(), 0.0);
+            assertEquals(i * 0.5, ((Vec) t.fieldHandle("pos").get(a.loc(i))).x(), 0.0);
+        }
+
+        Location<Body> l = a.loc(7);
+        assertEquals(7L << 40, hits.getAndAddLong(l, 5));
+        assertTrue(hits.compareAndSetLong(l, (7L << 40) + 5, 3));
+        assertFalse(hits.compareAndSetLong(l, 4, 0));
+        assertEquals(3, a.val(7).hits());
+        assertEquals((7 + 9) % 8 - 4, flags.getInt(l, 9));
+    }
+
+    @Test
+    public void testFieldHandleErrors() {
+        LayoutFactory lf = new LayoutFactory();
+        TupleLayout<Body> t = bodyLayout(lf);
+        Location<Body> l = lf.array(t, 2).allocate().loc(0);
+        boolean thrown = false;
+        try {
+            t.fieldHandle("pos.z");
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("No such field", thrown);
+        thrown = false;
+        try {
+            t.fieldHandle("hits.x");
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("A long has no fields", thrown);
+        thrown = false;
+        try {
+            t.fieldHandle("path[3].x");
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            thrown = true;
+        }
+        assertTrue("Constant index past the end", thrown);
+        thrown = false;
+        try {
+            t.fieldHandle("pos.x").getLong(l);
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("A double field is not a long", thrown);
+        thrown = false;
+        try {
+            t.fieldHandle("flags").getInt(l);
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("An array field needs an index", thrown);
+        thrown = false;
+        try {
+            t.fieldHandle("flags").getInt(l, 10);
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            thrown = true;
+        }
+        assertTrue("Index past the end", thrown);
+        thrown = false;
+        try {
+            t.fieldHandle("flags").getAndAddInt(l, 0, 1);
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Bitfields are not atomic through handles", thrown);
+        thrown = false;
+        try {
+            t.fieldHandle("hits").getLong((Location) lf.array(t, 2).allocate());
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Location is not a Body", thrown);
+    }
+}
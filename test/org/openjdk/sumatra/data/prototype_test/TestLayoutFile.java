@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype_test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+import org.openjdk.sumatra.data.prototype.ArrayLayout;
+import org.openjdk.sumatra.data.prototype.ArrayLocation;
+import org.openjdk.sumatra.data.prototype.Layout;
+import org.openjdk.sumatra.data.prototype.LayoutFactory;
+import org.openjdk.sumatra.data.prototype.LayoutFile;
+import org.openjdk.sumatra.data.prototype.Location;
+import org.openjdk.sumatra.data.prototype.MappedFile;
+import org.openjdk.sumatra.data.prototype.TupleLayout;
+import org.openjdk.sumatra.data.prototype.TupleTranscoder;
+
+public class TestLayoutFile extends TestCommon {
+
+    public static class Sample {
+        final long time;
+        final int level;
+        final boolean valid;
+        final double value;
+        Sample(long time, int level, boolean valid, double value) {
+            this.time = time; this.level = level; this.valid = valid; this.value = value;
+        }
+        public long time() { return time; }
+        public int level() { return level; }
+        public boolean valid() { return valid; }
+        public double value() { return value; }
+        public static Sample valueOf(long time, int level, boolean valid, double value) {
+            return new Sample(time, level, valid, value);
+        }
+    }
+
+    // A copy of Sample under another name, as kept for reading old files.
+    public static class OldSample {
+        final long time;
+        final int level;
+        final boolean valid;
+        final double value;
+        OldSample(long time, int level, boolean valid, double value) {
+            this.time = time; this.level = level; this.valid = valid; this.value = value;
+        }
+        public long time() { return time; }
+        public int level() { return level; }
+        public boolean valid() { return valid; }
+        public double value() { return value; }
+        public static OldSample valueOf(long time, int level, boolean valid, double value) {
+            return new OldSample(time, level, valid, value);
+        }
+    }
+
+    // Sample evolved: level widened and a field added.
+    public static class NewSample {
+        final long time;
+        final long level;
+        final short source;
+        final boolean valid;
+        final double value;
+        NewSample(long time, long level, short source, boolean valid, double value) {
+            this.time = time; this.level = level; this.source = source;
+            this.valid = valid; this.value = value;
+        }
+        public long time() { return time; }
+        public long level() { return level; }
+        public short source() { return source; }
+        public boolean valid() { return valid; }
+        public double value() { return value; }
+        public static NewSample valueOf(long time, long level, short source,
+                                        boolean valid, double value) {
+            return new NewSample(time, level, source, valid, value);
+        }
+    }
+
+    public static class Node {
+        final Node next;
+        Node(Node next) {
+            this.next = next;
+        }
+        public Node next() { return next; }
+        public static Node valueOf(Node next) {
+            return new Node(next);
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        LayoutFactory lf = new LayoutFactory();
+        Layout<Sample> t = lf.tuple(Sample.class, "time", "level:-5", "valid:1", "value");
+        testRoundTrip_common(lf.array(t, 1000), lf.array(t, 1000).allocateWithinArray());
+        testRoundTrip_common(lf.array(t, 1000), lf.array(t, 1000).allocate());
+        testRoundTrip_common(lf.columnArray(Sample.class, 1000),
+                             lf.columnArray(Sample.class, 1000).allocate());
+    }
+
+    private void testRoundTrip_common(ArrayLayout<Sample> al, ArrayLocation<Sample> a)
+            throws IOException {
+        for (int i = 0; i < 1000; i++)
+            a.put(i, Sample.valueOf(i * 1000L, i % 32 - 16, i % 3 == 0, i * 0.5));
+        Path p = Files.createTempFile("sumatra", ".layout");
+        try {
+            LayoutFile.write(p, a);
+            ArrayLocation<Sample> b = LayoutFile.openArray(p, al, FileChannel.MapMode.READ_ONLY);
+            assertTrue(b.base() instanceof MappedFile);
+            for (int i = 0; i < 1000; i++) {
+                Sample s = b.val(i);
+                assertEquals(i * 1000L, s.time());
+                assertEquals(i % 32 - 16, s.level());
+                assertEquals(i % 3 == 0, s.valid());
+                assertEquals(i * 0.5, s.value(), 0.0);
+            }
+
+            // Stores into a read-write mapping reach the file.
+            ArrayLocation<Sample> c = LayoutFile.openArray(p, al, FileChannel.MapMode.READ_WRITE);
+            c.put(7, Sample.valueOf(-1, 15, true, -2.5));
+            ((MappedFile) c.base()).force();
+            b = LayoutFile.openArray(p, al, FileChannel.MapMode.READ_ONLY);
+            assertEquals(15, b.val(7).level());
+            assertEquals(-2.5, b.val(7).value(), 0.0);
+        } finally {
+            Files.delete(p);
+        }
+    }
+
+    @Test
+    public void testEvolvedClass() throws IOException {
+        LayoutFactory lf = new LayoutFactory();
+        Layout<Sample> t = lf.tuple(Sample.class, "time", "level:-5", "valid:1", "value");
+        ArrayLocation<Sample> a = lf.array(t, 100).allocate();
+        for (int i = 0; i < 100; i++)
+            a.put(i, Sample.valueOf(i, i % 32 - 16, i % 2 == 0, -i));
+        Path p = Files.createTempFile("sumatra", ".layout");
+        try {
+            LayoutFile.write(p, a);
+
+            // Opened through a class of another name but the same shape.
+            LayoutFactory lf2 = new LayoutFactory();
+            TupleLayout<OldSample> old_layout = (TupleLayout<OldSample>)
+                    lf2.tuple(OldSample.class, "time", "level:-5", "valid:1", "value");
+            ArrayLocation<OldSample> old = LayoutFile.openArray(p,
+                    lf2.array(old_layout, 100), FileChannel.MapMode.READ_ONLY);
+            assertEquals(-15, old.val(1).level());
+
+            TupleLayout<NewSample> new_layout = (TupleLayout<NewSample>)
+                    lf2.tuple(NewSample.class, "time", "level", "source", "valid:1", "value");
+            ArrayLocation<NewSample> b = lf2.array(new_layout, 100).allocate();
+            TupleTranscoder.of(old_layout, new_layout).transcode(old, b);
+            for (int i = 0; i < 100; i++) {
+                NewSample s = b.val(i);
+                assertEquals(i, s.time());
+                assertEquals(i % 32 - 16, s.level());
+                assertEquals(0, s.source());
+                assertEquals(i % 2 == 0, s.valid());
+                assertEquals(-i, s.value(), 0.0);
+            }
+        } finally {
+            Files.delete(p);
+        }
+    }
+
+    @Test
+    public void testSingleTuple() throws IOException {
+        LayoutFactory lf = new LayoutFactory();
+        Layout<Sample> t = lf.tuple(Sample.class, "time", "level", "valid", "value");
+        Location<Sample> l = t.allocateWithinArray();
+        l.put(Sample.valueOf(1, 2, true, 4.0));
+        Path p = Files.createTempFile("sumatra", ".layout");
+        try {
+            LayoutFile.write(p, l);
+            Sample s = LayoutFile.open(p, t, FileChannel.MapMode.PRIVATE).val();
+            assertEquals(2, s.level());
+            assertEquals(4.0, s.value(), 0.0);
+        } finally {
+            Files.delete(p);
+        }
+    }
+
+    public static class Small {
+        final int a;
+        final int b;
+        Small(int a, int b) {
+            this.a = a; this.b = b;
+        }
+        public int a() { return a; }
+        public int b() { return b; }
+        public static Small valueOf(int a, int b) {
+            return new Small(a, b);
+        }
+    }
+
+    @Test
+    public void testSmallConcurrent() throws IOException {
+        // Concurrent bitfields are updated a long at a time, even in a
+        // 4-byte tuple, so the file must hold whole longs.
+        LayoutFactory lf = new LayoutFactory(true);
+        Layout<Small> t = lf.tuple(Small.class, "a:5", "b:7");
+        assertEquals(4, t.byteOrBitSize());
+        Location<Small> l = t.allocate();
+        l.put(Small.valueOf(3, 4));
+        Path p = Files.createTempFile("sumatra", ".layout");
+        try {
+            LayoutFile.write(p, l);
+            Location<Small> m = LayoutFile.open(p, t, FileChannel.MapMode.READ_WRITE);
+            m.put(Small.valueOf(30, 40));
+            ((MappedFile) m.base()).force();
+            Small s = LayoutFile.open(p, t, FileChannel.MapMode.READ_ONLY).val();
+            assertEquals(30, s.a());
+            assertEquals(40, s.b());
+
+            boolean thrown = false;
+            try (FileChannel ch = FileChannel.open(p)) {
+                t.allocateWithinMappedFile(
+                        MappedFile.map(ch, FileChannel.MapMode.READ_ONLY, 0, 4));
+            } catch (Error ex) {
+                thrown = true;
+            }
+            assertTrue("Mapping must hold whole longs", thrown);
+        } finally {
+            Files.delete(p);
+        }
+    }
+
+    @Test
+    public void testMismatch() throws IOException {
+        LayoutFactory lf = new LayoutFactory();
+        Layout<Sample> t = lf.tuple(Sample.class, "time", "level:-5", "valid:1", "value");
+        Path p = Files.createTempFile("sumatra", ".layout");
+        try {
+            LayoutFile.write(p, lf.array(t, 10).allocate());
+            assertEquals(LayoutFile.describe(lf.array(t, 10)),
+                         LayoutFile.describe(new LayoutFactory().array(
+                                 new LayoutFactory().tuple(Sample.class, "time",
+                                         "level:-5", "valid:1", "value"), 10)));
+            // Both bitfields share one container; the file records where.
+            String d = LayoutFile.describe(t);
+            assertTrue(d, d.contains("@b0") && d.contains("@b5"));
+
+            boolean thrown = false;
+            try {
+                LayoutFile.openArray(p, lf.array(t, 11), FileChannel.MapMode.READ_ONLY);
+            } catch (Error ex) {
+                thrown = true;
+            }
+            assertTrue("Different length", thrown);
+            thrown = false;
+            try {
+                LayoutFactory lf2 = new LayoutFactory();
+                LayoutFile.openArray(p, lf2.array(lf2.tuple(Sample.class, "time",
+                        "level:5", "valid:1", "value"), 10), FileChannel.MapMode.READ_ONLY);
+            } catch (Error ex) {
+                thrown = true;
+            }
+            assertTrue("Unsigned bitfield", thrown);
+            thrown = false;
+            try {
+                LayoutFile.openArray(p, lf.columnArray(Sample.class, 10),
+                                     FileChannel.MapMode.READ_ONLY);
+            } catch (Error ex) {
+                thrown = true;
+            }
+            assertTrue("Columns, not tuples", thrown);
+
+            Files.write(p, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+            thrown = false;
+            try {
+                LayoutFile.openArray(p, lf.array(t, 10), FileChannel.MapMode.READ_ONLY);
+            } catch (Error ex) {
+                thrown = true;
+            }
+            assertTrue("Not a layout file", thrown);
+
+            thrown = false;
+            try {
+                Layout<Node> n = lf.tuple(Node.class, "next*");
+                LayoutFile.write(p, n.allocate());
+            } catch (Error ex) {
+                thrown = true;
+            }
+            assertTrue("Pointers cannot be saved", thrown);
+        } finally {
+            Files.delete(p);
+        }
+    }
+}
@@ -25,13 +25,115 @@
 
 package org.openjdk.sumatra.data.prototype_test;
 
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
 import org.junit.Test;
+import org.openjdk.sumatra.data.prototype.ArrayLayout;
+import org.openjdk.sumatra.data.prototype.ArrayLocation;
+import org.openjdk.sumatra.data.prototype.IntArrayLocation;
+import org.openjdk.sumatra.data.prototype.Layout;
+import org.openjdk.sumatra.data.prototype.LayoutFactory;
+import org.openjdk.sumatra.data.prototype.LongArrayLocation;
+import org.openjdk.sumatra.data.prototype.MappedFile;
 
 public class TestMappedLocation extends TestCommon {
 
+    private static MappedFile map(Path p, FileChannel.MapMode mode, long size)
+            throws IOException {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE)) {
+            return MappedFile.map(ch, mode, 0, size);
+        }
+    }
 
     @Test
-    public void tryAMap() {
+    public void tryAMap() throws IOException {
+        Path p = Files.createTempFile("sumatra", ".map");
+        try {
+            LayoutFactory lf = new LayoutFactory();
+            ArrayLayout<Integer> al =
+                    lf.array(lf.bitfieldLayoutFor(Integer.class, -7), 1000);
+            // Mappings hold whole longs.
+            long size = Layout.roundUp(al.byteOrBitSize(), LayoutFactory.JS);
+            MappedFile mf = map(p, FileChannel.MapMode.READ_WRITE, size);
+            mf.load();
+            ArrayLocation<Integer> a = al.allocateWithinMappedFile(mf);
+            IntArrayLocation ia = IntArrayLocation.of(a);
+            for (int i = 0; i < 1000; i++)
+                ia.putInt(i, i % 128 - 64);
+            assertEquals(-3, ia.getAndAddInt(61, 1));
+            mf.force();
+
+            // The data is in the file, not just in the mapping.
+            MappedFile again = map(p, FileChannel.MapMode.READ_ONLY, size);
+            ArrayLocation<Integer> b = al.allocateWithinMappedFile(again);
+            for (int i = 0; i < 1000; i++)
+                assertEquals(i == 61 ? -2 : i % 128 - 64, b.val(i).intValue());
+
+            boolean thrown = false;
+            try {
+                lf.array(Integer.class, 1000).allocateWithinMappedFile(mf);
+            } catch (Error ex) {
+                thrown = true;
+            }
+            assertTrue("Mapping too small", thrown);
+        } finally {
+            Files.delete(p);
+        }
+    }
+
+    @Test
+    public void testOver2GB() throws IOException {
+        // Sparse, so only the pages touched take space.
+        Path p = Files.createTempFile("sumatra", ".map");
+        try {
+            LayoutFactory lf = new LayoutFactory();
+            long n = 3L << 27; // 3GB of longs
+            ArrayLayout<Long> al = lf.array(Long.class, n);
+            MappedFile mf = map(p, FileChannel.MapMode.READ_WRITE, al.byteOrBitSize());
+            assertEquals(3L << 30, mf.size());
+            ArrayLocation<Long> a = al.allocateWithinMappedFile(mf);
+            LongArrayLocation la = LongArrayLocation.of(a);
+
+            // Across the boundary between the first two 1GB regions.
+            long first = (1L << 27) - 100;
+            long[] src = new long[200];
+            for (int i = 0; i < src.length; i++)
+                src[i] = first + i;
+            la.copyFrom(src, 0, first, src.length);
+            la.putLong(n - 1, -1L);
+            a.put(0, 42L);
+            assertEquals(-1L, la.getAndAddLong(n - 1, 6));
+
+            long[] dst = new long[200];
+            la.copyTo(dst, 0, first, dst.length);
+            assertArrayEquals(src, dst);
+            assertEquals(first + 150, a.val(first + 150).longValue());
+            assertEquals(42L, la.getLong(0));
+            assertEquals(0L, la.getLong(1L << 28));
+            mf.force(first * 8, 200 * 8);
+            mf.force();
+
+            MappedFile again = map(p, FileChannel.MapMode.READ_ONLY, mf.size());
+            LongArrayLocation lb = LongArrayLocation.of(al.allocateWithinMappedFile(again));
+            assertEquals(5L, lb.getLong(n - 1));
+            assertEquals(first + 100, lb.getLong(first + 100));
 
+            boolean thrown = false;
+            try {
+                lb.putLong(0, 1);
+            } catch (java.nio.ReadOnlyBufferException ex) {
+                thrown = true;
+            }
+            assertTrue("Read-only mapping", thrown);
+        } finally {
+            Files.delete(p);
+        }
     }
 }
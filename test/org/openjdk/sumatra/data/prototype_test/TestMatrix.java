@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype_test;
+
+import static org.junit.Assert.*;
+
+import java.util.function.Consumer;
+
+import org.junit.Test;
+import org.openjdk.sumatra.data.prototype.LayoutFactory;
+import org.openjdk.sumatra.data.prototype.Matrix;
+import org.openjdk.sumatra.data.prototype.MatrixFactory;
+
+public class TestMatrix extends TestCommon {
+
+    @Test
+    public void testParallelInitDouble() {
+        LayoutFactory lf = new LayoutFactory();
+        MatrixFactory mf = new MatrixFactory(lf);
+        Matrix<Double> m = mf.matrix(lf.layoutFor(Double.class), 300, 200);
+        m.parallelInitDouble(new Matrix.DoubleInitializer() {
+            public double val(long row, long column) {
+                return row * 1000 + column + 0.5;
+            }
+        });
+        for (long i = 0; i < 300; i++)
+            for (long j = 0; j < 200; j++)
+                assertEquals(i * 1000 + j + 0.5, m.val(i, j), 0.0);
+    }
+
+    @Test
+    public void testParallelInitBoxed() {
+        LayoutFactory lf = new LayoutFactory();
+        MatrixFactory mf = new MatrixFactory(lf);
+        Matrix<Long> m = mf.matrixInHeap(lf.layoutFor(Long.class), 500, 70);
+        m.parallelInit(new Matrix.Initializer<Long>() {
+            public Long val(long row, long column) {
+                return row * column;
+            }
+        });
+        for (long i = 0; i < 500; i++)
+            for (long j = 0; j < 70; j++)
+                assertEquals(i * j, m.val(i, j).longValue());
+    }
+
+    @Test
+    public void testInitBitfield() {
+        // Rows of 5-bit fields share containers; this must stay correct
+        // (sequential) unless the bitfields are concurrent.
+        for (boolean concurrent : new boolean[] { false, true }) {
+            LayoutFactory lf = new LayoutFactory(concurrent);
+            MatrixFactory mf = new MatrixFactory(lf);
+            Matrix<Integer> m =
+                    mf.matrix(lf.bitfieldLayoutFor(Integer.class, 5), 1000, 33);
+            m.parallelInitInt(new Matrix.IntInitializer() {
+                public int val(long row, long column) {
+                    return (int) (row + column) & 31;
+                }
+            });
+            for (long i = 0; i < 1000; i++)
+                for (long j = 0; j < 33; j++)
+                    assertEquals((int) (i + j) & 31, m.val(i, j).intValue());
+        }
+    }
+
+    @Test
+    public void testInitWrongType() {
+        LayoutFactory lf = new LayoutFactory();
+        MatrixFactory mf = new MatrixFactory(lf);
+        Matrix<Float> m = mf.matrix(lf.layoutFor(Float.class), 2, 2);
+        m.initFloat(new Matrix.FloatInitializer() {
+            public float val(long row, long column) {
+                return row - column;
+            }
+        });
+        assertEquals(-1.0f, m.val(0, 1), 0.0f);
+        boolean thrown = false;
+        try {
+            m.initDouble(new Matrix.DoubleInitializer() {
+                public double val(long row, long column) {
+                    return 0;
+                }
+            });
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Float matrix is not a double matrix", thrown);
+    }
+
+    private static Matrix<Integer> numbered(long rows, long columns) {
+        LayoutFactory lf = new LayoutFactory();
+        MatrixFactory mf = new MatrixFactory(lf);
+        Matrix<Integer> m = mf.matrix(lf.layoutFor(Integer.class), rows, columns);
+        m.initInt(new Matrix.IntInitializer() {
+            public int val(long row, long column) {
+                return (int) (row * 100 + column);
+            }
+        });
+        return m;
+    }
+
+    @Test
+    public void testViews() {
+        Matrix<Integer> m = numbered(6, 9);
+        Matrix<Integer> t = m.transpose();
+        assertEquals(9, t.nRows());
+        assertEquals(6, t.nCols());
+        assertEquals(502, t.val(2, 5).intValue());
+
+        Matrix<Integer> s = m.subMatrix(1, 2, 4, 5);
+        assertEquals(4, s.nRows());
+        assertEquals(5, s.nCols());
+        assertEquals(102, s.val(0, 0).intValue());
+        assertEquals(406, s.val(3, 4).intValue());
+
+        // Views of views, and writes through them.
+        Matrix<Integer> st = s.transpose().subMatrix(1, 1, 2, 2);
+        assertEquals(203, st.val(0, 0).intValue());
+        assertEquals(304, st.val(1, 1).intValue());
+        st.put(1, 0, -1);
+        assertEquals(-1, m.val(2, 4).intValue());
+
+        Matrix<Integer> r = m.row(5);
+        assertEquals(1, r.nRows());
+        assertEquals(508, r.val(0, 8).intValue());
+        Matrix<Integer> c = m.column(7);
+        assertEquals(6, c.nRows());
+        assertEquals(1, c.nCols());
+        assertEquals(307, c.val(3, 0).intValue());
+
+        // Initializing a view touches only its elements.
+        m.transpose().column(0).initInt(new Matrix.IntInitializer() {
+            public int val(long row, long column) {
+                return -2;
+            }
+        });
+        for (long j = 0; j < 9; j++)
+            assertEquals(-2, m.val(0, j).intValue());
+        assertEquals(100, m.val(1, 0).intValue());
+
+        boolean thrown = false;
+        try {
+            s.val(4, 0);
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            thrown = true;
+        }
+        assertTrue("View bounds are not the matrix bounds", thrown);
+        thrown = false;
+        try {
+            m.subMatrix(3, 0, 4, 1);
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            thrown = true;
+        }
+        assertTrue("Block must lie within the matrix", thrown);
+    }
+
+    private static void initFrom(Matrix<Double> m, final long seed) {
+        m.initDouble(new Matrix.DoubleInitializer() {
+            public double val(long row, long column) {
+                return ((row * 31 + column * 17 + seed) % 23) - 11;
+            }
+        });
+    }
+
+    private static void checkProduct(Matrix<Double> a, Matrix<Double> b,
+                                     Matrix<Double> c) {
+        for (long i = 0; i < c.nRows(); i++)
+            for (long j = 0; j < c.nCols(); j++) {
+                double s = 0;
+                for (long p = 0; p < a.nCols(); p++)
+                    s += a.val(i, p) * b.val(p, j);
+                // Small integers, so every sum is exact.
+                assertEquals("element " + i + "," + j, s, c.val(i, j), 0.0);
+            }
+    }
+
+    @Test
+    public void testStreams() {
+        LayoutFactory lf = new LayoutFactory();
+        MatrixFactory mf = new MatrixFactory(lf);
+        Matrix<Long> m = mf.matrix(lf.layoutFor(Long.class), 400, 300);
+        m.initLong(new Matrix.LongInitializer() {
+            public long val(long row, long column) {
+                return row * 1000 + column;
+            }
+        });
+        // Sum of row * 1000 + column over the matrix.
+        long sum = 300L * 1000 * (399 * 400 / 2) + 400L * (299 * 300 / 2);
+        assertEquals(sum, m.longStream().parallel().sum());
+        assertEquals(sum, m.transpose().longStream().parallel().sum());
+        assertEquals(400, m.rows().parallel().count());
+
+        // A strided view: columns 1 to 299 of rows 100 to 199, transposed.
+        Matrix<Long> v = m.subMatrix(100, 0, 100, 300).transpose().subMatrix(1, 0, 299, 100);
+        long vsum = 0;
+        for (long i = 0; i < v.nRows(); i++)
+            for (long j = 0; j < v.nCols(); j++)
+                vsum += v.val(i, j);
+        assertEquals(vsum, v.longStream().parallel().sum());
+        assertEquals(v.nRows() * v.nCols(), v.stream().count());
+
+        final long[] rows_seen = new long[1];
+        m.rows().forEach(new Consumer<Matrix<Long>>() {
+            public void accept(Matrix<Long> r) {
+                assertEquals(1, r.nRows());
+                assertEquals(rows_seen[0] * 1000, r.val(0, 0).longValue());
+                rows_seen[0]++;
+            }
+        });
+        assertEquals(400, rows_seen[0]);
+    }
+
+    @Test
+    public void testMultiply() {
+        LayoutFactory lf = new LayoutFactory();
+        MatrixFactory mf = new MatrixFactory(lf);
+        // Large enough to run in parallel over several blocks.
+        Matrix<Double> a = mf.matrix(lf.layoutFor(Double.class), 150, 300);
+        Matrix<Double> b = mf.matrixInHeap(lf.layoutFor(Double.class), 300, 270);
+        Matrix<Double> c = mf.matrix(lf.layoutFor(Double.class), 150, 270);
+        initFrom(a, 1);
+        initFrom(b, 2);
+        Matrix.multiply(a, b, c);
+        checkProduct(a, b, c);
+
+        // Views: transposed and sub-matrix factors, a strided product.
+        Matrix<Double> t = mf.matrix(lf.layoutFor(Double.class), 40, 60);
+        initFrom(t, 3);
+        Matrix<Double> at = t.transpose().subMatrix(5, 3, 50, 30);
+        Matrix<Double> bs = b.subMatrix(7, 11, 30, 20);
+        Matrix<Double> big = mf.matrix(lf.layoutFor(Double.class), 60, 50);
+        initFrom(big, 4);
+        Matrix<Double> cs = big.transpose().subMatrix(2, 1, 20, 50).transpose();
+        Matrix.multiply(at, bs, cs);
+        checkProduct(at, bs, cs);
+    }
+
+    @Test
+    public void testMultiplyFloat() {
+        LayoutFactory lf = new LayoutFactory();
+        MatrixFactory mf = new MatrixFactory(lf);
+        Matrix<Float> a = mf.matrix(lf.layoutFor(Float.class), 70, 130);
+        Matrix<Float> b = mf.matrix(lf.layoutFor(Float.class), 130, 300);
+        Matrix<Float> c = mf.matrix(lf.layoutFor(Float.class), 70, 300);
+        Matrix.FloatInitializer init = new Matrix.FloatInitializer() {
+            public float val(long row, long column) {
+                return (row * 5 + column * 3) % 7 - 3;
+            }
+        };
+        a.initFloat(init);
+        b.initFloat(init);
+        Matrix.multiply(a, b, c);
+        for (long i = 0; i < 70; i++)
+            for (long j = 0; j < 300; j++) {
+                float s = 0;
+                for (long p = 0; p < 130; p++)
+                    s += a.val(i, p) * b.val(p, j);
+                assertEquals(s, c.val(i, j), 0.0f);
+            }
+    }
+
+    @Test
+    public void testMultiplyMismatch() {
+        LayoutFactory lf = new LayoutFactory();
+        MatrixFactory mf = new MatrixFactory(lf);
+        Matrix<Double> a = mf.matrix(lf.layoutFor(Double.class), 4, 5);
+        Matrix<Double> b = mf.matrix(lf.layoutFor(Double.class), 4, 5);
+        boolean thrown = false;
+        try {
+            Matrix.multiply(a, b, a.subMatrix(0, 0, 4, 4));
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Inner dimensions differ", thrown);
+
+        Matrix<Double> s = mf.matrix(lf.layoutFor(Double.class), 5, 5);
+        thrown = false;
+        try {
+            Matrix.multiply(s, s.transpose(), s.subMatrix(0, 0, 5, 5));
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Product overlaps its factors", thrown);
+
+        Matrix<Long> l = mf.matrix(lf.layoutFor(Long.class), 5, 5);
+        thrown = false;
+        try {
+            Matrix.multiply(l, l, mf.matrix(lf.layoutFor(Long.class), 5, 5));
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Long elements are not supported", thrown);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype_test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.openjdk.sumatra.data.prototype.ArrayLayout;
+import org.openjdk.sumatra.data.prototype.ArrayLocation;
+import org.openjdk.sumatra.data.prototype.LayoutFactory;
+import org.openjdk.sumatra.data.prototype.NativeMemory;
+import org.openjdk.sumatra.data.prototype.Scope;
+
+public class TestNativeMemory extends TestCommon {
+
+    @Test
+    public void testCounters() {
+        LayoutFactory lf = new LayoutFactory();
+        ArrayLayout<Long> al = lf.array(Long.class, 1000);
+        long before = NativeMemory.outstandingBytes();
+        ArrayLocation<Long> a = al.allocate();
+        assertTrue(NativeMemory.outstandingBytes() - before >= 8000);
+        a.put(999, 1L);
+        assertEquals(1L, a.val(999).longValue());
+
+        Scope s = Scope.open(4096);
+        s.allocate(al);
+        long during = NativeMemory.outstandingBytes();
+        s.close();
+        assertTrue(during - NativeMemory.outstandingBytes() >= 8000);
+    }
+
+    @Test
+    public void testReclaim() throws InterruptedException {
+        LayoutFactory lf = new LayoutFactory();
+        ArrayLayout<Long> al = lf.array(Long.class, 1 << 16);
+        long before = NativeMemory.reclaimedBytes();
+        for (int i = 0; i < 16; i++) {
+            ArrayLocation<Long> a = al.allocate();
+            a.put(i, (long) i);
+        }
+        // Reclamation needs a GC and a trip through the cleaner thread.
+        for (int i = 0; i < 100; i++) {
+            if (NativeMemory.reclaimedBytes() - before >= 8 << 16)
+                return;
+            System.gc();
+            Thread.sleep(50);
+        }
+        fail("Unreachable native locations were not reclaimed");
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype_test;
+
+import static org.junit.Assert.*;
+
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+import org.openjdk.sumatra.data.prototype.ArrayLayout;
+import org.openjdk.sumatra.data.prototype.ArrayLocation;
+import org.openjdk.sumatra.data.prototype.BooleanArrayLocation;
+import org.openjdk.sumatra.data.prototype.DoubleArrayLocation;
+import org.openjdk.sumatra.data.prototype.IntArrayLocation;
+import org.openjdk.sumatra.data.prototype.LayoutFactory;
+import org.openjdk.sumatra.data.prototype.LongArrayLocation;
+
+public class TestPrimitiveArrayLocation extends TestCommon {
+
+    @Test
+    public void testInt() {
+        LayoutFactory lf = new LayoutFactory();
+        ArrayLayout<Integer> al = lf.array(Integer.class, 12);
+        testInt_common(al.allocate());
+        testInt_common(al.allocateWithinArray());
+    }
+
+    private void testInt_common(ArrayLocation<Integer> a) {
+        IntArrayLocation ia = IntArrayLocation.of(a);
+        assertEquals(12, ia.length());
+        for (int i = 0; i < 12; i++)
+            ia.putInt(i, i * 1000 - 5000);
+        for (int i = 0; i < 12; i++) {
+            assertEquals(i * 1000 - 5000, ia.getInt(i));
+            assertEquals(i * 1000 - 5000, a.val(i).intValue());
+        }
+        try {
+            ia.getInt(12);
+            fail("Did not see expected exception");
+        } catch (ArrayIndexOutOfBoundsException ex) {
+
+        }
+        try {
+            ia.putInt(-1, 0);
+            fail("Did not see expected exception");
+        } catch (ArrayIndexOutOfBoundsException ex) {
+
+        }
+    }
+
+    @Test
+    public void testIntBitfield() {
+        LayoutFactory lf = new LayoutFactory();
+        ArrayLayout<Integer> al =
+                lf.array(lf.bitfieldLayoutFor(Integer.class, -5), 30);
+        ArrayLocation<Integer> a = al.allocate();
+        IntArrayLocation ia = IntArrayLocation.of(a);
+        for (int i = 0; i < 30; i++)
+            ia.putInt(i, (i % 32) - 16);
+        for (int i = 0; i < 30; i++) {
+            assertEquals((i % 32) - 16, ia.getInt(i));
+            assertEquals((i % 32) - 16, a.val(i).intValue());
+        }
+    }
+
+    @Test
+    public void testLongBitfield() {
+        LayoutFactory lf = new LayoutFactory();
+        ArrayLayout<Long> al =
+                lf.array(lf.bitfieldLayoutFor(Long.class, 37), 9);
+        LongArrayLocation la = LongArrayLocation.of(al.allocateWithinArray());
+        for (int i = 0; i < 9; i++)
+            la.putLong(i, (1L << 36) + i);
+        for (int i = 0; i < 9; i++)
+            assertEquals((1L << 36) + i, la.getLong(i));
+    }
+
+    @Test
+    public void testBoolean() {
+        LayoutFactory lf = new LayoutFactory();
+        ArrayLayout<Boolean> al =
+                lf.array(lf.bitfieldLayoutFor(Boolean.class, 1), 19);
+        BooleanArrayLocation za = BooleanArrayLocation.of(al.allocate());
+        for (int i = 0; i < 19; i++)
+            za.putBoolean(i, i % 3 == 0);
+        for (int i = 0; i < 19; i++)
+            assertEquals(i % 3 == 0, za.getBoolean(i));
+    }
+
+    @Test
+    public void testDouble() {
+        LayoutFactory lf = new LayoutFactory();
+        ArrayLayout<Double> al = lf.array(Double.class, 5);
+        DoubleArrayLocation da = DoubleArrayLocation.of(al.allocate());
+        for (int i = 0; i < 5; i++)
+            da.putDouble(i, i + 0.25);
+        for (int i = 0; i < 5; i++)
+            assertEquals(i + 0.25, da.getDouble(i), 0.0);
+        assertEquals(4.25, da.val()[4], 0.0);
+    }
+
+    @Test
+    public void testBulkCopy() {
+        LayoutFactory lf = new LayoutFactory();
+        ArrayLayout<Double> al = lf.array(Double.class, 100);
+        testBulkCopy_common(al.allocate());
+        testBulkCopy_common(al.allocateWithinArray());
+    }
+
+    private void testBulkCopy_common(ArrayLocation<Double> a) {
+        double[] src = new double[50];
+        for (int i = 0; i < src.length; i++)
+            src[i] = i * 0.5;
+        a.copyFrom(src, 10, 60, 40);
+        for (int i = 0; i < 40; i++)
+            assertEquals((10 + i) * 0.5, a.val(60 + i), 0.0);
+        double[] dst = new double[42];
+        a.copyTo(dst, 1, 60, 40);
+        assertEquals(0.0, dst[0], 0.0);
+        for (int i = 0; i < 40; i++)
+            assertEquals((10 + i) * 0.5, dst[1 + i], 0.0);
+        assertEquals(0.0, dst[41], 0.0);
+        try {
+            a.copyFrom(src, 0, 70, 31);
+            fail("Did not see expected exception");
+        } catch (ArrayIndexOutOfBoundsException ex) {
+
+        }
+        try {
+            a.copyTo(dst, 2, 0, 41);
+            fail("Did not see expected exception");
+        } catch (ArrayIndexOutOfBoundsException ex) {
+
+        }
+    }
+
+    @Test
+    public void testBulkCopyBitfield() {
+        LayoutFactory lf = new LayoutFactory();
+        for (int w = 1; w < 32; w++) {
+            ArrayLayout<Integer> al =
+                    lf.array(lf.bitfieldLayoutFor(Integer.class, -w), 77);
+            ArrayLocation<Integer> a = al.allocate();
+            int lim = 1 << (w - 1);
+            for (int i = 0; i < 77; i++)
+                a.put(i, lim - 1 - i % (2 * lim));
+            int[] src = new int[20];
+            for (int i = 0; i < src.length; i++)
+                src[i] = -lim + i % (2 * lim);
+            a.copyFrom(src, 0, 13, 20);
+            int[] dst = new int[77];
+            a.copyTo(dst, 0, 0, 77);
+            for (int i = 0; i < 77; i++) {
+                int expected = i >= 13 && i < 33 ? src[i - 13] :
+                                                   lim - 1 - i % (2 * lim);
+                assertEquals("width " + w + " element " + i, expected, dst[i]);
+                assertEquals("width " + w + " element " + i, expected,
+                             a.val(i).intValue());
+            }
+        }
+    }
+
+    @Test
+    public void testBitfieldWholeArray() {
+        LayoutFactory lf = new LayoutFactory();
+        for (int w = 1; w < 64; w++) {
+            ArrayLayout<Long> al =
+                    lf.array(lf.bitfieldLayoutFor(Long.class, -w), 301);
+            ArrayLocation<Long> a = al.allocate();
+            long lim = 1L << (w - 1);
+            Long[] src = new Long[301];
+            for (int i = 0; i < src.length; i++)
+                src[i] = (i * 0x9E3779B97F4A7C15L) % lim;
+            a.put(src);
+            Long[] dst = a.val();
+            for (int i = 0; i < 301; i++) {
+                assertEquals("width " + w + " element " + i, src[i], dst[i]);
+                assertEquals("width " + w + " element " + i, src[i], a.val(i));
+            }
+            // Starting mid-word, where whole words and single containers mix.
+            long[] part = new long[250];
+            a.copyTo(part, 0, 51, 250);
+            for (int i = 0; i < 250; i++)
+                assertEquals("width " + w + " element " + (51 + i),
+                             src[51 + i].longValue(), part[i]);
+        }
+    }
+
+    @Test
+    public void testStreams() {
+        LayoutFactory lf = new LayoutFactory();
+        ArrayLayout<Integer> al =
+                lf.array(lf.bitfieldLayoutFor(Integer.class, -11), 100003);
+        ArrayLocation<Integer> a = al.allocate();
+        long sum = 0;
+        for (int i = 0; i < 100003; i++) {
+            a.put(i, i % 2000 - 1000);
+            sum += i % 2000 - 1000;
+        }
+        assertEquals(sum, a.intStream().asLongStream().sum());
+        assertEquals(sum, a.intStream().parallel().asLongStream().sum());
+        assertEquals(100003, a.stream().parallel().count());
+
+        final AtomicLong boxed_sum = new AtomicLong();
+        a.stream().parallel().forEach(new Consumer<Integer>() {
+            public void accept(Integer v) {
+                boxed_sum.addAndGet(v);
+            }
+        });
+        assertEquals(sum, boxed_sum.get());
+
+        Spliterator<Integer> s = a.spliterator();
+        Spliterator<Integer> low = s.trySplit();
+        assertEquals(100003, low.estimateSize() + s.estimateSize());
+        assertTrue(s.hasCharacteristics(Spliterator.SUBSIZED));
+
+        ArrayLayout<Float> fl = lf.array(Float.class, 1000);
+        ArrayLocation<Float> f = fl.allocateWithinArray();
+        for (int i = 0; i < 1000; i++)
+            f.put(i, i + 0.5f);
+        assertEquals(500000.0, f.doubleStream().parallel().sum(), 0.0);
+
+        ArrayLayout<Short> sl = lf.array(Short.class, 10);
+        boolean thrown = false;
+        try {
+            sl.allocate().longStream();
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Shorts are not a long stream", thrown);
+    }
+
+    @Test
+    public void testWrongElementLayout() {
+        LayoutFactory lf = new LayoutFactory();
+        ArrayLayout<Integer> al = lf.array(lf.opaque(Integer.class), 3);
+        boolean thrown = false;
+        try {
+            IntArrayLocation.of(al.allocate());
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Opaque pointers are not int elements", thrown);
+    }
+
+    @Test
+    public void testConcurrentBitfieldCounters() throws InterruptedException {
+        LayoutFactory lf = new LayoutFactory(true);
+        // 7-bit fields straddle ints and 8-byte words.
+        ArrayLayout<Integer> al =
+                lf.array(lf.bitfieldLayoutFor(Integer.class, 7), 200);
+        final IntArrayLocation ia = IntArrayLocation.of(al.allocate());
+        ia.copyFrom(new int[200], 0, 0, 200); // native memory is not zeroed
+        final int threads = 4;
+        final int rounds = 30;
+        Thread[] ts = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            ts[t] = new Thread() {
+                public void run() {
+                    for (int r = 0; r < rounds; r++)
+                        for (int i = 0; i < 200; i++)
+                            ia.getAndAddInt(i, 1);
+                }
+            };
+        }
+        for (Thread t : ts)
+            t.start();
+        for (Thread t : ts)
+            t.join();
+        for (int i = 0; i < 200; i++)
+            assertEquals("element " + i, threads * rounds, ia.getInt(i));
+        assertTrue(ia.compareAndSetInt(5, threads * rounds, 3));
+        assertFalse(ia.compareAndSetInt(5, threads * rounds, 4));
+        assertEquals(3, ia.getInt(5));
+        assertEquals(3, ia.getAndAddInt(5, -4));
+        assertEquals(127, ia.getInt(5));
+    }
+
+    @Test
+    public void testConcurrentBitfieldStores() throws InterruptedException {
+        LayoutFactory lf = new LayoutFactory(true);
+        ArrayLayout<Long> al =
+                lf.array(lf.bitfieldLayoutFor(Long.class, -13), 500);
+        final LongArrayLocation la = LongArrayLocation.of(al.allocate());
+        final int threads = 4;
+        Thread[] ts = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int first = t;
+            ts[t] = new Thread() {
+                public void run() {
+                    for (int r = 0; r < 20; r++) {
+                        for (int i = 3 * threads + first; i < 500; i += threads)
+                            la.putLong(i, i - r - 250);
+                        // Bulk stores share containers at both ends.
+                        long[] src = { -1, -2, -3 };
+                        la.copyFrom(src, 0, 3 * first, 3);
+                    }
+                }
+            };
+        }
+        for (Thread t : ts)
+            t.start();
+        for (Thread t : ts)
+            t.join();
+        for (int i = 0; i < 500; i++) {
+            long expected = i < 3 * threads ? -1 - i % 3 : i - 19 - 250;
+            assertEquals("element " + i, expected, la.getLong(i));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype_test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.openjdk.sumatra.data.prototype.ArrayLayout;
+import org.openjdk.sumatra.data.prototype.ArrayLocation;
+import org.openjdk.sumatra.data.prototype.Layout;
+import org.openjdk.sumatra.data.prototype.LayoutFactory;
+import org.openjdk.sumatra.data.prototype.Location;
+import org.openjdk.sumatra.data.prototype.Scope;
+
+public class TestScope extends TestCommon {
+
+    public static class IP1 {
+        int a;
+        long b;
+        IP1(int a, long b){this.a = a; this.b = b; }
+        public Integer a() { return a; }
+        public Long b() { return b; }
+        public static IP1 valueOf(Integer a, Long b) {
+            return new IP1(a.intValue(), b.longValue());
+        }
+    }
+
+    @Test
+    public void testAllocate() {
+        LayoutFactory lf = new LayoutFactory();
+        Layout<Byte> b_layout = lf.layoutFor(Byte.class);
+        Layout<IP1> ip1_layout = lf.tuple(IP1.class, "a", "b");
+        ArrayLayout<Integer> ar_layout = lf.array(Integer.class, 10);
+
+        try (Scope s = Scope.open(256)) {
+            for (int i = 0; i < 50; i++) {
+                Location<Byte> b_loc = s.allocate(b_layout);
+                b_loc.put((byte) i);
+                Location<IP1> loc = s.allocate(ip1_layout);
+                assertEquals("Alignment of tuple", 0,
+                             loc.addr() % ip1_layout.byteAlign());
+                loc.put(new IP1(i, -i));
+                ArrayLocation<Integer> ar_loc = s.allocate(ar_layout);
+                ar_loc.put(9, i);
+
+                assertEquals(i, b_loc.val().byteValue());
+                assertEquals(i, loc.val().a);
+                assertEquals(-i, loc.val().b);
+                assertEquals(i, ar_loc.val(9).intValue());
+            }
+            assertTrue(s.bytesAllocated() >= 50 * (1 + 16 + 40));
+            s.reset();
+            assertEquals(0, s.bytesAllocated());
+            // Larger than a chunk
+            ArrayLocation<Integer> big = s.allocate(lf.array(Integer.class, 1000));
+            big.put(999, 17);
+            assertEquals(17, big.val(999).intValue());
+        }
+    }
+
+    @Test
+    public void testClosed() {
+        LayoutFactory lf = new LayoutFactory();
+        Scope s = Scope.open();
+        s.allocate(lf.layoutFor(Integer.class));
+        s.close();
+        s.close();
+        boolean thrown = false;
+        try {
+            s.allocate(lf.layoutFor(Integer.class));
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Allocation from a closed scope", thrown);
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package org.openjdk.sumatra.data.prototype_test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.openjdk.sumatra.data.prototype.ArrayLocation;
+import org.openjdk.sumatra.data.prototype.LayoutFactory;
+import org.openjdk.sumatra.data.prototype.Location;
+import org.openjdk.sumatra.data.prototype.TupleLayout;
+import org.openjdk.sumatra.data.prototype.TupleTranscoder;
+
+public class TestTupleTranscoder extends TestCommon {
+
+    public static class Vec {
+        final double x;
+        final double y;
+        Vec(double x, double y) {
+            this.x = x; this.y = y;
+        }
+        public double x() { return x; }
+        public double y() { return y; }
+        public static Vec valueOf(double x, double y) {
+            return new Vec(x, y);
+        }
+    }
+
+    // Version 1 of a record.
+    public static class Old {
+        final long id;
+        final int level;
+        final float value;
+        final Vec pos;
+        final boolean live;
+        Old(long id, int level, float value, Vec pos, boolean live) {
+            this.id = id; this.level = level; this.value = value; this.pos = pos;
+            this.live = live;
+        }
+        public long id() { return id; }
+        public int level() { return level; }
+        public float value() { return value; }
+        public Vec pos() { return pos; }
+        public boolean live() { return live; }
+        public static Old valueOf(long id, int level, float value, Vec pos, boolean live) {
+            return new Old(id, level, value, pos, live);
+        }
+    }
+
+    // Version 2: reordered, level wider, value a double, live dropped,
+    // and two fields added.
+    public static class New {
+        final Vec pos;
+        final short flags;
+        final long id;
+        final long level;
+        final double value;
+        final Integer[] history;
+        New(Vec pos, short flags, long id, long level, double value, Integer[] history) {
+            this.pos = pos; this.flags = flags; this.id = id; this.level = level;
+            this.value = value; this.history = history;
+        }
+        public Vec pos() { return pos; }
+        public short flags() { return flags; }
+        public long id() { return id; }
+        public long level() { return level; }
+        public double value() { return value; }
+        public Integer[] history() { return history; }
+        public static New valueOf(Vec pos, short flags, long id, long level,
+                                  double value, Integer[] history) {
+            return new New(pos, flags, id, level, value, history);
+        }
+    }
+
+    public static class Narrow {
+        final int id;
+        Narrow(int id) {
+            this.id = id;
+        }
+        public int id() { return id; }
+        public static Narrow valueOf(int id) {
+            return new Narrow(id);
+        }
+    }
+
+    public static class Bits {
+        final int v;
+        Bits(int v) {
+            this.v = v;
+        }
+        public int v() { return v; }
+        public static Bits valueOf(int v) {
+            return new Bits(v);
+        }
+    }
+
+    private static TupleLayout<Bits> bits(String v) {
+        return (TupleLayout<Bits>) new LayoutFactory().tuple(Bits.class, v);
+    }
+
+    @Test
+    public void testMigrate() {
+        LayoutFactory lf = new LayoutFactory();
+        lf.tuple(Vec.class, "x", "y");
+        TupleLayout<Old> from = (TupleLayout<Old>)
+                lf.tuple(Old.class, "id", "level:-6", "value", "pos", "live:1");
+        TupleLayout<New> to = (TupleLayout<New>)
+                lf.tuple(New.class, "pos", "flags:3", "id", "level:-40", "value", "history[4]");
+        TupleTranscoder<Old, New> tc = TupleTranscoder.of(from, to);
+
+        ArrayLocation<Old> a = lf.array(from, 500).allocate();
+        for (int i = 0; i < 500; i++)
+            a.put(i, Old.valueOf(i * 3L, i % 64 - 32, i * 0.25f,
+                                 Vec.valueOf(i, -i), i % 2 == 0));
+        ArrayLocation<New> b = lf.array(to, 500).allocateWithinArray();
+        // Old contents of the destination are overwritten, added fields too.
+        for (int i = 0; i < 500; i++)
+            b.put(i, New.valueOf(Vec.valueOf(9, 9), (short) 7, 9, 9, 9,
+                                 new Integer[] { 9, 9, 9, 9 }));
+        tc.transcode(a, b);
+        for (int i = 0; i < 500; i++) {
+            New n = b.val(i);
+            assertEquals(i * 3L, n.id());
+            assertEquals(i % 64 - 32, n.level());
+            assertEquals(i * 0.25, n.value(), 0.0);
+            assertEquals(i, n.pos().x(), 0.0);
+            assertEquals(-i, n.pos().y(), 0.0);
+            assertEquals(0, n.flags());
+            assertArrayEquals(new Integer[] { 0, 0, 0, 0 }, n.history());
+        }
+
+        Location<New> one = to.allocate();
+        tc.transcode(a.<Old>loc(11), one);
+        assertEquals(33L, one.val().id());
+        ArrayLocation<New> c = lf.array(to, 10).allocate();
+        tc.transcode(a, 100, c, 2, 5);
+        assertEquals(104 * 3L, c.val(6).id());
+    }
+
+    @Test
+    public void testIdentical() {
+        LayoutFactory lf = new LayoutFactory();
+        lf.tuple(Vec.class, "x", "y");
+        TupleLayout<Old> t = (TupleLayout<Old>)
+                lf.tuple(Old.class, "id", "level:-6", "value", "pos", "live:1");
+        TupleTranscoder<Old, Old> tc = TupleTranscoder.of(t, t);
+        ArrayLocation<Old> a = lf.array(t, 100).allocateWithinArray();
+        for (int i = 0; i < 100; i++)
+            a.put(i, Old.valueOf(i, i % 32, i, Vec.valueOf(i, i), true));
+        ArrayLocation<Old> b = lf.array(t, 100).allocate();
+        tc.transcode(a, b);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 32, b.val(i).level());
+            assertEquals(i, b.val(i).pos().y(), 0.0);
+            assertTrue(b.val(i).live());
+        }
+    }
+
+    @Test
+    public void testErrors() {
+        LayoutFactory lf = new LayoutFactory();
+        lf.tuple(Vec.class, "x", "y");
+        TupleLayout<Old> from = (TupleLayout<Old>)
+                lf.tuple(Old.class, "id", "level:-6", "value", "pos", "live:1");
+        TupleLayout<Narrow> narrow = (TupleLayout<Narrow>) lf.tuple(Narrow.class, "id");
+        boolean thrown = false;
+        try {
+            TupleTranscoder.of(from, narrow);
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("long to int needs a cast", thrown);
+        thrown = false;
+        try {
+            TupleTranscoder.of(bits("v:-12"), bits("v:3"));
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Narrower bitfield", thrown);
+        thrown = false;
+        try {
+            TupleTranscoder.of(bits("v:-5"), bits("v:8"));
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Signed to unsigned bitfield", thrown);
+        thrown = false;
+        try {
+            TupleTranscoder.of(bits("v:8"), bits("v:-8"));
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Unsigned to signed bitfield of the same width", thrown);
+        // Wider is fine.
+        TupleTranscoder.of(bits("v:8"), bits("v:-9"));
+        TupleTranscoder.of(bits("v:-5"), bits("v"));
+
+        TupleTranscoder<Narrow, Old> widen = TupleTranscoder.of(narrow, from);
+        thrown = false;
+        try {
+            widen.transcode(lf.array(narrow, 10).allocate(), lf.array(from, 11).allocate());
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Lengths differ", thrown);
+        thrown = false;
+        try {
+            widen.transcode(lf.array(narrow, 10).allocate(), 5,
+                            lf.array(from, 10).allocate(), 0, 6);
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            thrown = true;
+        }
+        assertTrue("Range past the end", thrown);
+        thrown = false;
+        try {
+            widen.transcode(lf.array(narrow, 10).allocate(),
+                            lf.columnArray(Old.class, 10).allocate());
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Column arrays are not supported", thrown);
+        thrown = false;
+        try {
+            widen.transcode(new LayoutFactory().tuple(Narrow.class, "id").allocate(),
+                            from.allocate());
+        } catch (Error ex) {
+            thrown = true;
+        }
+        assertTrue("Source of another layout", thrown);
+    }
+}